@@ -0,0 +1,66 @@
+package de.frauas.scs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the summed hormonal effect per tick with a steady number of
+ * overlapping injections.
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BloodStreamBenchmark {
+
+	/**
+	 * Action of a rapid acting insulin over 6h at a 100ms tick
+	 */
+	private final static AbsorptionCurve INSULIN_ACTION = AbsorptionCurve.ofInsulinAction(45000, 216000);
+
+	@Param({ "10", "100", "1000" })
+	private int activeInjections;
+
+	private BloodStream bloodStream;
+
+	private int injectionInterval;
+
+	private long tick;
+
+	@Setup
+	public void setup()
+	{
+		bloodStream = new BloodStream(64);
+		injectionInterval = INSULIN_ACTION.getTotalTicks() / activeInjections;
+		// fill the timeline until the number of active injections is steady
+		for (int i = 0; i < INSULIN_ACTION.getTotalTicks(); i++)
+		{
+			getHormonalEffect();
+		}
+	}
+
+	@Benchmark
+	public double getHormonalEffect()
+	{
+		if (tick++ % injectionInterval == 0)
+		{
+			bloodStream.injectHormone(INSULIN_ACTION, -1);
+		}
+		return bloodStream.getHormonalEffect();
+	}
+
+}
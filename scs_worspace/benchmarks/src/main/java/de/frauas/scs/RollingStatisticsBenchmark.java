@@ -0,0 +1,63 @@
+package de.frauas.scs;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures adding a sample to a full window and reading its statistics. The
+ * cost must not depend on the size of the window.
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RollingStatisticsBenchmark {
+
+	private final static long SAMPLE_INTERVAL_IN_MILLIS = 1000;
+
+	private final SplittableRandom random = new SplittableRandom(42);
+
+	private RollingStatistics statistics;
+
+	private long timestampInMillis;
+
+	@Param({ "5", "15", "60" })
+	private int windowInMinutes;
+
+	@Setup
+	public void setup()
+	{
+		long windowInMillis = windowInMinutes * 60 * 1000L;
+		statistics = new RollingStatistics(windowInMillis, SAMPLE_INTERVAL_IN_MILLIS);
+		// fill the window, so each sample evicts the oldest one
+		while (timestampInMillis < windowInMillis)
+		{
+			add();
+		}
+	}
+
+	@Benchmark
+	public double add()
+	{
+		timestampInMillis += SAMPLE_INTERVAL_IN_MILLIS;
+		statistics.add(timestampInMillis, 4 + random.nextDouble() * 8);
+		return statistics.getMean() + statistics.getVariance()
+				+ statistics.getSlopePerMinute() + statistics.getMin() + statistics.getMax();
+	}
+
+}
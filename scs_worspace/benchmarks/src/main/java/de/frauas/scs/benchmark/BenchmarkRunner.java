@@ -0,0 +1,27 @@
+package de.frauas.scs.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks with the gc profiler, so the allocation rate of each
+ * hot path is reported next to its throughput and average time. The usual
+ * JMH command line options can be passed (e.g. a regular expression to
+ * select benchmarks).
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException,
+			CommandLineOptionException
+	{
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder().parent(commandLineOptions)
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
@@ -0,0 +1,90 @@
+package de.frauas.scs.event;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures publishing a batch of samples and handling it in one poll, and
+ * publishing from several threads while nobody polls, i.e. while the
+ * subscriber falls behind and loses events instead of blocking the
+ * producers.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventBusBenchmark {
+
+	private EventBus bus;
+
+	@Param({ "1", "16" })
+	private int batchSize;
+
+	private Blackhole blackhole;
+
+	private EventHandler handler;
+
+	private EventBus.Subscription subscription;
+
+	private long timestampInMillis;
+
+	@Setup
+	public void setup(final Blackhole blackhole)
+	{
+		this.blackhole = blackhole;
+		bus = new EventBus(1024);
+		subscription = bus.subscribe("benchmark");
+		handler = new EventHandler() {
+			@Override
+			public void onSample(long timestampInMillis, double glucoseLevel)
+			{
+				blackhole.consume(glucoseLevel);
+			}
+		};
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		System.out.println("Lost events: " + subscription.getLostEvents());
+	}
+
+	@Benchmark
+	public int publishAndPoll()
+	{
+		for (int i = 0; i < batchSize; i++)
+		{
+			bus.publishSample(timestampInMillis++, 5.5);
+		}
+		return subscription.poll(handler);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public long publishContended()
+	{
+		for (int i = 0; i < batchSize; i++)
+		{
+			bus.publishSample(0, 5.5);
+		}
+		return subscription.getLag();
+	}
+
+}
@@ -0,0 +1,56 @@
+package de.frauas.scs.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures recording one tick into the metrics, i.e. the overhead which a
+ * measured pump adds to each tick, from one thread (shared scheduler) and
+ * from several threads (virtual threads), and reading a snapshot through
+ * JMX.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PumpMetricsBenchmark {
+
+	private final PumpMetrics metrics = new PumpMetrics();
+
+	private long value;
+
+	@Benchmark
+	public HistogramSnapshot readTickDuration()
+	{
+		return metrics.getTickDuration();
+	}
+
+	@Benchmark
+	public void recordTick()
+	{
+		// spreads the values over the buckets like real latencies
+		long duration = (value++ * 7919) & 0xFFFFF;
+		metrics.recordTick(duration >> 4, duration, 100000000);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void recordTickConcurrently()
+	{
+		recordTick();
+	}
+
+}
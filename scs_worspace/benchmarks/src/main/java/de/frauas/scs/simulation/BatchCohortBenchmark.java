@@ -0,0 +1,114 @@
+package de.frauas.scs.simulation;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.frauas.scs.exception.SimulationException;
+
+/**
+ * Compares one time slice of a cohort of PID patients, stepped in a
+ * {@link BatchCohortSimulation} and stepped one {@link HeadlessSimulation}
+ * after another. Both simulate the same patients.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BatchCohortBenchmark {
+
+	/**
+	 * Cohort of a {@link BatchCohortSimulation}
+	 */
+	@State(Scope.Thread)
+	public static class BatchState {
+
+		private BatchCohortSimulation batch;
+
+		@Param({ "10000" })
+		private int patients;
+
+		@Param({ "ADDITIVE", "BERGMAN" })
+		private PlantModelType plantModelType;
+
+		@Setup
+		public void setup()
+		{
+			batch = new BatchCohortSimulation(createProfiles(patients, plantModelType));
+		}
+	}
+
+	/**
+	 * Cohort of one {@link HeadlessSimulation} for each patient. A
+	 * simulation holds its own blood stream and statistics, so 10000 patients
+	 * need about 1.5 GB.
+	 */
+	@State(Scope.Thread)
+	public static class ObjectState {
+
+		@Param({ "10000" })
+		private int patients;
+
+		@Param({ "ADDITIVE", "BERGMAN" })
+		private PlantModelType plantModelType;
+
+		private HeadlessSimulation[] simulations;
+
+		@Setup
+		public void setup()
+		{
+			PatientProfile[] profiles = createProfiles(patients, plantModelType);
+			simulations = new HeadlessSimulation[patients];
+			for (int i = 0; i < patients; i++)
+			{
+				simulations[i] = new HeadlessSimulation(profiles[i]);
+			}
+		}
+	}
+
+	private final static double HOURS = 24;
+
+	private static PatientProfile[] createProfiles(int patients, PlantModelType plantModelType)
+	{
+		PatientProfile[] profiles = new PatientProfile[patients];
+		SplittableRandom random = new SplittableRandom(42);
+		for (int i = 0; i < patients; i++)
+		{
+			profiles[i] = CohortSimulation.createRandomProfile(random.split(), HOURS);
+			profiles[i].setDosingAlgorithm(DosingAlgorithmType.PID);
+			profiles[i].setPlantModel(plantModelType);
+		}
+		return profiles;
+	}
+
+	@Benchmark
+	public double stepBatch(BatchState state)
+	{
+		state.batch.step();
+		return state.batch.getGlucoseLevel(0);
+	}
+
+	@Benchmark
+	public double stepObjects(ObjectState state) throws SimulationException
+	{
+		for (HeadlessSimulation simulation : state.simulations)
+		{
+			simulation.step();
+		}
+		return state.simulations[0].getLastGlucoseLevel();
+	}
+
+}
@@ -0,0 +1,57 @@
+package de.frauas.scs.simulation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.frauas.scs.AbsorptionCurve;
+import de.frauas.scs.BloodStream;
+
+/**
+ * Measures the calculation of a meal and the sampling of its absorption
+ * curve (formerly the generation of the offset series).
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GlucoseLevelModelBenchmark {
+
+	private GlucoseLevelModel glucoseLevelModel;
+
+	private double kcal = 500;
+
+	private long tick;
+
+	@Setup
+	public void setup()
+	{
+		glucoseLevelModel = new GlucoseLevelModel(new BloodStream(64));
+	}
+
+	@Benchmark
+	public double calculateGlucoseLevelIncrease()
+	{
+		return glucoseLevelModel.calculateGlucoseLevelIncrease_Mmol_L(kcal);
+	}
+
+	@Benchmark
+	public double sampleIntakeCurve()
+	{
+		AbsorptionCurve curve = glucoseLevelModel.getIntakeCurve(kcal);
+		return curve.getRateAt(tick++ % curve.getTotalTicks(), 1);
+	}
+
+}
@@ -0,0 +1,51 @@
+package de.frauas.scs.simulation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.frauas.scs.exception.SimulationException;
+
+/**
+ * Measures a full simulated day of one patient with three meals.
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HeadlessSimulationBenchmark {
+
+	private final static long ONE_DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+	private PatientProfile profile;
+
+	@Setup
+	public void setup()
+	{
+		profile = new PatientProfile();
+		profile.addMeal(7 * 60 * 60 * 1000, 600);
+		profile.addMeal(12 * 60 * 60 * 1000, 900);
+		profile.addMeal(19 * 60 * 60 * 1000, 800);
+	}
+
+	@Benchmark
+	public double simulateDay() throws SimulationException
+	{
+		HeadlessSimulation simulation = new HeadlessSimulation(profile);
+		simulation.runFor(ONE_DAY_IN_MILLIS);
+		return simulation.getLastGlucoseLevel();
+	}
+
+}
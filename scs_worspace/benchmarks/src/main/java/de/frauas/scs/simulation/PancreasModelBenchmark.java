@@ -0,0 +1,77 @@
+package de.frauas.scs.simulation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.frauas.scs.BloodStream;
+
+/**
+ * Measures one step of the controller with each dosing algorithm. Each step
+ * analyzes a new glucose level and may inject a dose, which is handed over to
+ * the blood stream in the same invocation so the number of active doses stays
+ * steady.
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PancreasModelBenchmark {
+
+	private BloodStream bloodStream;
+
+	@Param({ "LEGACY", "PID", "MPC" })
+	private DosingAlgorithmType dosingAlgorithm;
+
+	/**
+	 * 12 mmol/L causes an insulin injection, 4.5 mmol/L a glucagon injection
+	 */
+	@Param({ "12", "4.5" })
+	private double glucoseLevel;
+
+	private PancreasModel pancreasModel;
+
+	private long timestampInMillis;
+
+	@Setup
+	public void setup()
+	{
+		bloodStream = new BloodStream(64);
+		pancreasModel = new PancreasModel(bloodStream, new HeadlessSimulation());
+		pancreasModel.setDosingAlgorithm(dosingAlgorithm);
+		// the first two values out of range initialize the legacy controller
+		for (int i = 0; i < 2; i++)
+		{
+			step();
+		}
+	}
+
+	@Benchmark
+	public Object generateBalancingCurve()
+	{
+		return pancreasModel.generateBalancingCurve(100d);
+	}
+
+	@Benchmark
+	public double step()
+	{
+		bloodStream.getGlucoseLevelRing().add(timestampInMillis, glucoseLevel);
+		timestampInMillis += PancreasModel.SIMULATION_STEPS_IN_MILLIS;
+		pancreasModel.step();
+		return bloodStream.getHormonalEffect();
+	}
+
+}
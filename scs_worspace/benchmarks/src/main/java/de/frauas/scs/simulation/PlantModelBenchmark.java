@@ -0,0 +1,75 @@
+package de.frauas.scs.simulation;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures one time slice of a cohort of plants, e.g. 10000 patients of the
+ * Bergman model, each with its own body weight and insulin sensitivity. A
+ * simulated hour of a patient are 36000 slices.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PlantModelBenchmark {
+
+	@Param({ "10000" })
+	private int patients;
+
+	@Param({ "ADDITIVE", "BERGMAN" })
+	private PlantModelType plantModelType;
+
+	private PlantModel[] plants;
+
+	private long tick;
+
+	@Setup
+	public void setup()
+	{
+		SplittableRandom random = new SplittableRandom(42);
+		plants = new PlantModel[patients];
+		for (int i = 0; i < patients; i++)
+		{
+			PatientProfile profile = new PatientProfile();
+			profile.setBodyWeightInKg(50 + random.nextDouble() * 60);
+			profile.setInsulinSensitivity(BergmanPlantModel.DEFAULT_INSULIN_SENSITIVITY
+					* Math.pow(2, random.nextDouble() * 2 - 1));
+			plants[i] = plantModelType.newInstance(profile);
+		}
+	}
+
+	/**
+	 * Steps all plants with a meal in every 1000th slice and an insulin dose
+	 * in every 100th slice
+	 */
+	@Benchmark
+	public double stepCohort()
+	{
+		tick++;
+		double glucoseAppearance = tick % 1000 == 0 ? 0.5 : 0;
+		double hormonalEffect = tick % 100 == 0 ? -0.01 : 0;
+		double sum = 0;
+		for (PlantModel plant : plants)
+		{
+			sum += plant.step(glucoseAppearance, hormonalEffect);
+		}
+		return sum;
+	}
+
+}
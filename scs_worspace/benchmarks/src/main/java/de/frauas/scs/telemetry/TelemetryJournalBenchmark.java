@@ -0,0 +1,74 @@
+package de.frauas.scs.telemetry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of appending a record to the journal, including the
+ * rollover to prepared segments. The journal is written into a temporary
+ * directory.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TelemetryJournalBenchmark {
+
+	private Path directory;
+
+	private TelemetryJournal journal;
+
+	private long timestampInMillis;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		directory = Files.createTempDirectory("telemetry-benchmark");
+		journal = new TelemetryJournal(directory.resolve("journal"));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		journal.close();
+		System.out.println("Dropped records: " + journal.getDroppedRecords());
+		try (Stream<Path> files = Files.walk(directory))
+		{
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public boolean recordGlucoseSample()
+	{
+		return journal.record(TelemetryRecordType.GLUCOSE_SAMPLE, timestampInMillis++, 0, 5.5, 0);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean recordGlucoseSampleContended()
+	{
+		return journal.record(TelemetryRecordType.GLUCOSE_SAMPLE, 0, 0, 5.5, 0);
+	}
+
+}
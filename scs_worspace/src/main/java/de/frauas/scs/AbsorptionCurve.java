@@ -0,0 +1,192 @@
+package de.frauas.scs;
+
+/**
+ * Describes how a dose (of a hormone or a meal) is absorbed into the blood
+ * over time. The curve is piecewise linear: each segment starts with a rate
+ * per tick which changes by a constant slope in each tick of the segment. The
+ * area under the curve is 1, so the effect of a dose is the curve scaled by
+ * its magnitude.
+ * <p>
+ * The curve is never materialized, it is evaluated when it is sampled.
+ * Therefore its memory does not depend on its duration and a curve is
+ * immutable and can be shared by any number of doses.
+ *
+ */
+public class AbsorptionCurve {
+
+	/**
+	 * Creates a curve which releases a share of the dose evenly distributed
+	 * in each segment.
+	 *
+	 * @param segmentTicks
+	 *            Duration of each segment in ticks
+	 * @param segmentShares
+	 *            Share of the dose released in each segment
+	 * @return The new curve
+	 */
+	public static AbsorptionCurve ofConstantSegments(int[] segmentTicks,
+			double[] segmentShares)
+	{
+		if (segmentTicks.length != segmentShares.length)
+		{
+			throw new IllegalArgumentException("Each segment needs a duration and a share");
+		}
+		double[] startRates = new double[segmentTicks.length];
+		double[] slopes = new double[segmentTicks.length];
+		for (int i = 0; i < segmentTicks.length; i++)
+		{
+			if (segmentTicks[i] > 0)
+			{
+				startRates[i] = segmentShares[i] / segmentTicks[i];
+			}
+		}
+		return new AbsorptionCurve(segmentTicks, startRates, slopes, 1);
+	}
+
+	/**
+	 * Creates a curve which connects the given points linearly. The points are
+	 * relative, the curve is scaled so that its area is 1.
+	 *
+	 * @param segmentTicks
+	 *            Duration of each segment in ticks
+	 * @param points
+	 *            Relative rate at the start of each segment and at the end of
+	 *            the last segment (one more than segments)
+	 * @return The new curve
+	 */
+	public static AbsorptionCurve ofLinearSegments(int[] segmentTicks,
+			double[] points)
+	{
+		if (segmentTicks.length + 1 != points.length)
+		{
+			throw new IllegalArgumentException("Each segment needs a start and an end point");
+		}
+		double[] startRates = new double[segmentTicks.length];
+		double[] slopes = new double[segmentTicks.length];
+		double area = 0;
+		for (int i = 0; i < segmentTicks.length; i++)
+		{
+			int ticks = segmentTicks[i];
+			if (ticks > 0)
+			{
+				startRates[i] = points[i];
+				slopes[i] = (points[i + 1] - points[i]) / ticks;
+				area += ticks * startRates[i] + slopes[i] * ticks * (ticks - 1) / 2d;
+			}
+		}
+		return new AbsorptionCurve(segmentTicks, startRates, slopes, 1 / area);
+	}
+
+	/**
+	 * Creates a typical action curve of a rapid acting insulin: the action
+	 * rises linearly until its peak and then decays linearly until it is
+	 * completely absorbed (e.g. peak after 75min, duration 6 - 8h).
+	 *
+	 * @param peakTicks
+	 *            Ticks until the action reaches its peak
+	 * @param durationTicks
+	 *            Ticks until the insulin is completely absorbed
+	 * @return The new curve
+	 */
+	public static AbsorptionCurve ofInsulinAction(int peakTicks,
+			int durationTicks)
+	{
+		return ofLinearSegments(new int[] { peakTicks, durationTicks - peakTicks },
+				new double[] { 0, 1, 0 });
+	}
+
+	private final double[] slopes;
+
+	private final double[] startRates;
+
+	private final int[] segmentTicks;
+
+	private final int totalTicks;
+
+	private AbsorptionCurve(int[] segmentTicks, double[] startRates,
+			double[] slopes, double scale) {
+		this.segmentTicks = segmentTicks.clone();
+		this.startRates = new double[startRates.length];
+		this.slopes = new double[slopes.length];
+		int ticks = 0;
+		for (int i = 0; i < segmentTicks.length; i++)
+		{
+			this.startRates[i] = startRates[i] * scale;
+			this.slopes[i] = slopes[i] * scale;
+			ticks += Math.max(0, segmentTicks[i]);
+		}
+		this.totalTicks = ticks;
+	}
+
+	public int getNumberOfSegments()
+	{
+		return segmentTicks.length;
+	}
+
+	/**
+	 * Samples the curve
+	 *
+	 * @param tick
+	 *            Tick since the start of the dose
+	 * @param magnitude
+	 *            Total amount of the dose
+	 * @return Effect of the dose in the given tick
+	 */
+	public double getRateAt(long tick, double magnitude)
+	{
+		if (tick < 0)
+		{
+			return 0;
+		}
+		long segmentStart = 0;
+		for (int segment = 0; segment < segmentTicks.length; segment++)
+		{
+			int ticks = segmentTicks[segment];
+			if (ticks > 0 && tick < segmentStart + ticks)
+			{
+				return magnitude * (startRates[segment] + slopes[segment]
+						* (tick - segmentStart));
+			}
+			segmentStart += Math.max(0, ticks);
+		}
+		return 0;
+	}
+
+	/**
+	 * @param segment
+	 *            Index of the segment
+	 * @param magnitude
+	 *            Total amount of the dose
+	 * @return Effect in the first tick of the segment
+	 */
+	public double getRatePerTick(int segment, double magnitude)
+	{
+		return magnitude * startRates[segment];
+	}
+
+	public int getSegmentTicks(int segment)
+	{
+		return segmentTicks[segment];
+	}
+
+	/**
+	 * @param segment
+	 *            Index of the segment
+	 * @param magnitude
+	 *            Total amount of the dose
+	 * @return Change of the effect from one tick to the next in the segment
+	 */
+	public double getSlopePerTick(int segment, double magnitude)
+	{
+		return magnitude * slopes[segment];
+	}
+
+	/**
+	 * @return Number of ticks until the dose has taken its full effect
+	 */
+	public int getTotalTicks()
+	{
+		return totalTicks;
+	}
+
+}
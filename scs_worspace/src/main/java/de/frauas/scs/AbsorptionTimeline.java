@@ -0,0 +1,292 @@
+package de.frauas.scs;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps track of all doses (hormone injections or meals) which are absorbed
+ * into the blood and sums up their effect on the blood glucose level. Instead
+ * of materializing the effect of each tick, a dose is stored as
+ * {@link AbsorptionCurve} and translated into a few events which change the
+ * summed effect and its slope at the segment boundaries. Reading the effect
+ * of a tick therefore costs O(1) amortized, no matter how many doses are
+ * active and how long they last.
+ * <p>
+ * An overriding dose is not summed up: as long as it is absorbed, its effect
+ * replaces the effect of all other doses, and the newest overriding dose
+ * wins. The other doses keep being absorbed in the background, so the effect
+ * of the previous dose takes over again when the newest one is absorbed.
+ * <p>
+ * Doses can be added from any thread, {@link #nextEffect()} must only be
+ * called by the thread which simulates the glucose level.
+ *
+ */
+public class AbsorptionTimeline {
+
+	private static class Dose {
+
+		private final AbsorptionCurve curve;
+
+		private final boolean isOverriding;
+
+		private final double magnitude;
+
+		/**
+		 * Tick in which the dose started to take effect
+		 */
+		private long startTick;
+
+		private Dose(AbsorptionCurve curve, double magnitude, boolean isOverriding) {
+			this.curve = curve;
+			this.magnitude = magnitude;
+			this.isOverriding = isOverriding;
+		}
+	}
+
+	private volatile int activeDoses = 0;
+
+	private long currentTick = 0;
+
+	/**
+	 * Summed effect of all active doses in the current tick
+	 */
+	private double effectPerTick = 0;
+
+	/**
+	 * Summed change of the effect from one tick to the next
+	 */
+	private double slopePerTick = 0;
+
+	/**
+	 * Binary min-heap of events ordered by their tick. The change of the
+	 * effect and of the slope is stored in {@link #eventRateDeltas} and
+	 * {@link #eventSlopeDeltas}, {@link #eventEndsDose} marks the last event
+	 * of a dose.
+	 */
+	private long[] eventTicks = new long[64];
+
+	private double[] eventRateDeltas = new double[64];
+
+	private double[] eventSlopeDeltas = new double[64];
+
+	private boolean[] eventEndsDose = new boolean[64];
+
+	private int numberOfEvents = 0;
+
+	/**
+	 * Overriding doses which started to take effect, the newest one last. A
+	 * dose is removed when it is absorbed and no newer one is left.
+	 */
+	private final ArrayDeque<Dose> overridingDoses = new ArrayDeque<>();
+
+	private final ConcurrentLinkedQueue<Dose> pendingDoses = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Number of doses which started to take effect in the last tick
+	 */
+	private int startedDoses = 0;
+
+	/**
+	 * Adds a dose which starts to take effect in the next tick.
+	 *
+	 * @param curve
+	 *            Distribution of the dose over time
+	 * @param magnitude
+	 *            Total effect of the dose in mmol/L (negative for insulin)
+	 */
+	public void add(AbsorptionCurve curve, double magnitude)
+	{
+		pendingDoses.add(new Dose(curve, magnitude, false));
+	}
+
+	/**
+	 * Adds an overriding dose which starts to take effect in the next tick.
+	 * While it is absorbed, its effect replaces the effect of all doses added
+	 * before.
+	 *
+	 * @param curve
+	 *            Distribution of the dose over time
+	 * @param magnitude
+	 *            Total effect of the dose in mmol/L (negative for insulin)
+	 */
+	public void addOverriding(AbsorptionCurve curve, double magnitude)
+	{
+		pendingDoses.add(new Dose(curve, magnitude, true));
+	}
+
+	/**
+	 * @return Number of doses which are added but not fully absorbed yet
+	 */
+	public int getActiveDoses()
+	{
+		return activeDoses + pendingDoses.size();
+	}
+
+	/**
+	 * @return Number of doses which started to take effect in the last call
+	 *         of {@link #nextEffect()}, in the order in which they were added
+	 */
+	public int getStartedDoses()
+	{
+		return startedDoses;
+	}
+
+	public boolean isEmpty()
+	{
+		return activeDoses == 0 && pendingDoses.isEmpty();
+	}
+
+	/**
+	 * Advances the timeline by one tick.
+	 *
+	 * @return Summed effect of all active doses in this tick, or the effect
+	 *         of the newest overriding dose
+	 */
+	public double nextEffect()
+	{
+		startedDoses = 0;
+		Dose dose;
+		while ((dose = pendingDoses.poll()) != null)
+		{
+			schedule(dose);
+			startedDoses++;
+		}
+		while (numberOfEvents > 0 && eventTicks[0] <= currentTick)
+		{
+			effectPerTick += eventRateDeltas[0];
+			slopePerTick += eventSlopeDeltas[0];
+			if (eventEndsDose[0])
+			{
+				activeDoses--;
+			}
+			removeFirstEvent();
+		}
+		if (activeDoses == 0)
+		{
+			// avoid that rounding errors sum up
+			effectPerTick = 0;
+			slopePerTick = 0;
+		}
+		double effect = effectPerTick;
+		effectPerTick += slopePerTick;
+		Dose overridingDose;
+		while ((overridingDose = overridingDoses.peekLast()) != null)
+		{
+			long tick = currentTick - overridingDose.startTick;
+			if (tick < overridingDose.curve.getTotalTicks())
+			{
+				effect = overridingDose.curve.getRateAt(tick, overridingDose.magnitude);
+				break;
+			}
+			overridingDoses.pollLast();
+		}
+		currentTick++;
+		return effect;
+	}
+
+	private void addEvent(long tick, double rateDelta, double slopeDelta,
+			boolean endsDose)
+	{
+		if (numberOfEvents == eventTicks.length)
+		{
+			int newLength = eventTicks.length * 2;
+			eventTicks = Arrays.copyOf(eventTicks, newLength);
+			eventRateDeltas = Arrays.copyOf(eventRateDeltas, newLength);
+			eventSlopeDeltas = Arrays.copyOf(eventSlopeDeltas, newLength);
+			eventEndsDose = Arrays.copyOf(eventEndsDose, newLength);
+		}
+		int index = numberOfEvents++;
+		while (index > 0)
+		{
+			int parent = (index - 1) >>> 1;
+			if (eventTicks[parent] <= tick)
+			{
+				break;
+			}
+			copyEvent(parent, index);
+			index = parent;
+		}
+		setEvent(index, tick, rateDelta, slopeDelta, endsDose);
+	}
+
+	private void copyEvent(int from, int to)
+	{
+		setEvent(to, eventTicks[from], eventRateDeltas[from],
+				eventSlopeDeltas[from], eventEndsDose[from]);
+	}
+
+	private void removeFirstEvent()
+	{
+		int last = --numberOfEvents;
+		long tick = eventTicks[last];
+		double rateDelta = eventRateDeltas[last];
+		double slopeDelta = eventSlopeDeltas[last];
+		boolean endsDose = eventEndsDose[last];
+		int index = 0;
+		int half = numberOfEvents >>> 1;
+		while (index < half)
+		{
+			int child = 2 * index + 1;
+			if (child + 1 < numberOfEvents && eventTicks[child + 1] < eventTicks[child])
+			{
+				child++;
+			}
+			if (tick <= eventTicks[child])
+			{
+				break;
+			}
+			copyEvent(child, index);
+			index = child;
+		}
+		setEvent(index, tick, rateDelta, slopeDelta, endsDose);
+	}
+
+	/**
+	 * Translates the segments of the dose into events. At each segment
+	 * boundary the effect jumps from the value the previous segment would
+	 * have reached to the start value of the new segment, and the slope
+	 * changes accordingly.
+	 */
+	private void schedule(Dose dose)
+	{
+		AbsorptionCurve curve = dose.curve;
+		long tick = currentTick;
+		activeDoses++;
+		if (dose.isOverriding)
+		{
+			// sampled by nextEffect(), the event only ends the dose
+			dose.startTick = tick;
+			overridingDoses.addLast(dose);
+			addEvent(tick + curve.getTotalTicks(), 0, 0, true);
+			return;
+		}
+		double continuedRate = 0;
+		double previousSlope = 0;
+		for (int segment = 0; segment < curve.getNumberOfSegments(); segment++)
+		{
+			int segmentTicks = curve.getSegmentTicks(segment);
+			if (segmentTicks <= 0)
+			{
+				continue;
+			}
+			double rate = curve.getRatePerTick(segment, dose.magnitude);
+			double slope = curve.getSlopePerTick(segment, dose.magnitude);
+			addEvent(tick, rate - continuedRate, slope - previousSlope, false);
+			continuedRate = rate + slope * segmentTicks;
+			previousSlope = slope;
+			tick += segmentTicks;
+		}
+		addEvent(tick, -continuedRate, -previousSlope, true);
+	}
+
+	private void setEvent(int index, long tick, double rateDelta,
+			double slopeDelta, boolean endsDose)
+	{
+		eventTicks[index] = tick;
+		eventRateDeltas[index] = rateDelta;
+		eventSlopeDeltas[index] = slopeDelta;
+		eventEndsDose[index] = endsDose;
+	}
+
+}
@@ -1,17 +1,20 @@
 package de.frauas.scs;
 
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
+import de.frauas.scs.event.EventBus;
+import de.frauas.scs.metrics.PumpMetrics;
 import de.frauas.scs.simulation.GlucoseLevelSimulator;
+import de.frauas.scs.telemetry.TelemetryJournal;
 
 /**
  * BloodStream is a singleton and serves as data storage which should be
  * accessible by any object of this program. It mimics the blood stream of the
  * patient and therefore contains the current value of the blood glucose level
  * and other meaningful data which would be ubiquitous in real life for any
- * component of the pump.
+ * component of the pump.<br>
+ * Simulations of several patients create an own BloodStream for each patient
+ * instead of using the singleton.
  * 
  * @author younes.el.ouarti
  *
@@ -20,6 +23,12 @@ public class BloodStream {
 
 	private static final double AMOUNT_OF_BLOOD_IN_LITER = 5;
 
+	/**
+	 * Number of glucose level samples kept in the blood stream (about 6
+	 * minutes at a 100ms step).
+	 */
+	private static final int GLUCOSE_LEVEL_RING_CAPACITY = 4096;
+
 	private static BloodStream instance;
 
 	private static long simulationStart;
@@ -49,21 +58,64 @@ public class BloodStream {
 	}
 
 	/**
-	 * Time in milliseconds since the simulation started.
+	 * Time in milliseconds since the simulation started. Updated in every
+	 * tick, so the {@link Date} for the GUI is only created when it is read.
+	 */
+	private volatile long elapsedTimeInMillis = 0;
+
+	/**
+	 * Notifies the GUI and other observers about samples, doses, meals and
+	 * alarms of this blood stream
 	 */
-	private Date elapsedTimeInMillis;
-	private ConcurrentLinkedQueue<Number> glucoseLevelControlQueue = new ConcurrentLinkedQueue<Number>();
+	private final EventBus eventBus;
 
 	/**
 	 * Contains the values calculated by {@link GlucoseLevelSimulator}. The
 	 * simulator adds new values in predefined time frames (e.g. each 100ms).
+	 * The GUI and the pancreas read them with their own cursor.
 	 */
-	private ConcurrentLinkedQueue<Number> glucoseLevelGuiQueue = new ConcurrentLinkedQueue<Number>();
+	private final GlucoseSampleRing glucoseLevelRing;
 
-	private ArrayList<ConcurrentLinkedQueue<Double>> hormoneInjections = new ArrayList<>();
+	/**
+	 * Contains the insulin and glucagon doses injected by the pancreas.
+	 */
+	private final AbsorptionTimeline hormoneInjections = new AbsorptionTimeline();
+
+	/**
+	 * Counts and times what the pump does, null if nothing is measured.
+	 */
+	private volatile PumpMetrics metrics;
+
+	/**
+	 * Records everything that happens in the blood stream, null if nothing is
+	 * recorded.
+	 */
+	private volatile TelemetryJournal telemetryJournal;
 
 	private BloodStream() {
+		this(GLUCOSE_LEVEL_RING_CAPACITY);
+	}
+
+	/**
+	 * Creates the blood stream of an additional patient
+	 * 
+	 * @param glucoseLevelRingCapacity
+	 *            Number of glucose level samples (and events of the
+	 *            {@link EventBus}) which are kept for the readers. A
+	 *            simulation without GUI can keep this small.
+	 */
+	public BloodStream(int glucoseLevelRingCapacity) {
 		super();
+		glucoseLevelRing = new GlucoseSampleRing(glucoseLevelRingCapacity);
+		eventBus = new EventBus(glucoseLevelRingCapacity);
+	}
+
+	/**
+	 * @return Number of hormone doses which are not fully absorbed yet
+	 */
+	public int getActiveHormoneDoses()
+	{
+		return hormoneInjections.getActiveDoses();
 	}
 
 	/**
@@ -73,40 +125,115 @@ public class BloodStream {
 	 */
 	public Date getElapsedTime()
 	{
-		return elapsedTimeInMillis;
+		return new Date(elapsedTimeInMillis);
 	}
 
-	public ConcurrentLinkedQueue<Number> getGlucoseLevelControlQueue()
+	public EventBus getEventBus()
 	{
-		return glucoseLevelControlQueue;
+		return eventBus;
 	}
 
 	/**
-	 * Gets {@link #glucoseLevelGuiQueue}
+	 * Gets {@link #glucoseLevelRing}
 	 * 
-	 * @return {@link #glucoseLevelGuiQueue}
+	 * @return {@link #glucoseLevelRing}
 	 */
-	public ConcurrentLinkedQueue<Number> getGlucoseLevelGuiQueue()
+	public GlucoseSampleRing getGlucoseLevelRing()
 	{
-		return glucoseLevelGuiQueue;
+		return glucoseLevelRing;
 	}
 
+	/**
+	 * Gets the summed effect of all injected hormones (or the effect of the
+	 * newest overriding dose) for the next time slice of the simulation. Must
+	 * only be called once per time slice.
+	 * 
+	 * @return effect on the blood glucose level in mmol/L
+	 */
 	public double getHormonalEffect()
 	{
-		double effect = 0;
-		if (!hormoneInjections.isEmpty())
-		{
-			effect = calculateEffect();
-			// clean up empty injections from arraylist
-			while (cleanupQueue())
-				;
-		}
-		return effect;
+		return hormoneInjections.nextEffect();
 	}
 
-	public synchronized ArrayList<ConcurrentLinkedQueue<Double>> getHormoneInjections()
+	/**
+	 * @return Number of hormone doses which started to take effect in the
+	 *         last time slice, see {@link #getHormonalEffect()}
+	 */
+	public int getStartedHormoneDoses()
 	{
-		return hormoneInjections;
+		return hormoneInjections.getStartedDoses();
+	}
+
+	/**
+	 * Injects a hormone dose which starts to take effect in the next time
+	 * slice. May be called from any thread.
+	 * 
+	 * @param curve
+	 *            Distribution of the dose over time
+	 * @param effect_mmol_L
+	 *            Total effect on the glucose level in mmol/L (negative for
+	 *            insulin)
+	 */
+	public void injectHormone(AbsorptionCurve curve, double effect_mmol_L)
+	{
+		hormoneInjections.add(curve, effect_mmol_L);
+	}
+
+	/**
+	 * Injects a hormone dose whose effect replaces the effect of the doses
+	 * injected before as long as it is absorbed, see
+	 * {@link AbsorptionTimeline#addOverriding(AbsorptionCurve, double)}. May be
+	 * called from any thread.
+	 * 
+	 * @param curve
+	 *            Distribution of the dose over time
+	 * @param effect_mmol_L
+	 *            Total effect on the glucose level in mmol/L (negative for
+	 *            insulin)
+	 */
+	public void injectOverridingHormone(AbsorptionCurve curve, double effect_mmol_L)
+	{
+		hormoneInjections.addOverriding(curve, effect_mmol_L);
+	}
+
+	/**
+	 * @return Metrics of the pump or null if nothing is measured
+	 */
+	public PumpMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * @return Journal of the blood stream or null if nothing is recorded
+	 */
+	public TelemetryJournal getTelemetryJournal()
+	{
+		return telemetryJournal;
+	}
+
+	/**
+	 * Sets the metrics into which the simulators, the pancreas and the GUI
+	 * of this blood stream record
+	 * 
+	 * @param metrics
+	 *            Metrics or null to stop measuring
+	 */
+	public void setMetrics(PumpMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the journal which records the glucose levels, meals and hormone
+	 * doses of this blood stream
+	 * 
+	 * @param telemetryJournal
+	 *            Journal or null to stop recording
+	 */
+	public void setTelemetryJournal(TelemetryJournal telemetryJournal)
+	{
+		this.telemetryJournal = telemetryJournal;
 	}
 
 	/**
@@ -118,38 +245,18 @@ public class BloodStream {
 	 */
 	public void updateElapsedTime()
 	{
-		elapsedTimeInMillis = new Date(System.currentTimeMillis()
-				- simulationStart);
-	}
-
-	private double calculateEffect()
-	{
-		double effect = 0;
-		for (ConcurrentLinkedQueue<Double> injection : hormoneInjections)
-		{
-			if (!injection.isEmpty())
-			{
-				effect = injection.remove();
-			}
-		}
-		return effect;
+		elapsedTimeInMillis = System.currentTimeMillis() - simulationStart;
 	}
 
-	private boolean cleanupQueue()
+	/**
+	 * Sets the elapsed time to a simulated value, e.g. of a virtual clock
+	 * 
+	 * @param elapsedTimeInMillis
+	 *            Simulated milliseconds since the simulation started
+	 */
+	public void updateElapsedTime(long elapsedTimeInMillis)
 	{
-		int size = hormoneInjections.size();
-		boolean isCleanNecessary = false;
-		for (int i = 0; i < size; i++)
-		{
-			ConcurrentLinkedQueue<Double> queue = hormoneInjections.get(i);
-			if (queue.isEmpty())
-			{
-				hormoneInjections.remove(i);
-				isCleanNecessary = true;
-				return isCleanNecessary;
-			}
-		}
-		return isCleanNecessary;
+		this.elapsedTimeInMillis = elapsedTimeInMillis;
 	}
 
 }
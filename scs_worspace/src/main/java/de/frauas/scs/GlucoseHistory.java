@@ -0,0 +1,372 @@
+package de.frauas.scs;
+
+import java.util.Arrays;
+
+/**
+ * Long-term history of the blood glucose level in several resolutions. Each
+ * resolution (level) keeps the minimum, maximum and mean of the samples in
+ * buckets of a fixed duration. All levels are updated incrementally with each
+ * sample, so the memory needed is fixed no matter how long the simulation
+ * runs.
+ * <p>
+ * With the default levels a bucket lasts 1 second, 10 seconds, 1 minute or
+ * 10 minutes and each level keeps {@link #DEFAULT_BUCKETS_PER_LEVEL}
+ * buckets, which covers about 1 hour, 11 hours, 2.8 days and 28 days.
+ * <p>
+ * The history is not thread safe. It is meant to be fed and read by the same
+ * thread, e.g. by the GUI with its own {@link GlucoseSampleRing.Cursor}.
+ *
+ */
+public class GlucoseHistory {
+
+	public final static int DEFAULT_BUCKETS_PER_LEVEL = 4096;
+
+	public final static long[] DEFAULT_BUCKET_MILLIS = { 1000, 10 * 1000,
+			60 * 1000, 10 * 60 * 1000 };
+
+	/**
+	 * Maximum number of buckets which are read per column of a decimation.
+	 * Limits the effort if the range is large compared to the finest level.
+	 */
+	private final static int MAX_BUCKETS_PER_COLUMN = 16;
+
+	/**
+	 * Buckets of one resolution. The bucket with the number n contains all
+	 * samples from n * bucketMillis (inclusive) to (n + 1) * bucketMillis
+	 * (exclusive) and is stored at the index n & mask.
+	 */
+	private static class Level {
+
+		private final long[] bucketNumbers;
+
+		private final long bucketMillis;
+
+		private final int[] counts;
+
+		private final int mask;
+
+		private final double[] maxima;
+
+		private final double[] minima;
+
+		private final double[] sums;
+
+		private Level(long bucketMillis, int capacity) {
+			this.bucketMillis = bucketMillis;
+			this.mask = capacity - 1;
+			bucketNumbers = new long[capacity];
+			Arrays.fill(bucketNumbers, -1);
+			counts = new int[capacity];
+			maxima = new double[capacity];
+			minima = new double[capacity];
+			sums = new double[capacity];
+		}
+
+		private void add(long timestampInMillis, double value)
+		{
+			long bucketNumber = timestampInMillis / bucketMillis;
+			int index = (int) (bucketNumber & mask);
+			if (bucketNumbers[index] != bucketNumber)
+			{
+				// the slot still holds an older bucket, which is dropped
+				bucketNumbers[index] = bucketNumber;
+				counts[index] = 1;
+				maxima[index] = value;
+				minima[index] = value;
+				sums[index] = value;
+				return;
+			}
+			counts[index]++;
+			maxima[index] = Math.max(maxima[index], value);
+			minima[index] = Math.min(minima[index], value);
+			sums[index] += value;
+		}
+
+		/**
+		 * @return Index of the bucket or -1 if it has no samples or is
+		 *         already overwritten
+		 */
+		private int indexOf(long bucketNumber)
+		{
+			int index = (int) (bucketNumber & mask);
+			if (bucketNumbers[index] != bucketNumber)
+			{
+				return -1;
+			}
+			return index;
+		}
+
+		/**
+		 * @return Start of the oldest bucket which can still be stored
+		 */
+		private long getOldestRetainedMillis(long newestTimestampInMillis)
+		{
+			long newestBucket = newestTimestampInMillis / bucketMillis;
+			return (newestBucket - mask) * bucketMillis;
+		}
+	}
+
+	private final Level[] levels;
+
+	private long newestTimestampInMillis = -1;
+
+	private long oldestTimestampInMillis = -1;
+
+	public GlucoseHistory() {
+		this(DEFAULT_BUCKET_MILLIS, DEFAULT_BUCKETS_PER_LEVEL);
+	}
+
+	/**
+	 * @param bucketMillis
+	 *            Duration of a bucket for each level, from the finest to the
+	 *            coarsest
+	 * @param bucketsPerLevel
+	 *            Number of buckets kept in each level, rounded up to the next
+	 *            power of two
+	 */
+	public GlucoseHistory(long[] bucketMillis, int bucketsPerLevel) {
+		if (bucketMillis.length == 0)
+		{
+			throw new IllegalArgumentException("At least one level is needed");
+		}
+		int capacity = Integer.highestOneBit(Math.max(2, bucketsPerLevel - 1)) << 1;
+		levels = new Level[bucketMillis.length];
+		for (int i = 0; i < bucketMillis.length; i++)
+		{
+			if (bucketMillis[i] <= 0 || (i > 0 && bucketMillis[i] <= bucketMillis[i - 1]))
+			{
+				throw new IllegalArgumentException(
+						"Bucket durations must be positive and ascending");
+			}
+			levels[i] = new Level(bucketMillis[i], capacity);
+		}
+	}
+
+	/**
+	 * Adds a sample to all levels. Samples must be added in chronological
+	 * order, older samples than the newest one are ignored.
+	 *
+	 * @param timestampInMillis
+	 *            Time of the sample in simulated milliseconds
+	 * @param value
+	 *            Glucose level in mmol/L
+	 */
+	public void add(long timestampInMillis, double value)
+	{
+		if (timestampInMillis < newestTimestampInMillis || timestampInMillis < 0)
+		{
+			return;
+		}
+		if (oldestTimestampInMillis < 0)
+		{
+			oldestTimestampInMillis = timestampInMillis;
+		}
+		newestTimestampInMillis = timestampInMillis;
+		for (Level level : levels)
+		{
+			level.add(timestampInMillis, value);
+		}
+	}
+
+	/**
+	 * Reads all pending samples of the cursor into the history.
+	 *
+	 * @param cursor
+	 *            Cursor on the glucose level samples
+	 * @return Number of added samples
+	 */
+	public int addAll(GlucoseSampleRing.Cursor cursor)
+	{
+		int numOfSamples = 0;
+		while (cursor.next())
+		{
+			add(cursor.getTimestampInMillis(), cursor.getValue());
+			numOfSamples++;
+		}
+		return numOfSamples;
+	}
+
+	/**
+	 * Reduces the history of a time range to a bounded number of points with
+	 * min-max decimation: the range is divided into maxPoints / 2 columns and
+	 * for each column the minimum and the maximum are written in the order in
+	 * which they occurred. Peaks are therefore never lost, no matter how far
+	 * the chart is zoomed out. The finest level which still covers the range
+	 * and needs at most {@link #MAX_BUCKETS_PER_COLUMN} buckets per column is
+	 * used.
+	 *
+	 * @param fromMillis
+	 *            Start of the range in simulated milliseconds
+	 * @param toMillis
+	 *            End of the range in simulated milliseconds (exclusive)
+	 * @param maxPoints
+	 *            Maximum number of points to write
+	 * @param timestampsInMillis
+	 *            Receives the time of each point
+	 * @param values
+	 *            Receives the glucose level of each point
+	 * @return Number of points written
+	 */
+	public int decimate(long fromMillis, long toMillis, int maxPoints,
+			long[] timestampsInMillis, double[] values)
+	{
+		maxPoints = Math.min(maxPoints, Math.min(timestampsInMillis.length, values.length));
+		int numOfColumns = maxPoints / 2;
+		if (newestTimestampInMillis < 0 || toMillis <= fromMillis || numOfColumns == 0)
+		{
+			return 0;
+		}
+		Level level = selectLevel(fromMillis, toMillis, numOfColumns * MAX_BUCKETS_PER_COLUMN);
+		long firstBucket = Math.max(fromMillis, 0) / level.bucketMillis;
+		long lastBucket = Math.min(toMillis - 1, newestTimestampInMillis) / level.bucketMillis;
+		double columnMillis = (double) (toMillis - fromMillis) / numOfColumns;
+
+		int numOfPoints = 0;
+		int column = -1;
+		int minIndex = -1;
+		int maxIndex = -1;
+		long minBucket = 0;
+		long maxBucket = 0;
+		for (long bucket = firstBucket; bucket <= lastBucket; bucket++)
+		{
+			int index = level.indexOf(bucket);
+			if (index < 0)
+			{
+				continue;
+			}
+			double columnPosition = (bucket * level.bucketMillis - fromMillis) / columnMillis;
+			int bucketColumn = (int) Math.max(0, Math.min(numOfColumns - 1, columnPosition));
+			if (bucketColumn != column && minIndex >= 0)
+			{
+				numOfPoints = writeColumn(level, minIndex, minBucket, maxIndex, maxBucket,
+						timestampsInMillis, values, numOfPoints);
+				minIndex = -1;
+				maxIndex = -1;
+			}
+			column = bucketColumn;
+			if (minIndex < 0 || level.minima[index] < level.minima[minIndex])
+			{
+				minIndex = index;
+				minBucket = bucket;
+			}
+			if (maxIndex < 0 || level.maxima[index] > level.maxima[maxIndex])
+			{
+				maxIndex = index;
+				maxBucket = bucket;
+			}
+		}
+		if (minIndex >= 0)
+		{
+			numOfPoints = writeColumn(level, minIndex, minBucket, maxIndex, maxBucket,
+					timestampsInMillis, values, numOfPoints);
+		}
+		return numOfPoints;
+	}
+
+	/**
+	 * @return Duration of a bucket of the level in milliseconds
+	 */
+	public long getBucketMillis(int level)
+	{
+		return levels[level].bucketMillis;
+	}
+
+	/**
+	 * Calculates the mean glucose level of a time range from the finest level
+	 * which still covers the range.
+	 *
+	 * @param fromMillis
+	 *            Start of the range in simulated milliseconds
+	 * @param toMillis
+	 *            End of the range in simulated milliseconds (exclusive)
+	 * @return Mean glucose level in mmol/L or NaN if there are no samples
+	 */
+	public double getMean(long fromMillis, long toMillis)
+	{
+		if (newestTimestampInMillis < 0 || toMillis <= fromMillis)
+		{
+			return Double.NaN;
+		}
+		Level level = selectLevel(fromMillis, toMillis, Integer.MAX_VALUE);
+		long firstBucket = Math.max(fromMillis, 0) / level.bucketMillis;
+		long lastBucket = Math.min(toMillis - 1, newestTimestampInMillis) / level.bucketMillis;
+		double sum = 0;
+		long count = 0;
+		for (long bucket = firstBucket; bucket <= lastBucket; bucket++)
+		{
+			int index = level.indexOf(bucket);
+			if (index >= 0)
+			{
+				sum += level.sums[index];
+				count += level.counts[index];
+			}
+		}
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/**
+	 * @return Time of the newest sample or -1 if there is none
+	 */
+	public long getNewestTimestampInMillis()
+	{
+		return newestTimestampInMillis;
+	}
+
+	public int getNumberOfLevels()
+	{
+		return levels.length;
+	}
+
+	/**
+	 * @return Time of the first sample or -1 if there is none
+	 */
+	public long getOldestTimestampInMillis()
+	{
+		return oldestTimestampInMillis;
+	}
+
+	/**
+	 * Selects the finest level which still holds the start of the range and
+	 * does not need more buckets than allowed. If no level fulfills both,
+	 * the coarsest one is used.
+	 */
+	private Level selectLevel(long fromMillis, long toMillis, int maxBuckets)
+	{
+		long start = Math.max(fromMillis, oldestTimestampInMillis);
+		for (Level level : levels)
+		{
+			if ((toMillis - fromMillis) / level.bucketMillis <= maxBuckets
+					&& level.getOldestRetainedMillis(newestTimestampInMillis) <= start)
+			{
+				return level;
+			}
+		}
+		return levels[levels.length - 1];
+	}
+
+	private int writeColumn(Level level, int minIndex, long minBucket, int maxIndex,
+			long maxBucket, long[] timestampsInMillis, double[] values, int numOfPoints)
+	{
+		long minTime = minBucket * level.bucketMillis + level.bucketMillis / 2;
+		long maxTime = maxBucket * level.bucketMillis + level.bucketMillis / 2;
+		boolean minFirst = minBucket < maxBucket
+				|| (minBucket == maxBucket && numOfPoints > 0
+						&& Math.abs(values[numOfPoints - 1] - level.minima[minIndex])
+						< Math.abs(values[numOfPoints - 1] - level.maxima[maxIndex]));
+		if (minFirst)
+		{
+			timestampsInMillis[numOfPoints] = minTime;
+			values[numOfPoints++] = level.minima[minIndex];
+			timestampsInMillis[numOfPoints] = maxTime;
+			values[numOfPoints++] = level.maxima[maxIndex];
+		} else
+		{
+			timestampsInMillis[numOfPoints] = maxTime;
+			values[numOfPoints++] = level.maxima[maxIndex];
+			timestampsInMillis[numOfPoints] = minTime;
+			values[numOfPoints++] = level.minima[minIndex];
+		}
+		return numOfPoints;
+	}
+
+}
@@ -0,0 +1,218 @@
+package de.frauas.scs;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Preallocated ring buffer of blood glucose samples. Exactly one thread (the
+ * glucose level simulation) writes into it, any number of consumers read from
+ * it with their own {@link Cursor}. Neither writing nor reading allocates
+ * objects or takes locks.
+ * <p>
+ * If a consumer falls behind by more than the capacity, the oldest samples are
+ * overwritten and the consumer continues with the oldest sample which is still
+ * available. The number of lost samples is counted in its cursor.
+ *
+ */
+public class GlucoseSampleRing {
+
+	/**
+	 * Reads the samples of a {@link GlucoseSampleRing} in order. A cursor must
+	 * only be used by one thread.
+	 *
+	 */
+	public class Cursor {
+
+		private long lostSamples = 0;
+
+		private long sequence;
+
+		private long timestampInMillis;
+
+		private double value;
+
+		private Cursor(long sequence) {
+			this.sequence = sequence;
+		}
+
+		/**
+		 * @return Number of samples which can be read with {@link #next()}
+		 */
+		public int available()
+		{
+			return (int) Math.min(published - sequence, capacity - 1);
+		}
+
+		/**
+		 * @return Number of samples which were overwritten before this cursor
+		 *         could read them
+		 */
+		public long getLostSamples()
+		{
+			return lostSamples;
+		}
+
+		/**
+		 * @return Time of the current sample in simulated milliseconds
+		 */
+		public long getTimestampInMillis()
+		{
+			return timestampInMillis;
+		}
+
+		/**
+		 * @return Glucose level of the current sample in mmol/L
+		 */
+		public double getValue()
+		{
+			return value;
+		}
+
+		/**
+		 * Moves the cursor to the next sample, which can then be read with
+		 * {@link #getValue()} and {@link #getTimestampInMillis()}.
+		 *
+		 * @return false if there is no new sample
+		 */
+		public boolean next()
+		{
+			while (true)
+			{
+				long lag = published - sequence;
+				if (lag <= 0)
+				{
+					return false;
+				}
+				if (lag >= capacity)
+				{
+					skipOverwrittenSamples();
+					continue;
+				}
+				int index = (int) (sequence & mask);
+				double readValue = values[index];
+				long readTimestamp = timestamps[index];
+				VarHandle.loadLoadFence();
+				if (published - sequence >= capacity)
+				{
+					// overwritten while reading
+					skipOverwrittenSamples();
+					continue;
+				}
+				value = readValue;
+				timestampInMillis = readTimestamp;
+				sequence++;
+				return true;
+			}
+		}
+
+		/**
+		 * Skips all pending samples, so the next call of {@link #next()} only
+		 * returns samples which are written afterwards.
+		 */
+		public void skipToEnd()
+		{
+			sequence = published;
+		}
+
+		private void skipOverwrittenSamples()
+		{
+			long oldestAvailable = published - capacity + 1;
+			if (oldestAvailable > sequence)
+			{
+				lostSamples += oldestAvailable - sequence;
+				sequence = oldestAvailable;
+			}
+		}
+	}
+
+	private final int capacity;
+
+	private final int mask;
+
+	/**
+	 * Sequence of the next sample which will be written. All samples with a
+	 * lower sequence are visible to the consumers.
+	 */
+	private volatile long published = 0;
+
+	private final long[] timestamps;
+
+	private final double[] values;
+
+	/**
+	 * @param capacity
+	 *            Number of samples kept in the ring, rounded up to the next
+	 *            power of two
+	 */
+	public GlucoseSampleRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.capacity = size;
+		this.mask = size - 1;
+		this.values = new double[size];
+		this.timestamps = new long[size];
+	}
+
+	/**
+	 * Adds a new sample. Must only be called by the single producer thread.
+	 *
+	 * @param timestampInMillis
+	 *            Time of the sample in simulated milliseconds
+	 * @param value
+	 *            Glucose level in mmol/L
+	 */
+	public void add(long timestampInMillis, double value)
+	{
+		long sequence = published;
+		int index = (int) (sequence & mask);
+		// consumers must not see the new values before they see that the
+		// slot is reused
+		VarHandle.storeStoreFence();
+		values[index] = value;
+		timestamps[index] = timestampInMillis;
+		published = sequence + 1;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * @return Latest glucose level in mmol/L or NaN if there is none yet
+	 */
+	public double getLatestValue()
+	{
+		while (true)
+		{
+			long sequence = published - 1;
+			if (sequence < 0)
+			{
+				return Double.NaN;
+			}
+			double value = values[(int) (sequence & mask)];
+			VarHandle.loadLoadFence();
+			if (published - sequence < capacity)
+			{
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * @return Total number of samples written so far
+	 */
+	public long getWrittenSamples()
+	{
+		return published;
+	}
+
+	/**
+	 * Creates a cursor which starts reading at the next sample written.
+	 *
+	 * @return New cursor
+	 */
+	public Cursor newCursor()
+	{
+		return new Cursor(published);
+	}
+
+}
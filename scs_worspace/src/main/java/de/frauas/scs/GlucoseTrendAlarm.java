@@ -0,0 +1,23 @@
+package de.frauas.scs;
+
+/**
+ * Alarm of the {@link GlucoseTrendForecaster}: the glucose level is predicted
+ * to cross a threshold within the forecast horizon.
+ *
+ */
+public enum GlucoseTrendAlarm {
+
+	NONE("None"), PREDICTED_LOW("Predicted low"), PREDICTED_HIGH("Predicted high");
+
+	GlucoseTrendAlarm(String text) {
+		this.text = text;
+	}
+
+	private final String text;
+
+	public String getText()
+	{
+		return text;
+	}
+
+}
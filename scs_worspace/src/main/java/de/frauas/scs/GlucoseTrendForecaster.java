@@ -0,0 +1,348 @@
+package de.frauas.scs;
+
+import de.frauas.scs.event.EventBus;
+
+/**
+ * Predicts the glucose level from the stream of samples and raises an alarm
+ * before the level crosses a low or high threshold.
+ * <p>
+ * The level and its rate of change are estimated with a Kalman filter of a
+ * local linear trend: the rate of change follows a random walk, the samples
+ * are the level plus measurement noise. Each sample costs a constant number
+ * of arithmetic operations and the filter keeps no samples, so it can run on
+ * every tick of every simulated patient.
+ * <p>
+ * An alarm is raised as soon as the level is predicted to be beyond a
+ * threshold within the horizon, so it precedes the crossing by up to the
+ * horizon. It is cleared when the prediction is back within the threshold by
+ * at least {@link #HYSTERESIS_MMOL_L}, which avoids flickering alarms. During
+ * the first {@link #WARM_UP_IN_MILLIS} the trend is not known well enough and
+ * no alarm is raised.
+ * <p>
+ * Not thread safe, the forecaster is meant to be fed and read by one thread.
+ *
+ */
+public class GlucoseTrendForecaster {
+
+	public final static long DEFAULT_HORIZON_IN_MILLIS = 20 * 60 * 1000;
+
+	/**
+	 * Variance of a single sample in (mmol/L)^2. The natural fluctuation of
+	 * the glucose level is uniform within 1/5 mmol/L.
+	 */
+	public final static double DEFAULT_MEASUREMENT_VARIANCE = 0.2 * 0.2 / 12;
+
+	/**
+	 * How fast the rate of change may change, as variance per minute in
+	 * (mmol/L per minute)^2
+	 */
+	public final static double DEFAULT_TREND_VARIANCE_PER_MINUTE = 0.0001;
+
+	/**
+	 * Distance in mmol/L by which the prediction must be back within the
+	 * threshold before the alarm is cleared
+	 */
+	public final static double HYSTERESIS_MMOL_L = 0.2;
+
+	/**
+	 * Time after the first sample in which no alarm is raised
+	 */
+	public final static long WARM_UP_IN_MILLIS = 2 * 60 * 1000;
+
+	/**
+	 * Variance of the rate of change before the first samples
+	 */
+	private final static double INITIAL_TREND_VARIANCE = 1;
+
+	private final static double MILLIS_PER_MINUTE = 60 * 1000;
+
+	private GlucoseTrendAlarm alarm = GlucoseTrendAlarm.NONE;
+
+	private long firstTimestampInMillis = -1;
+
+	private final double highThreshold;
+
+	private final long horizonInMillis;
+
+	private long lastTimestampInMillis = -1;
+
+	/**
+	 * Estimated glucose level in mmol/L
+	 */
+	private double level = Double.NaN;
+
+	/**
+	 * Covariance of the estimated level and rate of change
+	 */
+	private double levelTrendCovariance = 0;
+
+	private double levelVariance = 0;
+
+	private final double lowThreshold;
+
+	private final double measurementVariance;
+
+	private long raisedHighAlarms = 0;
+
+	private long raisedLowAlarms = 0;
+
+	/**
+	 * Estimated rate of change in mmol/L per minute
+	 */
+	private double trend = 0;
+
+	private double trendVariance = 0;
+
+	private final double trendVariancePerMinute;
+
+	/**
+	 * @param lowThreshold
+	 *            Glucose level in mmol/L which raises a
+	 *            {@link GlucoseTrendAlarm#PREDICTED_LOW} alarm
+	 * @param highThreshold
+	 *            Glucose level in mmol/L which raises a
+	 *            {@link GlucoseTrendAlarm#PREDICTED_HIGH} alarm
+	 */
+	public GlucoseTrendForecaster(double lowThreshold, double highThreshold) {
+		this(lowThreshold, highThreshold, DEFAULT_HORIZON_IN_MILLIS,
+				DEFAULT_MEASUREMENT_VARIANCE, DEFAULT_TREND_VARIANCE_PER_MINUTE);
+	}
+
+	/**
+	 * @param lowThreshold
+	 *            Glucose level in mmol/L which raises a
+	 *            {@link GlucoseTrendAlarm#PREDICTED_LOW} alarm
+	 * @param highThreshold
+	 *            Glucose level in mmol/L which raises a
+	 *            {@link GlucoseTrendAlarm#PREDICTED_HIGH} alarm
+	 * @param horizonInMillis
+	 *            How far the alarms look ahead
+	 * @param measurementVariance
+	 *            Variance of a single sample in (mmol/L)^2
+	 * @param trendVariancePerMinute
+	 *            How fast the rate of change may change, as variance per
+	 *            minute in (mmol/L per minute)^2. Higher values follow changes
+	 *            faster, lower values are less sensitive to noise.
+	 */
+	public GlucoseTrendForecaster(double lowThreshold, double highThreshold,
+			long horizonInMillis, double measurementVariance, double trendVariancePerMinute) {
+		if (lowThreshold >= highThreshold || horizonInMillis <= 0 || measurementVariance <= 0
+				|| trendVariancePerMinute <= 0)
+		{
+			throw new IllegalArgumentException("Invalid parameters of the forecaster");
+		}
+		this.lowThreshold = lowThreshold;
+		this.highThreshold = highThreshold;
+		this.horizonInMillis = horizonInMillis;
+		this.measurementVariance = measurementVariance;
+		this.trendVariancePerMinute = trendVariancePerMinute;
+	}
+
+	/**
+	 * Adds a sample and updates the alarm. Samples must be added in
+	 * chronological order, older samples are ignored.
+	 *
+	 * @param timestampInMillis
+	 *            Time of the sample
+	 * @param value
+	 *            Glucose level in mmol/L
+	 */
+	public void add(long timestampInMillis, double value)
+	{
+		if (lastTimestampInMillis < 0)
+		{
+			level = value;
+			trend = 0;
+			levelVariance = measurementVariance;
+			levelTrendCovariance = 0;
+			trendVariance = INITIAL_TREND_VARIANCE;
+			firstTimestampInMillis = timestampInMillis;
+			lastTimestampInMillis = timestampInMillis;
+			return;
+		}
+		if (timestampInMillis <= lastTimestampInMillis)
+		{
+			return;
+		}
+		double minutes = (timestampInMillis - lastTimestampInMillis) / MILLIS_PER_MINUTE;
+		lastTimestampInMillis = timestampInMillis;
+
+		// predict: the level follows the trend, the trend is a random walk
+		double q = trendVariancePerMinute;
+		level += trend * minutes;
+		levelVariance += 2 * minutes * levelTrendCovariance + minutes * minutes * trendVariance
+				+ q * minutes * minutes * minutes / 3;
+		levelTrendCovariance += minutes * trendVariance + q * minutes * minutes / 2;
+		trendVariance += q * minutes;
+
+		// correct with the sample
+		double residual = value - level;
+		double residualVariance = levelVariance + measurementVariance;
+		double levelGain = levelVariance / residualVariance;
+		double trendGain = levelTrendCovariance / residualVariance;
+		level += levelGain * residual;
+		trend += trendGain * residual;
+		trendVariance -= trendGain * levelTrendCovariance;
+		levelVariance -= levelGain * levelVariance;
+		levelTrendCovariance -= levelGain * levelTrendCovariance;
+
+		if (timestampInMillis - firstTimestampInMillis >= WARM_UP_IN_MILLIS)
+		{
+			updateAlarm();
+		}
+	}
+
+	/**
+	 * Adds a sample like {@link #add(long, double)} and publishes the alarm
+	 * if the sample changed it
+	 *
+	 * @param eventBus
+	 *            Bus of the blood stream which receives the changed alarm
+	 */
+	public void add(long timestampInMillis, double value, EventBus eventBus)
+	{
+		GlucoseTrendAlarm previousAlarm = alarm;
+		add(timestampInMillis, value);
+		if (alarm != previousAlarm)
+		{
+			eventBus.publishAlarm(timestampInMillis, alarm);
+		}
+	}
+
+	/**
+	 * @return Current alarm, {@link GlucoseTrendAlarm#NONE} if the level is
+	 *         predicted to stay within the thresholds
+	 */
+	public GlucoseTrendAlarm getAlarm()
+	{
+		return alarm;
+	}
+
+	public long getHorizonInMillis()
+	{
+		return horizonInMillis;
+	}
+
+	/**
+	 * @return Estimated current glucose level in mmol/L or NaN if there was
+	 *         no sample yet
+	 */
+	public double getLevel()
+	{
+		return level;
+	}
+
+	/**
+	 * Estimates when the predicted glucose level crosses the threshold of the
+	 * current alarm
+	 *
+	 * @return Milliseconds until the crossing (at most the horizon), 0 if the
+	 *         level is already beyond the threshold or -1 if there is no
+	 *         alarm
+	 */
+	public long getMillisUntilThreshold()
+	{
+		if (alarm == GlucoseTrendAlarm.NONE)
+		{
+			return -1;
+		}
+		double distance = alarm == GlucoseTrendAlarm.PREDICTED_LOW ? level - lowThreshold
+				: highThreshold - level;
+		double approach = alarm == GlucoseTrendAlarm.PREDICTED_LOW ? -trend : trend;
+		if (distance <= 0)
+		{
+			return 0;
+		}
+		if (approach <= 0)
+		{
+			// the alarm is only kept by the hysteresis
+			return horizonInMillis;
+		}
+		return (long) Math.min(horizonInMillis, distance / approach * MILLIS_PER_MINUTE);
+	}
+
+	/**
+	 * Predicts the glucose level by continuing the current trend
+	 *
+	 * @param aheadInMillis
+	 *            Time after the latest sample
+	 * @return Predicted glucose level in mmol/L or NaN if there was no sample
+	 *         yet
+	 */
+	public double getPrediction(long aheadInMillis)
+	{
+		return level + trend * (aheadInMillis / MILLIS_PER_MINUTE);
+	}
+
+	/**
+	 * @param aheadInMillis
+	 *            Time after the latest sample
+	 * @return Standard deviation of {@link #getPrediction(long)} in mmol/L
+	 */
+	public double getPredictionStandardDeviation(long aheadInMillis)
+	{
+		double minutes = aheadInMillis / MILLIS_PER_MINUTE;
+		double variance = levelVariance + 2 * minutes * levelTrendCovariance
+				+ minutes * minutes * trendVariance
+				+ trendVariancePerMinute * minutes * minutes * minutes / 3;
+		return Math.sqrt(Math.max(0, variance));
+	}
+
+	/**
+	 * @return Number of times a {@link GlucoseTrendAlarm#PREDICTED_HIGH}
+	 *         alarm was raised
+	 */
+	public long getRaisedHighAlarms()
+	{
+		return raisedHighAlarms;
+	}
+
+	/**
+	 * @return Number of times a {@link GlucoseTrendAlarm#PREDICTED_LOW}
+	 *         alarm was raised
+	 */
+	public long getRaisedLowAlarms()
+	{
+		return raisedLowAlarms;
+	}
+
+	/**
+	 * @return Estimated rate of change in mmol/L per minute
+	 */
+	public double getTrendPerMinute()
+	{
+		return trend;
+	}
+
+	private void updateAlarm()
+	{
+		double predicted = getPrediction(horizonInMillis);
+		// the trend is linear, so the extremes are now and at the horizon
+		double lowest = Math.min(level, predicted);
+		double highest = Math.max(level, predicted);
+		GlucoseTrendAlarm newAlarm = alarm;
+		if (lowest < lowThreshold)
+		{
+			newAlarm = GlucoseTrendAlarm.PREDICTED_LOW;
+		} else if (highest > highThreshold)
+		{
+			newAlarm = GlucoseTrendAlarm.PREDICTED_HIGH;
+		} else if ((alarm == GlucoseTrendAlarm.PREDICTED_LOW && lowest >= lowThreshold + HYSTERESIS_MMOL_L)
+				|| (alarm == GlucoseTrendAlarm.PREDICTED_HIGH && highest <= highThreshold - HYSTERESIS_MMOL_L))
+		{
+			newAlarm = GlucoseTrendAlarm.NONE;
+		}
+		if (newAlarm != alarm)
+		{
+			if (newAlarm == GlucoseTrendAlarm.PREDICTED_LOW)
+			{
+				raisedLowAlarms++;
+			} else if (newAlarm == GlucoseTrendAlarm.PREDICTED_HIGH)
+			{
+				raisedHighAlarms++;
+			}
+			alarm = newAlarm;
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package de.frauas.scs;
+
+import javafx.application.Application;
+
+/**
+ * Entry point of the executable jar. The JavaFX launcher refuses to start a
+ * main class which extends {@link Application} if JavaFX is not loaded as
+ * module, as in the jar with all dependencies. This class does not extend
+ * it, so it can start the {@link Main} application from the class path.
+ *
+ */
+public class Launcher {
+
+	public static void main(String[] args)
+	{
+		Application.launch(Main.class, args);
+	}
+
+}
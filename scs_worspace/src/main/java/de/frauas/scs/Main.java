@@ -2,6 +2,12 @@ package de.frauas.scs;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.management.JMException;
 
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
@@ -15,15 +21,55 @@ import javafx.stage.Stage;
 import de.frauas.scs.exception.ThrowableConverter;
 import de.frauas.scs.gui.DisplayController;
 import de.frauas.scs.gui.DisplayControllerHolder;
+import de.frauas.scs.http.TelemetryServer;
+import de.frauas.scs.metrics.PumpMetrics;
+import de.frauas.scs.telemetry.TelemetryJournal;
 
 /**
- * Main class which starts the application.
+ * Main class which starts the application.<br>
+ * Usage: Main [--journal=true] [--metrics-report=&lt;seconds&gt;]
+ * [--http-port=&lt;port&gt;]<br>
+ * --journal=true records the session in a {@link TelemetryJournal} in the
+ * directory telemetry.<br>
+ * --metrics-report prints the {@link PumpMetrics} of each period of the
+ * given seconds on the console.<br>
+ * --http-port serves the state of the pump on localhost, see
+ * {@link TelemetryServer}. 0 chooses a free port, which is printed on the
+ * console.
  *
  */
 public class Main extends Application {
 
 	//private final static Logger LOGGER = Logger.getLogger(Main.class);
 
+	/**
+	 * Named parameter which turns on the {@link TelemetryServer}, its value
+	 * is the port
+	 */
+	private final static String HTTP_PORT_PARAMETER = "http-port";
+
+	/**
+	 * Named parameter which turns on the journal of the session
+	 */
+	private final static String JOURNAL_PARAMETER = "journal";
+
+	/**
+	 * Records per segment of the journal, about 100 minutes of samples and
+	 * decisions in 2 MB
+	 */
+	private final static int JOURNAL_RECORDS_PER_SEGMENT = 1 << 16;
+
+	/**
+	 * Named parameter which turns on the report of the metrics on the
+	 * console, its value is the time between two reports in seconds
+	 */
+	private final static String METRICS_REPORT_PARAMETER = "metrics-report";
+
+	/**
+	 * Directory which contains one journal directory per session
+	 */
+	private final static String TELEMETRY_DIRECTORY = "telemetry";
+
 	public static void main(String[] args)
 	{
 		launch(args);
@@ -31,13 +77,29 @@ public class Main extends Application {
 
 	private DisplayController mainController;
 
+	private final PumpMetrics metrics = new PumpMetrics();
+
+	private TelemetryJournal telemetryJournal;
+
+	private TelemetryServer telemetryServer;
+
 	@Override
 	public void start(Stage stage)
 	{
 		try
 		{
 			stage.setTitle("Insuline/Glucagon Pump");
+			if (Boolean.parseBoolean(getParameters().getNamed().get(JOURNAL_PARAMETER)))
+			{
+				openTelemetryJournal();
+			}
+			startMetrics();
 			Pane mainPane = loadMainPane();
+			String httpPort = getParameters().getNamed().get(HTTP_PORT_PARAMETER);
+			if (httpPort != null)
+			{
+				startTelemetryServer(httpPort);
+			}
 			Scene scene = new Scene(mainPane);
 			scene.getStylesheets().add
 					(Main.class.getResource("background.css").toExternalForm());
@@ -55,6 +117,28 @@ public class Main extends Application {
 		}
 	}
 
+	@Override
+	public void stop() throws IOException
+	{
+		if (telemetryServer != null)
+		{
+			telemetryServer.stop();
+		}
+		metrics.stopReport();
+		try
+		{
+			metrics.unregister();
+		} catch (JMException e)
+		{
+			System.err.println("Pump metrics could not be unregistered: " + e);
+		}
+		if (telemetryJournal != null)
+		{
+			BloodStream.getInstance().setTelemetryJournal(null);
+			telemetryJournal.close();
+		}
+	}
+
 	/**
 	 * Loads main.fxml which represents the view
 	 */
@@ -79,6 +163,82 @@ public class Main extends Application {
 		return mainPane;
 	}
 
+	/**
+	 * Opens the journal which records the session for later audits. The
+	 * session runs without a journal if it cannot be opened.
+	 */
+	private void openTelemetryJournal()
+	{
+		String session = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		Path directory = Paths.get(TELEMETRY_DIRECTORY, "session-" + session);
+		try
+		{
+			telemetryJournal = new TelemetryJournal(directory, JOURNAL_RECORDS_PER_SEGMENT,
+					TelemetryJournal.DEFAULT_SYNC_INTERVAL_IN_MILLIS);
+			BloodStream.getInstance().setTelemetryJournal(telemetryJournal);
+		} catch (IOException e)
+		{
+			System.err.println("Telemetry journal could not be opened: " + e);
+		//	LOGGER.error("IOException while opening the telemetry journal", e);
+		}
+	}
+
+	/**
+	 * Measures the pump, so its metrics can be read through JMX and, if the
+	 * parameter is given, are reported on the console. The metrics must be
+	 * set before the simulators are started, so their ticks are measured.
+	 */
+	private void startMetrics()
+	{
+		BloodStream.getInstance().setMetrics(metrics);
+		try
+		{
+			metrics.register("pump");
+		} catch (JMException e)
+		{
+			System.err.println("Pump metrics could not be registered: " + e);
+		}
+		String reportPeriod = getParameters().getNamed().get(METRICS_REPORT_PARAMETER);
+		if (reportPeriod != null)
+		{
+			try
+			{
+				metrics.startReport(Long.parseLong(reportPeriod) * 1000, System.out);
+			} catch (IllegalArgumentException e)
+			{
+				System.err.println("Invalid period of the metrics report: " + reportPeriod);
+			}
+		}
+	}
+
+	/**
+	 * Serves the state of the pump as JSON on localhost, see
+	 * {@link TelemetryServer}. The pump runs without the server if the port
+	 * is invalid or in use.
+	 *
+	 * @param port
+	 *            Port of the server, 0 for any free port
+	 */
+	private void startTelemetryServer(String port)
+	{
+		try
+		{
+			telemetryServer = new TelemetryServer(Integer.parseInt(port),
+					BloodStream.getInstance(),
+					mainController.getPancreasSimulator().getPancreasModel());
+			telemetryServer.start();
+			System.out.println("Telemetry server on http://localhost:" + telemetryServer.getPort()
+					+ "/api/state");
+		} catch (IllegalArgumentException e)
+		{
+			System.err.println("Invalid port of the telemetry server: " + port);
+		} catch (IOException e)
+		{
+			System.err.println("Telemetry server could not be started: " + e);
+		//	LOGGER.error("IOException while starting the telemetry server", e);
+		}
+	}
+
 	/**
 	 * This function i.e. the Animationtimer will run each time the gui is
 	 * updated (according to Oracle up to 60 fps). This function is used to
@@ -90,7 +250,9 @@ public class Main extends Application {
 			@Override
 			public void handle(long now)
 			{
+				long frameStartInNanos = System.nanoTime();
 				mainController.updateGui();
+				metrics.recordFrame(System.nanoTime() - frameStartInNanos);
 			}
 		}.start();
 	}
@@ -0,0 +1,325 @@
+package de.frauas.scs;
+
+/**
+ * Statistics of the glucose levels within a sliding time window: mean,
+ * variance, slope (least squares rate of change) and minimum/maximum. Adding
+ * a sample costs O(1) (amortized), no matter how large the window is, and no
+ * objects are allocated after construction.
+ * <p>
+ * The samples are kept in a preallocated ring which is large enough for the
+ * window at the given sample interval. Sums are maintained incrementally and
+ * recalculated from the ring once per ring length, so rounding errors cannot
+ * accumulate over multi-day runs. Minimum and maximum are tracked with
+ * monotonic queues.
+ * <p>
+ * Not thread safe, the statistics must be fed and read by one thread, e.g.
+ * the one which publishes the state of the pump.
+ *
+ */
+public class RollingStatistics {
+
+	private final static double MILLIS_PER_MINUTE = 60 * 1000;
+
+	private final int capacity;
+
+	/**
+	 * Sequence of the oldest sample in the window
+	 */
+	private long head = 0;
+
+	private final int mask;
+
+	/**
+	 * Sequences of the samples which can still become the maximum, their
+	 * values descending
+	 */
+	private final long[] maxQueue;
+
+	private long maxQueueHead = 0;
+
+	private long maxQueueTail = 0;
+
+	/**
+	 * Sequences of the samples which can still become the minimum, their
+	 * values ascending
+	 */
+	private final long[] minQueue;
+
+	private long minQueueHead = 0;
+
+	private long minQueueTail = 0;
+
+	/**
+	 * Time which the sums of the times refer to
+	 */
+	private long originInMillis = 0;
+
+	private int samplesSinceRecalculation = 0;
+
+	private double sumOfMinutes = 0;
+
+	private double sumOfSquaredMinutes = 0;
+
+	private double sumOfSquaredValues = 0;
+
+	private double sumOfMinutesTimesValues = 0;
+
+	private double sumOfValues = 0;
+
+	/**
+	 * Sequence of the next sample
+	 */
+	private long tail = 0;
+
+	private final long[] timestampsInMillis;
+
+	private final double[] values;
+
+	private final long windowInMillis;
+
+	/**
+	 * @param windowInMillis
+	 *            Duration of the window
+	 * @param sampleIntervalInMillis
+	 *            Shortest interval in which samples are added. If samples
+	 *            come faster, the oldest samples leave the window early.
+	 */
+	public RollingStatistics(long windowInMillis, long sampleIntervalInMillis) {
+		if (windowInMillis <= 0 || sampleIntervalInMillis <= 0)
+		{
+			throw new IllegalArgumentException("Window and sample interval must be positive");
+		}
+		this.windowInMillis = windowInMillis;
+		long samples = windowInMillis / sampleIntervalInMillis + 1;
+		if (samples > 1 << 30)
+		{
+			throw new IllegalArgumentException("Window is too large for the sample interval");
+		}
+		capacity = Integer.highestOneBit((int) Math.max(2, samples - 1)) << 1;
+		mask = capacity - 1;
+		timestampsInMillis = new long[capacity];
+		values = new double[capacity];
+		minQueue = new long[capacity];
+		maxQueue = new long[capacity];
+	}
+
+	/**
+	 * Adds a sample and removes the samples which left the window. Samples
+	 * must be added in chronological order, older samples are ignored.
+	 *
+	 * @param timestampInMillis
+	 *            Time of the sample
+	 * @param value
+	 *            Glucose level in mmol/L
+	 */
+	public void add(long timestampInMillis, double value)
+	{
+		if (tail > head && timestampInMillis < timestampsInMillis[(int) ((tail - 1) & mask)])
+		{
+			return;
+		}
+		while (tail > head && timestampsInMillis[(int) (head & mask)] <= timestampInMillis - windowInMillis)
+		{
+			removeOldest();
+		}
+		if (tail - head == capacity)
+		{
+			removeOldest();
+		}
+		if (tail == head)
+		{
+			// nothing to keep, restart the sums at the new sample
+			originInMillis = timestampInMillis;
+			clearSums();
+		}
+
+		int index = (int) (tail & mask);
+		timestampsInMillis[index] = timestampInMillis;
+		values[index] = value;
+		addToSums(timestampInMillis, value);
+
+		while (maxQueueTail > maxQueueHead && valueOf(maxQueue[(int) ((maxQueueTail - 1) & mask)]) <= value)
+		{
+			maxQueueTail--;
+		}
+		maxQueue[(int) (maxQueueTail++ & mask)] = tail;
+		while (minQueueTail > minQueueHead && valueOf(minQueue[(int) ((minQueueTail - 1) & mask)]) >= value)
+		{
+			minQueueTail--;
+		}
+		minQueue[(int) (minQueueTail++ & mask)] = tail;
+		tail++;
+
+		if (++samplesSinceRecalculation >= capacity)
+		{
+			recalculateSums(timestampInMillis);
+		}
+	}
+
+	/**
+	 * Removes all samples
+	 */
+	public void clear()
+	{
+		head = tail;
+		minQueueHead = minQueueTail;
+		maxQueueHead = maxQueueTail;
+		clearSums();
+	}
+
+	/**
+	 * @return Number of samples in the window
+	 */
+	public int getCount()
+	{
+		return (int) (tail - head);
+	}
+
+	/**
+	 * @return Highest glucose level in the window or NaN if it is empty
+	 */
+	public double getMax()
+	{
+		return tail == head ? Double.NaN : valueOf(maxQueue[(int) (maxQueueHead & mask)]);
+	}
+
+	/**
+	 * @return Mean glucose level in the window or NaN if it is empty
+	 */
+	public double getMean()
+	{
+		return tail == head ? Double.NaN : sumOfValues / getCount();
+	}
+
+	/**
+	 * @return Lowest glucose level in the window or NaN if it is empty
+	 */
+	public double getMin()
+	{
+		return tail == head ? Double.NaN : valueOf(minQueue[(int) (minQueueHead & mask)]);
+	}
+
+	/**
+	 * @return Latest glucose level or NaN if the window is empty
+	 */
+	public double getNewestValue()
+	{
+		return tail == head ? Double.NaN : valueOf(tail - 1);
+	}
+
+	/**
+	 * @return Oldest glucose level in the window or NaN if it is empty
+	 */
+	public double getOldestValue()
+	{
+		return tail == head ? Double.NaN : valueOf(head);
+	}
+
+	/**
+	 * Calculates the rate of change of the glucose level as the slope of the
+	 * least squares line through the samples of the window
+	 *
+	 * @return Rate of change in mmol/L per minute or NaN if there are less
+	 *         than two samples at different times
+	 */
+	public double getSlopePerMinute()
+	{
+		int count = getCount();
+		double denominator = count * sumOfSquaredMinutes - sumOfMinutes * sumOfMinutes;
+		if (count < 2 || denominator <= 0)
+		{
+			return Double.NaN;
+		}
+		return (count * sumOfMinutesTimesValues - sumOfMinutes * sumOfValues) / denominator;
+	}
+
+	/**
+	 * @return Standard deviation of the glucose levels in the window
+	 */
+	public double getStandardDeviation()
+	{
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @return Sample variance of the glucose levels in the window or NaN if
+	 *         there are less than two samples
+	 */
+	public double getVariance()
+	{
+		int count = getCount();
+		if (count < 2)
+		{
+			return Double.NaN;
+		}
+		double variance = (sumOfSquaredValues - sumOfValues * sumOfValues / count) / (count - 1);
+		return Math.max(0, variance);
+	}
+
+	public long getWindowInMillis()
+	{
+		return windowInMillis;
+	}
+
+	private void addToSums(long timestampInMillis, double value)
+	{
+		double minutes = (timestampInMillis - originInMillis) / MILLIS_PER_MINUTE;
+		sumOfMinutes += minutes;
+		sumOfSquaredMinutes += minutes * minutes;
+		sumOfValues += value;
+		sumOfSquaredValues += value * value;
+		sumOfMinutesTimesValues += minutes * value;
+	}
+
+	private void clearSums()
+	{
+		sumOfMinutes = 0;
+		sumOfSquaredMinutes = 0;
+		sumOfValues = 0;
+		sumOfSquaredValues = 0;
+		sumOfMinutesTimesValues = 0;
+		samplesSinceRecalculation = 0;
+	}
+
+	/**
+	 * Calculates the sums again from the samples in the ring, relative to a
+	 * new origin
+	 */
+	private void recalculateSums(long newOriginInMillis)
+	{
+		originInMillis = newOriginInMillis;
+		clearSums();
+		for (long sequence = head; sequence < tail; sequence++)
+		{
+			int index = (int) (sequence & mask);
+			addToSums(timestampsInMillis[index], values[index]);
+		}
+	}
+
+	private void removeOldest()
+	{
+		int index = (int) (head & mask);
+		double minutes = (timestampsInMillis[index] - originInMillis) / MILLIS_PER_MINUTE;
+		double value = values[index];
+		sumOfMinutes -= minutes;
+		sumOfSquaredMinutes -= minutes * minutes;
+		sumOfValues -= value;
+		sumOfSquaredValues -= value * value;
+		sumOfMinutesTimesValues -= minutes * value;
+		if (maxQueueTail > maxQueueHead && maxQueue[(int) (maxQueueHead & mask)] == head)
+		{
+			maxQueueHead++;
+		}
+		if (minQueueTail > minQueueHead && minQueue[(int) (minQueueHead & mask)] == head)
+		{
+			minQueueHead++;
+		}
+		head++;
+	}
+
+	private double valueOf(long sequence)
+	{
+		return values[(int) (sequence & mask)];
+	}
+
+}
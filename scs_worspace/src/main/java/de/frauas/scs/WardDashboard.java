@@ -0,0 +1,92 @@
+package de.frauas.scs;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+import de.frauas.scs.gui.PatientDashboard;
+import de.frauas.scs.simulation.ExecutionMode;
+import de.frauas.scs.simulation.PatientProfile;
+import de.frauas.scs.simulation.RealTimeSession;
+
+/**
+ * Ward station which monitors many pumps on one {@link PatientDashboard}.
+ * Each patient is simulated by its own {@link RealTimeSession} with a few
+ * meals in the first hour.<br>
+ * Usage: WardDashboard [patients], or {@link WardDashboardLauncher} if JavaFX
+ * is on the class path
+ *
+ */
+public class WardDashboard extends Application {
+
+	private final static int DEFAULT_NUMBER_OF_PATIENTS = 200;
+
+	private final static long NANOS_PER_SECOND = 1000 * 1000 * 1000L;
+
+	public static void main(String[] args)
+	{
+		launch(args);
+	}
+
+	private final PatientDashboard dashboard = new PatientDashboard();
+
+	private RealTimeSession[] sessions = new RealTimeSession[0];
+
+	@Override
+	public void start(final Stage stage)
+	{
+		List<String> arguments = getParameters().getUnnamed();
+		int numberOfPatients = arguments.isEmpty() ? DEFAULT_NUMBER_OF_PATIENTS
+				: Integer.parseInt(arguments.get(0));
+		SplittableRandom random = new SplittableRandom();
+		sessions = new RealTimeSession[numberOfPatients];
+		for (int i = 0; i < numberOfPatients; i++)
+		{
+			PatientProfile profile = new PatientProfile();
+			long firstMeal = random.nextLong(10 * 60 * 1000);
+			profile.addMeal(firstMeal, 400 + random.nextInt(800));
+			profile.addMeal(firstMeal + 30 * 60 * 1000, 400 + random.nextInt(800));
+			sessions[i] = new RealTimeSession(profile);
+			dashboard.addPatient(String.format("Bed %03d", i + 1), sessions[i].getBloodStream());
+			sessions[i].start(ExecutionMode.SHARED_SCHEDULER);
+		}
+
+		stage.setTitle("Ward station");
+		stage.setScene(new Scene(dashboard, 1200, 800));
+		stage.show();
+
+		new AnimationTimer() {
+
+			private int frames = 0;
+
+			private long secondStartInNanos = 0;
+
+			@Override
+			public void handle(long now)
+			{
+				dashboard.update();
+				frames++;
+				if (now - secondStartInNanos >= NANOS_PER_SECOND)
+				{
+					stage.setTitle("Ward station - " + sessions.length + " patients, " + frames
+							+ " fps, " + dashboard.getRenderedTiles() + " tiles drawn");
+					frames = 0;
+					secondStartInNanos = now;
+				}
+			}
+		}.start();
+	}
+
+	@Override
+	public void stop()
+	{
+		for (RealTimeSession session : sessions)
+		{
+			session.stop();
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package de.frauas.scs;
+
+import javafx.application.Application;
+
+/**
+ * Entry point of the {@link WardDashboard} from the class path, e.g. the jar
+ * with all dependencies. Like the {@link Launcher} of the pump, it does not
+ * extend {@link Application}, so JavaFX need not be loaded as module.<br>
+ * Usage: WardDashboardLauncher [patients]
+ *
+ */
+public class WardDashboardLauncher {
+
+	public static void main(String[] args)
+	{
+		Application.launch(WardDashboard.class, args);
+	}
+
+}
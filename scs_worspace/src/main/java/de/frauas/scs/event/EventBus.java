@@ -0,0 +1,322 @@
+package de.frauas.scs.event;
+
+import java.lang.invoke.VarHandle;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.frauas.scs.GlucoseTrendAlarm;
+
+/**
+ * Typed publish/subscribe channel between the simulators, the controller and
+ * their observers (GUI, recorder, monitoring). Events are written into a
+ * preallocated ring, each subscriber reads them in order with its own
+ * {@link Subscription} and handles all pending events as one batch.
+ * <p>
+ * Any number of threads may publish. A producer claims a sequence with one
+ * atomic increment, writes the event into the slot of the sequence and
+ * publishes the slot. Producers never wait for subscribers: if a subscriber
+ * falls behind by more than the capacity, the oldest events are overwritten
+ * and counted as lost in its subscription. Neither publishing nor polling
+ * allocates objects or takes locks. As long as nobody subscribed, publishing
+ * costs nothing but a check of the subscriptions.
+ * <p>
+ * Each slot carries its sequence. It is negative while a producer writes the
+ * slot, so a subscriber can tell whether a slot still holds an older event,
+ * the event it waits for or an event which already overwrote it.
+ *
+ */
+public class EventBus {
+
+	/**
+	 * Reads the events of an {@link EventBus} in order. A subscription must
+	 * only be polled by one thread, its lag may be read by any thread.
+	 *
+	 */
+	public class Subscription {
+
+		private volatile long lostEvents = 0;
+
+		private final String name;
+
+		private volatile long receivedEvents = 0;
+
+		/**
+		 * Sequence of the next event to read
+		 */
+		private volatile long sequence;
+
+		private Subscription(String name, long sequence) {
+			this.name = name;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Stops the subscription, the bus does not track its lag anymore
+		 */
+		public void close()
+		{
+			subscriptions.remove(this);
+		}
+
+		/**
+		 * @return Number of events which are published but not read yet
+		 */
+		public long getLag()
+		{
+			return Math.max(0, nextSequence.get() - sequence);
+		}
+
+		/**
+		 * @return Number of events which were overwritten before this
+		 *         subscription could read them
+		 */
+		public long getLostEvents()
+		{
+			return lostEvents;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return Number of events handled so far
+		 */
+		public long getReceivedEvents()
+		{
+			return receivedEvents;
+		}
+
+		/**
+		 * Hands all pending events to the handler and finishes the batch with
+		 * {@link EventHandler#onEndOfBatch()}. At most {@link #getCapacity()}
+		 * events are handled per call. An event whose producer has not
+		 * finished writing ends the batch, it is handled in the next call.
+		 *
+		 * @param handler
+		 *            Receives the events
+		 * @return Number of handled events
+		 */
+		public int poll(EventHandler handler)
+		{
+			long next = sequence;
+			int events = 0;
+			try
+			{
+				while (events < capacity)
+				{
+					int index = (int) (next & mask);
+					long slotSequence = sequences.getAcquire(index);
+					if (slotSequence == next)
+					{
+						int type = types[index];
+						long timestampInMillis = timestamps[index];
+						double value = values[index];
+						double secondValue = secondValues[index];
+						VarHandle.loadLoadFence();
+						if (sequences.get(index) == next)
+						{
+							dispatch(handler, type, timestampInMillis, value, secondValue);
+							events++;
+							next++;
+							continue;
+						}
+						// overwritten while reading
+						next = skipOverwrittenEvents(next);
+					} else if (slotSequence > next || slotSequence < -next - 1)
+					{
+						next = skipOverwrittenEvents(next);
+					} else
+					{
+						// not published yet
+						break;
+					}
+				}
+			} finally
+			{
+				sequence = next;
+				receivedEvents += events;
+			}
+			if (events > 0)
+			{
+				handler.onEndOfBatch();
+			}
+			return events;
+		}
+
+		/**
+		 * Skips all pending events, so the next call of
+		 * {@link #poll(EventHandler)} only handles events which are published
+		 * afterwards.
+		 */
+		public void skipToEnd()
+		{
+			sequence = nextSequence.get();
+		}
+
+		private long skipOverwrittenEvents(long next)
+		{
+			long skipTo = Math.max(next + 1, nextSequence.get() - capacity);
+			lostEvents += skipTo - next;
+			return skipTo;
+		}
+
+	}
+
+	private final static int ALARM = 3;
+
+	private final static GlucoseTrendAlarm[] ALARMS = GlucoseTrendAlarm.values();
+
+	private final static int DOSE = 1;
+
+	private final static int MEAL = 2;
+
+	private final static int SAMPLE = 0;
+
+	private final int capacity;
+
+	private final int mask;
+
+	/**
+	 * Sequence of the next event which will be claimed by a producer
+	 */
+	private final AtomicLong nextSequence = new AtomicLong();
+
+	private final double[] secondValues;
+
+	/**
+	 * Sequence of the event in each slot, -(sequence + 1) while it is
+	 * written
+	 */
+	private final AtomicLongArray sequences;
+
+	private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+	private final long[] timestamps;
+
+	private final int[] types;
+
+	private final double[] values;
+
+	/**
+	 * @param capacity
+	 *            Number of events kept in the ring, rounded up to the next
+	 *            power of two
+	 */
+	public EventBus(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.capacity = size;
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++)
+		{
+			// marks the slot as not written, no sequence is waiting for it
+			sequences.set(i, -1);
+		}
+		this.types = new int[size];
+		this.timestamps = new long[size];
+		this.values = new double[size];
+		this.secondValues = new double[size];
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * @return Total number of events published while there were subscribers
+	 */
+	public long getPublishedEvents()
+	{
+		return nextSequence.get();
+	}
+
+	/**
+	 * @return Current subscriptions, e.g. to observe their lag
+	 */
+	public List<Subscription> getSubscriptions()
+	{
+		return Collections.unmodifiableList(subscriptions);
+	}
+
+	public void publishAlarm(long timestampInMillis, GlucoseTrendAlarm alarm)
+	{
+		publish(ALARM, timestampInMillis, alarm.ordinal(), 0);
+	}
+
+	public void publishDose(long timestampInMillis, double effect_mmol_L, double slots)
+	{
+		publish(DOSE, timestampInMillis, effect_mmol_L, slots);
+	}
+
+	public void publishMeal(long timestampInMillis, double kcal, double increase_mmol_L)
+	{
+		publish(MEAL, timestampInMillis, kcal, increase_mmol_L);
+	}
+
+	public void publishSample(long timestampInMillis, double glucoseLevel)
+	{
+		publish(SAMPLE, timestampInMillis, glucoseLevel, 0);
+	}
+
+	/**
+	 * Creates a subscription which starts with the next event published.
+	 *
+	 * @param name
+	 *            Name of the subscriber, e.g. to report its lag
+	 * @return New subscription
+	 */
+	public Subscription subscribe(String name)
+	{
+		Subscription subscription = new Subscription(name, nextSequence.get());
+		subscriptions.add(subscription);
+		return subscription;
+	}
+
+	private void dispatch(EventHandler handler, int type, long timestampInMillis, double value,
+			double secondValue)
+	{
+		switch (type)
+		{
+			case SAMPLE:
+				handler.onSample(timestampInMillis, value);
+				break;
+			case DOSE:
+				handler.onDose(timestampInMillis, value, secondValue);
+				break;
+			case MEAL:
+				handler.onMeal(timestampInMillis, value, secondValue);
+				break;
+			case ALARM:
+				handler.onAlarm(timestampInMillis, ALARMS[(int) value]);
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void publish(int type, long timestampInMillis, double value, double secondValue)
+	{
+		if (subscriptions.isEmpty())
+		{
+			return;
+		}
+		long sequence = nextSequence.getAndIncrement();
+		int index = (int) (sequence & mask);
+		sequences.setOpaque(index, -sequence - 1);
+		// subscribers must not see the new event before they see that the
+		// slot is reused
+		VarHandle.storeStoreFence();
+		types[index] = type;
+		timestamps[index] = timestampInMillis;
+		values[index] = value;
+		secondValues[index] = secondValue;
+		sequences.setRelease(index, sequence);
+	}
+
+}
@@ -0,0 +1,76 @@
+package de.frauas.scs.event;
+
+import de.frauas.scs.GlucoseTrendAlarm;
+
+/**
+ * Receives the events of an {@link EventBus} in batches, see
+ * {@link EventBus.Subscription#poll(EventHandler)}. All methods do nothing by
+ * default, a subscriber only overrides the events it is interested in.
+ * <p>
+ * The methods are called by the thread which polls the subscription. They
+ * must not block, otherwise the subscriber falls behind and loses events.
+ *
+ */
+public abstract class EventHandler {
+
+	/**
+	 * A glucose level alarm was raised or cleared
+	 *
+	 * @param timestampInMillis
+	 *            Simulated time of the change
+	 * @param alarm
+	 *            New alarm, {@link GlucoseTrendAlarm#NONE} if it was cleared
+	 */
+	public void onAlarm(long timestampInMillis, GlucoseTrendAlarm alarm)
+	{
+	}
+
+	/**
+	 * The pancreas injected a hormone dose
+	 *
+	 * @param timestampInMillis
+	 *            Simulated time of the injection
+	 * @param effect_mmol_L
+	 *            Total effect on the glucose level (negative for insulin)
+	 * @param slots
+	 *            Slots in which the dose is injected
+	 */
+	public void onDose(long timestampInMillis, double effect_mmol_L, double slots)
+	{
+	}
+
+	/**
+	 * Called after the last event of a batch, e.g. to update a view once for
+	 * all events of the batch
+	 */
+	public void onEndOfBatch()
+	{
+	}
+
+	/**
+	 * The patient consumed a meal (or burned energy)
+	 *
+	 * @param timestampInMillis
+	 *            Simulated time of the meal
+	 * @param kcal
+	 *            Consumed (positive) or burned (negative) energy
+	 * @param increase_mmol_L
+	 *            Total effect on the glucose level
+	 */
+	public void onMeal(long timestampInMillis, double kcal, double increase_mmol_L)
+	{
+	}
+
+	/**
+	 * A new glucose level was simulated
+	 *
+	 * @param timestampInMillis
+	 *            Simulated time of the sample
+	 * @param glucoseLevel
+	 *            Glucose level in mmol/L
+	 */
+	public void onSample(long timestampInMillis, double glucoseLevel)
+	{
+	}
+
+}
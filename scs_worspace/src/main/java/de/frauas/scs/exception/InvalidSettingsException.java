@@ -0,0 +1,26 @@
+package de.frauas.scs.exception;
+
+import de.frauas.scs.gui.MessageBoxText;
+
+/**
+ * Thrown if the entries of the doctor's pane are rejected. The message is
+ * the text which is shown to the user.
+ *
+ */
+public class InvalidSettingsException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final MessageBoxText messageBoxText;
+
+	public InvalidSettingsException(MessageBoxText message) {
+		super(message.getText());
+		this.messageBoxText = message;
+	}
+
+	public MessageBoxText getMessageBoxText()
+	{
+		return messageBoxText;
+	}
+
+}
@@ -10,6 +10,10 @@ public class SimulationException extends Exception {
 		super(message.getText());
 	}
 
+	public SimulationException(String message) {
+		super(message);
+	}
+
 	public SimulationException(String message, Throwable cause) {
 		super(message, cause);
 	}
@@ -3,9 +3,10 @@ package de.frauas.scs.gui;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -18,6 +19,7 @@ import javafx.scene.chart.XYChart.Data;
 import javafx.scene.chart.XYChart.Series;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.control.ProgressIndicator;
@@ -31,8 +33,15 @@ import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import javafx.util.converter.NumberStringConverter;
 import de.frauas.scs.BloodStream;
+import de.frauas.scs.GlucoseHistory;
+import de.frauas.scs.GlucoseSampleRing;
+import de.frauas.scs.GlucoseTrendAlarm;
+import de.frauas.scs.event.EventBus;
+import de.frauas.scs.event.EventHandler;
+import de.frauas.scs.metrics.PumpMetrics;
 import de.frauas.scs.simulation.GlucoseLevelSimulator;
 import de.frauas.scs.simulation.PancreasSimulator;
+import de.frauas.scs.simulation.StatusReporter;
 
 /**
  * The MainController contains all elements of the GUI and hence is capable of
@@ -43,7 +52,7 @@ import de.frauas.scs.simulation.PancreasSimulator;
  * @author younes.el.ouarti
  *
  */
-public class DisplayController {
+public final class DisplayController implements StatusReporter {
 
 	@FXML
 	private Label messageBox;
@@ -94,6 +103,11 @@ public class DisplayController {
 
 	public void printExceptionMessage()
 	{
+		PumpMetrics metrics = bloodStream.getMetrics();
+		if (metrics != null)
+		{
+			metrics.countError();
+		}
 
 		Platform.runLater(new Runnable() {
 			@Override
@@ -115,6 +129,14 @@ public class DisplayController {
 
 	private BloodStream bloodStream = BloodStream.getInstance();
 
+	private GlucoseSampleRing.Cursor glucoseLevelCursor = bloodStream.getGlucoseLevelRing().newCursor();
+
+	/**
+	 * Latest alarm of the glucose level simulator, only accessed by the FX
+	 * thread
+	 */
+	private GlucoseTrendAlarm currentAlarm = GlucoseTrendAlarm.NONE;
+
 	@FXML private Text actiontarget;
 
 	@FXML
@@ -135,12 +157,42 @@ public class DisplayController {
 	@FXML
 	private Label elapsedTime;
 
+	/**
+	 * Handles the events of the blood stream on the FX thread, once per frame
+	 */
+	private EventHandler eventHandler = new EventHandler() {
+		@Override
+		public void onAlarm(long timestampInMillis, GlucoseTrendAlarm alarm)
+		{
+			currentAlarm = alarm;
+		}
+	};
+
+	private EventBus.Subscription eventSubscription = bloodStream.getEventBus().subscribe("GUI");
+
 	private GlucoseLevelSimulator glucoseLevelSimulator = new GlucoseLevelSimulator();
 
+	/**
+	 * Keeps the whole course of the glucose level in a reduced resolution,
+	 * the chart only keeps the latest {@link #NUM_OF_X_AXIS_SLICES} samples.
+	 */
+	private GlucoseHistory glucoseLevelHistory = new GlucoseHistory();
+
+	private GlucoseSampleRing.Cursor glucoseLevelHistoryCursor = bloodStream.getGlucoseLevelRing().newCursor();
+
+
+	@FXML
+	private LineChart<Number, Number> historyChart;
+
+	private GlucoseHistoryChart historyChartView;
+
+	@FXML
+	private ChoiceBox<HistoryRange> historyRange;
+
 	@FXML
 	private LineChart<Number, Number> lineChart;
 
-	private PancreasSimulator pancreasSimulator = new PancreasSimulator();
+	private PancreasSimulator pancreasSimulator = new PancreasSimulator(this);
 
 	@FXML
 	private TextField readjustmentNegativeInjectionBoundary;
@@ -160,6 +212,8 @@ public class DisplayController {
 
 	private Series<Number, Number> series;
 
+	private GlucoseChartBuffer chartBuffer;
+
 	@FXML
 	private CheckBox simulationCheckBox;
 
@@ -178,8 +232,6 @@ public class DisplayController {
 	@FXML
 	private NumberAxis xAxis;
 
-	private double xSeriesData = 0;
-
 	@FXML
 	private NumberAxis yAxis;
 
@@ -263,14 +315,38 @@ public class DisplayController {
 
 	}
 
+	/**
+	 * @return Simulator of the pancreas which is controlled by the doctor's
+	 *         pane
+	 */
+	public PancreasSimulator getPancreasSimulator()
+	{
+		return pancreasSimulator;
+	}
+
 	@SuppressWarnings("unchecked")
 	public void initialize()
 	{
 		bindProperties();
 		messageBox.setVisible(false);
 		series = new XYChart.Series<Number, Number>();
+		// the data objects of the series are reused, which an animated
+		// removal would still be displaying
+		lineChart.setAnimated(false);
 		lineChart.getData().addAll(series);
+		chartBuffer = new GlucoseChartBuffer(series, NUM_OF_X_AXIS_SLICES);
 		series.getNode().setStyle("-fx-stroke: #989898; -fx-stroke-width: 2px; ");
+		historyChartView = new GlucoseHistoryChart(historyChart, glucoseLevelHistory);
+		historyRange.getItems().setAll(HistoryRange.values());
+		historyRange.setValue(HistoryRange.LIVE);
+		historyRange.valueProperty().addListener(new ChangeListener<HistoryRange>() {
+			@Override
+			public void changed(ObservableValue<? extends HistoryRange> observable,
+					HistoryRange oldValue, HistoryRange newValue)
+			{
+				showHistoryRange(newValue);
+			}
+		});
 		glucoseLevelSimulator.start();
 		pancreasSimulator.start();
 		doctorpane.setVisible(false);
@@ -279,37 +355,6 @@ public class DisplayController {
 
 	public void updateGui()
 	{
-		ConcurrentLinkedQueue<Number> glucoseLevelQueue = BloodStream.getInstance().getGlucoseLevelGuiQueue();
-
-		Double currentGlucoseLevelValue = (Double) glucoseLevelQueue.peek();
-		if (currentGlucoseLevelValue != null)
-		{
-			evaluateCurrentStatus(currentGlucoseLevelValue);
-		}
-
-		/*
-		 * "series" contains the actual values which are plotted. Those values
-		 * are retrieved from the glucose level of BloodStream. The BloodStream
-		 * on the other hand gets its values from the GlucoseLevelSimulator.
-		 */
-		int numOfPendingValues = glucoseLevelQueue.size();
-		for (int i = 0; i < numOfPendingValues; i++)
-		{
-			series.getData().add(new Data<Number, Number>(xSeriesData++, glucoseLevelQueue.remove()));
-		}
-
-		/*
-		 * If data is only added to series and not removed at some point, then
-		 * the graph will be squeezed by the time since the graph has a limited
-		 * window size. Therefore it is important to remove all data which
-		 * becomes "out dated" (the graph is intended to only to show the latest
-		 * x seconds (e.g. 30s). Any data older then that, will be removed).
-		 */
-		if (series.getData().size() > NUM_OF_X_AXIS_SLICES)
-		{
-			series.getData().remove(0, series.getData().size()
-					- NUM_OF_X_AXIS_SLICES);
-		}
 		consumptionBar.setVisible(false);
 		if(consumeButton.isDisabled()){
 			needle_removed.setDisable(true);
@@ -325,12 +370,39 @@ public class DisplayController {
 			printError("Needle removed");
 		}
 
+		PumpMetrics metrics = bloodStream.getMetrics();
+		if (metrics != null)
+		{
+			metrics.recordGlucoseLevelQueueDepth(glucoseLevelCursor.available());
+			metrics.recordEventBusLag(eventSubscription.getLag());
+		}
+		glucoseLevelHistory.addAll(glucoseLevelHistoryCursor);
+		eventSubscription.poll(eventHandler);
+		historyChartView.update(System.nanoTime());
+
+		/*
+		 * "series" contains the actual values which are plotted. Those values
+		 * are retrieved from the glucose level of BloodStream. The BloodStream
+		 * on the other hand gets its values from the GlucoseLevelSimulator.
+		 * All values since the last frame are added at once. If there is no
+		 * new value, nothing on the chart has changed and the frame is
+		 * skipped.
+		 */
+		if (chartBuffer.update(glucoseLevelCursor) == 0)
+		{
+			return;
+		}
+
+		double currentGlucoseLevelValue = bloodStream.getGlucoseLevelRing().getLatestValue();
+		evaluateCurrentStatus(currentGlucoseLevelValue);
+
 		updateTimeStamp();
 
 		/*
 		 * The setting of the lower and upper bound of the x axis results in a
 		 * moving graph. This enables the view of a specific time frame.
 		 */
+		long xSeriesData = chartBuffer.getXSeriesData();
 		xAxis.setLowerBound(xSeriesData - NUM_OF_X_AXIS_SLICES);
 		xAxis.setUpperBound(xSeriesData - 1);
 	}
@@ -351,16 +423,7 @@ public class DisplayController {
 
 	private void evaluateCurrentStatus(double currentGlucoseLevelValue)
 	{
-		if (currentGlucoseLevelValue > 17 || currentGlucoseLevelValue < 3)
-		{
-			setStatus(GlucoseLevelStatus.CRITICAL);
-		} else if (currentGlucoseLevelValue > 4 && currentGlucoseLevelValue < 8)
-		{
-			setStatus(GlucoseLevelStatus.GOOD);
-		} else
-		{
-			setStatus(GlucoseLevelStatus.ALERTING);
-		}
+		setStatus(GlucoseLevelStatus.of(currentGlucoseLevelValue, currentAlarm));
 	}
 
 	private double getAmountToConsume()
@@ -374,26 +437,27 @@ public class DisplayController {
 		return amountToConsume;
 	}
 
+	/**
+	 * Switches between the live chart and the chart of the history
+	 *
+	 * @param range
+	 *            Selected time range
+	 */
+	private void showHistoryRange(HistoryRange range)
+	{
+		boolean isLive = range == HistoryRange.LIVE;
+		lineChart.setVisible(isLive);
+		lineChart.setManaged(isLive);
+		historyChart.setVisible(!isLive);
+		historyChart.setManaged(!isLive);
+		historyChartView.setRange(range);
+	}
+
 	private void setStatus(GlucoseLevelStatus status)
 	{
 		statusLabel.setText(status.getValue());
-		switch (status)
-		{
-			case ALERTING:
-				statusLed.setFill(Color.ORANGE);
-				statusLed.setStroke(Color.ORANGE);
-				break;
-			case CRITICAL:
-				statusLed.setFill(Color.CRIMSON);
-				statusLed.setStroke(Color.CRIMSON);
-				break;
-			case GOOD:
-				statusLed.setFill(Color.GREEN);
-				statusLed.setStroke(Color.GREEN);
-				break;
-			default:
-				break;
-		}
+		statusLed.setFill(status.getColor());
+		statusLed.setStroke(status.getColor());
 	}
 
 	/**
@@ -0,0 +1,115 @@
+package de.frauas.scs.gui;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import javafx.scene.chart.XYChart.Data;
+import javafx.scene.chart.XYChart.Series;
+import de.frauas.scs.GlucoseSampleRing;
+
+/**
+ * Transfers new glucose level samples into the series of the chart. All
+ * samples which arrived since the last frame are applied with one bulk
+ * removal and one bulk addition instead of one list change per sample, and
+ * the {@link Data} objects of samples which left the visible window are
+ * reused for new samples.
+ *
+ */
+public class GlucoseChartBuffer {
+
+	/**
+	 * Data which were removed from the series in a previous frame and can be
+	 * reused
+	 */
+	private final ArrayDeque<Data<Number, Number>> freeData = new ArrayDeque<>();
+
+	private final ArrayList<Data<Number, Number>> newData = new ArrayList<>();
+
+	private final int numberOfSlices;
+
+	/**
+	 * Data which were removed in the current frame. They must not be reused
+	 * before the series has processed their removal.
+	 */
+	private final ArrayList<Data<Number, Number>> removedData = new ArrayList<>();
+
+	private final Series<Number, Number> series;
+
+	private long xSeriesData = 0;
+
+	/**
+	 * @param series
+	 *            Series of the chart
+	 * @param numberOfSlices
+	 *            Number of points visible in the chart
+	 */
+	public GlucoseChartBuffer(Series<Number, Number> series, int numberOfSlices) {
+		this.series = series;
+		this.numberOfSlices = numberOfSlices;
+	}
+
+	/**
+	 * @return x value of the next sample
+	 */
+	public long getXSeriesData()
+	{
+		return xSeriesData;
+	}
+
+	/**
+	 * Reads all pending samples of the cursor and applies them to the series.
+	 *
+	 * @param cursor
+	 *            Cursor of the GUI on the glucose level samples
+	 * @return Number of new samples. If 0, the series was not touched.
+	 */
+	public int update(GlucoseSampleRing.Cursor cursor)
+	{
+		int numOfPendingValues = 0;
+		while (cursor.next())
+		{
+			if (newData.size() == numberOfSlices)
+			{
+				// older samples of this frame would not be visible anyway
+				freeData.add(newData.remove(0));
+			}
+			Data<Number, Number> data = freeData.poll();
+			if (data == null)
+			{
+				data = new Data<Number, Number>(xSeriesData, cursor.getValue());
+			} else
+			{
+				data.setXValue(xSeriesData);
+				data.setYValue(cursor.getValue());
+			}
+			newData.add(data);
+			xSeriesData++;
+			numOfPendingValues++;
+		}
+		if (numOfPendingValues == 0)
+		{
+			return 0;
+		}
+
+		/*
+		 * If data is only added to series and not removed at some point, then
+		 * the graph will be squeezed by the time since the graph has a limited
+		 * window size. Therefore it is important to remove all data which
+		 * becomes "out dated" (the graph is intended to only to show the latest
+		 * x seconds (e.g. 30s). Any data older then that, will be removed).
+		 */
+		int numOfOutdatedValues = series.getData().size() + newData.size()
+				- numberOfSlices;
+		if (numOfOutdatedValues > 0)
+		{
+			removedData.addAll(series.getData().subList(0, numOfOutdatedValues));
+			series.getData().remove(0, numOfOutdatedValues);
+		}
+		series.getData().addAll(newData);
+		newData.clear();
+		freeData.addAll(removedData);
+		removedData.clear();
+		return numOfPendingValues;
+	}
+
+}
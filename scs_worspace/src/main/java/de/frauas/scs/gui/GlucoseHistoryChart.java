@@ -0,0 +1,152 @@
+package de.frauas.scs.gui;
+
+import java.util.ArrayList;
+
+import javafx.collections.ObservableList;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+import javafx.scene.chart.XYChart.Data;
+import javafx.scene.chart.XYChart.Series;
+import de.frauas.scs.GlucoseHistory;
+
+/**
+ * Shows hours or days of the {@link GlucoseHistory} in a chart. The history
+ * is reduced to at most {@link #MAX_POINTS} points by min-max decimation, so
+ * the chart never holds more points than it has pixels, no matter how long
+ * the simulation runs. The chart is only redrawn once per
+ * {@link #REDRAW_INTERVAL_IN_NANOS}, since a single new sample hardly changes
+ * a chart of several hours.
+ *
+ */
+public class GlucoseHistoryChart {
+
+	private final static int MAX_POINTS = 600;
+
+	private final static double MILLIS_PER_HOUR = 60 * 60 * 1000;
+
+	private final static long REDRAW_INTERVAL_IN_NANOS = 1000 * 1000 * 1000L;
+
+	private final LineChart<Number, Number> chart;
+
+	private final GlucoseHistory history;
+
+	private long lastRedrawInNanos;
+
+	private HistoryRange range = HistoryRange.LIVE;
+
+	private final Series<Number, Number> series = new XYChart.Series<Number, Number>();
+
+	private final long[] timestampsInMillis = new long[MAX_POINTS];
+
+	private final double[] values = new double[MAX_POINTS];
+
+	private final NumberAxis xAxis;
+
+	/**
+	 * @param chart
+	 *            Chart which displays the history
+	 * @param history
+	 *            History of the glucose level
+	 */
+	@SuppressWarnings("unchecked")
+	public GlucoseHistoryChart(LineChart<Number, Number> chart, GlucoseHistory history) {
+		this.chart = chart;
+		this.history = history;
+		this.xAxis = (NumberAxis) chart.getXAxis();
+		chart.setAnimated(false);
+		chart.getData().addAll(series);
+		series.getNode().setStyle("-fx-stroke: #989898; -fx-stroke-width: 2px; ");
+	}
+
+	public HistoryRange getRange()
+	{
+		return range;
+	}
+
+	/**
+	 * Changes the shown time range. The chart is redrawn with the next
+	 * {@link #update(long)}.
+	 *
+	 * @param range
+	 *            New time range
+	 */
+	public void setRange(HistoryRange range)
+	{
+		this.range = range;
+		lastRedrawInNanos = 0;
+	}
+
+	/**
+	 * Redraws the chart if the redraw interval has elapsed. Nothing is done
+	 * while the live range is selected.
+	 *
+	 * @param nowInNanos
+	 *            Current time in nanoseconds (e.g. of the animation pulse)
+	 */
+	public void update(long nowInNanos)
+	{
+		if (range == HistoryRange.LIVE)
+		{
+			return;
+		}
+		if (lastRedrawInNanos != 0 && nowInNanos - lastRedrawInNanos < REDRAW_INTERVAL_IN_NANOS)
+		{
+			return;
+		}
+		lastRedrawInNanos = nowInNanos;
+		redraw();
+	}
+
+	private void redraw()
+	{
+		long newest = history.getNewestTimestampInMillis();
+		if (newest < 0)
+		{
+			return;
+		}
+		long toMillis = newest + 1;
+		long fromMillis = history.getOldestTimestampInMillis();
+		if (range.getDurationInMillis() > 0)
+		{
+			fromMillis = toMillis - range.getDurationInMillis();
+		}
+		int numOfPoints = history.decimate(fromMillis, toMillis, MAX_POINTS,
+				timestampsInMillis, values);
+
+		/*
+		 * The data objects of the series are updated in place and only the
+		 * difference in the number of points is added or removed, so a
+		 * redraw does not create a new set of data objects.
+		 */
+		ObservableList<Data<Number, Number>> data = series.getData();
+		int numOfReused = Math.min(numOfPoints, data.size());
+		for (int i = 0; i < numOfReused; i++)
+		{
+			data.get(i).setXValue(timestampsInMillis[i] / MILLIS_PER_HOUR);
+			data.get(i).setYValue(values[i]);
+		}
+		if (data.size() > numOfPoints)
+		{
+			data.remove(numOfPoints, data.size());
+		} else if (numOfPoints > numOfReused)
+		{
+			ArrayList<Data<Number, Number>> newData = new ArrayList<>(numOfPoints - numOfReused);
+			for (int i = numOfReused; i < numOfPoints; i++)
+			{
+				newData.add(new Data<Number, Number>(timestampsInMillis[i] / MILLIS_PER_HOUR,
+						values[i]));
+			}
+			data.addAll(newData);
+		}
+
+		double lowerBound = Math.max(0, fromMillis) / MILLIS_PER_HOUR;
+		double upperBound = Math.max(lowerBound + 1 / 60d, toMillis / MILLIS_PER_HOUR);
+		xAxis.setLowerBound(lowerBound);
+		xAxis.setUpperBound(upperBound);
+		xAxis.setTickUnit((upperBound - lowerBound) / 6);
+		chart.setTitle(String.format("Blood Glucose Level (mean %.1f mmol/L)",
+				history.getMean(fromMillis, toMillis)));
+	}
+
+}
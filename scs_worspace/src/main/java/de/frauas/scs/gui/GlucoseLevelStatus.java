@@ -1,15 +1,62 @@
 package de.frauas.scs.gui;
 
+import javafx.scene.paint.Color;
+import de.frauas.scs.GlucoseTrendAlarm;
+import de.frauas.scs.simulation.GlucoseLevelSimulator;
+
 public enum GlucoseLevelStatus {
 
-	GOOD("Good"), ALERTING("Alerting"), CRITICAL("Critical");
+	GOOD("Good", Color.GREEN), ALERTING("Alerting", Color.ORANGE), PREDICTED_LOW("Predicted low",
+			Color.ORANGERED), PREDICTED_HIGH("Predicted high", Color.ORANGERED), CRITICAL("Critical",
+			Color.CRIMSON);
+
+	/**
+	 * Classifies a glucose level. A critical glucose level has priority,
+	 * otherwise a predicted critical level is shown before the current level
+	 * is classified.
+	 *
+	 * @param glucoseLevel
+	 *            Current glucose level in mmol/L
+	 * @param alarm
+	 *            Current alarm of the forecast
+	 * @return Status of the glucose level
+	 */
+	public static GlucoseLevelStatus of(double glucoseLevel, GlucoseTrendAlarm alarm)
+	{
+		if (glucoseLevel > GlucoseLevelSimulator.CRITICAL_GLUCOSE_LEVEL_HIGH
+				|| glucoseLevel < GlucoseLevelSimulator.CRITICAL_GLUCOSE_LEVEL_LOW)
+		{
+			return CRITICAL;
+		} else if (alarm == GlucoseTrendAlarm.PREDICTED_LOW)
+		{
+			return PREDICTED_LOW;
+		} else if (alarm == GlucoseTrendAlarm.PREDICTED_HIGH)
+		{
+			return PREDICTED_HIGH;
+		} else if (glucoseLevel > 4 && glucoseLevel < 8)
+		{
+			return GOOD;
+		}
+		return ALERTING;
+	}
 
-	GlucoseLevelStatus(String propertyValue) {
+	GlucoseLevelStatus(String propertyValue, Color color) {
 		this.propertyValue = propertyValue;
+		this.color = color;
 	}
 
+	private final Color color;
+
 	private final String propertyValue;
 
+	/**
+	 * @return Color of the status LED
+	 */
+	public Color getColor()
+	{
+		return color;
+	}
+
 	public String getValue()
 	{
 		return propertyValue;
@@ -0,0 +1,41 @@
+package de.frauas.scs.gui;
+
+/**
+ * Time ranges which can be shown in the chart. {@link #LIVE} shows the latest
+ * samples in full resolution, all others show the downsampled history.
+ *
+ */
+public enum HistoryRange {
+
+	LIVE("Live", 0), LAST_HOUR("1 h", 60 * 60 * 1000L), LAST_8_HOURS("8 h",
+			8 * 60 * 60 * 1000L), LAST_24_HOURS("24 h", 24 * 60 * 60 * 1000L), ALL(
+			"All", -1);
+
+	HistoryRange(String text, long durationInMillis) {
+		this.text = text;
+		this.durationInMillis = durationInMillis;
+	}
+
+	private final long durationInMillis;
+
+	private final String text;
+
+	/**
+	 * @return Duration of the range or -1 if the whole history is shown
+	 */
+	public long getDurationInMillis()
+	{
+		return durationInMillis;
+	}
+
+	public String getText()
+	{
+		return text;
+	}
+
+	@Override
+	public String toString()
+	{
+		return text;
+	}
+}
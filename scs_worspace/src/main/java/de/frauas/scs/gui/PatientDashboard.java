@@ -0,0 +1,264 @@
+package de.frauas.scs.gui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.event.EventHandler;
+import javafx.geometry.Orientation;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+import de.frauas.scs.BloodStream;
+import de.frauas.scs.simulation.GlucoseLevelSimulator;
+
+/**
+ * Monitors many patients on one screen. Each patient is a {@link PatientTile}
+ * with a sparkline, a status LED and the latest glucose level. All tiles are
+ * drawn onto one shared {@link Canvas} of the size of the view, so the scene
+ * graph consists of the canvas and a scroll bar no matter how many patients
+ * are monitored.
+ * <p>
+ * The tiles are virtualized: all tiles consume their events in each frame,
+ * but only the rows which are visible are drawn, and the canvas is only
+ * redrawn if a visible tile changed or the view was scrolled or resized.
+ *
+ */
+public final class PatientDashboard extends Region {
+
+	private final static Color BACKGROUND_COLOR = Color.web("#2b2b2b");
+
+	private final static double GAP = 6;
+
+	/**
+	 * Highest glucose level in mmol/L shown in the sparklines
+	 */
+	private final static double MAX_GLUCOSE_LEVEL = 20;
+
+	private final static double PADDING = 6;
+
+	private final static Color SAFE_RANGE_COLOR = Color.web("#2f4f2f");
+
+	private final static Color SPARKLINE_COLOR = Color.web("#d8d8d8");
+
+	private final static Color TEXT_COLOR = Color.WHITE;
+
+	private final static double TILE_HEIGHT = 84;
+
+	private final static Color TILE_COLOR = Color.web("#3c3f41");
+
+	private final static double TILE_WIDTH = 180;
+
+	private final Canvas canvas = new Canvas();
+
+	private final Font nameFont = Font.font(11);
+
+	/**
+	 * true if the whole view must be redrawn, e.g. after scrolling
+	 */
+	private boolean layoutChanged = true;
+
+	private int renderedTiles = 0;
+
+	private final ScrollBar scrollBar = new ScrollBar();
+
+	private final double[] sparklineX = new double[PatientTile.SPARKLINE_POINTS];
+
+	private final double[] sparklineY = new double[PatientTile.SPARKLINE_POINTS];
+
+	private final ArrayList<PatientTile> tiles = new ArrayList<>();
+
+	private final Font valueFont = Font.font(20);
+
+	public PatientDashboard() {
+		scrollBar.setOrientation(Orientation.VERTICAL);
+		scrollBar.valueProperty().addListener(new ChangeListener<Number>() {
+			@Override
+			public void changed(ObservableValue<? extends Number> observable,
+					Number oldValue, Number newValue)
+			{
+				layoutChanged = true;
+			}
+		});
+		setOnScroll(new EventHandler<ScrollEvent>() {
+			@Override
+			public void handle(ScrollEvent event)
+			{
+				double value = scrollBar.getValue() - event.getDeltaY();
+				scrollBar.setValue(Math.max(scrollBar.getMin(), Math.min(scrollBar.getMax(), value)));
+			}
+		});
+		getChildren().addAll(canvas, scrollBar);
+	}
+
+	/**
+	 * Adds a patient to the dashboard
+	 *
+	 * @param name
+	 *            Name shown on the tile
+	 * @param bloodStream
+	 *            Blood stream of the patient
+	 * @return Tile of the patient
+	 */
+	public PatientTile addPatient(String name, BloodStream bloodStream)
+	{
+		PatientTile tile = new PatientTile(name, bloodStream);
+		tiles.add(tile);
+		layoutChanged = true;
+		requestLayout();
+		return tile;
+	}
+
+	/**
+	 * @return Number of tiles drawn in the latest redraw
+	 */
+	public int getRenderedTiles()
+	{
+		return renderedTiles;
+	}
+
+	public List<PatientTile> getTiles()
+	{
+		return tiles;
+	}
+
+	/**
+	 * Consumes the new events of all patients and redraws the visible tiles
+	 * if necessary. Must be called on the FX thread, once per frame.
+	 */
+	public void update()
+	{
+		int columns = getColumns();
+		int firstVisible = getFirstVisibleRow() * columns;
+		int lastVisible = Math.min(tiles.size(), (getLastVisibleRow() + 1) * columns);
+		boolean visibleTileChanged = false;
+		for (int i = 0; i < tiles.size(); i++)
+		{
+			PatientTile tile = tiles.get(i);
+			if (tile.update() > 0 && i >= firstVisible && i < lastVisible)
+			{
+				visibleTileChanged = true;
+			}
+		}
+		if (layoutChanged || visibleTileChanged)
+		{
+			draw(columns, firstVisible, lastVisible);
+			layoutChanged = false;
+		}
+	}
+
+	@Override
+	protected void layoutChildren()
+	{
+		double scrollBarWidth = scrollBar.prefWidth(-1);
+		double width = Math.max(0, getWidth() - scrollBarWidth);
+		double height = getHeight();
+		canvas.setWidth(width);
+		canvas.setHeight(height);
+		scrollBar.resizeRelocate(width, 0, scrollBarWidth, height);
+
+		int rows = (tiles.size() + getColumns() - 1) / getColumns();
+		double contentHeight = rows * (TILE_HEIGHT + GAP) + GAP;
+		scrollBar.setMax(Math.max(0, contentHeight - height));
+		scrollBar.setVisibleAmount(height);
+		scrollBar.setUnitIncrement(TILE_HEIGHT + GAP);
+		scrollBar.setBlockIncrement(height);
+		if (scrollBar.getValue() > scrollBar.getMax())
+		{
+			scrollBar.setValue(scrollBar.getMax());
+		}
+		layoutChanged = true;
+	}
+
+	private void draw(int columns, int firstVisible, int lastVisible)
+	{
+		GraphicsContext graphics = canvas.getGraphicsContext2D();
+		graphics.setFill(BACKGROUND_COLOR);
+		graphics.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+		double offset = scrollBar.getValue();
+		for (int i = firstVisible; i < lastVisible; i++)
+		{
+			double x = GAP + (i % columns) * (TILE_WIDTH + GAP);
+			double y = GAP + (i / columns) * (TILE_HEIGHT + GAP) - offset;
+			drawTile(graphics, tiles.get(i), x, y);
+		}
+		renderedTiles = Math.max(0, lastVisible - firstVisible);
+	}
+
+	private void drawTile(GraphicsContext graphics, PatientTile tile, double x, double y)
+	{
+		graphics.setFill(TILE_COLOR);
+		graphics.fillRect(x, y, TILE_WIDTH, TILE_HEIGHT);
+
+		// sparkline below the texts, the range between the critical levels
+		// as band
+		double sparklineTop = y + 34;
+		double sparklineHeight = TILE_HEIGHT - 34 - PADDING;
+		double sparklineWidth = TILE_WIDTH - 2 * PADDING;
+		double bandTop = toY(GlucoseLevelSimulator.CRITICAL_GLUCOSE_LEVEL_HIGH, sparklineTop,
+				sparklineHeight);
+		double bandBottom = toY(GlucoseLevelSimulator.CRITICAL_GLUCOSE_LEVEL_LOW, sparklineTop,
+				sparklineHeight);
+		graphics.setFill(SAFE_RANGE_COLOR);
+		graphics.fillRect(x + PADDING, bandTop, sparklineWidth, bandBottom - bandTop);
+		int points = tile.getNumberOfPoints();
+		if (points > 1)
+		{
+			double step = sparklineWidth / (PatientTile.SPARKLINE_POINTS - 1);
+			// the newest point is always at the right edge
+			double startX = x + PADDING + (PatientTile.SPARKLINE_POINTS - points) * step;
+			for (int i = 0; i < points; i++)
+			{
+				sparklineX[i] = startX + i * step;
+				sparklineY[i] = toY(tile.getPoint(i), sparklineTop, sparklineHeight);
+			}
+			graphics.setStroke(SPARKLINE_COLOR);
+			graphics.setLineWidth(1);
+			graphics.strokePolyline(sparklineX, sparklineY, points);
+		}
+
+		graphics.setFill(tile.getStatus().getColor());
+		graphics.fillOval(x + PADDING, y + PADDING, 10, 10);
+		graphics.setFill(TEXT_COLOR);
+		graphics.setTextBaseline(VPos.TOP);
+		graphics.setTextAlign(TextAlignment.LEFT);
+		graphics.setFont(nameFont);
+		graphics.fillText(tile.getName(), x + PADDING + 14, y + PADDING - 1);
+		graphics.setTextAlign(TextAlignment.RIGHT);
+		graphics.setFont(valueFont);
+		graphics.fillText(tile.getValueText(), x + TILE_WIDTH - PADDING, y + PADDING - 3);
+	}
+
+	private int getColumns()
+	{
+		double width = canvas.getWidth();
+		return Math.max(1, (int) ((width - GAP) / (TILE_WIDTH + GAP)));
+	}
+
+	private int getFirstVisibleRow()
+	{
+		return Math.max(0, (int) ((scrollBar.getValue() - GAP) / (TILE_HEIGHT + GAP)));
+	}
+
+	private int getLastVisibleRow()
+	{
+		return (int) ((scrollBar.getValue() + canvas.getHeight()) / (TILE_HEIGHT + GAP));
+	}
+
+	/**
+	 * @return Vertical position of a glucose level in a sparkline
+	 */
+	private double toY(double glucoseLevel, double top, double height)
+	{
+		double clamped = Math.max(0, Math.min(MAX_GLUCOSE_LEVEL, glucoseLevel));
+		return top + height - clamped / MAX_GLUCOSE_LEVEL * height;
+	}
+
+}
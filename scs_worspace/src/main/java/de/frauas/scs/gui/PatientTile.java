@@ -0,0 +1,190 @@
+package de.frauas.scs.gui;
+
+import de.frauas.scs.BloodStream;
+import de.frauas.scs.GlucoseTrendAlarm;
+import de.frauas.scs.event.EventBus;
+import de.frauas.scs.event.EventHandler;
+
+/**
+ * State of one patient on the {@link PatientDashboard}: the latest glucose
+ * level, its status and a sparkline of the last minutes. The tile is a plain
+ * object without nodes of the scene graph, the dashboard draws it onto its
+ * canvas.
+ * <p>
+ * The tile subscribes to the event bus of the patient's blood stream and is
+ * only accessed by the FX thread. The sparkline is a ring of
+ * {@link #SPARKLINE_POINTS} means of {@link #SAMPLES_PER_POINT} samples each.
+ *
+ */
+public class PatientTile extends EventHandler {
+
+	/**
+	 * Number of samples (of 100ms) which are averaged into one point of the
+	 * sparkline
+	 */
+	public final static int SAMPLES_PER_POINT = 40;
+
+	/**
+	 * Number of points of the sparkline, i.e. 10 minutes
+	 */
+	public final static int SPARKLINE_POINTS = 150;
+
+	private GlucoseTrendAlarm alarm = GlucoseTrendAlarm.NONE;
+
+	private double bucketSum = 0;
+
+	private int bucketSamples = 0;
+
+	private double latestValue = Double.NaN;
+
+	private final String name;
+
+	private int numberOfPoints = 0;
+
+	/**
+	 * Index of the oldest point of the sparkline
+	 */
+	private int oldestPoint = 0;
+
+	private final double[] points = new double[SPARKLINE_POINTS];
+
+	private GlucoseLevelStatus status = GlucoseLevelStatus.GOOD;
+
+	private final EventBus.Subscription subscription;
+
+	/**
+	 * Latest value as text, only formatted if it changed in the shown
+	 * precision
+	 */
+	private String valueText = "-";
+
+	/**
+	 * Latest value in tenths of mmol/L, as shown in {@link #valueText}
+	 */
+	private long valueTenths = Long.MIN_VALUE;
+
+	/**
+	 * @param name
+	 *            Name of the patient shown on the tile
+	 * @param bloodStream
+	 *            Blood stream of the patient
+	 */
+	public PatientTile(String name, BloodStream bloodStream) {
+		this.name = name;
+		this.subscription = bloodStream.getEventBus().subscribe("Tile " + name);
+	}
+
+	/**
+	 * Stops the subscription of the tile
+	 */
+	public void close()
+	{
+		subscription.close();
+	}
+
+	public GlucoseTrendAlarm getAlarm()
+	{
+		return alarm;
+	}
+
+	/**
+	 * @return Latest glucose level in mmol/L or NaN if there is none yet
+	 */
+	public double getLatestValue()
+	{
+		return latestValue;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public int getNumberOfPoints()
+	{
+		return numberOfPoints;
+	}
+
+	/**
+	 * @param index
+	 *            Index of the point, 0 is the oldest one
+	 * @return Mean glucose level of the point in mmol/L
+	 */
+	public double getPoint(int index)
+	{
+		return points[(oldestPoint + index) % SPARKLINE_POINTS];
+	}
+
+	public GlucoseLevelStatus getStatus()
+	{
+		return status;
+	}
+
+	public EventBus.Subscription getSubscription()
+	{
+		return subscription;
+	}
+
+	/**
+	 * @return Latest glucose level as text
+	 */
+	public String getValueText()
+	{
+		return valueText;
+	}
+
+	@Override
+	public void onAlarm(long timestampInMillis, GlucoseTrendAlarm alarm)
+	{
+		this.alarm = alarm;
+	}
+
+	@Override
+	public void onEndOfBatch()
+	{
+		status = GlucoseLevelStatus.of(latestValue, alarm);
+		long tenths = Math.round(latestValue * 10);
+		if (tenths != valueTenths)
+		{
+			valueTenths = tenths;
+			valueText = String.format("%.1f", latestValue);
+		}
+	}
+
+	@Override
+	public void onSample(long timestampInMillis, double glucoseLevel)
+	{
+		latestValue = glucoseLevel;
+		bucketSum += glucoseLevel;
+		bucketSamples++;
+		if (bucketSamples == SAMPLES_PER_POINT)
+		{
+			addPoint(bucketSum / SAMPLES_PER_POINT);
+			bucketSum = 0;
+			bucketSamples = 0;
+		}
+	}
+
+	/**
+	 * Handles all events published since the last update
+	 *
+	 * @return Number of handled events
+	 */
+	public int update()
+	{
+		return subscription.poll(this);
+	}
+
+	private void addPoint(double value)
+	{
+		if (numberOfPoints < SPARKLINE_POINTS)
+		{
+			points[numberOfPoints++] = value;
+		} else
+		{
+			points[oldestPoint] = value;
+			oldestPoint = (oldestPoint + 1) % SPARKLINE_POINTS;
+		}
+	}
+
+}
@@ -0,0 +1,361 @@
+package de.frauas.scs.gui;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.property.Property;
+
+/**
+ * Hands the state of the simulator threads over to JavaFX properties. A
+ * simulator thread writes the latest state into a value of the bridge
+ * without locks, the bridge copies all changed values into their properties
+ * with one update on the FX thread.
+ * <p>
+ * Writing a value which did not change costs nothing but a comparison. The
+ * first change after an update queues the bridge for the next pulse, all
+ * further changes until then are coalesced into its update. Once per pulse
+ * one {@link AnimationTimer} updates all queued bridges, so the bridges post
+ * no tasks to the FX queue at all and the properties change at most once per
+ * frame, no matter how many bridges and values change how often. Only the
+ * properties of changed values are set.
+ * <p>
+ * Writes of several threads to the same value must not overlap, e.g. the FX
+ * thread may start a meal which the simulator thread ends. A property must
+ * only be changed through the bridge, otherwise the bridge does not notice
+ * that the property differs from its value.
+ *
+ */
+public class UiStateBridge {
+
+	/**
+	 * State which is copied into a property of the FX thread
+	 */
+	public abstract class Value {
+
+		private final long bit;
+
+		private Value() {
+			if (numberOfValues == Long.SIZE)
+			{
+				throw new IllegalStateException("A bridge holds at most " + Long.SIZE + " values");
+			}
+			values[numberOfValues] = this;
+			bit = 1L << numberOfValues++;
+		}
+
+		protected void changed()
+		{
+			writes.increment();
+			markDirty(bit);
+		}
+
+		protected abstract void update();
+	}
+
+	public class BooleanValue extends Value {
+
+		private final Property<Boolean> property;
+
+		private volatile boolean value;
+
+		private BooleanValue(Property<Boolean> property) {
+			this.property = property;
+			this.value = property.getValue();
+		}
+
+		public boolean get()
+		{
+			return value;
+		}
+
+		/**
+		 * Sets the value, may be called from any thread
+		 */
+		public void set(boolean value)
+		{
+			if (this.value != value)
+			{
+				this.value = value;
+				changed();
+			}
+		}
+
+		@Override
+		protected void update()
+		{
+			property.setValue(value);
+		}
+	}
+
+	public class DoubleValue extends Value {
+
+		private final Property<Number> property;
+
+		private volatile double value;
+
+		private DoubleValue(Property<Number> property) {
+			this.property = property;
+			this.value = property.getValue().doubleValue();
+		}
+
+		public double get()
+		{
+			return value;
+		}
+
+		/**
+		 * Sets the value, may be called from any thread
+		 */
+		public void set(double value)
+		{
+			if (Double.compare(this.value, value) != 0)
+			{
+				this.value = value;
+				changed();
+			}
+		}
+
+		@Override
+		protected void update()
+		{
+			property.setValue(value);
+		}
+	}
+
+	public class ObjectValue<T> extends Value {
+
+		private final Property<T> property;
+
+		private volatile T value;
+
+		private ObjectValue(Property<T> property) {
+			this.property = property;
+			this.value = property.getValue();
+		}
+
+		public T get()
+		{
+			return value;
+		}
+
+		/**
+		 * Sets the value, may be called from any thread
+		 */
+		public void set(T value)
+		{
+			if (this.value != value)
+			{
+				this.value = value;
+				changed();
+			}
+		}
+
+		@Override
+		protected void update()
+		{
+			property.setValue(value);
+		}
+	}
+
+	/**
+	 * true as soon as the first bridge started the timer which updates the
+	 * queued bridges once per pulse
+	 */
+	private final static AtomicBoolean IS_PULSE_TIMER_STARTED = new AtomicBoolean();
+
+	/**
+	 * Bridges with changed values which are updated on the next pulse
+	 */
+	private final static ConcurrentLinkedQueue<UiStateBridge> QUEUED_BRIDGES = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Starts the timer of the pulses on the FX thread, only once
+	 */
+	private static void startPulseTimer()
+	{
+		if (!IS_PULSE_TIMER_STARTED.compareAndSet(false, true))
+		{
+			return;
+		}
+		Platform.runLater(new Runnable() {
+			@Override
+			public void run()
+			{
+				new AnimationTimer() {
+					@Override
+					public void handle(long now)
+					{
+						updateQueuedBridges();
+					}
+				}.start();
+			}
+		});
+	}
+
+	/**
+	 * Updates all queued bridges. Called on the FX thread once per pulse.
+	 */
+	private static void updateQueuedBridges()
+	{
+		UiStateBridge bridge;
+		while ((bridge = QUEUED_BRIDGES.poll()) != null)
+		{
+			bridge.update();
+		}
+	}
+
+	/**
+	 * One bit per value which changed since the last update. It is not 0 as
+	 * long as an update is pending.
+	 */
+	private final AtomicLong dirtyValues = new AtomicLong();
+
+	/**
+	 * Runs the updates, or null if the bridge is updated once per pulse
+	 */
+	private final Executor fxExecutor;
+
+	private int numberOfValues = 0;
+
+	private final LongAdder updates = new LongAdder();
+
+	/**
+	 * Copies the changed values, the same task is reused for every update
+	 */
+	private final Runnable updateTask = new Runnable() {
+		@Override
+		public void run()
+		{
+			update();
+		}
+	};
+
+	private final Value[] values = new Value[Long.SIZE];
+
+	private final LongAdder writes = new LongAdder();
+
+	/**
+	 * Creates a bridge which updates its properties on the FX thread together
+	 * with all other bridges once per pulse
+	 */
+	public UiStateBridge() {
+		this(null);
+	}
+
+	/**
+	 * @param fxExecutor
+	 *            Runs each update of the properties on its own, e.g. on the
+	 *            FX thread, or null to update them once per pulse
+	 */
+	public UiStateBridge(Executor fxExecutor) {
+		this.fxExecutor = fxExecutor;
+	}
+
+	/**
+	 * @return Number of updates which were scheduled, i.e. pulses in which
+	 *         the properties of this bridge were set
+	 */
+	public long getUpdates()
+	{
+		return updates.sum();
+	}
+
+	/**
+	 * @return Number of changes of the values, each of which would have been
+	 *         an own update without the bridge
+	 */
+	public long getWrites()
+	{
+		return writes.sum();
+	}
+
+	/**
+	 * Adds a value of the property. Values must be added before the bridge
+	 * is used by other threads.
+	 *
+	 * @param property
+	 *            Property which is only changed by the bridge
+	 * @return Value which can be set by any thread
+	 */
+	public BooleanValue newBoolean(Property<Boolean> property)
+	{
+		return new BooleanValue(property);
+	}
+
+	/**
+	 * @see #newBoolean(Property)
+	 */
+	public DoubleValue newDouble(Property<Number> property)
+	{
+		return new DoubleValue(property);
+	}
+
+	/**
+	 * @see #newBoolean(Property)
+	 */
+	public <T> ObjectValue<T> newObject(Property<T> property)
+	{
+		return new ObjectValue<T>(property);
+	}
+
+	/**
+	 * Copies all changed values into their properties. Called on the FX
+	 * thread by the pulse or the executor.
+	 */
+	void update()
+	{
+		long dirty = dirtyValues.getAndSet(0);
+		while (dirty != 0)
+		{
+			int index = Long.numberOfTrailingZeros(dirty);
+			values[index].update();
+			dirty &= dirty - 1;
+		}
+	}
+
+	/**
+	 * Schedules the next update after the first change
+	 */
+	private void schedule()
+	{
+		if (fxExecutor != null)
+		{
+			fxExecutor.execute(updateTask);
+		} else
+		{
+			QUEUED_BRIDGES.add(this);
+			if (!IS_PULSE_TIMER_STARTED.get())
+			{
+				startPulseTimer();
+			}
+		}
+	}
+
+	private void markDirty(long bit)
+	{
+		while (true)
+		{
+			long dirty = dirtyValues.get();
+			if ((dirty & bit) != 0)
+			{
+				// already part of the pending update
+				return;
+			}
+			if (dirtyValues.compareAndSet(dirty, dirty | bit))
+			{
+				if (dirty == 0)
+				{
+					updates.increment();
+					schedule();
+				}
+				return;
+			}
+		}
+	}
+
+}
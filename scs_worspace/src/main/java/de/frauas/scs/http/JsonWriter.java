@@ -0,0 +1,138 @@
+package de.frauas.scs.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes JSON into a buffer, only what the snapshots of the
+ * {@link PumpStatePublisher} need: objects, arrays, numbers and strings.
+ * Commas are inserted automatically, numbers which are not finite are
+ * written as null.
+ *
+ */
+class JsonWriter {
+
+	private final StringBuilder json = new StringBuilder();
+
+	/**
+	 * true if the next value or name must be separated by a comma
+	 */
+	private boolean needsComma = false;
+
+	JsonWriter beginArray()
+	{
+		separate();
+		json.append('[');
+		needsComma = false;
+		return this;
+	}
+
+	JsonWriter beginObject()
+	{
+		separate();
+		json.append('{');
+		needsComma = false;
+		return this;
+	}
+
+	JsonWriter endArray()
+	{
+		json.append(']');
+		needsComma = true;
+		return this;
+	}
+
+	JsonWriter endObject()
+	{
+		json.append('}');
+		needsComma = true;
+		return this;
+	}
+
+	JsonWriter name(String name)
+	{
+		separate();
+		appendString(name);
+		json.append(':');
+		needsComma = false;
+		return this;
+	}
+
+	/**
+	 * @return The JSON in UTF-8
+	 */
+	byte[] toBytes()
+	{
+		return toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String toString()
+	{
+		return json.toString();
+	}
+
+	JsonWriter value(double value)
+	{
+		separate();
+		if (Double.isNaN(value) || Double.isInfinite(value))
+		{
+			json.append("null");
+		} else
+		{
+			json.append(value);
+		}
+		needsComma = true;
+		return this;
+	}
+
+	JsonWriter value(long value)
+	{
+		separate();
+		json.append(value);
+		needsComma = true;
+		return this;
+	}
+
+	JsonWriter value(String value)
+	{
+		separate();
+		if (value == null)
+		{
+			json.append("null");
+		} else
+		{
+			appendString(value);
+		}
+		needsComma = true;
+		return this;
+	}
+
+	private void appendString(String text)
+	{
+		json.append('"');
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\')
+			{
+				json.append('\\').append(c);
+			} else if (c < ' ')
+			{
+				json.append(String.format("\\u%04x", (int) c));
+			} else
+			{
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	private void separate()
+	{
+		if (needsComma)
+		{
+			json.append(',');
+		}
+	}
+
+}
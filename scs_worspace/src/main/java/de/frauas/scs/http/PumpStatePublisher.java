@@ -0,0 +1,492 @@
+package de.frauas.scs.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.frauas.scs.AbsorptionTimeline;
+import de.frauas.scs.BloodStream;
+import de.frauas.scs.GlucoseTrendAlarm;
+import de.frauas.scs.RollingStatistics;
+import de.frauas.scs.event.EventBus;
+import de.frauas.scs.event.EventHandler;
+import de.frauas.scs.simulation.ControllerSettings;
+import de.frauas.scs.simulation.DosingAlgorithmType;
+import de.frauas.scs.simulation.GlucoseLevelModel;
+import de.frauas.scs.simulation.PancreasModel;
+
+/**
+ * Follows the state of a pump on its own thread and keeps it serialized as
+ * JSON for any number of readers. The publisher reads the events of the
+ * {@link EventBus} of the blood stream with its own subscription and the
+ * volatile settings of the {@link PancreasModel}, so it never touches the
+ * tick thread. After each batch of events the snapshots are replaced as a
+ * whole, a reader simply writes the current byte array.
+ * <p>
+ * Each event is also serialized once as a server-sent event and appended to
+ * a ring of frames which the readers of the stream follow with their own
+ * sequence. A reader which falls behind by more than the capacity of the
+ * ring skips the overwritten frames, it never slows down the publisher or
+ * the other readers.
+ * <p>
+ * The active insulin and glucagon are estimated from the doses on the bus:
+ * the publisher absorbs each dose with the same curve as the blood stream,
+ * one slice per {@link GlucoseLevelModel#SIMULATION_STEPS_IN_MILLIS} of
+ * simulated time.
+ *
+ */
+public class PumpStatePublisher {
+
+	private class StateHandler extends EventHandler {
+
+		@Override
+		public void onAlarm(long timestampInMillis, GlucoseTrendAlarm newAlarm)
+		{
+			alarm = newAlarm;
+			appendFrame("alarm", new JsonWriter().beginObject()
+					.name("timestampInMillis").value(timestampInMillis)
+					.name("alarm").value(newAlarm.name()).endObject());
+		}
+
+		@Override
+		public void onDose(long timestampInMillis, double effect_mmol_L, double slots)
+		{
+			if (effect_mmol_L < 0)
+			{
+				insulinTimeline.add(PancreasModel.getBalancingCurve(slots), effect_mmol_L);
+				activeInsulin_mmol_L -= effect_mmol_L;
+				insulinDoses++;
+			} else
+			{
+				glucagonTimeline.add(PancreasModel.getBalancingCurve(slots), effect_mmol_L);
+				activeGlucagon_mmol_L += effect_mmol_L;
+				glucagonDoses++;
+			}
+			appendFrame("dose", new JsonWriter().beginObject()
+					.name("timestampInMillis").value(timestampInMillis)
+					.name("effect").value(effect_mmol_L)
+					.name("slots").value(slots).endObject());
+		}
+
+		@Override
+		public void onEndOfBatch()
+		{
+			publishSnapshots();
+		}
+
+		@Override
+		public void onMeal(long timestampInMillis, double kcal, double increase_mmol_L)
+		{
+			meals++;
+			appendFrame("meal", new JsonWriter().beginObject()
+					.name("timestampInMillis").value(timestampInMillis)
+					.name("kcal").value(kcal)
+					.name("increase").value(increase_mmol_L).endObject());
+		}
+
+		@Override
+		public void onSample(long timestampInMillis, double glucoseLevel)
+		{
+			absorbDoses(timestampInMillis);
+			latestTimestampInMillis = timestampInMillis;
+			latestGlucoseLevel = glucoseLevel;
+			trend.add(timestampInMillis, glucoseLevel);
+			if (historyCount == 0
+					|| timestampInMillis >= historyTimestampsInMillis[newestHistoryIndex()]
+							+ HISTORY_INTERVAL_IN_MILLIS)
+			{
+				addToHistory(timestampInMillis, glucoseLevel);
+			}
+			appendFrame("sample", new JsonWriter().beginObject()
+					.name("timestampInMillis").value(timestampInMillis)
+					.name("glucoseLevel").value(glucoseLevel).endObject());
+		}
+
+	}
+
+	/**
+	 * Number of frames of the stream which are kept for slow readers, about
+	 * 100 seconds of samples
+	 */
+	private final static int STREAM_CAPACITY = 1024;
+
+	/**
+	 * Simulated time between two glucose levels of the history
+	 */
+	private final static long HISTORY_INTERVAL_IN_MILLIS = 1000;
+
+	/**
+	 * Number of glucose levels in the history, 15 minutes
+	 */
+	private final static int HISTORY_SIZE = 900;
+
+	private final static long SLICE_IN_MILLIS = GlucoseLevelModel.SIMULATION_STEPS_IN_MILLIS;
+
+	private final static int STREAM_MASK = STREAM_CAPACITY - 1;
+
+	/**
+	 * Window of the least squares slope which is reported as trend
+	 */
+	private final static long TREND_WINDOW_IN_MILLIS = 15 * 60 * 1000;
+
+	/**
+	 * Simulated time up to which the doses are absorbed
+	 */
+	private long absorbedTimeInMillis = Long.MIN_VALUE;
+
+	private double activeGlucagon_mmol_L = 0;
+
+	private double activeInsulin_mmol_L = 0;
+
+	private GlucoseTrendAlarm alarm = GlucoseTrendAlarm.NONE;
+
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Server-sent events, the frame of a sequence is at sequence &amp;
+	 * {@link #STREAM_MASK}
+	 */
+	private final byte[][] frames = new byte[STREAM_CAPACITY][];
+
+	/**
+	 * Guards {@link #newFrames}, readers wait for frames with it
+	 */
+	private final ReentrantLock framesLock = new ReentrantLock();
+
+	private long glucagonDoses = 0;
+
+	private final AbsorptionTimeline glucagonTimeline = new AbsorptionTimeline();
+
+	private final EventHandler handler = new StateHandler();
+
+	private int historyCount = 0;
+
+	private volatile byte[] historyJson;
+
+	/**
+	 * Index of the oldest glucose level of the history
+	 */
+	private int historyHead = 0;
+
+	private final long[] historyTimestampsInMillis = new long[HISTORY_SIZE];
+
+	private final double[] historyValues = new double[HISTORY_SIZE];
+
+	private boolean isHistoryChanged = true;
+
+	private long insulinDoses = 0;
+
+	private final AbsorptionTimeline insulinTimeline = new AbsorptionTimeline();
+
+	private double latestGlucoseLevel = Double.NaN;
+
+	private long latestTimestampInMillis = 0;
+
+	private long meals = 0;
+
+	private final Condition newFrames = framesLock.newCondition();
+
+	private final PancreasModel pancreasModel;
+
+	/**
+	 * Sequence of the next frame
+	 */
+	private volatile long publishedFrames = 0;
+
+	/**
+	 * Dosing algorithm of {@link #settingsJson}
+	 */
+	private DosingAlgorithmType publishedDosingAlgorithmType;
+
+	/**
+	 * Settings of {@link #settingsJson}
+	 */
+	private ControllerSettings publishedSettings;
+
+	private volatile byte[] settingsJson;
+
+	private volatile byte[] stateJson;
+
+	private final EventBus.Subscription subscription;
+
+	private final RollingStatistics trend = new RollingStatistics(TREND_WINDOW_IN_MILLIS, SLICE_IN_MILLIS);
+
+	/**
+	 * @param bloodStream
+	 *            Blood stream of the pump, whose events are followed from now
+	 *            on
+	 * @param pancreasModel
+	 *            Controller of the pump, only its settings are read
+	 */
+	public PumpStatePublisher(BloodStream bloodStream, PancreasModel pancreasModel) {
+		this.pancreasModel = pancreasModel;
+		subscription = bloodStream.getEventBus().subscribe("http");
+		publishSnapshots();
+	}
+
+	/**
+	 * Waits until the frame of the sequence is published
+	 *
+	 * @param sequence
+	 *            Sequence of the frame
+	 * @param timeoutInMillis
+	 *            Maximum time to wait
+	 * @return false if the frame was not published within the timeout
+	 * @throws InterruptedException
+	 *             If the waiting thread is interrupted
+	 */
+	public boolean awaitFrame(long sequence, long timeoutInMillis) throws InterruptedException
+	{
+		if (sequence < publishedFrames)
+		{
+			return true;
+		}
+		long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+		framesLock.lock();
+		try
+		{
+			while (sequence >= publishedFrames)
+			{
+				if (remainingNanos <= 0)
+				{
+					return false;
+				}
+				remainingNanos = newFrames.awaitNanos(remainingNanos);
+			}
+			return true;
+		} finally
+		{
+			framesLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a frame of the stream, i.e. one server-sent event
+	 *
+	 * @param sequence
+	 *            Sequence of a published frame
+	 * @return The frame in UTF-8 or null if it is already overwritten
+	 */
+	public byte[] getFrame(long sequence)
+	{
+		byte[] frame = frames[(int) (sequence & STREAM_MASK)];
+		// the slot may have been reused while it was read
+		return sequence < getOldestFrame() ? null : frame;
+	}
+
+	/**
+	 * @return Glucose levels of the last 15 minutes, one per second, as JSON
+	 */
+	public byte[] getHistoryJson()
+	{
+		return historyJson;
+	}
+
+	/**
+	 * @return Sequence of the oldest frame which is still kept
+	 */
+	public long getOldestFrame()
+	{
+		return Math.max(0, publishedFrames - STREAM_CAPACITY);
+	}
+
+	/**
+	 * @return Sequence of the next frame
+	 */
+	public long getPublishedFrames()
+	{
+		return publishedFrames;
+	}
+
+	/**
+	 * @return Controller settings and dosing algorithm as JSON
+	 */
+	public byte[] getSettingsJson()
+	{
+		return settingsJson;
+	}
+
+	/**
+	 * @return Current glucose level, trend, alarm, active hormones and
+	 *         counters as JSON
+	 */
+	public byte[] getStateJson()
+	{
+		return stateJson;
+	}
+
+	/**
+	 * Reads the pending events of the blood stream and replaces the
+	 * snapshots. Called periodically after {@link #start()}, must only be
+	 * called by one thread.
+	 */
+	public void poll()
+	{
+		if (subscription.poll(handler) == 0)
+		{
+			// the settings may change without any event
+			publishSnapshots();
+		}
+	}
+
+	/**
+	 * Follows the blood stream on a daemon thread, one poll per slice of the
+	 * glucose level
+	 */
+	public synchronized void start()
+	{
+		if (executor != null)
+		{
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "pump-state-publisher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run()
+			{
+				poll();
+			}
+		}, 0, SLICE_IN_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops following the blood stream, the snapshots keep their last state
+	 */
+	public synchronized void stop()
+	{
+		if (executor != null)
+		{
+			executor.shutdownNow();
+			executor = null;
+		}
+		subscription.close();
+	}
+
+	/**
+	 * Absorbs the doses in all slices since the last sample
+	 */
+	private void absorbDoses(long timestampInMillis)
+	{
+		if (absorbedTimeInMillis == Long.MIN_VALUE)
+		{
+			absorbedTimeInMillis = timestampInMillis;
+		}
+		while (absorbedTimeInMillis < timestampInMillis)
+		{
+			activeInsulin_mmol_L += insulinTimeline.nextEffect();
+			activeGlucagon_mmol_L -= glucagonTimeline.nextEffect();
+			absorbedTimeInMillis += SLICE_IN_MILLIS;
+		}
+		// rounding errors must not keep a dose active forever
+		if (insulinTimeline.isEmpty())
+		{
+			activeInsulin_mmol_L = 0;
+		}
+		if (glucagonTimeline.isEmpty())
+		{
+			activeGlucagon_mmol_L = 0;
+		}
+	}
+
+	private void addToHistory(long timestampInMillis, double glucoseLevel)
+	{
+		int index;
+		if (historyCount < HISTORY_SIZE)
+		{
+			index = (historyHead + historyCount++) % HISTORY_SIZE;
+		} else
+		{
+			index = historyHead;
+			historyHead = (historyHead + 1) % HISTORY_SIZE;
+		}
+		historyTimestampsInMillis[index] = timestampInMillis;
+		historyValues[index] = glucoseLevel;
+		isHistoryChanged = true;
+	}
+
+	private void appendFrame(String event, JsonWriter data)
+	{
+		long sequence = publishedFrames;
+		frames[(int) (sequence & STREAM_MASK)] = ("event: " + event + "\ndata: " + data + "\n\n")
+				.getBytes(StandardCharsets.UTF_8);
+		publishedFrames = sequence + 1;
+	}
+
+	private int newestHistoryIndex()
+	{
+		return (historyHead + historyCount - 1) % HISTORY_SIZE;
+	}
+
+	/**
+	 * Replaces the snapshots which changed and wakes up the readers of the
+	 * stream
+	 */
+	private void publishSnapshots()
+	{
+		stateJson = new JsonWriter().beginObject()
+				.name("timestampInMillis").value(latestTimestampInMillis)
+				.name("glucoseLevel").value(latestGlucoseLevel)
+				.name("trendPerMinute").value(trend.getCount() < 2 ? Double.NaN : trend.getSlopePerMinute())
+				.name("alarm").value(alarm.name())
+				.name("activeInsulin").value(activeInsulin_mmol_L)
+				.name("activeGlucagon").value(activeGlucagon_mmol_L)
+				.name("insulinDoses").value(insulinDoses)
+				.name("glucagonDoses").value(glucagonDoses)
+				.name("meals").value(meals)
+				.name("lostEvents").value(subscription.getLostEvents())
+				.endObject().toBytes();
+		if (isHistoryChanged)
+		{
+			JsonWriter history = new JsonWriter().beginObject()
+					.name("intervalInMillis").value(HISTORY_INTERVAL_IN_MILLIS)
+					.name("samples").beginArray();
+			for (int i = 0; i < historyCount; i++)
+			{
+				int index = (historyHead + i) % HISTORY_SIZE;
+				history.beginArray().value(historyTimestampsInMillis[index])
+						.value(historyValues[index]).endArray();
+			}
+			historyJson = history.endArray().endObject().toBytes();
+			isHistoryChanged = false;
+		}
+		ControllerSettings settings = pancreasModel.getSettings();
+		DosingAlgorithmType dosingAlgorithmType = pancreasModel.getDosingAlgorithmType();
+		if (settings != publishedSettings || dosingAlgorithmType != publishedDosingAlgorithmType
+				|| settingsJson == null)
+		{
+			settingsJson = new JsonWriter().beginObject()
+					.name("dosingAlgorithm").value(dosingAlgorithmType == null ? "CUSTOM"
+							: dosingAlgorithmType.name())
+					.name("balancingRangeMaximum").value(settings.getBalancingRangeMaximum())
+					.name("balancingRangeMinimum").value(settings.getBalancingRangeMinimum())
+					.name("readjustmentNegativeInjectionBoundary")
+					.value(settings.getReadjustmentNegativeInjectionBoundary())
+					.name("readjustmentPositiveInjectionBoundary")
+					.value(settings.getReadjustmentPositiveInjectionBoundary())
+					.endObject().toBytes();
+			publishedSettings = settings;
+			publishedDosingAlgorithmType = dosingAlgorithmType;
+		}
+		framesLock.lock();
+		try
+		{
+			newFrames.signalAll();
+		} finally
+		{
+			framesLock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,303 @@
+package de.frauas.scs.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.frauas.scs.BloodStream;
+import de.frauas.scs.simulation.ExecutionMode;
+import de.frauas.scs.simulation.PancreasModel;
+import de.frauas.scs.simulation.PatientProfile;
+import de.frauas.scs.simulation.RealTimeSession;
+
+/**
+ * Serves the state of a pump as JSON over HTTP on the loopback interface, so
+ * it can be monitored without the GUI:
+ * <ul>
+ * <li>GET /api/state: glucose level, trend, alarm, active insulin and
+ * glucagon</li>
+ * <li>GET /api/history: glucose levels of the last 15 minutes</li>
+ * <li>GET /api/settings: controller settings and dosing algorithm</li>
+ * <li>GET /api/stream: server-sent events of the samples, doses, meals and
+ * alarms as they are produced</li>
+ * </ul>
+ * The responses are the pre-serialized snapshots of a
+ * {@link PumpStatePublisher}, so a request costs no more than writing a byte
+ * array and never reaches the tick thread. Each exchange runs on its own
+ * virtual thread, hundreds of streams merely park until the next frame is
+ * published.
+ * <p>
+ * The settings are read only, they are changed on the doctor's pane.
+ * Requests whose Host header is not localhost or 127.0.0.1 are rejected, so
+ * a web page cannot read the pump through a DNS name which it rebinds to
+ * the loopback interface.
+ *
+ */
+public class TelemetryServer {
+
+	/**
+	 * Handles a GET of one pre-serialized snapshot
+	 */
+	private abstract class SnapshotHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			try
+			{
+				if (isValidGet(exchange))
+				{
+					byte[] snapshot = getSnapshot();
+					exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+					exchange.getResponseHeaders().set("Cache-Control", "no-store");
+					exchange.sendResponseHeaders(200, snapshot.length);
+					exchange.getResponseBody().write(snapshot);
+				}
+			} finally
+			{
+				exchange.close();
+			}
+		}
+
+		protected abstract byte[] getSnapshot();
+	}
+
+	/**
+	 * Streams the frames of the publisher as server-sent events until the
+	 * client disconnects. The stream starts with the current state.
+	 */
+	private class StreamHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			try
+			{
+				if (!isValidGet(exchange))
+				{
+					return;
+				}
+				Headers headers = exchange.getResponseHeaders();
+				headers.set("Content-Type", "text/event-stream; charset=utf-8");
+				headers.set("Cache-Control", "no-cache");
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream out = exchange.getResponseBody();
+				long next = publisher.getPublishedFrames();
+				out.write(STATE_EVENT);
+				out.write(publisher.getStateJson());
+				out.write(END_OF_EVENT);
+				out.flush();
+				while (!Thread.currentThread().isInterrupted())
+				{
+					if (!publisher.awaitFrame(next, KEEP_ALIVE_IN_MILLIS))
+					{
+						// detects clients which are gone
+						out.write(KEEP_ALIVE_COMMENT);
+						out.flush();
+						continue;
+					}
+					// frames which were overwritten are skipped
+					next = Math.max(next, publisher.getOldestFrame());
+					long published = publisher.getPublishedFrames();
+					while (next < published)
+					{
+						byte[] frame = publisher.getFrame(next++);
+						if (frame != null)
+						{
+							out.write(frame);
+						}
+					}
+					out.flush();
+				}
+			} catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			} catch (IOException e)
+			{
+				// the client closed the stream
+			} finally
+			{
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * Port of the server if none is given
+	 */
+	public final static int DEFAULT_PORT = 8080;
+
+	/**
+	 * Maximum number of connections which wait to be accepted
+	 */
+	private final static int BACKLOG = 512;
+
+	private final static byte[] END_OF_EVENT = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+	private final static String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+
+	private final static byte[] KEEP_ALIVE_COMMENT = ": keep-alive\n\n".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * Time after which a stream without events sends a comment
+	 */
+	private final static long KEEP_ALIVE_IN_MILLIS = 15 * 1000;
+
+	private final static byte[] STATE_EVENT = "event: state\ndata: ".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * Serves a headless pump in real time, e.g. to try the API with curl.
+	 * <br>
+	 * Usage: TelemetryServer [port]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		RealTimeSession session = new RealTimeSession(new PatientProfile());
+		TelemetryServer server = new TelemetryServer(port, session.getBloodStream(),
+				session.getPancreasModel());
+		server.start();
+		session.start(ExecutionMode.SHARED_SCHEDULER);
+		System.out.println("Serving http://localhost:" + server.getPort() + "/api/state");
+	}
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	private final PumpStatePublisher publisher;
+
+	private final HttpServer server;
+
+	/**
+	 * Binds the server to the loopback interface. It does not serve before
+	 * {@link #start()}.
+	 *
+	 * @param port
+	 *            Port of the server, 0 for any free port
+	 * @param bloodStream
+	 *            Blood stream of the pump
+	 * @param pancreasModel
+	 *            Controller of the pump
+	 * @throws IOException
+	 *             If the port cannot be bound
+	 */
+	public TelemetryServer(int port, BloodStream bloodStream, PancreasModel pancreasModel)
+			throws IOException {
+		publisher = new PumpStatePublisher(bloodStream, pancreasModel);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+				BACKLOG);
+		server.setExecutor(executor);
+		server.createContext("/api/history", new SnapshotHandler() {
+			@Override
+			protected byte[] getSnapshot()
+			{
+				return publisher.getHistoryJson();
+			}
+		});
+		server.createContext("/api/settings", new SnapshotHandler() {
+			@Override
+			protected byte[] getSnapshot()
+			{
+				return publisher.getSettingsJson();
+			}
+		});
+		server.createContext("/api/state", new SnapshotHandler() {
+			@Override
+			protected byte[] getSnapshot()
+			{
+				return publisher.getStateJson();
+			}
+		});
+		server.createContext("/api/stream", new StreamHandler());
+	}
+
+	/**
+	 * @return Port the server is bound to
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	public PumpStatePublisher getPublisher()
+	{
+		return publisher;
+	}
+
+	/**
+	 * Starts following the pump and serving requests
+	 */
+	public void start()
+	{
+		publisher.start();
+		server.start();
+	}
+
+	/**
+	 * Closes all connections, including the streams, and stops following the
+	 * pump
+	 */
+	public void stop()
+	{
+		server.stop(0);
+		executor.shutdownNow();
+		publisher.stop();
+	}
+
+	/**
+	 * Answers anything but a GET of the exact path of the context on a local
+	 * host with an error
+	 */
+	private boolean isValidGet(HttpExchange exchange) throws IOException
+	{
+		if (!isLocalHost(exchange.getRequestHeaders().getFirst("Host")))
+		{
+			exchange.sendResponseHeaders(403, -1);
+			return false;
+		}
+		if (!exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath()))
+		{
+			exchange.sendResponseHeaders(404, -1);
+			return false;
+		}
+		if (!"GET".equals(exchange.getRequestMethod()))
+		{
+			exchange.getResponseHeaders().set("Allow", "GET");
+			exchange.sendResponseHeaders(405, -1);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param host
+	 *            Host header of a request, null if there is none
+	 * @return true if the host is localhost, 127.0.0.1 or [::1], with no port
+	 *         or the port of the server
+	 */
+	private boolean isLocalHost(String host)
+	{
+		if (host == null)
+		{
+			return false;
+		}
+		// an IPv6 literal is bracketed, as the loopback address may be ::1
+		int end = host.startsWith("[") ? host.indexOf(']') + 1 : 0;
+		int colon = host.indexOf(':', end);
+		String name = colon < 0 ? host : host.substring(0, colon);
+		if (colon >= 0 && !host.substring(colon + 1).equals(Integer.toString(getPort())))
+		{
+			return false;
+		}
+		return name.equalsIgnoreCase("localhost") || name.equals("127.0.0.1") || name.equals("[::1]");
+	}
+
+}
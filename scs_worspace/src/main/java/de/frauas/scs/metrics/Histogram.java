@@ -0,0 +1,235 @@
+package de.frauas.scs.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values, e.g. latencies in nanoseconds or
+ * depths of queues. Like an HdrHistogram, the values are counted in buckets
+ * which grow exponentially with the magnitude of the value and are divided
+ * linearly within one magnitude: values below 64 are counted exactly, larger
+ * values with a resolution of 1/32 of their power of two, i.e. about 3%.
+ * <p>
+ * Recording a value costs one atomic increment of its bucket (plus the update
+ * of the maximum if it grows) and allocates nothing, any number of threads may
+ * record concurrently. The buckets are preallocated, values above
+ * {@link #MAX_VALUE} (about 18 minutes in nanoseconds) are counted as
+ * {@link #MAX_VALUE}. Readers get a consistent enough view for monitoring,
+ * but values recorded during a read may be missing in it.
+ * <p>
+ * Besides the totals since the creation, one reader can summarize the values
+ * of each interval (see {@link #getIntervalSnapshot(double)}), e.g. a
+ * periodic report, whose percentiles would otherwise hide a recent spike
+ * behind hours of normal values.
+ *
+ */
+public class Histogram {
+
+	/**
+	 * Largest value which is distinguished from larger ones
+	 */
+	public final static long MAX_VALUE = (1L << 40) - 1;
+
+	private final static int SUB_BUCKET_BITS = 5;
+
+	private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final static int BUCKETS = bucketIndexOf(MAX_VALUE) + 1;
+
+	/**
+	 * @return Index of the bucket which counts the value
+	 */
+	static int bucketIndexOf(long value)
+	{
+		if (value < 2 * SUB_BUCKETS)
+		{
+			return (int) value;
+		}
+		int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * @return Largest value which is counted in the bucket
+	 */
+	static long highestValueOf(int bucketIndex)
+	{
+		if (bucketIndex < 2 * SUB_BUCKETS)
+		{
+			return bucketIndex;
+		}
+		int shift = bucketIndex / SUB_BUCKETS - 1;
+		long subBucket = bucketIndex % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Largest value since the start of the current interval
+	 */
+	private final AtomicLong intervalMax = new AtomicLong();
+
+	/**
+	 * Counts and sum at the start of the current interval
+	 */
+	private long[] intervalStartCounts = new long[BUCKETS];
+
+	private long intervalStartSum = 0;
+
+	private final AtomicLong max = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	/**
+	 * @return Number of recorded values
+	 */
+	public long getCount()
+	{
+		return countOf(copyCounts());
+	}
+
+	/**
+	 * @return Largest recorded value or 0 if nothing was recorded
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * @return Average of the recorded values or 0 if nothing was recorded
+	 */
+	public double getMean()
+	{
+		long count = getCount();
+		return count == 0 ? 0 : (double) sum.get() / count;
+	}
+
+	/**
+	 * Returns the value below or at which the given percentage of the
+	 * recorded values lies. As the values are counted in buckets, the result
+	 * is the largest value of the bucket, so it overestimates the exact
+	 * percentile by at most about 3%, but never exceeds {@link #getMax()}.
+	 *
+	 * @param percentile
+	 *            Percentage between 0 and 100, e.g. 99.9
+	 * @return Value at the percentile or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long[] snapshot = copyCounts();
+		return valueAtPercentile(snapshot, countOf(snapshot), percentile, getMax());
+	}
+
+	/**
+	 * Counts the value, may be called from any thread
+	 *
+	 * @param value
+	 *            Value to count, negative values are counted as 0
+	 */
+	public void record(long value)
+	{
+		long clampedValue = Math.min(Math.max(0, value), MAX_VALUE);
+		counts.getAndIncrement(bucketIndexOf(clampedValue));
+		sum.getAndAdd(clampedValue);
+		updateMax(max, clampedValue);
+		updateMax(intervalMax, clampedValue);
+	}
+
+	/**
+	 * Summarizes the values which were recorded since the last call, or
+	 * since the creation for the first call, and starts the next interval.
+	 * Must only be used by one reader, e.g. one periodic report.
+	 *
+	 * @param divisor
+	 *            Converts the values, e.g. 1000 for nanoseconds into
+	 *            microseconds
+	 */
+	synchronized HistogramSnapshot getIntervalSnapshot(double divisor)
+	{
+		long[] snapshot = copyCounts();
+		long currentSum = sum.get();
+		long[] intervalCounts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			intervalCounts[i] = snapshot[i] - intervalStartCounts[i];
+		}
+		long intervalSum = currentSum - intervalStartSum;
+		intervalStartCounts = snapshot;
+		intervalStartSum = currentSum;
+		return summarize(intervalCounts, intervalSum, intervalMax.getAndSet(0), divisor);
+	}
+
+	/**
+	 * Summarizes the histogram from one copy of the buckets, so the values
+	 * of the snapshot are consistent with each other
+	 *
+	 * @param divisor
+	 *            Converts the values, e.g. 1000 for nanoseconds into
+	 *            microseconds
+	 */
+	HistogramSnapshot getSnapshot(double divisor)
+	{
+		return summarize(copyCounts(), sum.get(), getMax(), divisor);
+	}
+
+	private long[] copyCounts()
+	{
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			snapshot[i] = counts.get(i);
+		}
+		return snapshot;
+	}
+
+	private long countOf(long[] snapshot)
+	{
+		long count = 0;
+		for (long bucketCount : snapshot)
+		{
+			count += bucketCount;
+		}
+		return count;
+	}
+
+	private HistogramSnapshot summarize(long[] snapshot, long snapshotSum, long snapshotMax,
+			double divisor)
+	{
+		long count = countOf(snapshot);
+		return new HistogramSnapshot(count, count == 0 ? 0 : snapshotSum / divisor / count,
+				valueAtPercentile(snapshot, count, 50, snapshotMax) / divisor,
+				valueAtPercentile(snapshot, count, 99, snapshotMax) / divisor,
+				valueAtPercentile(snapshot, count, 99.9, snapshotMax) / divisor, snapshotMax / divisor);
+	}
+
+	private void updateMax(AtomicLong currentMax, long value)
+	{
+		long current = currentMax.get();
+		while (value > current && !currentMax.compareAndSet(current, value))
+		{
+			current = currentMax.get();
+		}
+	}
+
+	private long valueAtPercentile(long[] snapshot, long count, double percentile, long snapshotMax)
+	{
+		if (count == 0)
+		{
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += snapshot[i];
+			if (seen >= rank)
+			{
+				return Math.min(highestValueOf(i), snapshotMax);
+			}
+		}
+		return snapshotMax;
+	}
+
+}
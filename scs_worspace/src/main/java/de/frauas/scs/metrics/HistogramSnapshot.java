@@ -0,0 +1,120 @@
+package de.frauas.scs.metrics;
+
+import java.util.Locale;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * Summary of a {@link Histogram} at one point in time. Values of latencies
+ * are converted into microseconds. JMX shows a snapshot as composite data
+ * with one item per getter.
+ *
+ */
+public class HistogramSnapshot {
+
+	private final static double NANOS_PER_MICRO = 1000;
+
+	/**
+	 * Summarizes the latencies in nanoseconds of the current interval of the
+	 * histogram, see {@link Histogram#getIntervalSnapshot(double)}
+	 */
+	static HistogramSnapshot ofIntervalLatencies(Histogram histogram)
+	{
+		return histogram.getIntervalSnapshot(NANOS_PER_MICRO);
+	}
+
+	/**
+	 * Summarizes the counts of the current interval of the histogram, see
+	 * {@link Histogram#getIntervalSnapshot(double)}
+	 */
+	static HistogramSnapshot ofIntervalValues(Histogram histogram)
+	{
+		return histogram.getIntervalSnapshot(1);
+	}
+
+	/**
+	 * Summarizes a histogram of latencies in nanoseconds
+	 */
+	static HistogramSnapshot ofLatencies(Histogram histogram)
+	{
+		return histogram.getSnapshot(NANOS_PER_MICRO);
+	}
+
+	/**
+	 * Summarizes a histogram of counts, e.g. depths of queues
+	 */
+	static HistogramSnapshot ofValues(Histogram histogram)
+	{
+		return histogram.getSnapshot(1);
+	}
+
+	private final long count;
+
+	private final double max;
+
+	private final double mean;
+
+	private final double p50;
+
+	private final double p99;
+
+	private final double p999;
+
+	@ConstructorParameters({ "count", "mean", "p50", "p99", "p999", "max" })
+	public HistogramSnapshot(long count, double mean, double p50, double p99, double p999,
+			double max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	public double getMax()
+	{
+		return max;
+	}
+
+	public double getMean()
+	{
+		return mean;
+	}
+
+	/**
+	 * @return Median
+	 */
+	public double getP50()
+	{
+		return p50;
+	}
+
+	/**
+	 * @return 99th percentile
+	 */
+	public double getP99()
+	{
+		return p99;
+	}
+
+	/**
+	 * @return 99.9th percentile
+	 */
+	public double getP999()
+	{
+		return p999;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format(Locale.ROOT, "count=%d mean=%.1f p50=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+				count, mean, p50, p99, p999, max);
+	}
+
+}
@@ -0,0 +1,399 @@
+package de.frauas.scs.metrics;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms of one running pump: how long ticks, decisions of
+ * the controller and frames of the GUI take, how late ticks start, how deep
+ * the queues between the threads are and how many doses and errors there
+ * were. The metrics are attached to the {@link de.frauas.scs.BloodStream} of
+ * the pump, the simulators, the controller and the GUI record into them if
+ * there are any, so a cohort without metrics pays nothing.
+ * <p>
+ * Recording never blocks or allocates, so it may be done on the tick thread.
+ * The metrics can be read through JMX (see {@link #register(String)}) as
+ * totals since the start and printed periodically as text (see
+ * {@link #startReport(long, PrintStream)}) to catch tick overruns. Each
+ * periodic report only covers the time since the previous one, so a burst
+ * of overruns is not diluted by the hours before.
+ *
+ */
+public class PumpMetrics implements PumpMetricsMXBean {
+
+	/**
+	 * Domain and type of the JMX names of the metrics
+	 */
+	public final static String OBJECT_NAME_PREFIX = "de.frauas.scs:type=PumpMetrics,name=";
+
+	private final Histogram activeHormoneDoses = new Histogram();
+
+	private final Histogram decisionTime = new Histogram();
+
+	private final LongAdder errors = new LongAdder();
+
+	private final Histogram eventBusLag = new Histogram();
+
+	private final Histogram frameTime = new Histogram();
+
+	private final LongAdder glucagonDoses = new LongAdder();
+
+	private final Histogram glucoseLevelQueueDepth = new Histogram();
+
+	private final LongAdder insulinDoses = new LongAdder();
+
+	/**
+	 * Start of the interval of the next {@link #getIntervalReport()}
+	 */
+	private long intervalStartInMillis = System.currentTimeMillis();
+
+	/**
+	 * Totals of the counters at the start of the interval, in the order of
+	 * {@link #getIntervalReport()}
+	 */
+	private long[] intervalStartTotals = new long[5];
+
+	private volatile int latestActiveHormoneDoses = 0;
+
+	private final LongAdder missedDoses = new LongAdder();
+
+	private ObjectName objectName;
+
+	private ScheduledExecutorService reportExecutor;
+
+	private final Histogram schedulingLag = new Histogram();
+
+	private final Histogram tickDuration = new Histogram();
+
+	private final LongAdder tickOverruns = new LongAdder();
+
+	/**
+	 * Counts a delivered dose
+	 *
+	 * @param effect_mmol_L
+	 *            Effect of the dose, negative for insulin
+	 */
+	public void countDose(double effect_mmol_L)
+	{
+		if (effect_mmol_L < 0)
+		{
+			insulinDoses.increment();
+		} else
+		{
+			glucagonDoses.increment();
+		}
+	}
+
+	/**
+	 * Counts a failure, e.g. one which was reported by
+	 * {@link de.frauas.scs.simulation.StatusReporter#printExceptionMessage()}
+	 */
+	public void countError()
+	{
+		errors.increment();
+	}
+
+	/**
+	 * Counts a dose which was decided while the delivery was suspended
+	 */
+	public void countMissedDose()
+	{
+		missedDoses.increment();
+	}
+
+	@Override
+	public int getActiveHormoneDoses()
+	{
+		return latestActiveHormoneDoses;
+	}
+
+	@Override
+	public HistogramSnapshot getActiveHormoneDosesDistribution()
+	{
+		return HistogramSnapshot.ofValues(activeHormoneDoses);
+	}
+
+	@Override
+	public HistogramSnapshot getDecisionTime()
+	{
+		return HistogramSnapshot.ofLatencies(decisionTime);
+	}
+
+	@Override
+	public long getErrors()
+	{
+		return errors.sum();
+	}
+
+	@Override
+	public HistogramSnapshot getEventBusLag()
+	{
+		return HistogramSnapshot.ofValues(eventBusLag);
+	}
+
+	@Override
+	public HistogramSnapshot getFrameTime()
+	{
+		return HistogramSnapshot.ofLatencies(frameTime);
+	}
+
+	@Override
+	public long getGlucagonDoses()
+	{
+		return glucagonDoses.sum();
+	}
+
+	@Override
+	public HistogramSnapshot getGlucoseLevelQueueDepth()
+	{
+		return HistogramSnapshot.ofValues(glucoseLevelQueueDepth);
+	}
+
+	/**
+	 * Reports the metrics since the last call, or since the creation for the
+	 * first call, and starts the next interval: the histograms only contain
+	 * the values of the interval, the counters show the increase in the
+	 * interval and their total. Must only be used by one reader, e.g. the
+	 * periodic report.
+	 *
+	 * @return All metrics of the interval as text, one line per metric
+	 */
+	public synchronized String getIntervalReport()
+	{
+		long endInMillis = System.currentTimeMillis();
+		long[] totals = { getTickOverruns(), getInsulinDoses(), getGlucagonDoses(), getMissedDoses(),
+				getErrors() };
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		StringBuilder report = new StringBuilder();
+		report.append("Pump metrics from ").append(format.format(new Date(intervalStartInMillis)))
+				.append(" to ").append(format.format(new Date(endInMillis))).append('\n');
+		appendLine(report, "Tick duration in us", HistogramSnapshot.ofIntervalLatencies(tickDuration));
+		appendLine(report, "Scheduling lag in us", HistogramSnapshot.ofIntervalLatencies(schedulingLag));
+		appendIncrease(report, "Tick overruns", totals, 0);
+		appendLine(report, "Decision time in us", HistogramSnapshot.ofIntervalLatencies(decisionTime));
+		appendLine(report, "Frame time in us", HistogramSnapshot.ofIntervalLatencies(frameTime));
+		appendLine(report, "Glucose queue depth", HistogramSnapshot.ofIntervalValues(glucoseLevelQueueDepth));
+		appendLine(report, "Event bus lag", HistogramSnapshot.ofIntervalValues(eventBusLag));
+		appendLine(report, "Active doses", HistogramSnapshot.ofIntervalValues(activeHormoneDoses));
+		appendIncrease(report, "Insulin doses", totals, 1);
+		appendIncrease(report, "Glucagon doses", totals, 2);
+		appendIncrease(report, "Missed doses", totals, 3);
+		appendIncrease(report, "Errors", totals, 4);
+		intervalStartInMillis = endInMillis;
+		intervalStartTotals = totals;
+		return report.toString();
+	}
+
+	@Override
+	public long getInsulinDoses()
+	{
+		return insulinDoses.sum();
+	}
+
+	@Override
+	public long getMissedDoses()
+	{
+		return missedDoses.sum();
+	}
+
+	@Override
+	public String getReport()
+	{
+		StringBuilder report = new StringBuilder();
+		report.append("Pump metrics at ")
+				.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()))
+				.append('\n');
+		appendLine(report, "Tick duration in us", getTickDuration());
+		appendLine(report, "Scheduling lag in us", getSchedulingLag());
+		appendLine(report, "Tick overruns", getTickOverruns());
+		appendLine(report, "Decision time in us", getDecisionTime());
+		appendLine(report, "Frame time in us", getFrameTime());
+		appendLine(report, "Glucose queue depth", getGlucoseLevelQueueDepth());
+		appendLine(report, "Event bus lag", getEventBusLag());
+		appendLine(report, "Active doses", getActiveHormoneDosesDistribution());
+		appendLine(report, "Insulin doses", getInsulinDoses());
+		appendLine(report, "Glucagon doses", getGlucagonDoses());
+		appendLine(report, "Missed doses", getMissedDoses());
+		appendLine(report, "Errors", getErrors());
+		return report.toString();
+	}
+
+	@Override
+	public HistogramSnapshot getSchedulingLag()
+	{
+		return HistogramSnapshot.ofLatencies(schedulingLag);
+	}
+
+	@Override
+	public HistogramSnapshot getTickDuration()
+	{
+		return HistogramSnapshot.ofLatencies(tickDuration);
+	}
+
+	@Override
+	public long getTickOverruns()
+	{
+		return tickOverruns.sum();
+	}
+
+	/**
+	 * Records the number of hormone doses which are not fully absorbed, e.g.
+	 * once per step of the controller
+	 */
+	public void recordActiveHormoneDoses(int doses)
+	{
+		latestActiveHormoneDoses = doses;
+		activeHormoneDoses.record(doses);
+	}
+
+	/**
+	 * Records the time the dosing algorithm needed for one decision
+	 */
+	public void recordDecision(long durationInNanos)
+	{
+		decisionTime.record(durationInNanos);
+	}
+
+	/**
+	 * Records the number of events which a subscriber of the bus had not read
+	 * yet
+	 */
+	public void recordEventBusLag(long lag)
+	{
+		eventBusLag.record(lag);
+	}
+
+	/**
+	 * Records the time the GUI needed to update one frame
+	 */
+	public void recordFrame(long durationInNanos)
+	{
+		frameTime.record(durationInNanos);
+	}
+
+	/**
+	 * Records the number of glucose levels which a reader of the ring had not
+	 * read yet
+	 */
+	public void recordGlucoseLevelQueueDepth(int depth)
+	{
+		glucoseLevelQueueDepth.record(depth);
+	}
+
+	/**
+	 * Records one executed tick. A tick which takes longer than its period is
+	 * counted as overrun.
+	 *
+	 * @param lagInNanos
+	 *            Delay of the start compared to the scheduled time
+	 * @param durationInNanos
+	 *            Time the task needed
+	 * @param periodInNanos
+	 *            Period of the tick
+	 */
+	public void recordTick(long lagInNanos, long durationInNanos, long periodInNanos)
+	{
+		schedulingLag.record(lagInNanos);
+		tickDuration.record(durationInNanos);
+		if (durationInNanos > periodInNanos)
+		{
+			tickOverruns.increment();
+		}
+	}
+
+	/**
+	 * Registers the metrics at the platform MBean server
+	 *
+	 * @param name
+	 *            Name of the pump, which must be unique within the JVM
+	 * @throws JMException
+	 *             If the name is invalid or already registered
+	 */
+	public synchronized void register(String name) throws JMException
+	{
+		unregister();
+		ObjectName newObjectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, newObjectName);
+		objectName = newObjectName;
+	}
+
+	/**
+	 * Prints the {@link #getIntervalReport() report of each period} on a
+	 * daemon thread until {@link #stopReport()} is called
+	 *
+	 * @param periodInMillis
+	 *            Time between two reports
+	 * @param out
+	 *            Stream which receives the reports
+	 */
+	public synchronized void startReport(long periodInMillis, final PrintStream out)
+	{
+		stopReport();
+		reportExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "pump-metrics-report");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		reportExecutor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run()
+			{
+				out.print(getIntervalReport());
+				out.flush();
+			}
+		}, periodInMillis, periodInMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic report, if it is running
+	 */
+	public synchronized void stopReport()
+	{
+		if (reportExecutor != null)
+		{
+			reportExecutor.shutdownNow();
+			reportExecutor = null;
+		}
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server, if they are
+	 * registered
+	 *
+	 * @throws JMException
+	 *             If the metrics cannot be unregistered
+	 */
+	public synchronized void unregister() throws JMException
+	{
+		if (objectName != null)
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	private void appendIncrease(StringBuilder report, String name, long[] totals, int index)
+	{
+		appendLine(report, name, (totals[index] - intervalStartTotals[index]) + " (total " + totals[index] + ")");
+	}
+
+	private void appendLine(StringBuilder report, String name, Object value)
+	{
+		report.append(String.format("  %-22s", name + ":")).append(value).append('\n');
+	}
+
+}
@@ -0,0 +1,80 @@
+package de.frauas.scs.metrics;
+
+/**
+ * Management interface of the {@link PumpMetrics}, e.g. for JConsole or
+ * VisualVM. Latencies are in microseconds, all counters are totals since the
+ * start of the pump.
+ *
+ */
+public interface PumpMetricsMXBean {
+
+	/**
+	 * @return Hormone doses which were not fully absorbed in the last step of
+	 *         the controller
+	 */
+	int getActiveHormoneDoses();
+
+	/**
+	 * @return Hormone doses which were not fully absorbed, sampled in each
+	 *         step of the controller
+	 */
+	HistogramSnapshot getActiveHormoneDosesDistribution();
+
+	/**
+	 * @return Time the dosing algorithm needed for one decision
+	 */
+	HistogramSnapshot getDecisionTime();
+
+	/**
+	 * @return Failures of ticks, dosing algorithms or the GUI which were
+	 *         reported
+	 */
+	long getErrors();
+
+	/**
+	 * @return Events on the bus which the GUI had not read yet, sampled in
+	 *         each frame
+	 */
+	HistogramSnapshot getEventBusLag();
+
+	/**
+	 * @return Time the GUI needed to update one frame
+	 */
+	HistogramSnapshot getFrameTime();
+
+	long getGlucagonDoses();
+
+	/**
+	 * @return Glucose levels in the ring which the chart had not read yet,
+	 *         sampled in each frame
+	 */
+	HistogramSnapshot getGlucoseLevelQueueDepth();
+
+	long getInsulinDoses();
+
+	/**
+	 * @return Doses which were decided while the delivery was suspended
+	 */
+	long getMissedDoses();
+
+	/**
+	 * @return All metrics as text, one line per metric
+	 */
+	String getReport();
+
+	/**
+	 * @return Delay of the start of a tick compared to its scheduled time
+	 */
+	HistogramSnapshot getSchedulingLag();
+
+	/**
+	 * @return Time one tick of a simulator needed
+	 */
+	HistogramSnapshot getTickDuration();
+
+	/**
+	 * @return Ticks which took longer than their period
+	 */
+	long getTickOverruns();
+
+}
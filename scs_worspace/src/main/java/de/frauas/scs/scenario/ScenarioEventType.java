@@ -0,0 +1,34 @@
+package de.frauas.scs.scenario;
+
+/**
+ * Types of the events of a scenario. The meaning of the arguments of an
+ * event depends on its type:
+ * <ul>
+ * <li>{@link #MEAL}: first argument = carbohydrates in g, second argument =
+ * fat in g, which slows down the absorption of the carbohydrates</li>
+ * <li>{@link #EXERCISE}: first argument = burned energy in kcal, second
+ * argument = duration in minutes</li>
+ * <li>{@link #MISSED_BOLUS}: first argument = minutes in which the decided
+ * doses are not delivered</li>
+ * <li>{@link #SENSOR_DROPOUT}: first argument = minutes in which the sensor
+ * does not deliver any glucose levels</li>
+ * <li>{@link #NEEDLE_REMOVAL}: first argument = minutes until the needle is
+ * attached again, the doses in between are lost</li>
+ * </ul>
+ *
+ */
+public enum ScenarioEventType {
+
+	MEAL(2), EXERCISE(2), MISSED_BOLUS(1), SENSOR_DROPOUT(1), NEEDLE_REMOVAL(1);
+
+	ScenarioEventType(int numberOfArguments) {
+		this.numberOfArguments = numberOfArguments;
+	}
+
+	private final int numberOfArguments;
+
+	public int getNumberOfArguments()
+	{
+		return numberOfArguments;
+	}
+}
@@ -0,0 +1,385 @@
+package de.frauas.scs.scenario;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Streams the events of a scenario file in chronological order. Only the
+ * current line is held in memory, so the size of a scenario (e.g. a week of
+ * thousands of patients) does not matter for the heap. Each patient of a
+ * cohort streams the file with its own reader, after the whole file was
+ * checked once with {@link #check(Path)}.
+ * <p>
+ * Each line contains one event, empty lines and lines starting with # are
+ * ignored:
+ *
+ * <pre>
+ * [patient] [days d]HH:MM[:SS] TYPE argument [argument]
+ * </pre>
+ *
+ * The time is relative to the start of the simulation, e.g. 1d07:30 is 7:30
+ * on the second day. The arguments of the types are described in
+ * {@link ScenarioEventType}. An event without a patient number belongs to
+ * every patient, so one file can describe a whole cohort. The events of a
+ * patient must be in chronological order, events at the same time are
+ * applied one after another, e.g. overlapping meals. The arguments must not
+ * be negative.
+ *
+ * <pre>
+ * # everybody has breakfast, patient 7 misses the bolus
+ * 07:30 MEAL 60 15
+ * 7 07:30 MISSED_BOLUS 45
+ * 1d12:00:30 EXERCISE 300 45
+ * </pre>
+ *
+ */
+public class ScenarioReader implements Closeable {
+
+	/**
+	 * Lines without a patient number belong to every patient
+	 */
+	public final static int ALL_PATIENTS = -1;
+
+	/**
+	 * Reads the lines of every patient, see {@link #getPatient()}. The
+	 * chronological order is not checked, since it only applies to the events
+	 * of each patient.
+	 */
+	private final static int EVERY_PATIENT = -2;
+
+	/**
+	 * Size of the buffer of the file in chars, which is all the memory a
+	 * reader needs besides the current line
+	 */
+	private final static int BUFFER_SIZE = 4096;
+
+	private final static long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * Streams all events of a scenario file once, so a cohort finds an
+	 * invalid line before any patient is simulated. Besides the current line
+	 * only the time of the latest event of each patient is held in memory.
+	 * The events of a patient, together with the events of all patients, must
+	 * be in chronological order: an event of all patients must not be earlier
+	 * than any event before it, an event of one patient not earlier than the
+	 * events of all patients and its own events before it.
+	 *
+	 * @param file
+	 *            Scenario file
+	 * @return Number of events in the file
+	 * @throws IOException
+	 *             If the file cannot be read, a line is not a valid event or
+	 *             the events of a patient are not in chronological order
+	 */
+	public static int check(Path file) throws IOException
+	{
+		HashMap<Integer, long[]> latestTimesByPatient = new HashMap<>();
+		long latestCommonTimeInMillis = Long.MIN_VALUE;
+		long latestTimeInMillis = Long.MIN_VALUE;
+		int numberOfEvents = 0;
+		try (ScenarioReader reader = new ScenarioReader(file, EVERY_PATIENT))
+		{
+			while (reader.next())
+			{
+				long timeInMillis = reader.getTimeInMillis();
+				if (reader.getPatient() == ALL_PATIENTS)
+				{
+					if (timeInMillis < latestTimeInMillis)
+					{
+						throw reader.newFormatException("Events must be in chronological order");
+					}
+					latestCommonTimeInMillis = timeInMillis;
+				} else
+				{
+					long[] latestTime = latestTimesByPatient.get(reader.getPatient());
+					if (latestTime == null)
+					{
+						latestTime = new long[] { Long.MIN_VALUE };
+						latestTimesByPatient.put(reader.getPatient(), latestTime);
+					}
+					if (timeInMillis < latestCommonTimeInMillis || timeInMillis < latestTime[0])
+					{
+						throw reader.newFormatException("Events must be in chronological order");
+					}
+					latestTime[0] = timeInMillis;
+				}
+				latestTimeInMillis = Math.max(latestTimeInMillis, timeInMillis);
+				numberOfEvents++;
+			}
+		}
+		return numberOfEvents;
+	}
+
+	/**
+	 * Patient of the current event
+	 */
+	private int eventPatient = ALL_PATIENTS;
+
+	private double firstArgument;
+
+	private final Path file;
+
+	private int lineNumber = 0;
+
+	/**
+	 * Only the events of this patient (and of all patients) are read
+	 */
+	private final int patient;
+
+	private BufferedReader reader;
+
+	private double secondArgument;
+
+	private long timeInMillis = 0;
+
+	private ScenarioEventType type;
+
+	/**
+	 * Reads the events which belong to all patients
+	 *
+	 * @param file
+	 *            Scenario file
+	 */
+	public ScenarioReader(Path file) {
+		this(file, ALL_PATIENTS);
+	}
+
+	/**
+	 * @param file
+	 *            Scenario file
+	 * @param patient
+	 *            Number of the patient whose events are read in addition to
+	 *            the events of all patients
+	 */
+	public ScenarioReader(Path file, int patient) {
+		this.file = file;
+		this.patient = patient;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (reader != null)
+		{
+			reader.close();
+			reader = null;
+		}
+	}
+
+	public Path getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * @return First argument of the current event, see
+	 *         {@link ScenarioEventType}
+	 */
+	public double getFirstArgument()
+	{
+		return firstArgument;
+	}
+
+	/**
+	 * @return Line of the current event in the file, starting with 1
+	 */
+	public int getLineNumber()
+	{
+		return lineNumber;
+	}
+
+	/**
+	 * @return Patient of the current event or {@link #ALL_PATIENTS} if it
+	 *         belongs to all patients
+	 */
+	public int getPatient()
+	{
+		return eventPatient;
+	}
+
+	/**
+	 * @return Second argument of the current event or 0 if the type has only
+	 *         one argument
+	 */
+	public double getSecondArgument()
+	{
+		return secondArgument;
+	}
+
+	/**
+	 * @return Simulated time of the current event since the start of the
+	 *         simulation
+	 */
+	public long getTimeInMillis()
+	{
+		return timeInMillis;
+	}
+
+	public ScenarioEventType getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Moves to the next event of the patient, which can then be read with the
+	 * getters. The file is opened with the first call.
+	 *
+	 * @return false if there are no more events
+	 * @throws IOException
+	 *             If the file cannot be read or a line is not a valid event
+	 */
+	public boolean next() throws IOException
+	{
+		if (reader == null)
+		{
+			if (lineNumber > 0)
+			{
+				return false;
+			}
+			reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file),
+					StandardCharsets.UTF_8), BUFFER_SIZE);
+		}
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			lineNumber++;
+			line = line.trim();
+			if (!line.isEmpty() && line.charAt(0) != '#' && parse(line.split("\\s+")))
+			{
+				return true;
+			}
+		}
+		close();
+		return false;
+	}
+
+	private IOException newFormatException(String message)
+	{
+		return new IOException(file + ":" + lineNumber + ": " + message);
+	}
+
+	/**
+	 * @return false if the line belongs to another patient
+	 */
+	private boolean parse(String[] tokens) throws IOException
+	{
+		int token = 0;
+		int linePatient = ALL_PATIENTS;
+		if (tokens[0].indexOf(':') < 0)
+		{
+			linePatient = parseInt(tokens[token++]);
+			if (linePatient < 0)
+			{
+				throw newFormatException("Negative patient " + linePatient);
+			}
+			if (linePatient != patient && patient != EVERY_PATIENT)
+			{
+				return false;
+			}
+		}
+		if (tokens.length < token + 2)
+		{
+			throw newFormatException("Time and type of the event expected");
+		}
+		long eventTimeInMillis = parseTime(tokens[token++]);
+		if (eventTimeInMillis < timeInMillis && patient != EVERY_PATIENT)
+		{
+			throw newFormatException("Events must be in chronological order");
+		}
+		ScenarioEventType eventType;
+		try
+		{
+			eventType = ScenarioEventType.valueOf(tokens[token++]);
+		} catch (IllegalArgumentException e)
+		{
+			throw newFormatException("Unknown event " + tokens[token - 1]);
+		}
+		if (tokens.length - token != eventType.getNumberOfArguments())
+		{
+			throw newFormatException(eventType + " expects " + eventType.getNumberOfArguments()
+					+ " arguments");
+		}
+		double eventFirstArgument = parseDouble(tokens[token++]);
+		double eventSecondArgument = token < tokens.length ? parseDouble(tokens[token]) : 0;
+		if (!(eventFirstArgument >= 0) || !(eventSecondArgument >= 0)
+				|| Double.isInfinite(eventFirstArgument) || Double.isInfinite(eventSecondArgument))
+		{
+			throw newFormatException("Arguments must be finite and not negative");
+		}
+		eventPatient = linePatient;
+		timeInMillis = eventTimeInMillis;
+		type = eventType;
+		firstArgument = eventFirstArgument;
+		secondArgument = eventSecondArgument;
+		return true;
+	}
+
+	private double parseDouble(String text) throws IOException
+	{
+		try
+		{
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e)
+		{
+			throw newFormatException("Not a number: " + text);
+		}
+	}
+
+	private int parseInt(String text) throws IOException
+	{
+		try
+		{
+			return Integer.parseInt(text);
+		} catch (NumberFormatException e)
+		{
+			throw newFormatException("Not an integer: " + text);
+		}
+	}
+
+	/**
+	 * Parses [days d]HH:MM[:SS], the days must not be negative, the hours
+	 * must be below 24 and the minutes and seconds below 60
+	 */
+	private long parseTime(String text) throws IOException
+	{
+		long days = 0;
+		int dayEnd = text.indexOf('d');
+		if (dayEnd >= 0)
+		{
+			days = parseInt(text.substring(0, dayEnd));
+		}
+		String[] fields = text.substring(dayEnd + 1).split(":");
+		if (fields.length < 2 || fields.length > 3)
+		{
+			throw newFormatException("Time expected as [days d]HH:MM[:SS]: " + text);
+		}
+		long hours;
+		long minutes;
+		long seconds = 0;
+		try
+		{
+			hours = Long.parseLong(fields[0]);
+			minutes = Long.parseLong(fields[1]);
+			if (fields.length == 3)
+			{
+				seconds = Long.parseLong(fields[2]);
+			}
+		} catch (NumberFormatException e)
+		{
+			throw newFormatException("Time expected as [days d]HH:MM[:SS]: " + text);
+		}
+		if (days < 0 || hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0
+				|| seconds > 59)
+		{
+			throw newFormatException("Time out of range: " + text);
+		}
+		return ((days * 24 + hours) * 60 * 60 + minutes * 60 + seconds) * 1000;
+	}
+
+}
@@ -1,7 +1,5 @@
 package de.frauas.scs.simulation;
 
-import java.util.concurrent.ExecutorService;
-
 //import org.apache.log4j.Logger;
 
 import de.frauas.scs.BloodStream;
@@ -12,8 +10,70 @@ public abstract class AbstractSimulator {
 
 	protected BloodStream bloodStream = BloodStream.getInstance();
 
-	protected ExecutorService executor;
+	/**
+	 * Shared by all simulators, so all ticks are executed on one thread.
+	 */
+	protected TickScheduler scheduler = TickScheduler.getInstance();
+
+	/**
+	 * Specifies whether the ticks run on the {@link #scheduler} thread or on
+	 * an own virtual thread.
+	 */
+	protected ExecutionMode executionMode = ExecutionMode.SHARED_SCHEDULER;
+
+	protected ScheduledTick tick;
+
+	protected TickPolicy tickPolicy = TickPolicy.CATCH_UP;
+
+	/**
+	 * @return Handle of the running simulation or null if it is not started
+	 */
+	public ScheduledTick getTick()
+	{
+		return tick;
+	}
+
+	/**
+	 * Sets the threads which execute the ticks. Must be set before
+	 * {@link #start()}.
+	 *
+	 * @param executionMode
+	 *            Mode of execution
+	 */
+	public void setExecutionMode(ExecutionMode executionMode)
+	{
+		this.executionMode = executionMode;
+	}
+
+	/**
+	 * Sets the behavior if ticks are missed. Must be set before
+	 * {@link #start()}.
+	 *
+	 * @param tickPolicy
+	 *            Policy for missed ticks
+	 */
+	public void setTickPolicy(TickPolicy tickPolicy)
+	{
+		this.tickPolicy = tickPolicy;
+	}
 
 	public abstract void start();
 
+	/**
+	 * Schedules the task of the simulator according to the settings and
+	 * records its ticks in the metrics of the blood stream, if there are any
+	 *
+	 * @param task
+	 *            Task to execute in each tick
+	 * @param periodInMillis
+	 *            Time between two ticks
+	 * @return Handle of the running simulation
+	 */
+	protected ScheduledTick schedule(Runnable task, long periodInMillis)
+	{
+		ScheduledTick scheduledTick = scheduler.schedule(task, periodInMillis, tickPolicy, executionMode);
+		scheduledTick.setMetrics(bloodStream.getMetrics());
+		return scheduledTick;
+	}
+
 }
@@ -0,0 +1,26 @@
+package de.frauas.scs.simulation;
+
+/**
+ * The original plant of the simulator: the glucose of meals and the effect of
+ * the hormones are summed up as offset to the natural glucose level, there is
+ * no clearance and no dependency on the patient.
+ *
+ */
+public class AdditivePlantModel implements PlantModel {
+
+	/**
+	 * Offset to the natural glucose level in mmol/L
+	 */
+	private double glucoseLevelOffset = 0;
+
+	@Override
+	public double step(double glucoseAppearance_mmol_L, double hormonalEffect_mmol_L)
+	{
+		// two additions as before the plant was pluggable, so recorded
+		// sessions are replayed bit by bit
+		glucoseLevelOffset += glucoseAppearance_mmol_L;
+		glucoseLevelOffset += hormonalEffect_mmol_L;
+		return glucoseLevelOffset;
+	}
+
+}
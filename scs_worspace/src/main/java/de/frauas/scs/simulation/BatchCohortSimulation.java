@@ -0,0 +1,847 @@
+package de.frauas.scs.simulation;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import de.frauas.scs.AbsorptionCurve;
+import de.frauas.scs.exception.SimulationException;
+import de.frauas.scs.gui.MessageBoxText;
+
+/**
+ * Simulates a cohort of patients in lockstep. Instead of one
+ * {@link HeadlessSimulation} per patient, the state of all patients is kept
+ * in parallel columns (one array per variable, one element per patient):
+ * the noise generators, the state of the plants, the absorbed meals and
+ * hormones and the accumulators of the controller. Each step advances the
+ * whole cohort by one time slice in a few flat loops over the columns, which
+ * the JIT compiler can unroll and vectorize.
+ * <p>
+ * The patients are simulated like a {@link HeadlessSimulation} with the
+ * {@link DosingAlgorithmType#PID} algorithm: the meals of the
+ * {@link PatientProfile} are absorbed along the same curves, and the noise,
+ * the controller and the plant are computed by the static kernels of
+ * {@link GlucoseLevelModel}, {@link PidDosingAlgorithm} and
+ * {@link BergmanPlantModel}, which step the columns of a batch as well as a
+ * single patient. Only the effects which change in the same slice are
+ * summed up in another order, so the glucose levels may differ from a
+ * {@link HeadlessSimulation} by rounding, see
+ * {@link #verify(PatientResult[], PatientResult[])}.
+ * <p>
+ * Limitations: all patients need the PID algorithm and the same plant model,
+ * scenario files are not supported. Nothing is published to an event bus or
+ * a journal and no trend is forecast, so the results contain no predicted
+ * alarms.
+ *
+ */
+public class BatchCohortSimulation {
+
+	/**
+	 * Curve of each dose of the PID algorithm
+	 */
+	private final static AbsorptionCurve BALANCING_CURVE = PancreasModel
+			.getBalancingCurve(PidDosingAlgorithm.SLOTS);
+
+	private final static long GLUCOSE_STEP_IN_MILLIS = GlucoseLevelModel.SIMULATION_STEPS_IN_MILLIS;
+
+	/**
+	 * Largest difference of a glucose level or of the injected insulin in
+	 * mmol/L between a batch and a {@link HeadlessSimulation}, see
+	 * {@link #verify(PatientResult[], PatientResult[])}
+	 */
+	private final static double MAX_ROUNDING_ERROR = 1e-9;
+
+	/**
+	 * Kinds of the meal events: the absorption of a meal changes, a meal is
+	 * completely absorbed or the next meal of the profile is due
+	 */
+	private final static byte MEAL_CHANGE = 0;
+
+	private final static byte MEAL_END = 1;
+
+	private final static byte MEAL_START = 2;
+
+	private final static int TICKS_PER_PANCREAS_STEP = (int) (PancreasModel.SIMULATION_STEPS_IN_MILLIS
+			/ GlucoseLevelModel.SIMULATION_STEPS_IN_MILLIS);
+
+	/**
+	 * Effect of a dose of 1 mmol/L in each slice of a pancreas step, by the
+	 * age of the dose in pancreas steps
+	 */
+	private final static double[] DOSE_WEIGHTS = createDoseWeights();
+
+	/**
+	 * Runs a batch simulation of the same cohort as
+	 * {@link CohortSimulation#main(String[])} with the PID algorithm. With
+	 * verify the cohort is simulated once more by a {@link CohortSimulation}
+	 * and the results are compared.<br>
+	 * Usage: BatchCohortSimulation &lt;patients&gt; &lt;hours&gt;
+	 * [ADDITIVE|BERGMAN] [verify]
+	 */
+	public static void main(String[] args) throws SimulationException
+	{
+		if (args.length < 2)
+		{
+			System.out.println("Usage: BatchCohortSimulation <patients> <hours> [ADDITIVE|BERGMAN] [verify]");
+			return;
+		}
+		int patients = Integer.parseInt(args[0]);
+		double hours = Double.parseDouble(args[1]);
+		PlantModelType plantModel = PlantModelType.ADDITIVE;
+		boolean shouldVerify = false;
+		for (int i = 2; i < args.length; i++)
+		{
+			if (args[i].equals("verify"))
+			{
+				shouldVerify = true;
+			} else
+			{
+				plantModel = PlantModelType.valueOf(args[i]);
+			}
+		}
+		PatientProfile[] profiles = new PatientProfile[patients];
+		SplittableRandom cohortRandom = new SplittableRandom(CohortSimulation.COHORT_SEED);
+		for (int i = 0; i < patients; i++)
+		{
+			profiles[i] = CohortSimulation.createRandomProfile(cohortRandom.split(), hours);
+			profiles[i].setDosingAlgorithm(DosingAlgorithmType.PID);
+			profiles[i].setPlantModel(plantModel);
+		}
+
+		long simulatedMillis = (long) (hours * 60 * 60 * 1000);
+		long start = System.nanoTime();
+		PatientResult[] results = new BatchCohortSimulation(profiles).run(simulatedMillis);
+		long wallTimeInMillis = (System.nanoTime() - start) / 1000000;
+
+		double timeInRange = 0;
+		for (PatientResult result : results)
+		{
+			timeInRange += result.getTimeInRange();
+		}
+		System.out.println("Patients:            " + patients);
+		System.out.println("Simulated hours:     " + hours);
+		System.out.println("Dosing algorithm:    " + DosingAlgorithmType.PID);
+		System.out.println("Plant model:         " + plantModel);
+		System.out.println("Wall time in ms:     " + wallTimeInMillis);
+		System.out.println("Patient days/min:    " + (patients * hours / 24) / (wallTimeInMillis / 60000d));
+		System.out.println("Mean time in range:  " + timeInRange / patients);
+		if (shouldVerify)
+		{
+			PatientResult[] expectedResults = new CohortSimulation(profiles).run(simulatedMillis);
+			System.out.println("Largest difference:  " + verify(results, expectedResults));
+		}
+	}
+
+	/**
+	 * Checks that a batch simulated the patients like a
+	 * {@link HeadlessSimulation}: the time in range must be identical, the
+	 * glucose levels and the injected insulin may only differ by rounding.
+	 *
+	 * @param batchResults
+	 *            Results of a {@link BatchCohortSimulation}
+	 * @param expectedResults
+	 *            Results of the same patients simulated one by one
+	 * @return Largest difference of a glucose level or of the injected
+	 *         insulin in mmol/L
+	 * @throws IllegalStateException
+	 *             If the results of a patient differ by more than rounding
+	 */
+	public static double verify(PatientResult[] batchResults, PatientResult[] expectedResults)
+	{
+		if (batchResults.length != expectedResults.length)
+		{
+			throw new IllegalStateException("The results have different numbers of patients");
+		}
+		double largestDifference = 0;
+		for (int i = 0; i < batchResults.length; i++)
+		{
+			PatientResult result = batchResults[i];
+			PatientResult expected = expectedResults[i];
+			if (result.getStepsAboveRange() != expected.getStepsAboveRange()
+					|| result.getStepsBelowRange() != expected.getStepsBelowRange()
+					|| result.getStepsInRange() != expected.getStepsInRange())
+			{
+				throw new IllegalStateException("Patient " + i + " has another time in range");
+			}
+			double difference = Math.max(
+					Math.max(Math.abs(result.getInjectedInsulin() - expected.getInjectedInsulin()),
+							Math.abs(result.getLastGlucoseLevel() - expected.getLastGlucoseLevel())),
+					Math.max(Math.abs(result.getMaxGlucoseLevel() - expected.getMaxGlucoseLevel()),
+							Math.abs(result.getMinGlucoseLevel() - expected.getMinGlucoseLevel())));
+			if (!(difference <= MAX_ROUNDING_ERROR))
+			{
+				throw new IllegalStateException("Patient " + i + " differs by " + difference + " mmol/L");
+			}
+			largestDifference = Math.max(largestDifference, difference);
+		}
+		return largestDifference;
+	}
+
+	/**
+	 * The pancreas decides on all patients at the same time, so the effect of
+	 * a dose only changes at the boundaries of pancreas steps if the segments
+	 * of its curve are multiples of a pancreas step.
+	 */
+	private static double[] createDoseWeights()
+	{
+		if (BALANCING_CURVE.getTotalTicks() % TICKS_PER_PANCREAS_STEP != 0)
+		{
+			throw new IllegalStateException("Doses must end at the boundary of a pancreas step");
+		}
+		double[] weights = new double[BALANCING_CURVE.getTotalTicks() / TICKS_PER_PANCREAS_STEP];
+		for (int age = 0; age < weights.length; age++)
+		{
+			long firstTick = (long) age * TICKS_PER_PANCREAS_STEP;
+			weights[age] = BALANCING_CURVE.getRateAt(firstTick, 1);
+			for (int tick = 1; tick < TICKS_PER_PANCREAS_STEP; tick++)
+			{
+				if (BALANCING_CURVE.getRateAt(firstTick + tick, 1) != weights[age])
+				{
+					throw new IllegalStateException("Doses must change at the boundary of a pancreas step");
+				}
+			}
+		}
+		return weights;
+	}
+
+	/**
+	 * Doses which are being absorbed by each patient
+	 */
+	private final int[] activeDoses;
+
+	/**
+	 * Meals which are being absorbed by each patient
+	 */
+	private final int[] activeMeals;
+
+	/**
+	 * Glucose level which the pancreas analyzes in its next step
+	 */
+	private final double[] analyzedGlucoseLevels;
+
+	/**
+	 * Lower and upper bound of the balancing range and its middle, which the
+	 * PID algorithm aims at
+	 */
+	private final double[] balancingRangeMaximums;
+
+	private final double[] balancingRangeMinimums;
+
+	private final double[] balancingTargets;
+
+	/**
+	 * States of the {@link PidDosingAlgorithm} of each patient,
+	 * {@link PidDosingAlgorithm#STATE_SIZE} elements per patient
+	 */
+	private final double[] controllerStates;
+
+	/**
+	 * Column of the newest doses in {@link #doses}
+	 */
+	private int doseHead = 0;
+
+	/**
+	 * Ring of the doses of the last pancreas steps in mmol/L, one column for
+	 * each step and one element for each patient
+	 */
+	private final double[][] doses;
+
+	/**
+	 * Binary min-heap of the meal events of all patients, ordered by their
+	 * tick. Meals are rare, so the events are kept apart from the columns,
+	 * which are touched in every slice.
+	 */
+	private byte[] eventKinds = new byte[64];
+
+	private int[] eventPatients = new int[64];
+
+	private double[] eventRateDeltas = new double[64];
+
+	private double[] eventSlopeDeltas = new double[64];
+
+	private long[] eventTicks = new long[64];
+
+	/**
+	 * Glucagon part of {@link #hormonalEffects}, which releases the glucose of
+	 * the liver in the {@link BergmanPlantModel}
+	 */
+	private final double[] glucagonEffects;
+
+	/**
+	 * Parameters of the {@link BergmanPlantModel} of each patient
+	 */
+	private final double[] glucoseAppearanceFactors;
+
+	/**
+	 * Glucose level of the last slice, as the sensor measures it
+	 */
+	private final double[] glucoseLevels;
+
+	/**
+	 * Summed effect of all doses in the current pancreas step in mmol/L per
+	 * slice, which changes at the boundaries of the curves of the doses
+	 */
+	private final double[] hormonalEffects;
+
+	private final double[] injectedInsulin;
+
+	private final double[] insulinActionGains;
+
+	private final double[] insulinAppearanceFactors;
+
+	/**
+	 * Insulin which enters the plasma in the current pancreas step in mU/L
+	 * per min
+	 */
+	private final double[] insulinAppearanceRates;
+
+	/**
+	 * Simulated time of the glucose level on which the pancreas decided last,
+	 * the same for all patients
+	 */
+	private long lastDecisionTimeInMillis = -1;
+
+	private final double[] maxGlucoseLevels;
+
+	/**
+	 * Summed effect of the meals in the current slice and its change from one
+	 * slice to the next
+	 */
+	private final double[] mealRates;
+
+	private final double[] mealSlopes;
+
+	private final double[] minGlucoseLevels;
+
+	/**
+	 * Index of the next meal of each profile
+	 */
+	private final int[] nextMeals;
+
+	/**
+	 * Seeds of the natural fluctuation of each patient, advanced like the
+	 * seed of a {@link SplittableRandom}
+	 */
+	private final long[] noiseSeeds;
+
+	private int numberOfEvents = 0;
+
+	private final PlantModelType plantModel;
+
+	/**
+	 * Offsets of the {@link AdditivePlantModel} of each patient
+	 */
+	private final double[] plantOffsets;
+
+	/**
+	 * States of the {@link BergmanPlantModel} of each patient,
+	 * {@link BergmanPlantModel#STATE_SIZE} elements per patient
+	 */
+	private final double[] plantStates;
+
+	private final PatientProfile[] profiles;
+
+	/**
+	 * Natural glucose level of each patient in the current slice
+	 */
+	private final double[] regularValues;
+
+	private final long[] stepsAboveRange;
+
+	private final long[] stepsBelowRange;
+
+	private final long[] stepsInRange;
+
+	/**
+	 * Current slice, the same for all patients
+	 */
+	private long tick = 0;
+
+	/**
+	 * @param profiles
+	 *            One profile for each patient of the cohort
+	 * @throws IllegalArgumentException
+	 *             If a profile cannot be simulated in a batch or its
+	 *             controller settings are not valid
+	 */
+	public BatchCohortSimulation(PatientProfile[] profiles) {
+		int patients = profiles.length;
+		this.profiles = profiles.clone();
+		this.plantModel = patients > 0 ? profiles[0].getPlantModel() : PlantModelType.ADDITIVE;
+		activeDoses = new int[patients];
+		activeMeals = new int[patients];
+		analyzedGlucoseLevels = new double[patients];
+		balancingRangeMaximums = new double[patients];
+		balancingRangeMinimums = new double[patients];
+		balancingTargets = new double[patients];
+		controllerStates = new double[patients * PidDosingAlgorithm.STATE_SIZE];
+		// the doses which ended in the current step are still needed
+		doses = new double[DOSE_WEIGHTS.length + 1][patients];
+		glucagonEffects = new double[patients];
+		glucoseAppearanceFactors = new double[patients];
+		glucoseLevels = new double[patients];
+		hormonalEffects = new double[patients];
+		injectedInsulin = new double[patients];
+		insulinActionGains = new double[patients];
+		insulinAppearanceFactors = new double[patients];
+		insulinAppearanceRates = new double[patients];
+		maxGlucoseLevels = new double[patients];
+		mealRates = new double[patients];
+		mealSlopes = new double[patients];
+		minGlucoseLevels = new double[patients];
+		nextMeals = new int[patients];
+		noiseSeeds = new long[patients];
+		plantOffsets = new double[patients];
+		plantStates = new double[patients * BergmanPlantModel.STATE_SIZE];
+		regularValues = new double[patients];
+		stepsAboveRange = new long[patients];
+		stepsBelowRange = new long[patients];
+		stepsInRange = new long[patients];
+		Arrays.fill(maxGlucoseLevels, Double.NEGATIVE_INFINITY);
+		Arrays.fill(minGlucoseLevels, Double.POSITIVE_INFINITY);
+		for (int i = 0; i < patients; i++)
+		{
+			initializePatient(i, this.profiles[i]);
+		}
+	}
+
+	public int getNumberOfPatients()
+	{
+		return profiles.length;
+	}
+
+	/**
+	 * @param patient
+	 *            Index of the patient
+	 * @return Glucose level of the patient in the last slice in mmol/L
+	 */
+	public double getGlucoseLevel(int patient)
+	{
+		return glucoseLevels[patient];
+	}
+
+	public PlantModelType getPlantModel()
+	{
+		return plantModel;
+	}
+
+	/**
+	 * @return Result of each patient so far in the order of the profiles
+	 */
+	public PatientResult[] getResults()
+	{
+		PatientResult[] results = new PatientResult[profiles.length];
+		for (int i = 0; i < results.length; i++)
+		{
+			results[i] = new PatientResult(i, 0, injectedInsulin[i], glucoseLevels[i],
+					maxGlucoseLevels[i], minGlucoseLevels[i], 0, 0, stepsAboveRange[i],
+					stepsBelowRange[i], stepsInRange[i]);
+		}
+		return results;
+	}
+
+	/**
+	 * @return Simulated time of the next slice since the start
+	 */
+	public long getTimeInMillis()
+	{
+		return tick * GLUCOSE_STEP_IN_MILLIS;
+	}
+
+	/**
+	 * Simulates all patients of the cohort for the same time span
+	 *
+	 * @param simulatedMillis
+	 *            Simulated milliseconds for each patient
+	 * @return Result of each patient in the order of the profiles
+	 */
+	public PatientResult[] run(long simulatedMillis)
+	{
+		long end = getTimeInMillis() + simulatedMillis;
+		while (getTimeInMillis() < end)
+		{
+			step();
+		}
+		return getResults();
+	}
+
+	/**
+	 * Simulates one time slice of all patients. The pancreas decides in its
+	 * own (longer) interval, before the glucose levels of the slice are
+	 * simulated.
+	 */
+	public void step()
+	{
+		if (tick % TICKS_PER_PANCREAS_STEP == 0)
+		{
+			stepPancreas();
+		}
+		applyMealEvents();
+		drawRegularValues();
+		if (plantModel == PlantModelType.BERGMAN)
+		{
+			stepBergmanPlants();
+		} else
+		{
+			stepAdditivePlants();
+		}
+		recordGlucoseLevels();
+		tick++;
+	}
+
+	private void addEvent(long eventTick, int patient, double rateDelta,
+			double slopeDelta, byte kind)
+	{
+		if (numberOfEvents == eventTicks.length)
+		{
+			int newLength = eventTicks.length * 2;
+			eventKinds = Arrays.copyOf(eventKinds, newLength);
+			eventPatients = Arrays.copyOf(eventPatients, newLength);
+			eventRateDeltas = Arrays.copyOf(eventRateDeltas, newLength);
+			eventSlopeDeltas = Arrays.copyOf(eventSlopeDeltas, newLength);
+			eventTicks = Arrays.copyOf(eventTicks, newLength);
+		}
+		int index = numberOfEvents++;
+		while (index > 0)
+		{
+			int parent = (index - 1) >>> 1;
+			if (eventTicks[parent] <= eventTick)
+			{
+				break;
+			}
+			copyEvent(parent, index);
+			index = parent;
+		}
+		setEvent(index, eventTick, patient, rateDelta, slopeDelta, kind);
+	}
+
+	/**
+	 * Applies the meal events of the current slice, like the
+	 * {@link de.frauas.scs.AbsorptionTimeline} of a single patient
+	 */
+	private void applyMealEvents()
+	{
+		while (numberOfEvents > 0 && eventTicks[0] <= tick)
+		{
+			int patient = eventPatients[0];
+			double rateDelta = eventRateDeltas[0];
+			double slopeDelta = eventSlopeDeltas[0];
+			byte kind = eventKinds[0];
+			removeFirstEvent();
+			switch (kind)
+			{
+				case MEAL_START:
+					startMeal(patient);
+					break;
+				case MEAL_END:
+					mealRates[patient] += rateDelta;
+					mealSlopes[patient] += slopeDelta;
+					if (--activeMeals[patient] == 0)
+					{
+						// avoid that rounding errors sum up
+						mealRates[patient] = 0;
+						mealSlopes[patient] = 0;
+					}
+					break;
+				default:
+					mealRates[patient] += rateDelta;
+					mealSlopes[patient] += slopeDelta;
+					break;
+			}
+		}
+	}
+
+	private void copyEvent(int from, int to)
+	{
+		setEvent(to, eventTicks[from], eventPatients[from], eventRateDeltas[from],
+				eventSlopeDeltas[from], eventKinds[from]);
+	}
+
+	/**
+	 * Decides the doses of all patients with the arithmetic of the
+	 * {@link PidDosingAlgorithm}. A patient within the balancing range or with
+	 * a too small dose gets a dose of 0.
+	 */
+	private void decideDoses(double[] newDoses, long analyzedTimeInMillis)
+	{
+		boolean hasLastDecision = lastDecisionTimeInMillis >= 0;
+		double elapsedMinutes = hasLastDecision
+				? (analyzedTimeInMillis - lastDecisionTimeInMillis) / PidDosingAlgorithm.MILLIS_PER_MINUTE
+				: 0;
+		lastDecisionTimeInMillis = analyzedTimeInMillis;
+		for (int i = 0; i < newDoses.length; i++)
+		{
+			double value = analyzedGlucoseLevels[i];
+			boolean isInBalancingRange = value < balancingRangeMaximums[i]
+					&& value >= balancingRangeMinimums[i];
+			double dose = PidDosingAlgorithm.decide(controllerStates, i * PidDosingAlgorithm.STATE_SIZE,
+					value, elapsedMinutes, isInBalancingRange, balancingTargets[i],
+					PidDosingAlgorithm.DEFAULT_PROPORTIONAL_GAIN, PidDosingAlgorithm.DEFAULT_INTEGRAL_GAIN,
+					PidDosingAlgorithm.DEFAULT_DERIVATIVE_GAIN);
+			injectedInsulin[i] += dose > 0 ? dose : 0;
+			// a positive dose lowers the glucose level (insulin)
+			newDoses[i] = -dose;
+		}
+	}
+
+	/**
+	 * Draws the natural glucose level of each patient like
+	 * {@link GlucoseLevelModel#getRegularValue()}
+	 */
+	private void drawRegularValues()
+	{
+		for (int i = 0; i < noiseSeeds.length; i++)
+		{
+			regularValues[i] = GlucoseLevelModel.nextRegularValue(noiseSeeds, i);
+		}
+	}
+
+	/**
+	 * @param age
+	 *            Age of the doses in pancreas steps
+	 * @return Doses of all patients which were decided the given number of
+	 *         pancreas steps ago
+	 */
+	private double[] getDoses(int age)
+	{
+		return doses[(doseHead - age + doses.length) % doses.length];
+	}
+
+	private void initializePatient(int patient, PatientProfile profile)
+	{
+		if (profile.getDosingAlgorithm() != DosingAlgorithmType.PID)
+		{
+			throw new IllegalArgumentException("Patient " + patient + " needs the PID algorithm");
+		}
+		if (profile.getPlantModel() != plantModel)
+		{
+			throw new IllegalArgumentException("Patient " + patient + " needs the plant model " + plantModel);
+		}
+		if (profile.getScenario() != null)
+		{
+			throw new IllegalArgumentException("Patient " + patient + " has a scenario file");
+		}
+		ControllerSettings settings = new ControllerSettings(profile);
+		MessageBoxText error = settings.getValidationError();
+		if (error != null)
+		{
+			throw new IllegalArgumentException(error.getText());
+		}
+		balancingRangeMaximums[patient] = settings.getBalancingRangeMaximum();
+		balancingRangeMinimums[patient] = settings.getBalancingRangeMinimum();
+		balancingTargets[patient] = (settings.getBalancingRangeMinimum()
+				+ settings.getBalancingRangeMaximum()) / 2;
+		noiseSeeds[patient] = profile.getNoiseSeed();
+		if (plantModel == PlantModelType.BERGMAN)
+		{
+			BergmanPlantModel plant = (BergmanPlantModel) plantModel.newInstance(profile);
+			glucoseAppearanceFactors[patient] = plant.getGlucoseAppearanceFactor();
+			insulinActionGains[patient] = plant.getInsulinActionGain();
+			insulinAppearanceFactors[patient] = plant.getInsulinAppearanceFactor();
+			plant.copyStateTo(plantStates, patient * BergmanPlantModel.STATE_SIZE);
+		}
+		scheduleNextMeal(patient);
+	}
+
+	/**
+	 * Records the glucose levels of the slice in the summaries. Every
+	 * pancreas step the pancreas analyzes the first glucose level since its
+	 * last step.
+	 */
+	private void recordGlucoseLevels()
+	{
+		for (int i = 0; i < glucoseLevels.length; i++)
+		{
+			double glucoseLevel = glucoseLevels[i];
+			minGlucoseLevels[i] = Math.min(minGlucoseLevels[i], glucoseLevel);
+			maxGlucoseLevels[i] = Math.max(maxGlucoseLevels[i], glucoseLevel);
+			long below = glucoseLevel < HeadlessSimulation.TARGET_RANGE_MINIMUM ? 1 : 0;
+			long above = glucoseLevel > HeadlessSimulation.TARGET_RANGE_MAXIMUM ? 1 : 0;
+			stepsBelowRange[i] += below;
+			stepsAboveRange[i] += above;
+			stepsInRange[i] += 1 - below - above;
+		}
+		if (tick % TICKS_PER_PANCREAS_STEP == 0)
+		{
+			System.arraycopy(glucoseLevels, 0, analyzedGlucoseLevels, 0, glucoseLevels.length);
+		}
+	}
+
+	private void removeFirstEvent()
+	{
+		int last = --numberOfEvents;
+		long lastTick = eventTicks[last];
+		int patient = eventPatients[last];
+		double rateDelta = eventRateDeltas[last];
+		double slopeDelta = eventSlopeDeltas[last];
+		byte kind = eventKinds[last];
+		int index = 0;
+		int half = numberOfEvents >>> 1;
+		while (index < half)
+		{
+			int child = 2 * index + 1;
+			if (child + 1 < numberOfEvents && eventTicks[child + 1] < eventTicks[child])
+			{
+				child++;
+			}
+			if (lastTick <= eventTicks[child])
+			{
+				break;
+			}
+			copyEvent(child, index);
+			index = child;
+		}
+		setEvent(index, lastTick, patient, rateDelta, slopeDelta, kind);
+	}
+
+	/**
+	 * Schedules the start of the next meal of the profile. A meal is consumed
+	 * in the first slice at or after its time, but not before the previous
+	 * meal of the profile.
+	 */
+	private void scheduleNextMeal(int patient)
+	{
+		PatientProfile profile = profiles[patient];
+		int meal = nextMeals[patient];
+		if (meal < profile.getNumberOfMeals())
+		{
+			long mealTick = (profile.getMealTimeInMillis(meal) + GLUCOSE_STEP_IN_MILLIS - 1)
+					/ GLUCOSE_STEP_IN_MILLIS;
+			addEvent(Math.max(tick, mealTick), patient, 0, 0, MEAL_START);
+		}
+	}
+
+	private void setEvent(int index, long eventTick, int patient, double rateDelta,
+			double slopeDelta, byte kind)
+	{
+		eventKinds[index] = kind;
+		eventPatients[index] = patient;
+		eventRateDeltas[index] = rateDelta;
+		eventSlopeDeltas[index] = slopeDelta;
+		eventTicks[index] = eventTick;
+	}
+
+	/**
+	 * Consumes the next meal of the profile and translates its curve into
+	 * events at the segment boundaries
+	 */
+	private void startMeal(int patient)
+	{
+		double kcal = profiles[patient].getMealKcal(nextMeals[patient]++);
+		AbsorptionCurve curve = GlucoseLevelModel.kcalToIntakeCurve(kcal);
+		double magnitude = GlucoseLevelModel.kcalToGlucoseLevelIncrease_Mmol_L(kcal);
+		long segmentTick = tick;
+		double continuedRate = 0;
+		double previousSlope = 0;
+		for (int segment = 0; segment < curve.getNumberOfSegments(); segment++)
+		{
+			int segmentTicks = curve.getSegmentTicks(segment);
+			if (segmentTicks <= 0)
+			{
+				continue;
+			}
+			double rate = curve.getRatePerTick(segment, magnitude);
+			double slope = curve.getSlopePerTick(segment, magnitude);
+			addEvent(segmentTick, patient, rate - continuedRate, slope - previousSlope, MEAL_CHANGE);
+			continuedRate = rate + slope * segmentTicks;
+			previousSlope = slope;
+			segmentTick += segmentTicks;
+		}
+		addEvent(segmentTick, patient, -continuedRate, -previousSlope, MEAL_END);
+		activeMeals[patient]++;
+		scheduleNextMeal(patient);
+	}
+
+	/**
+	 * Steps the {@link AdditivePlantModel} of all patients
+	 */
+	private void stepAdditivePlants()
+	{
+		for (int i = 0; i < glucoseLevels.length; i++)
+		{
+			double mealEffect = mealRates[i];
+			mealRates[i] += mealSlopes[i];
+			double offset = plantOffsets[i] + mealEffect;
+			offset += hormonalEffects[i];
+			plantOffsets[i] = offset;
+			glucoseLevels[i] = regularValues[i] + offset;
+		}
+	}
+
+	/**
+	 * Steps the {@link BergmanPlantModel} of all patients with the same
+	 * arithmetic as {@link BergmanPlantModel#step(double, double)}
+	 */
+	private void stepBergmanPlants()
+	{
+		for (int i = 0; i < glucoseLevels.length; i++)
+		{
+			double mealEffect = mealRates[i];
+			mealRates[i] += mealSlopes[i];
+			double glucoseAppearanceRate = BergmanPlantModel.getGlucoseAppearanceRate(mealEffect,
+					glucagonEffects[i], glucoseAppearanceFactors[i]);
+			double offset = BergmanPlantModel.integrate(plantStates, i * BergmanPlantModel.STATE_SIZE,
+					glucoseAppearanceRate, insulinAppearanceRates[i], insulinActionGains[i]);
+			glucoseLevels[i] = regularValues[i] + offset;
+		}
+	}
+
+	/**
+	 * Decides the doses of all patients and updates the effect of the doses
+	 * of the last pancreas steps. All slices of a pancreas step have the same
+	 * hormonal effect (see {@link #createDoseWeights()}).
+	 */
+	private void stepPancreas()
+	{
+		// the first glucose level since the last step is analyzed, the very
+		// first step has none and decides on 0 like the PancreasModel
+		long analyzedTimeInMillis = tick == 0 ? 0
+				: (tick - TICKS_PER_PANCREAS_STEP) * GLUCOSE_STEP_IN_MILLIS;
+		doseHead = (doseHead + 1) % doses.length;
+		double[] newDoses = doses[doseHead];
+		if (analyzedTimeInMillis == lastDecisionTimeInMillis)
+		{
+			// no new glucose level since the last step
+			Arrays.fill(newDoses, 0);
+		} else
+		{
+			decideDoses(newDoses, analyzedTimeInMillis);
+		}
+		// like the events of an AbsorptionTimeline, only the doses which
+		// reach a boundary of their curve change the effect
+		for (int age = 0; age <= DOSE_WEIGHTS.length; age++)
+		{
+			double weightBefore = age == 0 ? 0 : DOSE_WEIGHTS[age - 1];
+			double weight = age == DOSE_WEIGHTS.length ? 0 : DOSE_WEIGHTS[age];
+			if (weight == weightBefore)
+			{
+				continue;
+			}
+			double[] agedDoses = getDoses(age);
+			for (int i = 0; i < hormonalEffects.length; i++)
+			{
+				hormonalEffects[i] += weight * agedDoses[i] - weightBefore * agedDoses[i];
+			}
+		}
+		double[] endedDoses = getDoses(DOSE_WEIGHTS.length);
+		for (int i = 0; i < hormonalEffects.length; i++)
+		{
+			activeDoses[i] += (newDoses[i] != 0 ? 1 : 0) - (endedDoses[i] != 0 ? 1 : 0);
+			if (activeDoses[i] == 0)
+			{
+				// avoid that rounding errors sum up
+				hormonalEffects[i] = 0;
+			}
+		}
+		if (plantModel == PlantModelType.BERGMAN)
+		{
+			// the hormones enter the plant at the same rate until the next step
+			for (int i = 0; i < hormonalEffects.length; i++)
+			{
+				glucagonEffects[i] = BergmanPlantModel.getGlucagonEffect(hormonalEffects[i]);
+				insulinAppearanceRates[i] = BergmanPlantModel.getInsulinAppearanceRate(hormonalEffects[i],
+						insulinAppearanceFactors[i]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,384 @@
+package de.frauas.scs.simulation;
+
+import de.frauas.scs.BloodStream;
+
+/**
+ * Bergman minimal model of the glucose-insulin regulation, extended by a
+ * compartment of the plasma insulin:
+ *
+ * <pre>
+ * dG/dt = -(p1 + X) * G + p1 * Gb + Ra / Vg
+ * dX/dt = -p2 * X + p3 * I
+ * dI/dt = -n * I + u / Vi
+ * </pre>
+ *
+ * G is the glucose level (mmol/L), X the action of the insulin (1/min) and I
+ * the plasma insulin above its basal level (mU/L), which the basal rate of
+ * the pump keeps. Ra is the glucose of meals and of the liver (glucagon)
+ * which enters the blood, u the delivered insulin. The insulin sensitivity
+ * p3 / p2 and the distribution volumes depend on the patient.
+ * <p>
+ * The model is integrated with one step of the classical Runge-Kutta method
+ * (RK4) per time slice. The state is a primitive array which is allocated
+ * once, the intermediate points of a step only live in local variables. The
+ * inputs are constant within a slice.
+ *
+ */
+public class BergmanPlantModel implements PlantModel {
+
+	/**
+	 * Fasting glucose level of the patient in mmol/L (Gb)
+	 */
+	public final static double BASAL_GLUCOSE_LEVEL = 5.6;
+
+	public final static double DEFAULT_BODY_WEIGHT_IN_KG = 70;
+
+	/**
+	 * Insulin sensitivity of an average adult in 1/min per mU/L (p3 / p2)
+	 */
+	public final static double DEFAULT_INSULIN_SENSITIVITY = 2e-4;
+
+	/**
+	 * Glucose effectiveness in 1/min (p1): the glucose is taken up by the
+	 * cells without insulin
+	 */
+	final static double GLUCOSE_EFFECTIVENESS = 0.028;
+
+	/**
+	 * Distribution volume of the glucose in L per kg body weight (Vg)
+	 */
+	private final static double GLUCOSE_DISTRIBUTION_VOLUME = 0.16;
+
+	private final static int GLUCOSE_LEVEL = 0;
+
+	private final static int INSULIN_ACTION = 1;
+
+	/**
+	 * Decay of the insulin action in 1/min (p2)
+	 */
+	final static double INSULIN_ACTION_DECAY = 0.025;
+
+	/**
+	 * Clearance of the plasma insulin in 1/min (n)
+	 */
+	final static double INSULIN_CLEARANCE = 0.09;
+
+	/**
+	 * Distribution volume of the insulin in L per kg body weight (Vi)
+	 */
+	private final static double INSULIN_DISTRIBUTION_VOLUME = 0.12;
+
+	/**
+	 * Decrease of the glucose level of an average patient by one unit of
+	 * insulin at the fasting level in mmol/L. The pump doses the effect it
+	 * expects, which is converted into units of insulin with this factor, so
+	 * a more sensitive patient reacts stronger than the pump expects.
+	 */
+	private final static double NOMINAL_CORRECTION_FACTOR = BASAL_GLUCOSE_LEVEL
+			* DEFAULT_INSULIN_SENSITIVITY * 1000
+			/ (INSULIN_DISTRIBUTION_VOLUME * DEFAULT_BODY_WEIGHT_IN_KG * INSULIN_CLEARANCE);
+
+	private final static int PLASMA_INSULIN = 2;
+
+	/**
+	 * Number of state variables of one patient
+	 */
+	final static int STATE_SIZE = 3;
+
+	final static double STEP_IN_MINUTES = GlucoseLevelModel.SIMULATION_STEPS_IN_MILLIS / 60000d;
+
+	/**
+	 * @param hormonalEffect_mmol_L
+	 *            Effect of the injected hormones in the slice (negative for
+	 *            insulin)
+	 * @return Effect of the glucagon, which releases the glucose of the liver
+	 */
+	static double getGlucagonEffect(double hormonalEffect_mmol_L)
+	{
+		return Math.max(0, hormonalEffect_mmol_L);
+	}
+
+	/**
+	 * @param glucoseAppearance_mmol_L
+	 *            Increase of the glucose level by the absorbed meals in the
+	 *            slice
+	 * @param glucagonEffect_mmol_L
+	 *            See {@link #getGlucagonEffect(double)}
+	 * @return Glucose which enters the blood in the slice in mmol/L per min
+	 */
+	static double getGlucoseAppearanceRate(double glucoseAppearance_mmol_L,
+			double glucagonEffect_mmol_L, double glucoseAppearanceFactor)
+	{
+		return (glucoseAppearance_mmol_L + glucagonEffect_mmol_L) * glucoseAppearanceFactor;
+	}
+
+	/**
+	 * @param hormonalEffect_mmol_L
+	 *            Effect of the injected hormones in the slice (negative for
+	 *            insulin)
+	 * @return Insulin which enters the plasma in the slice in mU/L per min
+	 */
+	static double getInsulinAppearanceRate(double hormonalEffect_mmol_L, double insulinAppearanceFactor)
+	{
+		return Math.max(0, -hormonalEffect_mmol_L) * insulinAppearanceFactor;
+	}
+
+	/**
+	 * Integrates the state of one patient over one slice with one step of
+	 * RK4. The state takes {@link #STATE_SIZE} consecutive elements of the
+	 * array, so the same arithmetic steps a single model and the states of a
+	 * {@link BatchCohortSimulation}. The intermediate points are computed in
+	 * the derivatives, which keeps the bytecode below the inlining limit of
+	 * the JIT compiler, so the loop of a batch inlines the whole step.
+	 *
+	 * @param states
+	 *            States of the patients
+	 * @param offset
+	 *            First element of the state of the patient
+	 * @param glucoseAppearanceRate
+	 *            See {@link #getGlucoseAppearanceRate(double, double, double)}
+	 * @param insulinAppearanceRate
+	 *            See {@link #getInsulinAppearanceRate(double, double)}
+	 * @return Difference of the glucose level to
+	 *         {@link #BASAL_GLUCOSE_LEVEL} in mmol/L
+	 */
+	static double integrate(double[] states, int offset, double glucoseAppearanceRate,
+			double insulinAppearanceRate, double insulinActionGain)
+	{
+		double glucoseLevel = states[offset + GLUCOSE_LEVEL];
+		double insulinAction = states[offset + INSULIN_ACTION];
+		double plasmaInsulin = states[offset + PLASMA_INSULIN];
+		double half = STEP_IN_MINUTES / 2;
+
+		double glucoseLevel1 = deriveGlucoseLevel(glucoseLevel, insulinAction, glucoseAppearanceRate);
+		double insulinAction1 = deriveInsulinAction(insulinAction, plasmaInsulin, insulinActionGain);
+		double plasmaInsulin1 = derivePlasmaInsulin(plasmaInsulin, insulinAppearanceRate);
+
+		double glucoseLevel2 = deriveGlucoseLevel(glucoseLevel, glucoseLevel1, insulinAction,
+				insulinAction1, half, glucoseAppearanceRate);
+		double insulinAction2 = deriveInsulinAction(insulinAction, insulinAction1, plasmaInsulin,
+				plasmaInsulin1, half, insulinActionGain);
+		double plasmaInsulin2 = derivePlasmaInsulin(plasmaInsulin + half * plasmaInsulin1,
+				insulinAppearanceRate);
+
+		double glucoseLevel3 = deriveGlucoseLevel(glucoseLevel, glucoseLevel2, insulinAction,
+				insulinAction2, half, glucoseAppearanceRate);
+		double insulinAction3 = deriveInsulinAction(insulinAction, insulinAction2, plasmaInsulin,
+				plasmaInsulin2, half, insulinActionGain);
+		double plasmaInsulin3 = derivePlasmaInsulin(plasmaInsulin + half * plasmaInsulin2,
+				insulinAppearanceRate);
+
+		double glucoseLevel4 = deriveGlucoseLevel(glucoseLevel, glucoseLevel3, insulinAction,
+				insulinAction3, STEP_IN_MINUTES, glucoseAppearanceRate);
+		double insulinAction4 = deriveInsulinAction(insulinAction, insulinAction3, plasmaInsulin,
+				plasmaInsulin3, STEP_IN_MINUTES, insulinActionGain);
+		double plasmaInsulin4 = derivePlasmaInsulin(plasmaInsulin + STEP_IN_MINUTES * plasmaInsulin3,
+				insulinAppearanceRate);
+
+		double sixth = STEP_IN_MINUTES / 6;
+		// burned energy cannot take more glucose than there is
+		glucoseLevel = Math.max(0, glucoseLevel
+				+ sixth * (glucoseLevel1 + 2 * glucoseLevel2 + 2 * glucoseLevel3 + glucoseLevel4));
+		states[offset + GLUCOSE_LEVEL] = glucoseLevel;
+		states[offset + INSULIN_ACTION] = insulinAction
+				+ sixth * (insulinAction1 + 2 * insulinAction2 + 2 * insulinAction3 + insulinAction4);
+		states[offset + PLASMA_INSULIN] = plasmaInsulin
+				+ sixth * (plasmaInsulin1 + 2 * plasmaInsulin2 + 2 * plasmaInsulin3 + plasmaInsulin4);
+		return glucoseLevel - BASAL_GLUCOSE_LEVEL;
+	}
+
+	/**
+	 * @return dG/dt in mmol/L per min
+	 */
+	private static double deriveGlucoseLevel(double glucoseLevel, double insulinAction,
+			double glucoseAppearanceRate)
+	{
+		return -(GLUCOSE_EFFECTIVENESS + insulinAction) * glucoseLevel
+				+ GLUCOSE_EFFECTIVENESS * BASAL_GLUCOSE_LEVEL + glucoseAppearanceRate;
+	}
+
+	/**
+	 * @return dG/dt in mmol/L per min at the point which is reached from G and
+	 *         X with their slopes after the given minutes
+	 */
+	private static double deriveGlucoseLevel(double glucoseLevel, double glucoseLevelSlope,
+			double insulinAction, double insulinActionSlope, double minutes,
+			double glucoseAppearanceRate)
+	{
+		return deriveGlucoseLevel(glucoseLevel + minutes * glucoseLevelSlope,
+				insulinAction + minutes * insulinActionSlope, glucoseAppearanceRate);
+	}
+
+	/**
+	 * @return dX/dt in 1/min²
+	 */
+	private static double deriveInsulinAction(double insulinAction, double plasmaInsulin,
+			double insulinActionGain)
+	{
+		return -INSULIN_ACTION_DECAY * insulinAction + insulinActionGain * plasmaInsulin;
+	}
+
+	/**
+	 * @return dX/dt in 1/min² at the point which is reached from X and I with
+	 *         their slopes after the given minutes
+	 */
+	private static double deriveInsulinAction(double insulinAction, double insulinActionSlope,
+			double plasmaInsulin, double plasmaInsulinSlope, double minutes,
+			double insulinActionGain)
+	{
+		return deriveInsulinAction(insulinAction + minutes * insulinActionSlope,
+				plasmaInsulin + minutes * plasmaInsulinSlope, insulinActionGain);
+	}
+
+	/**
+	 * @return dI/dt in mU/L per min
+	 */
+	private static double derivePlasmaInsulin(double plasmaInsulin, double insulinAppearanceRate)
+	{
+		return -INSULIN_CLEARANCE * plasmaInsulin + insulinAppearanceRate;
+	}
+
+	private final double bodyWeightInKg;
+
+	/**
+	 * Converts an increase of the glucose level in the blood within one slice
+	 * into the rate in the distribution volume of the glucose
+	 */
+	private final double glucoseAppearanceFactor;
+
+	/**
+	 * Gain of the insulin action in 1/min² per mU/L (p3)
+	 */
+	private final double insulinActionGain;
+
+	/**
+	 * Converts the expected decrease of the glucose level by the insulin of
+	 * one slice into the rate in the distribution volume of the insulin
+	 */
+	private final double insulinAppearanceFactor;
+
+	/**
+	 * Insulin sensitivity in 1/min per mU/L
+	 */
+	private final double insulinSensitivity;
+
+	private final double[] state = new double[STATE_SIZE];
+
+	/**
+	 * Creates an average adult
+	 */
+	public BergmanPlantModel() {
+		this(DEFAULT_BODY_WEIGHT_IN_KG, DEFAULT_INSULIN_SENSITIVITY);
+	}
+
+	/**
+	 * @param bodyWeightInKg
+	 *            Body weight of the patient, which determines the
+	 *            distribution volumes
+	 * @param insulinSensitivity
+	 *            Insulin sensitivity of the patient in 1/min per mU/L
+	 */
+	public BergmanPlantModel(double bodyWeightInKg, double insulinSensitivity) {
+		if (bodyWeightInKg <= 0 || insulinSensitivity < 0)
+		{
+			throw new IllegalArgumentException("Invalid body weight or insulin sensitivity");
+		}
+		this.bodyWeightInKg = bodyWeightInKg;
+		this.insulinSensitivity = insulinSensitivity;
+		// the effects are increases of the glucose level in the blood, the
+		// model distributes the glucose in its distribution volume
+		glucoseAppearanceFactor = BloodStream.getAmountOfBloodInLiter()
+				/ (GLUCOSE_DISTRIBUTION_VOLUME * bodyWeightInKg) / STEP_IN_MINUTES;
+		// mmol/L -> U -> mU/L
+		insulinAppearanceFactor = 1000 / NOMINAL_CORRECTION_FACTOR
+				/ (INSULIN_DISTRIBUTION_VOLUME * bodyWeightInKg) / STEP_IN_MINUTES;
+		insulinActionGain = insulinSensitivity * INSULIN_ACTION_DECAY;
+		state[GLUCOSE_LEVEL] = BASAL_GLUCOSE_LEVEL;
+	}
+
+	/**
+	 * Copies the state into {@link #STATE_SIZE} consecutive elements of the
+	 * array, see {@link #integrate(double[], int, double, double, double)}
+	 */
+	void copyStateTo(double[] states, int offset)
+	{
+		System.arraycopy(state, 0, states, offset, STATE_SIZE);
+	}
+
+	public double getBodyWeightInKg()
+	{
+		return bodyWeightInKg;
+	}
+
+	/**
+	 * @return Factor from an increase of the glucose level in one slice to
+	 *         the appearance rate of the glucose in mmol/L per min
+	 */
+	double getGlucoseAppearanceFactor()
+	{
+		return glucoseAppearanceFactor;
+	}
+
+	/**
+	 * @return Glucose level in mmol/L (G)
+	 */
+	public double getGlucoseLevel()
+	{
+		return state[GLUCOSE_LEVEL];
+	}
+
+	/**
+	 * @return Action of the insulin in 1/min (X)
+	 */
+	public double getInsulinAction()
+	{
+		return state[INSULIN_ACTION];
+	}
+
+	/**
+	 * @return Gain of the insulin action in 1/min² per mU/L (p3)
+	 */
+	double getInsulinActionGain()
+	{
+		return insulinActionGain;
+	}
+
+	/**
+	 * @return Factor from the expected decrease of the glucose level in one
+	 *         slice to the appearance rate of the insulin in mU/L per min
+	 */
+	double getInsulinAppearanceFactor()
+	{
+		return insulinAppearanceFactor;
+	}
+
+	/**
+	 * @return Insulin sensitivity in 1/min per mU/L
+	 */
+	public double getInsulinSensitivity()
+	{
+		return insulinSensitivity;
+	}
+
+	/**
+	 * @return Plasma insulin above its basal level in mU/L (I)
+	 */
+	public double getPlasmaInsulin()
+	{
+		return state[PLASMA_INSULIN];
+	}
+
+	/**
+	 * @return Difference of the glucose level to
+	 *         {@link #BASAL_GLUCOSE_LEVEL} in mmol/L
+	 */
+	@Override
+	public double step(double glucoseAppearance_mmol_L, double hormonalEffect_mmol_L)
+	{
+		return integrate(state, 0,
+				getGlucoseAppearanceRate(glucoseAppearance_mmol_L, getGlucagonEffect(hormonalEffect_mmol_L),
+						glucoseAppearanceFactor),
+				getInsulinAppearanceRate(hormonalEffect_mmol_L, insulinAppearanceFactor), insulinActionGain);
+	}
+
+}
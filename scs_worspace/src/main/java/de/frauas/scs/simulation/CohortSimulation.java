@@ -0,0 +1,230 @@
+package de.frauas.scs.simulation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.frauas.scs.exception.SimulationException;
+import de.frauas.scs.scenario.ScenarioReader;
+
+/**
+ * Simulates a cohort of independent patients in parallel. Each patient gets
+ * its own {@link HeadlessSimulation} (and therefore its own blood stream),
+ * the patients are distributed on the cores by a work stealing
+ * {@link ForkJoinPool}. A scenario file is checked once, then each patient
+ * streams it with its own {@link ScenarioReader}. A patient keeps the file
+ * open while it is simulated, so no more files than cores are open at a
+ * time.
+ *
+ */
+public class CohortSimulation {
+
+	/**
+	 * Splits the range of patients until it is small enough to be simulated
+	 * by one task.
+	 */
+	private class CohortTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+
+		private final int to;
+
+		private CohortTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= PATIENTS_PER_TASK)
+			{
+				for (int i = from; i < to; i++)
+				{
+					simulatePatient(i);
+				}
+			} else
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new CohortTask(from, middle), new CohortTask(middle, to));
+			}
+		}
+	}
+
+	/**
+	 * Seed of the randomly generated cohort of the command line, so each run
+	 * simulates the same patients
+	 */
+	final static long COHORT_SEED = 42;
+
+	private final static int PATIENTS_PER_TASK = 4;
+
+	/**
+	 * Runs a cohort simulation from the command line with randomly generated
+	 * meals and physiologies. If a scenario file is given, its events are
+	 * applied in addition, the patients are numbered from 0 in the file.<br>
+	 * Usage: CohortSimulation &lt;patients&gt; &lt;hours&gt;
+	 * [LEGACY|PID|MPC] [ADDITIVE|BERGMAN] [scenario file]
+	 */
+	public static void main(String[] args) throws IOException, SimulationException
+	{
+		String usage = "Usage: CohortSimulation <patients> <hours> [LEGACY|PID|MPC] "
+				+ "[ADDITIVE|BERGMAN] [scenario file]";
+		if (args.length < 2)
+		{
+			System.out.println(usage);
+			return;
+		}
+		int patients = Integer.parseInt(args[0]);
+		double hours = Double.parseDouble(args[1]);
+		DosingAlgorithmType dosingAlgorithm = DosingAlgorithmType.LEGACY;
+		PlantModelType plantModel = PlantModelType.ADDITIVE;
+		Path scenario = null;
+		for (int i = 2; i < args.length; i++)
+		{
+			if (DosingAlgorithmType.ofName(args[i]) != null)
+			{
+				dosingAlgorithm = DosingAlgorithmType.ofName(args[i]);
+			} else if (PlantModelType.ofName(args[i]) != null)
+			{
+				plantModel = PlantModelType.ofName(args[i]);
+			} else if (Files.isRegularFile(Paths.get(args[i])))
+			{
+				scenario = Paths.get(args[i]);
+				ScenarioReader.check(scenario);
+			} else
+			{
+				System.out.println(usage);
+				return;
+			}
+		}
+		PatientProfile[] profiles = new PatientProfile[patients];
+		SplittableRandom cohortRandom = new SplittableRandom(COHORT_SEED);
+		for (int i = 0; i < patients; i++)
+		{
+			profiles[i] = createRandomProfile(cohortRandom.split(), hours);
+			profiles[i].setDosingAlgorithm(dosingAlgorithm);
+			profiles[i].setPlantModel(plantModel);
+			profiles[i].setScenario(scenario, i);
+		}
+
+		long start = System.nanoTime();
+		PatientResult[] results = new CohortSimulation(profiles).run((long) (hours * 60 * 60 * 1000));
+		long wallTimeInMillis = (System.nanoTime() - start) / 1000000;
+
+		double timeInRange = 0;
+		for (PatientResult result : results)
+		{
+			timeInRange += result.getTimeInRange();
+		}
+		System.out.println("Patients:            " + patients);
+		System.out.println("Simulated hours:     " + hours);
+		System.out.println("Dosing algorithm:    " + dosingAlgorithm);
+		System.out.println("Plant model:         " + plantModel);
+		System.out.println("Wall time in ms:     " + wallTimeInMillis);
+		System.out.println("Patient days/min:    " + (patients * hours / 24) / (wallTimeInMillis / 60000d));
+		System.out.println("Mean time in range:  " + timeInRange / patients);
+	}
+
+	/**
+	 * Creates a patient with three meals a day of random size. Body weight
+	 * and insulin sensitivity are drawn after the meals, so the meals do not
+	 * depend on the physiology.
+	 */
+	static PatientProfile createRandomProfile(SplittableRandom random,
+			double hours)
+	{
+		PatientProfile profile = new PatientProfile();
+		profile.setNoiseSeed(random.nextLong());
+		for (int hour = 0; hour < hours; hour += 24)
+		{
+			for (int mealHour : new int[] { 7, 12, 19 })
+			{
+				long mealTime = (long) (hour + mealHour) * 60 * 60 * 1000
+						+ random.nextInt(60 * 60 * 1000);
+				profile.addMeal(mealTime, 300 + random.nextInt(700));
+			}
+		}
+		// adults of 50 - 110 kg, the sensitivity varies by a factor of 4
+		profile.setBodyWeightInKg(50 + random.nextDouble() * 60);
+		profile.setInsulinSensitivity(BergmanPlantModel.DEFAULT_INSULIN_SENSITIVITY
+				* Math.pow(2, random.nextDouble() * 2 - 1));
+		return profile;
+	}
+
+	private final AtomicReference<SimulationException> failure = new AtomicReference<>();
+
+	private final ForkJoinPool pool;
+
+	private final PatientProfile[] profiles;
+
+	private final PatientResult[] results;
+
+	private long simulatedMillis;
+
+	public CohortSimulation(List<PatientProfile> profiles) {
+		this(profiles.toArray(new PatientProfile[profiles.size()]));
+	}
+
+	public CohortSimulation(PatientProfile[] profiles) {
+		this(profiles, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param profiles
+	 *            One profile for each patient of the cohort
+	 * @param pool
+	 *            Pool which executes the simulations
+	 */
+	public CohortSimulation(PatientProfile[] profiles, ForkJoinPool pool) {
+		this.profiles = profiles.clone();
+		this.results = new PatientResult[profiles.length];
+		this.pool = pool;
+	}
+
+	/**
+	 * Simulates all patients of the cohort for the same time span
+	 *
+	 * @param simulatedMillis
+	 *            Simulated milliseconds for each patient
+	 * @return Result of each patient in the order of the profiles
+	 * @throws SimulationException
+	 *             If the simulation of any patient failed
+	 */
+	public PatientResult[] run(long simulatedMillis) throws SimulationException
+	{
+		this.simulatedMillis = simulatedMillis;
+		pool.invoke(new CohortTask(0, profiles.length));
+		if (failure.get() != null)
+		{
+			throw failure.get();
+		}
+		return results.clone();
+	}
+
+	private void simulatePatient(int index)
+	{
+		HeadlessSimulation simulation = new HeadlessSimulation(profiles[index]);
+		try
+		{
+			simulation.runFor(simulatedMillis);
+			results[index] = new PatientResult(index, simulation);
+		} catch (SimulationException e)
+		{
+			failure.compareAndSet(null, new SimulationException(
+					"Simulation of patient " + index + " failed", e));
+		} finally
+		{
+			simulation.closeScenario();
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+package de.frauas.scs.simulation;
+
+import de.frauas.scs.exception.InvalidSettingsException;
+import de.frauas.scs.gui.MessageBoxText;
+
+/**
+ * Immutable, already parsed values of the doctor's pane. The
+ * {@link PancreasModel} reads plain doubles from the current settings in each
+ * step. A change of the pane creates new settings, which are validated once
+ * and then replace the old ones as a whole, so a step never sees a mix of old
+ * and new values.
+ *
+ */
+public final class ControllerSettings {
+
+	public final static ControllerSettings DEFAULT = new ControllerSettings(6, 5, 5.5, 8);
+
+	/**
+	 * Parses and validates the entries of the doctor's pane
+	 *
+	 * @return Settings of the entries
+	 * @throws InvalidSettingsException
+	 *             If an entry is not a number or the entries are rejected by
+	 *             {@link #getValidationError()}
+	 */
+	public static ControllerSettings parse(String balancingRangeMaximum,
+			String balancingRangeMinimum, String readjustmentNegativeInjectionBoundary,
+			String readjustmentPositiveInjectionBoundary) throws InvalidSettingsException
+	{
+		ControllerSettings settings;
+		try
+		{
+			settings = new ControllerSettings(Double.parseDouble(balancingRangeMaximum),
+					Double.parseDouble(balancingRangeMinimum),
+					Double.parseDouble(readjustmentNegativeInjectionBoundary),
+					Double.parseDouble(readjustmentPositiveInjectionBoundary));
+		} catch (NumberFormatException | NullPointerException e)
+		{
+			throw new InvalidSettingsException(MessageBoxText.NOT_A_NUMBER_ERROR);
+		}
+		MessageBoxText error = settings.getValidationError();
+		if (error != null)
+		{
+			throw new InvalidSettingsException(error);
+		}
+		return settings;
+	}
+
+	private final double balancingRangeMaximum;
+
+	private final double balancingRangeMinimum;
+
+	private final double readjustmentNegativeInjectionBoundary;
+
+	private final double readjustmentPositiveInjectionBoundary;
+
+	public ControllerSettings(double balancingRangeMaximum, double balancingRangeMinimum,
+			double readjustmentNegativeInjectionBoundary,
+			double readjustmentPositiveInjectionBoundary) {
+		this.balancingRangeMaximum = balancingRangeMaximum;
+		this.balancingRangeMinimum = balancingRangeMinimum;
+		this.readjustmentNegativeInjectionBoundary = readjustmentNegativeInjectionBoundary;
+		this.readjustmentPositiveInjectionBoundary = readjustmentPositiveInjectionBoundary;
+	}
+
+	/**
+	 * @param profile
+	 *            Profile with the controller parameters of a patient
+	 */
+	public ControllerSettings(PatientProfile profile) {
+		this(profile.getBalancingRangeMaximum(), profile.getBalancingRangeMinimum(),
+				profile.getReadjustmentNegativeInjectionBoundary(),
+				profile.getReadjustmentPositiveInjectionBoundary());
+	}
+
+	/**
+	 * @return Upper bound of the range in which the pump does not balance
+	 */
+	public double getBalancingRangeMaximum()
+	{
+		return balancingRangeMaximum;
+	}
+
+	/**
+	 * @return Lower bound of the range in which the pump does not balance
+	 */
+	public double getBalancingRangeMinimum()
+	{
+		return balancingRangeMinimum;
+	}
+
+	/**
+	 * @return Glucose level above which the readjustment injects insulin
+	 */
+	public double getReadjustmentNegativeInjectionBoundary()
+	{
+		return readjustmentNegativeInjectionBoundary;
+	}
+
+	/**
+	 * @return Glucose level below which the readjustment injects glucagon
+	 */
+	public double getReadjustmentPositiveInjectionBoundary()
+	{
+		return readjustmentPositiveInjectionBoundary;
+	}
+
+	/**
+	 * Checks the rules of the doctor's pane
+	 *
+	 * @return Reason why the settings are rejected or null if they are valid
+	 */
+	public MessageBoxText getValidationError()
+	{
+		if (Double.isNaN(balancingRangeMaximum) || Double.isNaN(balancingRangeMinimum)
+				|| Double.isNaN(readjustmentNegativeInjectionBoundary)
+				|| Double.isNaN(readjustmentPositiveInjectionBoundary))
+		{
+			return MessageBoxText.NOT_A_NUMBER_ERROR;
+		}
+
+		if (balancingRangeMaximum < balancingRangeMinimum)
+		{
+			return MessageBoxText.CONFLICTING_BALANCING_RANGE;
+		}
+
+		if (balancingRangeMaximum > 17 || balancingRangeMinimum < 4
+				|| readjustmentNegativeInjectionBoundary > 17
+				|| readjustmentPositiveInjectionBoundary < 4)
+		{
+			return MessageBoxText.IN_CRITICAL_AREA;
+		}
+
+		if (readjustmentPositiveInjectionBoundary < readjustmentNegativeInjectionBoundary)
+		{
+			return MessageBoxText.CONFLICTING_READJUSTMENT_RANGE;
+		}
+		return null;
+	}
+
+	public boolean isValid()
+	{
+		return getValidationError() == null;
+	}
+
+}
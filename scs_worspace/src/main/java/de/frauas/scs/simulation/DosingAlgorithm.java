@@ -0,0 +1,36 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Decides about the hormone doses of the {@link PancreasModel}. The model
+ * analyzes the blood stream and injects the doses, the algorithm only
+ * calculates them, so algorithms can be exchanged and compared under the
+ * same load (see {@link DosingAlgorithmType}).
+ * <p>
+ * An algorithm keeps the state of one patient, so each model needs its own
+ * instance. It is only called by the thread which drives the model and must
+ * not allocate objects in {@link #decide(PancreasModel, DosingDecision)},
+ * since it is called once per step of the controller.
+ *
+ */
+public interface DosingAlgorithm {
+
+	/**
+	 * Decides about the dose of the current step of the controller.
+	 *
+	 * @param model
+	 *            Controller which provides the analyzed glucose level, its
+	 *            time and the settings of the doctor's pane. Trends of the
+	 *            glucose level are kept by the algorithm itself.
+	 * @param decision
+	 *            Receives the dose. It is cleared before each call, nothing is
+	 *            injected if it is left empty.
+	 */
+	void decide(PancreasModel model, DosingDecision decision);
+
+	/**
+	 * @return Insulin injected so far as reported in the results of the
+	 *         simulation. How the doses are summed up is up to the algorithm.
+	 */
+	double getInjectedInsulin();
+
+}
@@ -0,0 +1,70 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Dosing algorithms which come with the pump. The id identifies the algorithm
+ * in the telemetry journal, so a session is replayed with the algorithm it
+ * was recorded with.
+ *
+ */
+public enum DosingAlgorithmType {
+
+	LEGACY(1), PID(2), MPC(3);
+
+	/**
+	 * @return Type with the given id or null if there is none
+	 */
+	public static DosingAlgorithmType ofId(int id)
+	{
+		for (DosingAlgorithmType type : values())
+		{
+			if (type.id == id)
+			{
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return Type with the given name or null if there is none
+	 */
+	public static DosingAlgorithmType ofName(String name)
+	{
+		for (DosingAlgorithmType type : values())
+		{
+			if (type.name().equals(name))
+			{
+				return type;
+			}
+		}
+		return null;
+	}
+
+	DosingAlgorithmType(int id) {
+		this.id = id;
+	}
+
+	private final int id;
+
+	public int getId()
+	{
+		return id;
+	}
+
+	/**
+	 * @return New instance of the algorithm with its default parameters
+	 */
+	public DosingAlgorithm newInstance()
+	{
+		switch (this)
+		{
+			case PID:
+				return new PidDosingAlgorithm();
+			case MPC:
+				return new MpcDosingAlgorithm();
+			default:
+				return new LegacyDosingAlgorithm();
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Dose which a {@link DosingAlgorithm} decided on in one step of the
+ * controller. The {@link PancreasModel} reuses one instance for all steps.
+ *
+ */
+public final class DosingDecision {
+
+	private double effect_mmol_L = 0;
+
+	private boolean isInjecting = false;
+
+	private boolean isOverriding = false;
+
+	private double slots = 0;
+
+	/**
+	 * @return Total effect of the dose on the glucose level in mmol/L,
+	 *         negative for insulin and positive for glucagon
+	 */
+	public double getEffect_mmol_L()
+	{
+		return effect_mmol_L;
+	}
+
+	/**
+	 * @return Slots of the first phase of the dose, see
+	 *         {@link PancreasModel#generateBalancingCurve(double)}
+	 */
+	public double getSlots()
+	{
+		return slots;
+	}
+
+	/**
+	 * Decides to inject a dose. A later call in the same step replaces the
+	 * dose.
+	 *
+	 * @param effect_mmol_L
+	 *            Total effect of the dose on the glucose level in mmol/L,
+	 *            negative for insulin and positive for glucagon
+	 * @param slots
+	 *            Slots of the first phase of the dose, see
+	 *            {@link PancreasModel#generateBalancingCurve(double)}
+	 */
+	public void inject(double effect_mmol_L, double slots)
+	{
+		this.effect_mmol_L = effect_mmol_L;
+		this.slots = slots;
+		isInjecting = true;
+		isOverriding = false;
+	}
+
+	/**
+	 * Decides to inject a dose whose effect replaces the effect of all
+	 * previous doses as long as it is absorbed, see
+	 * {@link de.frauas.scs.BloodStream#injectOverridingHormone(de.frauas.scs.AbsorptionCurve, double)}.
+	 * A later call in the same step replaces the dose.
+	 *
+	 * @param effect_mmol_L
+	 *            Total effect of the dose on the glucose level in mmol/L,
+	 *            negative for insulin and positive for glucagon
+	 * @param slots
+	 *            Slots of the first phase of the dose, see
+	 *            {@link PancreasModel#generateBalancingCurve(double)}
+	 */
+	public void injectOverriding(double effect_mmol_L, double slots)
+	{
+		inject(effect_mmol_L, slots);
+		isOverriding = true;
+	}
+
+	public boolean isInjecting()
+	{
+		return isInjecting;
+	}
+
+	/**
+	 * @return true if the dose replaces the effect of the previous doses
+	 *         instead of being added to it
+	 */
+	public boolean isOverriding()
+	{
+		return isOverriding;
+	}
+
+	void clear()
+	{
+		effect_mmol_L = 0;
+		slots = 0;
+		isInjecting = false;
+		isOverriding = false;
+	}
+
+}
@@ -0,0 +1,21 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Specifies on which threads the ticks of a simulation are executed.
+ *
+ */
+public enum ExecutionMode {
+
+	/**
+	 * All simulations share the one thread of the {@link TickScheduler}.
+	 */
+	SHARED_SCHEDULER,
+
+	/**
+	 * Each simulation loop runs on its own virtual thread. A virtual thread
+	 * does not block an OS thread while it waits for its next tick, so one
+	 * JVM can host tens of thousands of simulation loops.
+	 */
+	VIRTUAL_THREADS
+
+}
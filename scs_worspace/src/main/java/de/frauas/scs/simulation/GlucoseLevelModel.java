@@ -0,0 +1,622 @@
+package de.frauas.scs.simulation;
+
+import java.util.SplittableRandom;
+
+import de.frauas.scs.AbsorptionCurve;
+import de.frauas.scs.AbsorptionTimeline;
+import de.frauas.scs.BloodStream;
+import de.frauas.scs.telemetry.TelemetryJournal;
+
+/**
+ * Contains the calculation of the blood glucose level without any dependency
+ * to JavaFX. Each call of {@link #step()} simulates one time slice (100ms).
+ * The {@link GlucoseLevelSimulator} drives this model in real time for the
+ * GUI, the {@link HeadlessSimulation} drives it on a virtual clock.
+ * <p>
+ * The natural fluctuation is drawn from a seeded generator, so the course of
+ * the glucose level only depends on the seed, the meals and the doses. How
+ * the meals and the doses change the glucose level is up to the
+ * {@link PlantModel} of the patient.
+ *
+ * @author younes.el.ouarti
+ *
+ */
+public class GlucoseLevelModel {
+
+	public final static int SIMULATION_STEPS_IN_MILLIS = 100;
+
+	/**
+	 * Converts the upper 53 bits of a random long into a double between 0 and
+	 * 1, like {@link SplittableRandom#nextDouble()}
+	 */
+	private final static double DOUBLE_UNIT = 0x1.0p-53;
+
+	/**
+	 * Each gram of fat in a meal stretches the absorption of its
+	 * carbohydrates by 2%, up to {@link #MAX_FAT_STRETCH}.
+	 */
+	private final static double FAT_STRETCH_PER_GRAM = 0.02;
+
+	/**
+	 * Limit of the carbohydrates of a meal in g, the carbohydrates of
+	 * {@link #MAX_AMOUNT_KCAL_IN_2H}
+	 */
+	private final static double MAX_AMOUNT_CARBS = 250;
+
+	/**
+	 * Specifies the maximum amount of kcal which can be consumed at once.
+	 */
+	private final static int MAX_AMOUNT_KCAL_IN_2H = 2000;
+
+	/**
+	 * A fatty meal is absorbed at most 3 times slower than a meal without fat
+	 */
+	private final static double MAX_FAT_STRETCH = 3;
+
+	private final static double MILLIS_PER_30_MIN = 30 * 60 * 1000;
+
+	private final static double MIN_AMOUNT_KCAL_IN_30MIN = -500d;
+
+	/**
+	 * Increment of the noise seed in each slice, the gamma of a
+	 * {@link SplittableRandom} which was created with a seed
+	 */
+	private final static long NOISE_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/**
+	 * When consuming an amount of energy, then a maximal limit must be
+	 * specified where all the energy is consumed. Here all the energy that is
+	 * taken in, will be consumed in 2 hours ([MAX_INTAKE_DURATION] = 10
+	 * seconds). An upper limit of how many kcal can be consumed at once is
+	 * specified {@link #MAX_AMOUNT_KCAL_IN_2H}.
+	 */
+	private final static int MAX_POSITIVE_INTAKE_DURATION = 1200;
+
+	/**
+	 * Energy is consumed evenly within {@link #MAX_POSITIVE_INTAKE_DURATION}.
+	 */
+	private final static AbsorptionCurve NEGATIVE_INTAKE_CURVE = AbsorptionCurve.ofConstantSegments(
+			new int[] { MAX_POSITIVE_INTAKE_DURATION }, new double[] { 1 });
+
+	/**
+	 * The rise will be in 5 phases:<br>
+	 * init: 10% of glucose in 25.0% of the total time<br>
+	 * peak: 45% of glucose in 12.5% of the total time<br>
+	 * rest_1: 20% of glucose in 12.5% of the total time<br>
+	 * rest_2: 15% of glucose in 25.0% of the total time<br>
+	 * rest_3: 10% of glucose in 25.0% of the total time
+	 */
+	private final static AbsorptionCurve POSITIVE_INTAKE_CURVE = createPositiveIntakeCurve(
+			MAX_POSITIVE_INTAKE_DURATION);
+
+	/**
+	 * Creates the curve of the rise of the glucose level after a meal
+	 *
+	 * @param duration
+	 *            Ticks until the meal is absorbed completely
+	 * @see #POSITIVE_INTAKE_CURVE
+	 */
+	private static AbsorptionCurve createPositiveIntakeCurve(int duration)
+	{
+		return AbsorptionCurve.ofConstantSegments(
+				new int[] { (int) (duration * 0.25), (int) (duration * 0.125),
+						(int) (duration * 0.125), (int) (duration * 0.25),
+						(int) (duration * 0.25) },
+				new double[] { 0.1, 0.45, 0.20, 0.15, 0.10 });
+	}
+
+	/**
+	 * @param carbs_g
+	 *            Consumed (positive) or burned (negative) carbohydrates in g
+	 * @return Increase of the glucose level once the carbohydrates are in the
+	 *         blood
+	 */
+	static double carbsToGlucoseLevelIncrease_Mmol_L(double carbs_g)
+	{
+		double amountOfCarbs_mg = carbs_g * 1000;
+
+		// amount of blood in body in dl
+		double amountOfBlood_dL = BloodStream.getAmountOfBloodInLiter() * 10;
+
+		// total amount of glucose in mg/dl which will be consumed
+		double glucoseLevelIncrease_mg_dL = amountOfCarbs_mg / amountOfBlood_dL;
+
+		double glucoseLevelIncrease_mmol_L = glucoseLevelIncrease_mg_dL / 18;
+
+		return glucoseLevelIncrease_mmol_L;
+
+	}
+
+	/**
+	 * Half of the consumed energy is assumed to be carbohydrates, the energy
+	 * is limited to {@link #MIN_AMOUNT_KCAL_IN_30MIN} -
+	 * {@link #MAX_AMOUNT_KCAL_IN_2H}.
+	 *
+	 * @param kcal
+	 *            Consumed (positive) or burned (negative) energy
+	 * @return Increase of the glucose level once the energy is in the blood
+	 */
+	static double kcalToGlucoseLevelIncrease_Mmol_L(double kcal)
+	{
+		if (kcal > MAX_AMOUNT_KCAL_IN_2H)
+		{
+			kcal = MAX_AMOUNT_KCAL_IN_2H;
+		}
+
+		if (kcal < -500)
+		{
+			kcal = MIN_AMOUNT_KCAL_IN_30MIN;
+		}
+
+		if (kcal > 0)
+		{
+			// Half of the calories are assumed to be fat and protein
+			kcal /= 2;
+		}
+
+		// Equivalent amount of carbs (=glucose)
+		// 1 g carbs <=> 4 kcal energy
+		return carbsToGlucoseLevelIncrease_Mmol_L(kcal / 4);
+	}
+
+	/**
+	 * @param kcal
+	 *            Consumed (positive) or burned (negative) energy
+	 * @return Curve of the absorption of the energy into the blood
+	 */
+	static AbsorptionCurve kcalToIntakeCurve(double kcal)
+	{
+		if (kcal > 0)
+		{
+			return POSITIVE_INTAKE_CURVE;
+		}
+		return NEGATIVE_INTAKE_CURVE;
+	}
+
+	/**
+	 * Draws the natural glucose level (see {@link #getRegularValue()}) from a
+	 * column of noise seeds and advances the seed of the patient. The values
+	 * are the same as from {@link SplittableRandom#nextDouble()} of a
+	 * generator created with the seed, so a single model and a
+	 * {@link BatchCohortSimulation} share the arithmetic.
+	 *
+	 * @param noiseSeeds
+	 *            Noise seeds, one element per patient
+	 * @param patient
+	 *            Index of the patient
+	 * @return Value between 5.5 and 5.7 in mmol/L
+	 */
+	static double nextRegularValue(long[] noiseSeeds, int patient)
+	{
+		long z = noiseSeeds[patient] += NOISE_GAMMA;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		z = z ^ (z >>> 31);
+		return 5.5 + ((z >>> 11) * DOUBLE_UNIT) / 5;
+	}
+
+	private final BloodStream bloodStream;
+
+	/**
+	 * Like {@link #isConsuming} and {@link #totalAmountInConsumption_mmol_L}
+	 * advanced by {@link #step()} on the simulator thread and reset by an
+	 * intake, e.g. from the GUI, so all progress fields are volatile.
+	 */
+	private volatile double consumptionInProgress_mmol_L = 0;
+
+	private volatile double consumptionProgress = 0;
+
+	private final AbsorptionTimeline glucoseLevelOffsetSeries = new AbsorptionTimeline();
+
+	private volatile double hormonalEffect = 0;
+
+	private volatile boolean isBalanced = true;
+
+	/**
+	 * Seed of the natural fluctuation, advanced in each slice by
+	 * {@link #nextRegularValue(long[], int)}
+	 */
+	private final long[] noise;
+
+	private final long noiseSeed;
+
+	/**
+	 * Physiology of the patient, its result is the offset which is added to
+	 * the regular value (see {@link #getRegularValue()})
+	 */
+	private final PlantModel plantModel;
+
+	/**
+	 * Journal which already contains the start of this session
+	 */
+	private TelemetryJournal recordedJournal;
+
+	private volatile boolean isConsuming = false;
+
+	/**
+	 * Simulated time when the current dropout of the sensor ends
+	 */
+	private volatile long sensorDropoutEndInMillis = 0;
+
+	private volatile boolean shouldThrowError = false;
+
+	/**
+	 * Simulated time of the next sample, advanced by
+	 * {@link #SIMULATION_STEPS_IN_MILLIS} in each step.
+	 */
+	private volatile long simulatedTimeInMillis = 0;
+
+	private volatile double totalAmountInConsumption_mmol_L = 0;
+
+	/**
+	 * false if the sensor did not deliver the glucose level of the last step
+	 */
+	private volatile boolean wasSampleDelivered = true;
+
+	public GlucoseLevelModel(BloodStream bloodStream) {
+		this(bloodStream, new SplittableRandom().nextLong());
+	}
+
+	/**
+	 * @param bloodStream
+	 *            Blood stream of the patient
+	 * @param noiseSeed
+	 *            Seed of the natural fluctuation of the glucose level
+	 */
+	public GlucoseLevelModel(BloodStream bloodStream, long noiseSeed) {
+		this(bloodStream, noiseSeed, new AdditivePlantModel());
+	}
+
+	/**
+	 * @param bloodStream
+	 *            Blood stream of the patient
+	 * @param noiseSeed
+	 *            Seed of the natural fluctuation of the glucose level
+	 * @param plantModel
+	 *            Physiology of the patient, which is only used by this model
+	 */
+	public GlucoseLevelModel(BloodStream bloodStream, long noiseSeed, PlantModel plantModel) {
+		this.bloodStream = bloodStream;
+		this.noiseSeed = noiseSeed;
+		this.noise = new long[] { noiseSeed };
+		this.plantModel = plantModel;
+	}
+
+	/**
+	 * Consumes (positive) or burns (negative) energy, half of the consumed
+	 * energy is assumed to be carbohydrates. The intake is added to the
+	 * intakes which are still absorbed, so meals may overlap.
+	 *
+	 * @param amountToConsume
+	 *            Energy in kcal
+	 */
+	public void consume(double amountToConsume)
+	{
+		addIntake(getIntakeCurve(amountToConsume), amountToConsume,
+				calculateGlucoseLevelIncrease_Mmol_L(amountToConsume), 0);
+	}
+
+	/**
+	 * Consumes a meal of known composition. Only the carbohydrates raise the
+	 * glucose level, the fat slows down their absorption.
+	 *
+	 * @param carbs_g
+	 *            Carbohydrates in g
+	 * @param fat_g
+	 *            Fat in g
+	 */
+	public void consumeMeal(double carbs_g, double fat_g)
+	{
+		double stretch = Math.min(MAX_FAT_STRETCH, 1 + Math.max(0, fat_g) * FAT_STRETCH_PER_GRAM);
+		double carbs = Math.max(0, Math.min(MAX_AMOUNT_CARBS, carbs_g));
+		int duration = (int) (MAX_POSITIVE_INTAKE_DURATION * stretch);
+		addIntake(createPositiveIntakeCurve(duration), carbs * 4 + Math.max(0, fat_g) * 9,
+				calculateCarbsIncrease_Mmol_L(carbs), duration);
+	}
+
+	/**
+	 * Burns energy evenly during an exercise. Like the consumed energy, half
+	 * of the burned energy is assumed to be carbohydrates, and at most
+	 * {@link #MIN_AMOUNT_KCAL_IN_30MIN} are burned per 30 minutes.
+	 *
+	 * @param kcal
+	 *            Burned energy, not negative
+	 * @param durationInMillis
+	 *            Duration of the exercise, not negative
+	 */
+	public void exercise(double kcal, long durationInMillis)
+	{
+		if (!(kcal >= 0) || durationInMillis < 0)
+		{
+			throw new IllegalArgumentException("Invalid exercise of " + kcal + " kcal in "
+					+ durationInMillis + "ms");
+		}
+		int ticks = (int) Math.max(1, durationInMillis / SIMULATION_STEPS_IN_MILLIS);
+		double burnedKcal = Math.min(kcal,
+				-MIN_AMOUNT_KCAL_IN_30MIN * ticks * SIMULATION_STEPS_IN_MILLIS / MILLIS_PER_30_MIN);
+		addIntake(AbsorptionCurve.ofConstantSegments(new int[] { ticks }, new double[] { 1 }),
+				-burnedKcal, calculateCarbsIncrease_Mmol_L(-burnedKcal / 2 / 4), ticks);
+	}
+
+	/**
+	 * @return Share of the current meal which is already in the blood (0 - 1)
+	 */
+	public double getConsumptionProgress()
+	{
+		return consumptionProgress;
+	}
+
+	/**
+	 * @return Hormonal effect which was applied in the last step
+	 */
+	public double getHormonalEffect()
+	{
+		return hormonalEffect;
+	}
+
+	public long getNoiseSeed()
+	{
+		return noiseSeed;
+	}
+
+	public PlantModel getPlantModel()
+	{
+		return plantModel;
+	}
+
+	/**
+	 * @return Simulated time of the next step since the first step
+	 */
+	public long getSimulatedTimeInMillis()
+	{
+		return simulatedTimeInMillis;
+	}
+
+	public double getTotalAmountInConsumption_mmol_L()
+	{
+		return totalAmountInConsumption_mmol_L;
+	}
+
+	public boolean isBalanced()
+	{
+		return isBalanced;
+	}
+
+	public boolean isConsuming()
+	{
+		return isConsuming;
+	}
+
+	public void setBalanced(boolean isBalanced)
+	{
+		this.isBalanced = isBalanced;
+	}
+
+	public void setConsuming(boolean isConsuming)
+	{
+		this.isConsuming = isConsuming;
+	}
+
+	public void setShouldThrowError(boolean shouldThrowError)
+	{
+		this.shouldThrowError = shouldThrowError;
+	}
+
+	/**
+	 * Stops the sensor: the glucose level is still simulated (and recorded in
+	 * the journal), but not published to the {@link BloodStream}, so neither
+	 * the pancreas nor a display sees it.
+	 *
+	 * @param durationInMillis
+	 *            Duration of the dropout from the next step on
+	 */
+	public void startSensorDropout(long durationInMillis)
+	{
+		sensorDropoutEndInMillis = Math.max(sensorDropoutEndInMillis,
+				simulatedTimeInMillis + durationInMillis);
+		TelemetryJournal journal = bloodStream.getTelemetryJournal();
+		if (journal != null)
+		{
+			journal.recordSensorDropout(simulatedTimeInMillis, sensorDropoutEndInMillis);
+		}
+	}
+
+	/**
+	 * Simulates one time slice and publishes the resulting glucose level to
+	 * the {@link BloodStream}.
+	 *
+	 * @return The new blood glucose level in mmol/L
+	 */
+	public double step()
+	{
+		/*
+		 * This exception is only thrown for demonstration/simulation
+		 * purposes!!!
+		 */
+		if (shouldThrowError)
+		{
+			throw new RuntimeException();
+		}
+		double regularValue = getRegularValue();
+		double nextOffset = 0;
+		int startedIntakes = 0;
+		if (!glucoseLevelOffsetSeries.isEmpty())
+		{
+			nextOffset = glucoseLevelOffsetSeries.nextEffect();
+			startedIntakes = glucoseLevelOffsetSeries.getStartedDoses();
+			updateProgress(nextOffset);
+		} else
+		{
+			isConsuming = false;
+			consumptionInProgress_mmol_L = 0;
+			consumptionProgress = 0;
+		}
+
+		hormonalEffect = 0;
+		int startedHormoneDoses = 0;
+		if (isBalanced)
+		{
+			hormonalEffect = bloodStream.getHormonalEffect();
+			startedHormoneDoses = bloodStream.getStartedHormoneDoses();
+		}
+		double valueToAdd = regularValue + plantModel.step(nextOffset, hormonalEffect);
+		wasSampleDelivered = simulatedTimeInMillis >= sensorDropoutEndInMillis;
+		if (wasSampleDelivered)
+		{
+			bloodStream.getGlucoseLevelRing().add(simulatedTimeInMillis, valueToAdd);
+		}
+		TelemetryJournal journal = bloodStream.getTelemetryJournal();
+		if (journal != null)
+		{
+			if (journal != recordedJournal)
+			{
+				journal.recordSessionStart(simulatedTimeInMillis, noiseSeed);
+				recordPlantModel(journal);
+				recordedJournal = journal;
+			}
+			journal.recordGlucoseSample(simulatedTimeInMillis, valueToAdd, startedHormoneDoses,
+					startedIntakes);
+		}
+		if (wasSampleDelivered)
+		{
+			bloodStream.getEventBus().publishSample(simulatedTimeInMillis, valueToAdd);
+		}
+		simulatedTimeInMillis += SIMULATION_STEPS_IN_MILLIS;
+		return valueToAdd;
+	}
+
+	/**
+	 * @return false if the glucose level of the last step was lost by a
+	 *         dropout of the sensor, i.e. it was not published to the
+	 *         {@link BloodStream}
+	 */
+	public boolean wasSampleDelivered()
+	{
+		return wasSampleDelivered;
+	}
+
+	protected double calculateGlucoseLevelIncrease_Mmol_L(Double kcal)
+	{
+		return kcalToGlucoseLevelIncrease_Mmol_L(kcal);
+	}
+
+	/**
+	 * @param carbs_g
+	 *            Consumed (positive) or burned (negative) carbohydrates in g
+	 * @return Increase of the glucose level once the carbohydrates are in the
+	 *         blood
+	 */
+	protected double calculateCarbsIncrease_Mmol_L(double carbs_g)
+	{
+		return carbsToGlucoseLevelIncrease_Mmol_L(carbs_g);
+	}
+
+	/**
+	 * @param amountToConsume
+	 *            Consumed (positive) or burned (negative) energy in kcal
+	 * @return Curve of the absorption of the energy into the blood
+	 */
+	protected AbsorptionCurve getIntakeCurve(double amountToConsume)
+	{
+		return kcalToIntakeCurve(amountToConsume);
+	}
+
+	/**
+	 * Generates a value between 5.5 and 5.7.<br>
+	 * This value represents the natural blood glucose level.
+	 *
+	 * @return generated value
+	 */
+	protected double getRegularValue()
+	{
+		/*
+		 * Each model has its own seed, which avoids contention if many
+		 * patients are simulated in parallel.
+		 */
+		return nextRegularValue(noise, 0);
+	}
+
+	/**
+	 * Repeats a recorded intake of a {@link SessionReplay} with the curve of
+	 * the recording
+	 *
+	 * @param kcal
+	 *            Consumed (positive) or burned (negative) energy
+	 * @param amount_mmol_L
+	 *            Recorded increase of the glucose level
+	 * @param duration
+	 *            Recorded duration of a meal of known composition or of an
+	 *            exercise, 0 for a meal of {@link #consume(double)}
+	 */
+	void replayIntake(double kcal, double amount_mmol_L, int duration)
+	{
+		if (duration == 0)
+		{
+			consume(kcal);
+		} else if (kcal < 0)
+		{
+			addIntake(AbsorptionCurve.ofConstantSegments(new int[] { duration }, new double[] { 1 }),
+					kcal, amount_mmol_L, duration);
+		} else
+		{
+			addIntake(createPositiveIntakeCurve(duration), kcal, amount_mmol_L, duration);
+		}
+	}
+
+	/**
+	 * Adds an intake to the intakes which are still absorbed. The progress of
+	 * the consumption covers all overlapping intakes.
+	 *
+	 * @param duration
+	 *            Duration which the curve was created with, 0 if it is
+	 *            derived from the energy, see {@link #replayIntake(double, double, int)}
+	 */
+	private void addIntake(AbsorptionCurve curve, double kcal, double amount_mmol_L,
+			int duration)
+	{
+		isConsuming = true;
+		if (glucoseLevelOffsetSeries.isEmpty())
+		{
+			consumptionInProgress_mmol_L = 0;
+			totalAmountInConsumption_mmol_L = amount_mmol_L;
+		} else
+		{
+			totalAmountInConsumption_mmol_L += amount_mmol_L;
+		}
+		// recorded before the intake can start, so the record precedes the
+		// sample which marks its start
+		TelemetryJournal journal = bloodStream.getTelemetryJournal();
+		if (journal != null)
+		{
+			journal.recordMeal(simulatedTimeInMillis, kcal, amount_mmol_L, duration);
+		}
+		glucoseLevelOffsetSeries.add(curve, amount_mmol_L);
+		bloodStream.getEventBus().publishMeal(simulatedTimeInMillis, kcal, amount_mmol_L);
+	}
+
+	/**
+	 * Records the type and the parameters of the plant, so the session is
+	 * replayed with the same physiology
+	 */
+	private void recordPlantModel(TelemetryJournal journal)
+	{
+		PlantModelType type = PlantModelType.of(plantModel);
+		if (type == PlantModelType.BERGMAN)
+		{
+			BergmanPlantModel bergmanPlantModel = (BergmanPlantModel) plantModel;
+			journal.recordPlantModel(simulatedTimeInMillis, type.getId(),
+					bergmanPlantModel.getBodyWeightInKg(), bergmanPlantModel.getInsulinSensitivity());
+		} else
+		{
+			journal.recordPlantModel(simulatedTimeInMillis, type == null ? 0 : type.getId(), 0, 0);
+		}
+	}
+
+	private void updateProgress(double currentAmount)
+	{
+		consumptionInProgress_mmol_L += currentAmount;
+		consumptionProgress = consumptionInProgress_mmol_L
+				/ totalAmountInConsumption_mmol_L;
+	}
+
+}
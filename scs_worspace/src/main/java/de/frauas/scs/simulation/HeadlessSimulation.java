@@ -0,0 +1,437 @@
+package de.frauas.scs.simulation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import de.frauas.scs.BloodStream;
+import de.frauas.scs.GlucoseTrendForecaster;
+import de.frauas.scs.exception.SimulationException;
+import de.frauas.scs.scenario.ScenarioReader;
+
+/**
+ * Runs the {@link GlucoseLevelModel} and the {@link PancreasModel} on a
+ * {@link VirtualClock} without any GUI. The simulation is not bound to the
+ * wall clock, a simulated day is computed as fast as the CPU allows. No
+ * JavaFX classes are needed on the class path.
+ * <p>
+ * The events of the scenario file of the {@link PatientProfile} are streamed
+ * while the simulation runs, only the next event is held in memory. The file
+ * stays open until its last event was applied or {@link #closeScenario()} is
+ * called.
+ *
+ */
+public final class HeadlessSimulation implements StatusReporter {
+
+	/**
+	 * Lower bound of the target range of the glucose level in mmol/L
+	 */
+	public final static double TARGET_RANGE_MINIMUM = 3.9;
+
+	/**
+	 * Upper bound of the target range of the glucose level in mmol/L
+	 */
+	public final static double TARGET_RANGE_MAXIMUM = 10;
+
+	/**
+	 * Nobody but the pancreas reads the glucose levels, which only needs the
+	 * samples since its last step.
+	 */
+	private final static int GLUCOSE_LEVEL_RING_CAPACITY = 64;
+
+	private final static long MILLIS_PER_MINUTE = 60 * 1000;
+
+	/**
+	 * Runs a headless simulation from the command line.<br>
+	 * Usage: HeadlessSimulation &lt;hours&gt; [LEGACY|PID|MPC]
+	 * [ADDITIVE|BERGMAN] [kcal@minute ...] [scenario file]
+	 */
+	public static void main(String[] args) throws IOException, SimulationException
+	{
+		if (args.length < 1)
+		{
+			System.out.println("Usage: HeadlessSimulation <hours> [LEGACY|PID|MPC] [ADDITIVE|BERGMAN] "
+					+ "[kcal@minute ...] [scenario file]");
+			return;
+		}
+		PatientProfile profile = new PatientProfile();
+		for (int i = 1; i < args.length; i++)
+		{
+			if (args[i].indexOf('@') >= 0)
+			{
+				String[] meal = args[i].split("@");
+				profile.addMeal(Long.parseLong(meal[1]) * 60 * 1000, Double.parseDouble(meal[0]));
+			} else if (Files.isRegularFile(Paths.get(args[i])))
+			{
+				Path scenario = Paths.get(args[i]);
+				ScenarioReader.check(scenario);
+				profile.setScenario(scenario, ScenarioReader.ALL_PATIENTS);
+			} else if (PlantModelType.ofName(args[i]) != null)
+			{
+				profile.setPlantModel(PlantModelType.ofName(args[i]));
+			} else
+			{
+				profile.setDosingAlgorithm(DosingAlgorithmType.valueOf(args[i]));
+			}
+		}
+		HeadlessSimulation simulation = new HeadlessSimulation(profile);
+		long simulatedMillis = (long) (Double.parseDouble(args[0]) * 60 * 60 * 1000);
+		long start = System.nanoTime();
+		try
+		{
+			simulation.runFor(simulatedMillis);
+		} finally
+		{
+			simulation.closeScenario();
+		}
+		long wallTimeInMillis = (System.nanoTime() - start) / 1000000;
+
+		System.out.println("Simulated hours:     " + args[0]);
+		System.out.println("Dosing algorithm:    " + profile.getDosingAlgorithm());
+		System.out.println("Plant model:         " + profile.getPlantModel());
+		System.out.println("Wall time in ms:     " + wallTimeInMillis);
+		System.out.println("Last glucose level:  " + simulation.getLastGlucoseLevel());
+		System.out.println("Min glucose level:   " + simulation.getMinGlucoseLevel());
+		System.out.println("Max glucose level:   " + simulation.getMaxGlucoseLevel());
+		System.out.println("Injected insulin:    " + simulation.getPancreasModel().getInjectedInsulin());
+		System.out.println("Missed doses:        " + simulation.getPancreasModel().getMissedDoses());
+		System.out.println("Time in range:       " + new PatientResult(0, simulation).getTimeInRange());
+		System.out.println("Predicted lows:      " + simulation.getForecaster().getRaisedLowAlarms());
+		System.out.println("Predicted highs:     " + simulation.getForecaster().getRaisedHighAlarms());
+		System.out.println("Reported errors:     " + simulation.getErrorCount());
+	}
+
+	private final BloodStream bloodStream;
+
+	private final VirtualClock clock = new VirtualClock();
+
+	private int errorCount = 0;
+
+	/**
+	 * Predicts when the glucose level leaves the target range
+	 */
+	private final GlucoseTrendForecaster forecaster = new GlucoseTrendForecaster(
+			TARGET_RANGE_MINIMUM, TARGET_RANGE_MAXIMUM);
+
+	private final GlucoseLevelModel glucoseLevelModel;
+
+	/**
+	 * true if {@link #scenario} holds an event which is not applied yet
+	 */
+	private boolean hasScenarioEvent = false;
+
+	private String lastErrorMessage;
+
+	private double lastGlucoseLevel = 0;
+
+	private double maxGlucoseLevel = Double.NEGATIVE_INFINITY;
+
+	private double minGlucoseLevel = Double.POSITIVE_INFINITY;
+
+	private int nextMeal = 0;
+
+	private final PancreasModel pancreasModel;
+
+	private final PatientProfile profile;
+
+	/**
+	 * Reader of the scenario file, null if there is none or all of its events
+	 * have been applied
+	 */
+	private ScenarioReader scenario;
+
+	private long stepsAboveRange = 0;
+
+	private long stepsBelowRange = 0;
+
+	private long stepsInRange = 0;
+
+	public HeadlessSimulation() {
+		this(new PatientProfile());
+	}
+
+	/**
+	 * Creates the simulation of a patient with an own {@link BloodStream}, so
+	 * any number of simulations can run side by side.
+	 *
+	 * @param profile
+	 *            Meals and controller parameters of the patient
+	 */
+	public HeadlessSimulation(PatientProfile profile) {
+		this.profile = profile;
+		bloodStream = new BloodStream(GLUCOSE_LEVEL_RING_CAPACITY);
+		glucoseLevelModel = new GlucoseLevelModel(bloodStream, profile.getNoiseSeed(),
+				profile.getPlantModel().newInstance(profile));
+		pancreasModel = new PancreasModel(bloodStream, this);
+		pancreasModel.configure(profile);
+		if (profile.getScenario() != null)
+		{
+			scenario = new ScenarioReader(profile.getScenario(), profile.getScenarioPatient());
+		}
+	}
+
+	public BloodStream getBloodStream()
+	{
+		return bloodStream;
+	}
+
+	public void clearErrorMessage()
+	{
+		lastErrorMessage = null;
+	}
+
+	/**
+	 * Closes the scenario file before all of its events have been applied,
+	 * e.g. if the simulation ends earlier than the scenario
+	 */
+	public void closeScenario()
+	{
+		if (scenario != null)
+		{
+			try
+			{
+				scenario.close();
+			} catch (IOException e)
+			{
+				// the file was only read
+			}
+			scenario = null;
+		}
+	}
+
+	public void consume(double amountToConsume)
+	{
+		glucoseLevelModel.consume(amountToConsume);
+	}
+
+	public VirtualClock getClock()
+	{
+		return clock;
+	}
+
+	public int getErrorCount()
+	{
+		return errorCount;
+	}
+
+	public GlucoseTrendForecaster getForecaster()
+	{
+		return forecaster;
+	}
+
+	public GlucoseLevelModel getGlucoseLevelModel()
+	{
+		return glucoseLevelModel;
+	}
+
+	/**
+	 * @return Message of the last reported error or null if there is none
+	 */
+	public String getLastErrorMessage()
+	{
+		return lastErrorMessage;
+	}
+
+	public double getLastGlucoseLevel()
+	{
+		return lastGlucoseLevel;
+	}
+
+	public double getMaxGlucoseLevel()
+	{
+		return maxGlucoseLevel;
+	}
+
+	public double getMinGlucoseLevel()
+	{
+		return minGlucoseLevel;
+	}
+
+	public PancreasModel getPancreasModel()
+	{
+		return pancreasModel;
+	}
+
+	public PatientProfile getProfile()
+	{
+		return profile;
+	}
+
+	public long getStepsAboveRange()
+	{
+		return stepsAboveRange;
+	}
+
+	public long getStepsBelowRange()
+	{
+		return stepsBelowRange;
+	}
+
+	public long getStepsInRange()
+	{
+		return stepsInRange;
+	}
+
+	public void printConversionErrorMessage()
+	{
+		printError("Conversion error");
+	}
+
+	public void printError(String text)
+	{
+		errorCount++;
+		lastErrorMessage = text;
+	}
+
+	public void printExceptionMessage()
+	{
+		printError("Exception occured");
+	}
+
+	/**
+	 * Advances the simulation by the given amount of simulated time
+	 *
+	 * @param simulatedMillis
+	 *            Simulated milliseconds to run
+	 * @throws SimulationException
+	 *             If a step of the simulation fails
+	 */
+	public void runFor(long simulatedMillis) throws SimulationException
+	{
+		long end = clock.getTimeInMillis() + simulatedMillis;
+		while (clock.getTimeInMillis() < end)
+		{
+			step();
+		}
+	}
+
+	/**
+	 * Simulates one time slice of the glucose level. Meals and scenario
+	 * events of the {@link PatientProfile} are applied when their time has
+	 * come, the pancreas is analyzing the blood stream in its own (longer) interval.
+	 * Each glucose level which the sensor delivers is fed into the {@link GlucoseTrendForecaster},
+	 * changes of its alarm are published on the event bus of the blood
+	 * stream.
+	 *
+	 * @throws SimulationException
+	 *             If the step of the simulation fails or the scenario cannot
+	 *             be read
+	 */
+	public void step() throws SimulationException
+	{
+		step(clock.getTimeInMillis() % PancreasModel.SIMULATION_STEPS_IN_MILLIS == 0);
+	}
+
+	/**
+	 * Simulates one time slice of the glucose level, see {@link #step()}
+	 *
+	 * @param stepsPancreas
+	 *            true if the pancreas analyzes the blood stream before the
+	 *            glucose level is simulated, false if the caller drives the
+	 *            pancreas, e.g. a {@link SessionReplay}
+	 */
+	void step(boolean stepsPancreas) throws SimulationException
+	{
+		try
+		{
+			playScenario();
+			while (nextMeal < profile.getNumberOfMeals()
+					&& profile.getMealTimeInMillis(nextMeal) <= clock.getTimeInMillis())
+			{
+				glucoseLevelModel.consume(profile.getMealKcal(nextMeal));
+				nextMeal++;
+			}
+			if (stepsPancreas)
+			{
+				pancreasModel.step();
+			}
+			double glucoseLevel = glucoseLevelModel.step();
+			if (glucoseLevelModel.wasSampleDelivered())
+			{
+				forecaster.add(clock.getTimeInMillis(), glucoseLevel, bloodStream.getEventBus());
+			}
+			lastGlucoseLevel = glucoseLevel;
+			minGlucoseLevel = Math.min(minGlucoseLevel, glucoseLevel);
+			maxGlucoseLevel = Math.max(maxGlucoseLevel, glucoseLevel);
+			if (glucoseLevel < TARGET_RANGE_MINIMUM)
+			{
+				stepsBelowRange++;
+			} else if (glucoseLevel > TARGET_RANGE_MAXIMUM)
+			{
+				stepsAboveRange++;
+			} else
+			{
+				stepsInRange++;
+			}
+
+			clock.advance(GlucoseLevelModel.SIMULATION_STEPS_IN_MILLIS);
+			bloodStream.updateElapsedTime(clock.getTimeInMillis());
+		} catch (IOException e)
+		{
+			throw new SimulationException("Scenario cannot be read at "
+					+ clock.getTimeInMillis() + "ms", e);
+		} catch (RuntimeException e)
+		{
+			throw new SimulationException("Simulation failed at "
+					+ clock.getTimeInMillis() + "ms", e);
+		}
+	}
+
+	/**
+	 * Applies the current event of the scenario
+	 */
+	private void applyScenarioEvent()
+	{
+		long now = clock.getTimeInMillis();
+		double firstArgument = scenario.getFirstArgument();
+		double secondArgument = scenario.getSecondArgument();
+		switch (scenario.getType())
+		{
+			case MEAL:
+				glucoseLevelModel.consumeMeal(firstArgument, secondArgument);
+				break;
+			case EXERCISE:
+				glucoseLevelModel.exercise(firstArgument, (long) (secondArgument * MILLIS_PER_MINUTE));
+				break;
+			case MISSED_BOLUS:
+				pancreasModel.suspendDeliveryUntil(now + (long) (firstArgument * MILLIS_PER_MINUTE));
+				break;
+			case SENSOR_DROPOUT:
+				glucoseLevelModel.startSensorDropout((long) (firstArgument * MILLIS_PER_MINUTE));
+				break;
+			case NEEDLE_REMOVAL:
+				// like unchecking the needle on the GUI, but only for a while
+				pancreasModel.suspendDeliveryUntil(now + (long) (firstArgument * MILLIS_PER_MINUTE));
+				printError("Needle removed");
+				break;
+		}
+	}
+
+	/**
+	 * Applies all events of the scenario whose time has come. The next event
+	 * is read ahead, so the file is only read when an event is due.
+	 */
+	private void playScenario() throws IOException
+	{
+		while (scenario != null)
+		{
+			if (!hasScenarioEvent)
+			{
+				hasScenarioEvent = scenario.next();
+				if (!hasScenarioEvent)
+				{
+					scenario = null;
+					return;
+				}
+			}
+			if (scenario.getTimeInMillis() > clock.getTimeInMillis())
+			{
+				return;
+			}
+			applyScenarioEvent();
+			hasScenarioEvent = false;
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package de.frauas.scs.simulation;
+
+/**
+ * The original control logic of the pump. The first glucose level out of the
+ * balancing range is the reference, the second one decides about a large
+ * initial dose in proportion to the difference. Afterwards fixed readjustment
+ * doses are injected whenever the glucose level crosses the readjustment
+ * boundaries of the doctor's pane.
+ * <p>
+ * The algorithm was written for a blood stream in which a new dose replaced
+ * the effect of the previous one, so its doses are injected as overriding
+ * doses (see {@link DosingDecision#injectOverriding(double, double)}) and the
+ * glucose level follows the original pump. Only the injected insulin is
+ * summed up like in the other algorithms, from the effect of the insulin
+ * doses. The original added a share of the initial dose for every dose,
+ * including glucagon.
+ *
+ * @author sanjeevthapa
+ *
+ */
+public class LegacyDosingAlgorithm implements DosingAlgorithm {
+
+	private double final_value = 0;
+
+	private double genericIncrease = 0;
+
+	private double initial_value = 0;
+
+	private double injectedInsulin = 0;
+
+	private boolean isInjected = false;
+
+	private double total_fluctuation = 0;
+
+	@Override
+	public void decide(PancreasModel model, DosingDecision decision)
+	{
+		double valueForCheck = model.getAnalyzedGlucoseLevel();
+		if (!model.isInNonBalancingRange(valueForCheck))
+			if (initial_value == 0)
+			{
+				// the first value out of the balancing range is the reference
+				// of the first dose
+				initial_value = valueForCheck;
+			} else
+			{
+				analyzeSetsOfDatas(model.getSettings(), valueForCheck, decision);
+				// counted once the dose is decided
+				if (decision.isInjecting() && decision.getEffect_mmol_L() < 0)
+				{
+					injectedInsulin -= decision.getEffect_mmol_L();
+				}
+			}
+	}
+
+	@Override
+	public double getInjectedInsulin()
+	{
+		return injectedInsulin;
+	}
+
+	protected void analyzeSetsOfDatas(ControllerSettings settings, double valueForCheck,
+			DosingDecision decision)
+	{
+		if (!isInjected)
+		{
+			final_value = valueForCheck;
+
+			double difference = final_value - initial_value;
+			if (difference > 0)
+				total_fluctuation = difference * 30 * 10;
+			else
+				total_fluctuation = difference * 30;
+
+			genericIncrease = total_fluctuation;
+			if (difference > 0)
+			{
+				decision.injectOverriding(-genericIncrease, 1200d);
+			} else
+			{
+				decision.injectOverriding(10, 50d);
+			}
+
+			isInjected = true;
+
+		} else
+		{
+			double readjustmentNegativeInjectionBoundaryValue = settings.getReadjustmentNegativeInjectionBoundary();
+			double readjustmentPositiveInjectionBoundaryValue = settings.getReadjustmentPositiveInjectionBoundary();
+			// Default = 8
+			if (valueForCheck > readjustmentNegativeInjectionBoundaryValue)
+			{
+				if (valueForCheck > 10)
+					if (genericIncrease > 60)
+						decision.injectOverriding(-genericIncrease / 3, 100d);
+					else
+						decision.injectOverriding(-genericIncrease / 5, 100d);
+				else if (valueForCheck > 8 && valueForCheck < 10)
+					decision.injectOverriding(-5, 50d);
+				else
+					decision.injectOverriding(-3, 50d);
+
+				// Default = 5.5
+			} else if (valueForCheck < readjustmentPositiveInjectionBoundaryValue)
+			{
+				if (genericIncrease < 0)
+				{
+					decision.injectOverriding(3, 50d);
+				}
+
+				else
+				{
+					decision.injectOverriding(0.8, 50d);
+				}
+
+			}// end else if valueforcheck less than 6
+
+		}
+	}
+
+}
@@ -0,0 +1,332 @@
+package de.frauas.scs.simulation;
+
+import de.frauas.scs.AbsorptionCurve;
+
+/**
+ * Small model-predictive controller. In each step the glucose level is
+ * predicted over a horizon of {@link #HORIZON_STEPS} steps of the controller
+ * from
+ * <ul>
+ * <li>the current glucose level,</li>
+ * <li>the doses of this controller which are not fully absorbed yet and</li>
+ * <li>the estimated disturbance (meals, exercise), i.e. the part of the
+ * latest change which the doses do not explain. It is assumed to fade out
+ * geometrically.</li>
+ * </ul>
+ * If the prediction leaves the balancing range, a few doses at fixed steps of
+ * the horizon (move blocking) are chosen so the squared distance to the
+ * middle of the balancing range plus a penalty on the doses becomes minimal. This is a linear least squares problem, its normal
+ * equations are solved with a Cholesky decomposition. Only the first dose is
+ * injected, the plan is calculated again in the next step.
+ * <p>
+ * All arrays are allocated when the first step is calculated, a step itself
+ * does not allocate objects.
+ *
+ */
+public class MpcDosingAlgorithm implements DosingAlgorithm {
+
+	public final static int HORIZON_STEPS = 120;
+
+	/**
+	 * Steps until a dose shows in the analyzed glucose level. The analyzed
+	 * level is the first one published since the previous step, so it is one
+	 * step old when the dose is injected.
+	 */
+	private final static int DELAY_STEPS = 1;
+
+	/**
+	 * Share of the disturbance which is expected to remain in the next step
+	 */
+	private final static double DISTURBANCE_PERSISTENCE = 0.9;
+
+	/**
+	 * Weight of the latest estimate in the smoothed disturbance
+	 */
+	private final static double DISTURBANCE_SMOOTHING = 0.3;
+
+	/**
+	 * Penalty of a dose compared to the squared error of one step
+	 */
+	private final static double DOSE_PENALTY = 10;
+
+	/**
+	 * Largest effect of a single dose in mmol/L
+	 */
+	private final static double MAX_DOSE_MMOL_L = 50;
+
+	/**
+	 * Doses with a smaller effect in mmol/L are not injected
+	 */
+	private final static double MIN_DOSE_MMOL_L = 0.05;
+
+	/**
+	 * Steps of the horizon at which the planned doses are injected
+	 */
+	private final static int[] MOVE_STEPS = { 0, 15, 45 };
+
+	private final static double SLOTS = 50;
+
+	/**
+	 * Share of a dose which shows in the analyzed glucose level the given
+	 * number of steps after the injection
+	 */
+	private double[] absorbed;
+
+	private double disturbance = 0;
+
+	/**
+	 * Sum of the faded disturbance up to each step of the horizon
+	 */
+	private final double[] fadedDisturbance = new double[HORIZON_STEPS + 1];
+
+	/**
+	 * Part of the glucose level which is expected without new doses
+	 */
+	private final double[] freeResponse = new double[HORIZON_STEPS + 1];
+
+	/**
+	 * Expected changes of the glucose level by the doses injected so far,
+	 * ring starting at the change until the next step
+	 */
+	private double[] futureChanges;
+
+	private int futureChangesHead = 0;
+
+	private final double[] gradient = new double[MOVE_STEPS.length];
+
+	/**
+	 * Normal equations of the least squares problem, row by row. The lower
+	 * triangle is overwritten by the Cholesky factor.
+	 */
+	private final double[] hessian = new double[MOVE_STEPS.length * MOVE_STEPS.length];
+
+	private double injectedInsulin = 0;
+
+	private long lastTimeInMillis = -1;
+
+	private double lastValue = 0;
+
+	/**
+	 * Doses of the plan in mmol/L, one for each of {@link #MOVE_STEPS}
+	 */
+	private final double[] plannedDoses = new double[MOVE_STEPS.length];
+
+	public MpcDosingAlgorithm() {
+		double sum = 0;
+		double factor = 1;
+		for (int step = 1; step <= HORIZON_STEPS; step++)
+		{
+			factor *= DISTURBANCE_PERSISTENCE;
+			sum += factor;
+			fadedDisturbance[step] = sum;
+		}
+	}
+
+	@Override
+	public void decide(PancreasModel model, DosingDecision decision)
+	{
+		long timeInMillis = model.getAnalyzedTimeInMillis();
+		double value = model.getAnalyzedGlucoseLevel();
+		if (timeInMillis == lastTimeInMillis)
+		{
+			// no new glucose level since the last step
+			return;
+		}
+		if (absorbed == null)
+		{
+			initialize(model);
+		}
+		if (lastTimeInMillis >= 0)
+		{
+			long elapsedSteps = Math.max(1, (timeInMillis - lastTimeInMillis)
+					/ PancreasModel.SIMULATION_STEPS_IN_MILLIS);
+			double explained = 0;
+			for (long step = 0; step < elapsedSteps && step < futureChanges.length; step++)
+			{
+				explained += futureChanges[futureChangesHead];
+				futureChanges[futureChangesHead] = 0;
+				futureChangesHead = (futureChangesHead + 1) % futureChanges.length;
+			}
+			double latest = (value - lastValue - explained) / elapsedSteps;
+			disturbance += DISTURBANCE_SMOOTHING * (latest - disturbance);
+		}
+		lastTimeInMillis = timeInMillis;
+		lastValue = value;
+
+		predictFreeResponse(value);
+		ControllerSettings settings = model.getSettings();
+		if (isInBalancingRange(settings))
+		{
+			// no dose needed, which avoids that the noise causes doses
+			return;
+		}
+		double target = (settings.getBalancingRangeMinimum() + settings.getBalancingRangeMaximum()) / 2;
+		solve(target);
+
+		double dose = Math.max(-MAX_DOSE_MMOL_L, Math.min(MAX_DOSE_MMOL_L, plannedDoses[0]));
+		if (Math.abs(dose) < MIN_DOSE_MMOL_L)
+		{
+			return;
+		}
+		decision.inject(dose, SLOTS);
+		for (int step = 1; step < absorbed.length; step++)
+		{
+			int index = (futureChangesHead + step - 1) % futureChanges.length;
+			futureChanges[index] += dose * (absorbed[step] - absorbed[step - 1]);
+		}
+		if (dose < 0)
+		{
+			injectedInsulin -= dose;
+		}
+	}
+
+	@Override
+	public double getInjectedInsulin()
+	{
+		return injectedInsulin;
+	}
+
+	/**
+	 * @return Share of a dose which shows in the analyzed glucose level the
+	 *         given number of steps after the injection
+	 */
+	private double getAbsorbed(int steps)
+	{
+		if (steps <= 0)
+		{
+			return 0;
+		}
+		if (steps >= absorbed.length)
+		{
+			return 1;
+		}
+		return absorbed[steps];
+	}
+
+	/**
+	 * Samples the curve of the doses in steps of the controller
+	 */
+	private void initialize(PancreasModel model)
+	{
+		AbsorptionCurve curve = model.generateBalancingCurve(SLOTS);
+		int ticksPerStep = (int) (PancreasModel.SIMULATION_STEPS_IN_MILLIS / GlucoseLevelModel.SIMULATION_STEPS_IN_MILLIS);
+		int curveSteps = (curve.getTotalTicks() + ticksPerStep - 1) / ticksPerStep;
+		absorbed = new double[curveSteps + DELAY_STEPS + 1];
+		double sum = 0;
+		for (int tick = 0; tick < curveSteps * ticksPerStep; tick++)
+		{
+			sum += curve.getRateAt(tick, 1);
+			if ((tick + 1) % ticksPerStep == 0)
+			{
+				absorbed[(tick + 1) / ticksPerStep + DELAY_STEPS] = sum;
+			}
+		}
+		futureChanges = new double[absorbed.length];
+	}
+
+	/**
+	 * @return true if the predicted glucose level stays in the balancing
+	 *         range during the whole horizon
+	 */
+	private boolean isInBalancingRange(ControllerSettings settings)
+	{
+		for (int step = 0; step <= HORIZON_STEPS; step++)
+		{
+			if (freeResponse[step] < settings.getBalancingRangeMinimum()
+					|| freeResponse[step] >= settings.getBalancingRangeMaximum())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Predicts the glucose level of each step of the horizon without new
+	 * doses
+	 */
+	private void predictFreeResponse(double value)
+	{
+		double doseEffect = 0;
+		freeResponse[0] = value;
+		for (int step = 1; step <= HORIZON_STEPS; step++)
+		{
+			if (step <= futureChanges.length)
+			{
+				doseEffect += futureChanges[(futureChangesHead + step - 1) % futureChanges.length];
+			}
+			freeResponse[step] = value + doseEffect + disturbance * fadedDisturbance[step];
+		}
+	}
+
+	/**
+	 * Calculates the planned doses which minimize the squared distance of
+	 * the predicted glucose levels to the target into
+	 * {@link #plannedDoses}.
+	 */
+	private void solve(double target)
+	{
+		int moves = MOVE_STEPS.length;
+		for (int i = 0; i < moves * moves; i++)
+		{
+			hessian[i] = 0;
+		}
+		for (int i = 0; i < moves; i++)
+		{
+			gradient[i] = 0;
+			hessian[i * moves + i] = DOSE_PENALTY;
+		}
+		for (int step = 1; step <= HORIZON_STEPS; step++)
+		{
+			double error = target - freeResponse[step];
+			for (int i = 0; i < moves; i++)
+			{
+				double a = getAbsorbed(step - MOVE_STEPS[i]);
+				if (a == 0)
+				{
+					continue;
+				}
+				gradient[i] += a * error;
+				for (int j = 0; j <= i; j++)
+				{
+					hessian[i * moves + j] += a * getAbsorbed(step - MOVE_STEPS[j]);
+				}
+			}
+		}
+
+		// Cholesky decomposition, the penalty keeps the matrix positive
+		// definite
+		for (int i = 0; i < moves; i++)
+		{
+			for (int j = 0; j <= i; j++)
+			{
+				double sum = hessian[i * moves + j];
+				for (int k = 0; k < j; k++)
+				{
+					sum -= hessian[i * moves + k] * hessian[j * moves + k];
+				}
+				hessian[i * moves + j] = i == j ? Math.sqrt(sum) : sum / hessian[j * moves + j];
+			}
+		}
+		// forward and backward substitution
+		for (int i = 0; i < moves; i++)
+		{
+			double sum = gradient[i];
+			for (int k = 0; k < i; k++)
+			{
+				sum -= hessian[i * moves + k] * plannedDoses[k];
+			}
+			plannedDoses[i] = sum / hessian[i * moves + i];
+		}
+		for (int i = moves - 1; i >= 0; i--)
+		{
+			double sum = plannedDoses[i];
+			for (int k = i + 1; k < moves; k++)
+			{
+				sum -= hessian[k * moves + i] * plannedDoses[k];
+			}
+			plannedDoses[i] = sum / hessian[i * moves + i];
+		}
+	}
+
+}
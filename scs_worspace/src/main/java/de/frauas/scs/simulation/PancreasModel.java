@@ -0,0 +1,488 @@
+package de.frauas.scs.simulation;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import de.frauas.scs.AbsorptionCurve;
+import de.frauas.scs.BloodStream;
+import de.frauas.scs.GlucoseSampleRing;
+import de.frauas.scs.gui.MessageBoxText;
+import de.frauas.scs.metrics.PumpMetrics;
+import de.frauas.scs.telemetry.TelemetryJournal;
+
+/**
+ * Contains the control loop of the pump without any dependency to JavaFX.
+ * Each call of {@link #step()} analyzes the latest blood glucose level, asks
+ * the {@link DosingAlgorithm} for a dose and injects insulin or glucagon if
+ * necessary. The {@link PancreasSimulator} drives this model in real time for
+ * the GUI, the {@link HeadlessSimulation} drives it on a virtual clock.
+ *
+ * @author sanjeevthapa
+ *
+ */
+public class PancreasModel {
+
+	public final static long SIMULATION_STEPS_IN_MILLIS = 100 * 10;
+
+	private final static int CUSTOM_DOSING_ALGORITHM_ID = 0;
+
+	private final static int MAX_INTAKE_DURATION = 1200;
+
+	/**
+	 * Balancing curves indexed by the ticks of their first phase, created on
+	 * first use. The curves are immutable, so all models share them.
+	 */
+	private final static AtomicReferenceArray<AbsorptionCurve> BALANCING_CURVES = new AtomicReferenceArray<>(
+			(int) (MAX_INTAKE_DURATION * 0.2) + 1);
+
+	/**
+	 * Dosing algorithm together with its type. Both are replaced as a whole,
+	 * so a step never sees the algorithm of one selection and the type of
+	 * another.
+	 */
+	private static class SelectedDosingAlgorithm {
+
+		private final DosingAlgorithm algorithm;
+
+		/**
+		 * Type of {@link #algorithm} or null if it is a custom algorithm
+		 */
+		private final DosingAlgorithmType type;
+
+		private SelectedDosingAlgorithm(DosingAlgorithm algorithm, DosingAlgorithmType type) {
+			this.algorithm = algorithm;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * Returns the distribution of a balancing dose over time, see
+	 * {@link #createBalancingCurve(double)}. The curves of the usual slots are
+	 * cached, so injecting a dose does not create a new curve.
+	 */
+	public static AbsorptionCurve getBalancingCurve(double slots)
+	{
+		int timeSlicesInInit = (int) (slots * 0.2);
+		if (timeSlicesInInit < 0 || timeSlicesInInit >= BALANCING_CURVES.length())
+		{
+			return createBalancingCurve(slots);
+		}
+		AbsorptionCurve curve = BALANCING_CURVES.get(timeSlicesInInit);
+		if (curve == null)
+		{
+			curve = createBalancingCurve(slots);
+			BALANCING_CURVES.set(timeSlicesInInit, curve);
+		}
+		return curve;
+	}
+
+	/**
+	 * Generates the distribution of a balancing dose over time. The dose is
+	 * injected in 4 phases:<br>
+	 * init: 20% of the dose in 20% of the given slots<br>
+	 * rest_1: 40% of the dose in 40% of {@link #MAX_INTAKE_DURATION}<br>
+	 * rest_2: 20% of the dose in 20% of {@link #MAX_INTAKE_DURATION}<br>
+	 * rest_3: 20% of the dose in 20% of {@link #MAX_INTAKE_DURATION}
+	 */
+	public static AbsorptionCurve createBalancingCurve(double slots)
+	{
+		int timeSlicesInInit = (int) (slots * 0.2);
+		int timeSlicesInRest_1 = (int) (MAX_INTAKE_DURATION * 0.4);
+		int timeSlicesInRest_2 = (int) (MAX_INTAKE_DURATION * 0.20);
+		int timeSlicesInRest_3 = (int) (MAX_INTAKE_DURATION * 0.2);
+		return AbsorptionCurve.ofConstantSegments(new int[] { timeSlicesInInit,
+				timeSlicesInRest_1, timeSlicesInRest_2, timeSlicesInRest_3 },
+				new double[] { 0.2, 0.4, 0.2, 0.2 });
+	}
+
+	private final GlucoseSampleRing.Cursor analyzebloodstream;
+
+	/**
+	 * Simulated time of the glucose level which is analyzed
+	 */
+	private long analyzedTimeInMillis = 0;
+
+	private final BloodStream bloodStream;
+
+	/**
+	 * Dose of the current step, reused in each step
+	 */
+	private final DosingDecision decision = new DosingDecision();
+
+	/**
+	 * Doses which are decided on glucose levels before this time are not
+	 * delivered, e.g. a missed bolus or a removed needle
+	 */
+	private volatile long deliverySuspendedUntilInMillis = 0;
+
+	/**
+	 * true as soon as a glucose level was analyzed
+	 */
+	private boolean hasAnalyzedGlucoseLevel = false;
+
+	/**
+	 * Decision of the current step: -1 = insulin, 1 = glucagon, 0 = nothing
+	 */
+	private int injectionDecision = 0;
+
+	/**
+	 * false if the doses are only decided, e.g. while a {@link SessionReplay}
+	 * injects the recorded doses instead
+	 */
+	private boolean isDeliveringDoses = true;
+
+	/**
+	 * Number of doses which were decided but not delivered
+	 */
+	private volatile int missedDoses = 0;
+
+	/**
+	 * Dosing algorithm which was recorded in {@link #recordedJournal}
+	 */
+	private SelectedDosingAlgorithm recordedDosingAlgorithm;
+
+	/**
+	 * Journal which already contains the current controller settings
+	 */
+	private TelemetryJournal recordedJournal;
+
+	/**
+	 * Settings which were recorded in {@link #recordedJournal}
+	 */
+	private ControllerSettings recordedSettings;
+
+	private volatile SelectedDosingAlgorithm selectedDosingAlgorithm = new SelectedDosingAlgorithm(
+			DosingAlgorithmType.LEGACY.newInstance(), DosingAlgorithmType.LEGACY);
+
+	private double sliceTotalValue = 0;
+
+	/**
+	 * Values of the doctor's pane. They are replaced as a whole and never
+	 * parsed in a step.
+	 */
+	private volatile ControllerSettings settings = ControllerSettings.DEFAULT;
+
+	private final StatusReporter statusReporter;
+
+	/**
+	 * Creates a controller with the {@link DosingAlgorithmType#LEGACY}
+	 * algorithm
+	 */
+	public PancreasModel(BloodStream bloodStream, StatusReporter statusReporter) {
+		this.bloodStream = bloodStream;
+		this.statusReporter = statusReporter;
+		analyzebloodstream = bloodStream.getGlucoseLevelRing().newCursor();
+	}
+
+	/**
+	 * Takes over the controller parameters of a simulated patient. The
+	 * dosing algorithm is only replaced if the profile asks for another
+	 * type, so the state of the current algorithm is kept otherwise.
+	 *
+	 * @param profile
+	 *            Profile of the patient
+	 */
+	public void configure(PatientProfile profile)
+	{
+		setSettings(new ControllerSettings(profile));
+		if (profile.getDosingAlgorithm() != selectedDosingAlgorithm.type)
+		{
+			setDosingAlgorithm(profile.getDosingAlgorithm());
+		}
+	}
+
+	/**
+	 * @return Glucose level which was analyzed in the last step in mmol/L
+	 */
+	public double getAnalyzedGlucoseLevel()
+	{
+		return sliceTotalValue;
+	}
+
+	/**
+	 * @return Simulated time of the glucose level which was analyzed in the
+	 *         last step
+	 */
+	public long getAnalyzedTimeInMillis()
+	{
+		return analyzedTimeInMillis;
+	}
+
+	public DosingAlgorithm getDosingAlgorithm()
+	{
+		return selectedDosingAlgorithm.algorithm;
+	}
+
+	/**
+	 * @return Type of the dosing algorithm or null if it is a custom one
+	 */
+	public DosingAlgorithmType getDosingAlgorithmType()
+	{
+		return selectedDosingAlgorithm.type;
+	}
+
+	/**
+	 * @return Insulin injected so far as summed up by the current dosing
+	 *         algorithm
+	 */
+	public double getInjectedInsulin()
+	{
+		return selectedDosingAlgorithm.algorithm.getInjectedInsulin();
+	}
+
+	/**
+	 * @return Decision of the last step: -1 = insulin, 1 = glucagon, 0 =
+	 *         nothing
+	 */
+	public int getInjectionDecision()
+	{
+		return injectionDecision;
+	}
+
+	/**
+	 * @return Number of doses which were decided but not delivered because
+	 *         the delivery was suspended
+	 */
+	public int getMissedDoses()
+	{
+		return missedDoses;
+	}
+
+	public ControllerSettings getSettings()
+	{
+		return settings;
+	}
+
+	/**
+	 * @param isDeliveringDoses
+	 *            false if the decided doses are recorded, but not injected
+	 *            into the blood stream
+	 */
+	void setDeliveringDoses(boolean isDeliveringDoses)
+	{
+		this.isDeliveringDoses = isDeliveringDoses;
+	}
+
+	/**
+	 * Replaces the dosing algorithm with a custom one. It takes over from the
+	 * next step, with its own state.
+	 *
+	 * @param dosingAlgorithm
+	 *            New algorithm, which must not be shared with another model
+	 */
+	public void setDosingAlgorithm(DosingAlgorithm dosingAlgorithm)
+	{
+		selectedDosingAlgorithm = new SelectedDosingAlgorithm(dosingAlgorithm, null);
+	}
+
+	/**
+	 * Replaces the dosing algorithm with a new instance of the given type. It
+	 * takes over from the next step.
+	 *
+	 * @param type
+	 *            Type of the new algorithm
+	 */
+	public void setDosingAlgorithm(DosingAlgorithmType type)
+	{
+		selectedDosingAlgorithm = new SelectedDosingAlgorithm(type.newInstance(), type);
+	}
+
+	/**
+	 * Replaces the values of the doctor's pane. The next step uses the new
+	 * values.
+	 *
+	 * @param settings
+	 *            New settings, which must be valid
+	 * @throws IllegalArgumentException
+	 *             If the settings are not valid
+	 */
+	public void setSettings(ControllerSettings settings)
+	{
+		MessageBoxText error = settings.getValidationError();
+		if (error != null)
+		{
+			throw new IllegalArgumentException(error.getText());
+		}
+		this.settings = settings;
+	}
+
+	/**
+	 * Suspends the delivery of doses: the dosing algorithm keeps deciding, but
+	 * the doses do not reach the blood stream.
+	 *
+	 * @param timeInMillis
+	 *            Simulated time of the first glucose level whose dose is
+	 *            delivered again
+	 */
+	public void suspendDeliveryUntil(long timeInMillis)
+	{
+		deliverySuspendedUntilInMillis = Math.max(deliverySuspendedUntilInMillis, timeInMillis);
+		TelemetryJournal journal = bloodStream.getTelemetryJournal();
+		if (journal != null)
+		{
+			journal.recordDeliverySuspension(analyzedTimeInMillis, deliverySuspendedUntilInMillis);
+		}
+	}
+
+	/**
+	 * Analyzes the blood glucose levels published since the last step and
+	 * injects the dose of the {@link DosingAlgorithm} into the
+	 * {@link BloodStream}. If no glucose level was published since the last
+	 * step (e.g. during a dropout of the sensor), nothing is decided, the
+	 * last level has already been dosed.
+	 */
+	public void step()
+	{
+		recordSettings();
+		// the first value since the last step is analyzed, the rest is
+		// skipped
+		boolean hasNewGlucoseLevel = analyzebloodstream.next();
+		if (hasNewGlucoseLevel)
+		{
+			sliceTotalValue = analyzebloodstream.getValue();
+			analyzedTimeInMillis = analyzebloodstream.getTimestampInMillis();
+		}
+		analyzebloodstream.skipToEnd();
+		injectionDecision = 0;
+		if (!hasNewGlucoseLevel && hasAnalyzedGlucoseLevel)
+		{
+			return;
+		}
+		hasAnalyzedGlucoseLevel |= hasNewGlucoseLevel;
+		DosingAlgorithm currentDosingAlgorithm = selectedDosingAlgorithm.algorithm;
+		PumpMetrics metrics = bloodStream.getMetrics();
+		long decisionStartInNanos = metrics == null ? 0 : System.nanoTime();
+		decision.clear();
+		try
+		{
+			currentDosingAlgorithm.decide(this, decision);
+		} catch (RuntimeException e)
+		{
+			decision.clear();
+			statusReporter.printExceptionMessage();
+		}
+		if (metrics != null)
+		{
+			metrics.recordDecision(System.nanoTime() - decisionStartInNanos);
+		}
+		if (decision.isInjecting())
+		{
+			if (analyzedTimeInMillis < deliverySuspendedUntilInMillis)
+			{
+				missedDoses++;
+				if (metrics != null)
+				{
+					metrics.countMissedDose();
+				}
+			} else
+			{
+				injectBalancingDose(decision.getEffect_mmol_L(), decision.getSlots(),
+						decision.isOverriding());
+				if (metrics != null)
+				{
+					metrics.countDose(decision.getEffect_mmol_L());
+				}
+			}
+		}
+		if (metrics != null)
+		{
+			metrics.recordActiveHormoneDoses(bloodStream.getActiveHormoneDoses());
+		}
+		TelemetryJournal journal = bloodStream.getTelemetryJournal();
+		if (journal != null)
+		{
+			journal.recordControllerDecision(analyzedTimeInMillis, injectionDecision,
+					sliceTotalValue, currentDosingAlgorithm.getInjectedInsulin());
+		}
+	}
+
+	/**
+	 * @see #getBalancingCurve(double)
+	 */
+	protected AbsorptionCurve generateBalancingCurve(double slots)
+	{
+		return getBalancingCurve(slots);
+	}
+
+	/**
+	 * Injects insulin (negative increase) or glucagon (positive increase)
+	 * into the blood stream. An overriding dose replaces the effect of the
+	 * previous doses as long as it is absorbed instead of being added to it.
+	 */
+	protected void injectBalancingDose(double glucoseLevelIncrease_mmol_L, double slots,
+			boolean isOverriding)
+	{
+		AbsorptionCurve curve = generateBalancingCurve(slots);
+		injectionDecision = glucoseLevelIncrease_mmol_L < 0 ? -1 : 1;
+		// recorded before the dose can start, so the record precedes the
+		// sample which marks its start
+		TelemetryJournal journal = bloodStream.getTelemetryJournal();
+		if (journal != null)
+		{
+			journal.recordHormoneDose(analyzedTimeInMillis, glucoseLevelIncrease_mmol_L, slots,
+					curve.getTotalTicks(), isOverriding);
+		}
+		if (isDeliveringDoses && isOverriding)
+		{
+			bloodStream.injectOverridingHormone(curve, glucoseLevelIncrease_mmol_L);
+		} else if (isDeliveringDoses)
+		{
+			bloodStream.injectHormone(curve, glucoseLevelIncrease_mmol_L);
+		}
+		bloodStream.getEventBus().publishDose(analyzedTimeInMillis, glucoseLevelIncrease_mmol_L, slots);
+	}
+
+	/*
+	 * Former isInBetweenFiveAndSix. Name is changed because it doesn't look
+	 * if it is ONLY between 5 and 6
+	 */
+
+	protected boolean isInNonBalancingRange(double val)
+	{
+		ControllerSettings currentSettings = settings;
+		double max = currentSettings.getBalancingRangeMaximum();
+		double min = currentSettings.getBalancingRangeMinimum();
+		// default:
+		// maximum = 6
+		// minimum = 5
+		if ((val < max) && (val >= min))
+		{
+			return true;
+		} else
+		{
+			return false;
+		}
+
+	}
+
+	/**
+	 * Records the controller settings if they have changed since they were
+	 * recorded the last time
+	 */
+	private void recordSettings()
+	{
+		TelemetryJournal journal = bloodStream.getTelemetryJournal();
+		ControllerSettings currentSettings = settings;
+		SelectedDosingAlgorithm currentDosingAlgorithm = selectedDosingAlgorithm;
+		if (journal == null || (journal == recordedJournal && currentSettings == recordedSettings
+				&& currentDosingAlgorithm == recordedDosingAlgorithm))
+		{
+			return;
+		}
+		recordedJournal = journal;
+		recordedSettings = currentSettings;
+		recordedDosingAlgorithm = currentDosingAlgorithm;
+		DosingAlgorithmType type = currentDosingAlgorithm.type;
+		journal.recordControllerSettings(analyzedTimeInMillis,
+				TelemetryJournal.DOSING_ALGORITHM_SETTINGS,
+				type == null ? CUSTOM_DOSING_ALGORITHM_ID : type.getId(), 0);
+		journal.recordControllerSettings(analyzedTimeInMillis,
+				TelemetryJournal.BALANCING_RANGE_SETTINGS,
+				currentSettings.getBalancingRangeMaximum(),
+				currentSettings.getBalancingRangeMinimum());
+		journal.recordControllerSettings(analyzedTimeInMillis,
+				TelemetryJournal.READJUSTMENT_BOUNDARY_SETTINGS,
+				currentSettings.getReadjustmentNegativeInjectionBoundary(),
+				currentSettings.getReadjustmentPositiveInjectionBoundary());
+	}
+
+}
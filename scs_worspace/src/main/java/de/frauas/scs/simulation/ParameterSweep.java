@@ -0,0 +1,355 @@
+package de.frauas.scs.simulation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.frauas.scs.exception.SimulationException;
+
+/**
+ * Simulates every combination of a grid of controller parameters with every
+ * meal scenario in parallel. The four parameters are the values of the
+ * doctor's pane: the range in which the pump does not balance and the
+ * boundaries of the readjustment injections.
+ * <p>
+ * Combinations which the doctor's pane would reject (see
+ * {@link ControllerSettings#getValidationError()}) are
+ * skipped, since the pump would not balance at all with them.
+ * <p>
+ * The dosing algorithms can be swept as well, which compares them under the
+ * same load.
+ * <p>
+ * All combinations of a scenario use the same meals and the same noise seed,
+ * so their results only differ by the controller parameters and the dosing
+ * algorithm. The
+ * combinations are not materialized, the index of a combination is decoded
+ * into its parameters when it is simulated, and each result is handed to
+ * the {@link SweepResultListener} as soon as it is available.
+ *
+ */
+public class ParameterSweep {
+
+	/**
+	 * Splits the range of combinations until it is small enough to be
+	 * simulated by one task.
+	 */
+	private class SweepTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+
+		private final int to;
+
+		private SweepTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= COMBINATIONS_PER_TASK)
+			{
+				for (int i = from; i < to; i++)
+				{
+					simulateCombination(i);
+				}
+			} else
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new SweepTask(from, middle), new SweepTask(middle, to));
+			}
+		}
+	}
+
+	private final static int COMBINATIONS_PER_TASK = 1;
+
+	/**
+	 * Runs a sweep from the command line and writes the results into a CSV
+	 * file. Each parameter is either a single value or a range
+	 * from:to:step. Arguments after the parameters are either meals or the
+	 * names of the dosing algorithms to compare (LEGACY if none is
+	 * given).<br>
+	 * Usage: ParameterSweep &lt;hours&gt; &lt;csv file&gt;
+	 * &lt;balancingRangeMinimum&gt; &lt;balancingRangeMaximum&gt;
+	 * &lt;readjustmentPositiveInjectionBoundary&gt;
+	 * &lt;readjustmentNegativeInjectionBoundary&gt; [LEGACY|PID|MPC ...]
+	 * [kcal@minute ...]
+	 */
+	public static void main(String[] args) throws IOException, SimulationException
+	{
+		if (args.length < 6)
+		{
+			System.out.println("Usage: ParameterSweep <hours> <csv file> <balancingRangeMinimum> "
+					+ "<balancingRangeMaximum> <readjustmentPositiveInjectionBoundary> "
+					+ "<readjustmentNegativeInjectionBoundary> [LEGACY|PID|MPC ...] [kcal@minute ...]");
+			return;
+		}
+		PatientProfile meals = new PatientProfile();
+		meals.setNoiseSeed(0);
+		ArrayList<DosingAlgorithmType> dosingAlgorithms = new ArrayList<>();
+		for (int i = 6; i < args.length; i++)
+		{
+			if (args[i].indexOf('@') < 0)
+			{
+				dosingAlgorithms.add(DosingAlgorithmType.valueOf(args[i]));
+				continue;
+			}
+			String[] meal = args[i].split("@");
+			meals.addMeal(Long.parseLong(meal[1]) * 60 * 1000, Double.parseDouble(meal[0]));
+		}
+		ParameterSweep sweep = new ParameterSweep();
+		if (!dosingAlgorithms.isEmpty())
+		{
+			sweep.setDosingAlgorithms(dosingAlgorithms.toArray(new DosingAlgorithmType[0]));
+		}
+		sweep.setBalancingRangeMinimum(parseValues(args[2]));
+		sweep.setBalancingRangeMaximum(parseValues(args[3]));
+		sweep.setReadjustmentPositiveInjectionBoundary(parseValues(args[4]));
+		sweep.setReadjustmentNegativeInjectionBoundary(parseValues(args[5]));
+		sweep.addScenario("meals", meals);
+
+		long start = System.nanoTime();
+		try (SweepCsvWriter writer = new SweepCsvWriter(Files.newBufferedWriter(
+				Paths.get(args[1]), StandardCharsets.UTF_8)))
+		{
+			sweep.run((long) (Double.parseDouble(args[0]) * 60 * 60 * 1000), writer);
+		}
+		long wallTimeInMillis = (System.nanoTime() - start) / 1000000;
+		System.out.println("Combinations:        " + sweep.getNumberOfCombinations());
+		System.out.println("Skipped (invalid):   " + sweep.getSkippedCombinations());
+		System.out.println("Wall time in ms:     " + wallTimeInMillis);
+	}
+
+	/**
+	 * Creates the values of a range including both ends
+	 *
+	 * @param from
+	 *            First value
+	 * @param to
+	 *            Last value
+	 * @param step
+	 *            Distance between two values
+	 * @return Values of the range
+	 */
+	public static double[] range(double from, double to, double step)
+	{
+		if (step <= 0 || to < from)
+		{
+			throw new IllegalArgumentException("Invalid range " + from + ":" + to + ":" + step);
+		}
+		int count = (int) Math.floor((to - from) / step + 1e-9) + 1;
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++)
+		{
+			// multiplication instead of summation avoids accumulated errors
+			values[i] = from + i * step;
+		}
+		return values;
+	}
+
+	/**
+	 * Parses a single value or a range from:to:step
+	 */
+	private static double[] parseValues(String text)
+	{
+		String[] parts = text.split(":");
+		if (parts.length == 3)
+		{
+			return range(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+					Double.parseDouble(parts[2]));
+		}
+		return new double[] { Double.parseDouble(text) };
+	}
+
+	private double[] balancingRangeMaximum = { 6 };
+
+	private double[] balancingRangeMinimum = { 5 };
+
+	private DosingAlgorithmType[] dosingAlgorithms = { DosingAlgorithmType.LEGACY };
+
+	private final AtomicReference<SimulationException> failure = new AtomicReference<>();
+
+	private SweepResultListener listener;
+
+	private final ForkJoinPool pool;
+
+	private final AtomicInteger skippedCombinations = new AtomicInteger();
+
+	private double[] readjustmentNegativeInjectionBoundary = { 5.5 };
+
+	private double[] readjustmentPositiveInjectionBoundary = { 8 };
+
+	private final ArrayList<String> scenarioNames = new ArrayList<>();
+
+	private final ArrayList<PatientProfile> scenarios = new ArrayList<>();
+
+	private long simulatedMillis;
+
+	public ParameterSweep() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool
+	 *            Pool which executes the simulations
+	 */
+	public ParameterSweep(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Adds a meal scenario. Its controller parameters are replaced by the ones
+	 * of each combination.
+	 *
+	 * @param name
+	 *            Name of the scenario in the results
+	 * @param meals
+	 *            Meals and noise seed of the scenario
+	 */
+	public void addScenario(String name, PatientProfile meals)
+	{
+		scenarioNames.add(name);
+		scenarios.add(new PatientProfile(meals));
+	}
+
+	/**
+	 * @return Number of simulations of the sweep
+	 */
+	public int getNumberOfCombinations()
+	{
+		long combinations = (long) scenarios.size() * dosingAlgorithms.length
+				* balancingRangeMinimum.length
+				* balancingRangeMaximum.length * readjustmentPositiveInjectionBoundary.length
+				* readjustmentNegativeInjectionBoundary.length;
+		if (combinations > Integer.MAX_VALUE)
+		{
+			throw new IllegalStateException("Too many combinations: " + combinations);
+		}
+		return (int) combinations;
+	}
+
+	/**
+	 * Simulates all combinations.
+	 *
+	 * @param simulatedMillis
+	 *            Simulated milliseconds of each combination
+	 * @param listener
+	 *            Receives the result of each combination as soon as it is
+	 *            available
+	 * @throws SimulationException
+	 *             If the simulation of any combination failed. The results of
+	 *             all other combinations are delivered nevertheless.
+	 */
+	public void run(long simulatedMillis, SweepResultListener listener)
+			throws SimulationException
+	{
+		this.simulatedMillis = simulatedMillis;
+		this.listener = listener;
+		failure.set(null);
+		skippedCombinations.set(0);
+		pool.invoke(new SweepTask(0, getNumberOfCombinations()));
+		if (failure.get() != null)
+		{
+			throw failure.get();
+		}
+	}
+
+	/**
+	 * @return Number of combinations of the last run which were skipped
+	 *         because the doctor's pane would reject them
+	 */
+	public int getSkippedCombinations()
+	{
+		return skippedCombinations.get();
+	}
+
+	public void setBalancingRangeMaximum(double... values)
+	{
+		balancingRangeMaximum = checkValues(values);
+	}
+
+	public void setBalancingRangeMinimum(double... values)
+	{
+		balancingRangeMinimum = checkValues(values);
+	}
+
+	public void setDosingAlgorithms(DosingAlgorithmType... types)
+	{
+		if (types.length == 0)
+		{
+			throw new IllegalArgumentException("At least one dosing algorithm is needed");
+		}
+		dosingAlgorithms = types.clone();
+	}
+
+	public void setReadjustmentNegativeInjectionBoundary(double... values)
+	{
+		readjustmentNegativeInjectionBoundary = checkValues(values);
+	}
+
+	public void setReadjustmentPositiveInjectionBoundary(double... values)
+	{
+		readjustmentPositiveInjectionBoundary = checkValues(values);
+	}
+
+	private double[] checkValues(double[] values)
+	{
+		if (values.length == 0)
+		{
+			throw new IllegalArgumentException("At least one value is needed");
+		}
+		return values.clone();
+	}
+
+	/**
+	 * Decodes the index of a combination (the scenario varies slowest, then
+	 * the dosing algorithm, the negative injection boundary fastest) and
+	 * simulates it
+	 */
+	private void simulateCombination(int index)
+	{
+		int remainder = index;
+		int negative = remainder % readjustmentNegativeInjectionBoundary.length;
+		remainder /= readjustmentNegativeInjectionBoundary.length;
+		int positive = remainder % readjustmentPositiveInjectionBoundary.length;
+		remainder /= readjustmentPositiveInjectionBoundary.length;
+		int maximum = remainder % balancingRangeMaximum.length;
+		remainder /= balancingRangeMaximum.length;
+		int minimum = remainder % balancingRangeMinimum.length;
+		remainder /= balancingRangeMinimum.length;
+		int dosingAlgorithm = remainder % dosingAlgorithms.length;
+		int scenario = remainder / dosingAlgorithms.length;
+
+		PatientProfile profile = new PatientProfile(scenarios.get(scenario));
+		profile.setDosingAlgorithm(dosingAlgorithms[dosingAlgorithm]);
+		profile.setBalancingRangeMinimum(balancingRangeMinimum[minimum]);
+		profile.setBalancingRangeMaximum(balancingRangeMaximum[maximum]);
+		profile.setReadjustmentPositiveInjectionBoundary(readjustmentPositiveInjectionBoundary[positive]);
+		profile.setReadjustmentNegativeInjectionBoundary(readjustmentNegativeInjectionBoundary[negative]);
+		if (!new ControllerSettings(profile).isValid())
+		{
+			skippedCombinations.incrementAndGet();
+			return;
+		}
+		HeadlessSimulation simulation = new HeadlessSimulation(profile);
+		try
+		{
+			simulation.runFor(simulatedMillis);
+			listener.resultAvailable(new SweepResult(index, scenarioNames.get(scenario), profile,
+					new PatientResult(index, simulation)));
+		} catch (SimulationException e)
+		{
+			failure.compareAndSet(null, new SimulationException(
+					"Simulation of combination " + index + " failed", e));
+		}
+	}
+
+}
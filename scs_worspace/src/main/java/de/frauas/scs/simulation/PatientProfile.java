@@ -0,0 +1,255 @@
+package de.frauas.scs.simulation;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import de.frauas.scs.scenario.ScenarioReader;
+
+/**
+ * Describes one simulated patient: the meals during the simulation, the
+ * parameters of the pump's controller (the values of the doctor's pane) and
+ * its dosing algorithm and the physiology of the patient, see
+ * {@link PlantModelType}. Further events (e.g. exercise or a removed needle)
+ * are streamed from a scenario file during the simulation, see
+ * {@link ScenarioReader}.
+ *
+ */
+public class PatientProfile {
+
+	private double balancingRangeMaximum = 6;
+
+	private double balancingRangeMinimum = 5;
+
+	private double bodyWeightInKg = BergmanPlantModel.DEFAULT_BODY_WEIGHT_IN_KG;
+
+	private DosingAlgorithmType dosingAlgorithm = DosingAlgorithmType.LEGACY;
+
+	/**
+	 * Insulin sensitivity in 1/min per mU/L
+	 */
+	private double insulinSensitivity = BergmanPlantModel.DEFAULT_INSULIN_SENSITIVITY;
+
+	private double[] mealKcal = new double[4];
+
+	private long[] mealTimesInMillis = new long[4];
+
+	/**
+	 * Seed of the natural fluctuation of the glucose level. Two simulations
+	 * of the same profile with the same seed are identical.
+	 */
+	private long noiseSeed = new SplittableRandom().nextLong();
+
+	private int numberOfMeals = 0;
+
+	private PlantModelType plantModel = PlantModelType.ADDITIVE;
+
+	private double readjustmentNegativeInjectionBoundary = 5.5;
+
+	private double readjustmentPositiveInjectionBoundary = 8;
+
+	/**
+	 * Scenario file of the patient or null if there is none
+	 */
+	private Path scenario;
+
+	/**
+	 * Number of the patient in {@link #scenario}
+	 */
+	private int scenarioPatient = ScenarioReader.ALL_PATIENTS;
+
+	public PatientProfile() {
+	}
+
+	/**
+	 * Creates a copy of a profile, e.g. to simulate the same patient with
+	 * other controller parameters
+	 *
+	 * @param profile
+	 *            Profile to copy
+	 */
+	public PatientProfile(PatientProfile profile) {
+		balancingRangeMaximum = profile.balancingRangeMaximum;
+		balancingRangeMinimum = profile.balancingRangeMinimum;
+		bodyWeightInKg = profile.bodyWeightInKg;
+		dosingAlgorithm = profile.dosingAlgorithm;
+		insulinSensitivity = profile.insulinSensitivity;
+		mealKcal = profile.mealKcal.clone();
+		mealTimesInMillis = profile.mealTimesInMillis.clone();
+		noiseSeed = profile.noiseSeed;
+		numberOfMeals = profile.numberOfMeals;
+		plantModel = profile.plantModel;
+		readjustmentNegativeInjectionBoundary = profile.readjustmentNegativeInjectionBoundary;
+		readjustmentPositiveInjectionBoundary = profile.readjustmentPositiveInjectionBoundary;
+		scenario = profile.scenario;
+		scenarioPatient = profile.scenarioPatient;
+	}
+
+	/**
+	 * Adds a meal to the schedule. Meals must be added in chronological
+	 * order.
+	 *
+	 * @param timeInMillis
+	 *            Simulated time of the meal since the start of the simulation
+	 * @param kcal
+	 *            Consumed (positive) or burned (negative) energy
+	 */
+	public void addMeal(long timeInMillis, double kcal)
+	{
+		if (numberOfMeals > 0 && mealTimesInMillis[numberOfMeals - 1] > timeInMillis)
+		{
+			throw new IllegalArgumentException("Meals must be added in chronological order");
+		}
+		if (numberOfMeals == mealTimesInMillis.length)
+		{
+			mealTimesInMillis = Arrays.copyOf(mealTimesInMillis, numberOfMeals * 2);
+			mealKcal = Arrays.copyOf(mealKcal, numberOfMeals * 2);
+		}
+		mealTimesInMillis[numberOfMeals] = timeInMillis;
+		mealKcal[numberOfMeals] = kcal;
+		numberOfMeals++;
+	}
+
+	public double getBalancingRangeMaximum()
+	{
+		return balancingRangeMaximum;
+	}
+
+	public double getBalancingRangeMinimum()
+	{
+		return balancingRangeMinimum;
+	}
+
+	public double getBodyWeightInKg()
+	{
+		return bodyWeightInKg;
+	}
+
+	public DosingAlgorithmType getDosingAlgorithm()
+	{
+		return dosingAlgorithm;
+	}
+
+	/**
+	 * @return Insulin sensitivity in 1/min per mU/L
+	 */
+	public double getInsulinSensitivity()
+	{
+		return insulinSensitivity;
+	}
+
+	public double getMealKcal(int meal)
+	{
+		return mealKcal[meal];
+	}
+
+	public long getMealTimeInMillis(int meal)
+	{
+		return mealTimesInMillis[meal];
+	}
+
+	public long getNoiseSeed()
+	{
+		return noiseSeed;
+	}
+
+	public int getNumberOfMeals()
+	{
+		return numberOfMeals;
+	}
+
+	public PlantModelType getPlantModel()
+	{
+		return plantModel;
+	}
+
+	public double getReadjustmentNegativeInjectionBoundary()
+	{
+		return readjustmentNegativeInjectionBoundary;
+	}
+
+	public double getReadjustmentPositiveInjectionBoundary()
+	{
+		return readjustmentPositiveInjectionBoundary;
+	}
+
+	public Path getScenario()
+	{
+		return scenario;
+	}
+
+	public int getScenarioPatient()
+	{
+		return scenarioPatient;
+	}
+
+	public void setBalancingRangeMaximum(double balancingRangeMaximum)
+	{
+		this.balancingRangeMaximum = balancingRangeMaximum;
+	}
+
+	public void setBalancingRangeMinimum(double balancingRangeMinimum)
+	{
+		this.balancingRangeMinimum = balancingRangeMinimum;
+	}
+
+	public void setBodyWeightInKg(double bodyWeightInKg)
+	{
+		this.bodyWeightInKg = bodyWeightInKg;
+	}
+
+	public void setDosingAlgorithm(DosingAlgorithmType dosingAlgorithm)
+	{
+		this.dosingAlgorithm = dosingAlgorithm;
+	}
+
+	/**
+	 * @param insulinSensitivity
+	 *            Insulin sensitivity in 1/min per mU/L
+	 */
+	public void setInsulinSensitivity(double insulinSensitivity)
+	{
+		this.insulinSensitivity = insulinSensitivity;
+	}
+
+	public void setReadjustmentNegativeInjectionBoundary(
+			double readjustmentNegativeInjectionBoundary)
+	{
+		this.readjustmentNegativeInjectionBoundary = readjustmentNegativeInjectionBoundary;
+	}
+
+	public void setNoiseSeed(long noiseSeed)
+	{
+		this.noiseSeed = noiseSeed;
+	}
+
+	public void setPlantModel(PlantModelType plantModel)
+	{
+		this.plantModel = plantModel;
+	}
+
+	public void setReadjustmentPositiveInjectionBoundary(
+			double readjustmentPositiveInjectionBoundary)
+	{
+		this.readjustmentPositiveInjectionBoundary = readjustmentPositiveInjectionBoundary;
+	}
+
+	/**
+	 * Streams the events of a scenario file during the simulation, in
+	 * addition to the meals of the profile
+	 *
+	 * @param scenario
+	 *            Scenario file or null for none, see
+	 *            {@link ScenarioReader#check(Path)}
+	 * @param scenarioPatient
+	 *            Number of the patient in the file or
+	 *            {@link ScenarioReader#ALL_PATIENTS} if only the events of all
+	 *            patients apply
+	 */
+	public void setScenario(Path scenario, int scenarioPatient)
+	{
+		this.scenario = scenario;
+		this.scenarioPatient = scenarioPatient;
+	}
+
+}
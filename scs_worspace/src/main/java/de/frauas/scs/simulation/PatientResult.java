@@ -0,0 +1,160 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Summary of the simulation of one patient.
+ *
+ */
+public class PatientResult {
+
+	private final int errorCount;
+
+	private final double injectedInsulin;
+
+	private final double lastGlucoseLevel;
+
+	private final double maxGlucoseLevel;
+
+	private final double minGlucoseLevel;
+
+	private final int patientIndex;
+
+	private final long predictedHighAlarms;
+
+	private final long predictedLowAlarms;
+
+	private final long stepsAboveRange;
+
+	private final long stepsBelowRange;
+
+	private final long stepsInRange;
+
+	public PatientResult(int patientIndex, HeadlessSimulation simulation) {
+		this.patientIndex = patientIndex;
+		this.errorCount = simulation.getErrorCount();
+		this.injectedInsulin = simulation.getPancreasModel().getInjectedInsulin();
+		this.lastGlucoseLevel = simulation.getLastGlucoseLevel();
+		this.maxGlucoseLevel = simulation.getMaxGlucoseLevel();
+		this.minGlucoseLevel = simulation.getMinGlucoseLevel();
+		this.predictedHighAlarms = simulation.getForecaster().getRaisedHighAlarms();
+		this.predictedLowAlarms = simulation.getForecaster().getRaisedLowAlarms();
+		this.stepsAboveRange = simulation.getStepsAboveRange();
+		this.stepsBelowRange = simulation.getStepsBelowRange();
+		this.stepsInRange = simulation.getStepsInRange();
+	}
+
+	/**
+	 * Summary of a patient which was not simulated by a
+	 * {@link HeadlessSimulation}, e.g. by a {@link BatchCohortSimulation}
+	 */
+	PatientResult(int patientIndex, int errorCount, double injectedInsulin,
+			double lastGlucoseLevel, double maxGlucoseLevel, double minGlucoseLevel,
+			long predictedHighAlarms, long predictedLowAlarms, long stepsAboveRange,
+			long stepsBelowRange, long stepsInRange) {
+		this.patientIndex = patientIndex;
+		this.errorCount = errorCount;
+		this.injectedInsulin = injectedInsulin;
+		this.lastGlucoseLevel = lastGlucoseLevel;
+		this.maxGlucoseLevel = maxGlucoseLevel;
+		this.minGlucoseLevel = minGlucoseLevel;
+		this.predictedHighAlarms = predictedHighAlarms;
+		this.predictedLowAlarms = predictedLowAlarms;
+		this.stepsAboveRange = stepsAboveRange;
+		this.stepsBelowRange = stepsBelowRange;
+		this.stepsInRange = stepsInRange;
+	}
+
+	public int getErrorCount()
+	{
+		return errorCount;
+	}
+
+	public double getInjectedInsulin()
+	{
+		return injectedInsulin;
+	}
+
+	public double getLastGlucoseLevel()
+	{
+		return lastGlucoseLevel;
+	}
+
+	public double getMaxGlucoseLevel()
+	{
+		return maxGlucoseLevel;
+	}
+
+	public double getMinGlucoseLevel()
+	{
+		return minGlucoseLevel;
+	}
+
+	public int getPatientIndex()
+	{
+		return patientIndex;
+	}
+
+	/**
+	 * @return Number of alarms which predicted that the glucose level rises
+	 *         above the target range
+	 */
+	public long getPredictedHighAlarms()
+	{
+		return predictedHighAlarms;
+	}
+
+	/**
+	 * @return Number of alarms which predicted that the glucose level falls
+	 *         below the target range
+	 */
+	public long getPredictedLowAlarms()
+	{
+		return predictedLowAlarms;
+	}
+
+	public long getStepsAboveRange()
+	{
+		return stepsAboveRange;
+	}
+
+	public long getStepsBelowRange()
+	{
+		return stepsBelowRange;
+	}
+
+	public long getStepsInRange()
+	{
+		return stepsInRange;
+	}
+
+	/**
+	 * @return Simulated minutes with a glucose level above the target range
+	 */
+	public double getMinutesAboveRange()
+	{
+		return toMinutes(stepsAboveRange);
+	}
+
+	/**
+	 * @return Simulated minutes with a glucose level below the target range
+	 */
+	public double getMinutesBelowRange()
+	{
+		return toMinutes(stepsBelowRange);
+	}
+
+	/**
+	 * @return Share of the simulated time with a glucose level in the target
+	 *         range (0 - 1)
+	 */
+	public double getTimeInRange()
+	{
+		long steps = stepsAboveRange + stepsBelowRange + stepsInRange;
+		return steps == 0 ? 0 : (double) stepsInRange / steps;
+	}
+
+	private static double toMinutes(long steps)
+	{
+		return steps * GlucoseLevelModel.SIMULATION_STEPS_IN_MILLIS / 60000d;
+	}
+
+}
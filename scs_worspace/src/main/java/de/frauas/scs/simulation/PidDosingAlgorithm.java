@@ -0,0 +1,189 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Proportional-integral-derivative controller. The error is the distance of
+ * the glucose level to the middle of the balancing range, each step injects
+ * a small dose in proportion to the error, its integral and its rate of
+ * change. Within the balancing range nothing is injected and the integral is
+ * reset, which avoids that the integral winds up while the glucose level is
+ * fine.
+ *
+ */
+public class PidDosingAlgorithm implements DosingAlgorithm {
+
+	public final static double DEFAULT_DERIVATIVE_GAIN = 0.05;
+
+	public final static double DEFAULT_INTEGRAL_GAIN = 0.001;
+
+	public final static double DEFAULT_PROPORTIONAL_GAIN = 0.01;
+
+	/**
+	 * Weight of the latest rate of change in the smoothed rate of change
+	 */
+	final static double DERIVATIVE_SMOOTHING = 0.3;
+
+	/**
+	 * Integral of the error in mmol/L * min
+	 */
+	private final static int INTEGRAL = 0;
+
+	private final static int LAST_VALUE = 1;
+
+	/**
+	 * Largest effect of a single dose in mmol/L
+	 */
+	final static double MAX_DOSE_MMOL_L = 5;
+
+	/**
+	 * Limit of the integral in mmol/L * min, which bounds the dose caused by
+	 * the integral
+	 */
+	final static double MAX_INTEGRAL = 100;
+
+	final static double MILLIS_PER_MINUTE = 60 * 1000;
+
+	/**
+	 * Doses with a smaller effect in mmol/L are not injected
+	 */
+	final static double MIN_DOSE_MMOL_L = 0.01;
+
+	/**
+	 * Smoothed rate of change of the glucose level in mmol/L per minute
+	 */
+	private final static int RATE_OF_CHANGE = 2;
+
+	final static double SLOTS = 50;
+
+	/**
+	 * Number of state variables of one controller
+	 */
+	final static int STATE_SIZE = 3;
+
+	/**
+	 * Decides the dose of one patient. The state of the controller takes
+	 * {@link #STATE_SIZE} consecutive elements of the array, so the same
+	 * arithmetic serves a single algorithm and the controllers of a
+	 * {@link BatchCohortSimulation}.
+	 *
+	 * @param states
+	 *            States of the controllers
+	 * @param offset
+	 *            First element of the state of the patient
+	 * @param value
+	 *            Analyzed glucose level in mmol/L
+	 * @param elapsedMinutes
+	 *            Time since the last analyzed glucose level, 0 for the first
+	 * @param isInBalancingRange
+	 *            true if the value is within the balancing range
+	 * @param target
+	 *            Middle of the balancing range in mmol/L
+	 * @return Dose in mmol/L (positive for insulin), 0 if nothing is injected
+	 */
+	static double decide(double[] states, int offset, double value, double elapsedMinutes,
+			boolean isInBalancingRange, double target, double proportionalGain,
+			double integralGain, double derivativeGain)
+	{
+		if (elapsedMinutes > 0)
+		{
+			double latestRate = (value - states[offset + LAST_VALUE]) / elapsedMinutes;
+			states[offset + RATE_OF_CHANGE] += DERIVATIVE_SMOOTHING
+					* (latestRate - states[offset + RATE_OF_CHANGE]);
+		} else
+		{
+			elapsedMinutes = 0;
+		}
+		states[offset + LAST_VALUE] = value;
+
+		if (isInBalancingRange)
+		{
+			states[offset + INTEGRAL] = 0;
+			return 0;
+		}
+		double error = value - target;
+		double integral = Math.max(-MAX_INTEGRAL,
+				Math.min(MAX_INTEGRAL, states[offset + INTEGRAL] + error * elapsedMinutes));
+		states[offset + INTEGRAL] = integral;
+
+		double dose = proportionalGain * error + integralGain * integral
+				+ derivativeGain * states[offset + RATE_OF_CHANGE];
+		dose = Math.max(-MAX_DOSE_MMOL_L, Math.min(MAX_DOSE_MMOL_L, dose));
+		if (Math.abs(dose) < MIN_DOSE_MMOL_L)
+		{
+			return 0;
+		}
+		return dose;
+	}
+
+	private final double derivativeGain;
+
+	private double injectedInsulin = 0;
+
+	private final double integralGain;
+
+	private long lastTimeInMillis = -1;
+
+	private final double proportionalGain;
+
+	/**
+	 * Integral, last value and smoothed rate of change, see
+	 * {@link #decide(double[], int, double, double, boolean, double, double, double, double)}
+	 */
+	private final double[] state = new double[STATE_SIZE];
+
+	public PidDosingAlgorithm() {
+		this(DEFAULT_PROPORTIONAL_GAIN, DEFAULT_INTEGRAL_GAIN, DEFAULT_DERIVATIVE_GAIN);
+	}
+
+	/**
+	 * @param proportionalGain
+	 *            Dose in mmol/L per step and mmol/L of error
+	 * @param integralGain
+	 *            Dose in mmol/L per step and mmol/L * min of integrated error
+	 * @param derivativeGain
+	 *            Dose in mmol/L per step and mmol/L per minute of change
+	 */
+	public PidDosingAlgorithm(double proportionalGain, double integralGain,
+			double derivativeGain) {
+		this.proportionalGain = proportionalGain;
+		this.integralGain = integralGain;
+		this.derivativeGain = derivativeGain;
+	}
+
+	@Override
+	public void decide(PancreasModel model, DosingDecision decision)
+	{
+		long timeInMillis = model.getAnalyzedTimeInMillis();
+		double value = model.getAnalyzedGlucoseLevel();
+		if (timeInMillis == lastTimeInMillis)
+		{
+			// no new glucose level since the last step
+			return;
+		}
+		double elapsedMinutes = lastTimeInMillis >= 0
+				? (timeInMillis - lastTimeInMillis) / MILLIS_PER_MINUTE
+				: 0;
+		lastTimeInMillis = timeInMillis;
+
+		ControllerSettings settings = model.getSettings();
+		double target = (settings.getBalancingRangeMinimum() + settings.getBalancingRangeMaximum()) / 2;
+		double dose = decide(state, 0, value, elapsedMinutes, model.isInNonBalancingRange(value),
+				target, proportionalGain, integralGain, derivativeGain);
+		if (dose == 0)
+		{
+			return;
+		}
+		// a positive dose lowers the glucose level (insulin)
+		decision.inject(-dose, SLOTS);
+		if (dose > 0)
+		{
+			injectedInsulin += dose;
+		}
+	}
+
+	@Override
+	public double getInjectedInsulin()
+	{
+		return injectedInsulin;
+	}
+
+}
@@ -0,0 +1,32 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Physiology of the patient: turns the glucose of meals and the hormones of
+ * the pump into the course of the glucose level. The
+ * {@link GlucoseLevelModel} steps the plant once per time slice
+ * ({@link GlucoseLevelModel#SIMULATION_STEPS_IN_MILLIS}) and adds the natural
+ * fluctuation to its result.
+ * <p>
+ * A plant is stepped by one thread only and must not allocate memory in a
+ * step, it is stepped ten times per simulated second of each patient.
+ *
+ */
+public interface PlantModel {
+
+	/**
+	 * Simulates one time slice
+	 *
+	 * @param glucoseAppearance_mmol_L
+	 *            Glucose of the meals which enters the blood in this slice
+	 *            (negative if it is burned), as increase of the glucose level
+	 *            in mmol/L
+	 * @param hormonalEffect_mmol_L
+	 *            Hormones which are absorbed in this slice, as the change of
+	 *            the glucose level expected by the pump in mmol/L (negative
+	 *            for insulin, positive for glucagon)
+	 * @return Difference of the glucose level to the natural glucose level in
+	 *         mmol/L
+	 */
+	double step(double glucoseAppearance_mmol_L, double hormonalEffect_mmol_L);
+
+}
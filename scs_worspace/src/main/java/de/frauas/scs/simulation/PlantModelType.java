@@ -0,0 +1,96 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Plant models which describe the physiology of a simulated patient. The id
+ * identifies the plant in the telemetry journal, so a session is replayed
+ * with the plant it was recorded with.
+ *
+ */
+public enum PlantModelType {
+
+	/**
+	 * {@link AdditivePlantModel}, the same for every patient
+	 */
+	ADDITIVE(1),
+
+	/**
+	 * {@link BergmanPlantModel} with the body weight and insulin sensitivity
+	 * of the patient
+	 */
+	BERGMAN(2);
+
+	/**
+	 * @return Type of the plant or null if it is a custom plant
+	 */
+	public static PlantModelType of(PlantModel plantModel)
+	{
+		if (plantModel.getClass() == AdditivePlantModel.class)
+		{
+			return ADDITIVE;
+		}
+		if (plantModel.getClass() == BergmanPlantModel.class)
+		{
+			return BERGMAN;
+		}
+		return null;
+	}
+
+	/**
+	 * @return Type with the given id or null if there is none
+	 */
+	public static PlantModelType ofId(int id)
+	{
+		for (PlantModelType type : values())
+		{
+			if (type.id == id)
+			{
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return Type with the given name or null if there is none
+	 */
+	public static PlantModelType ofName(String name)
+	{
+		for (PlantModelType type : values())
+		{
+			if (type.name().equals(name))
+			{
+				return type;
+			}
+		}
+		return null;
+	}
+
+	PlantModelType(int id) {
+		this.id = id;
+	}
+
+	private final int id;
+
+	public int getId()
+	{
+		return id;
+	}
+
+	/**
+	 * @param profile
+	 *            Profile of the patient
+	 * @return New plant of the patient
+	 */
+	public PlantModel newInstance(PatientProfile profile)
+	{
+		switch (this)
+		{
+			case BERGMAN:
+				return new BergmanPlantModel(profile.getBodyWeightInKg(),
+						profile.getInsulinSensitivity());
+			default:
+				return new AdditivePlantModel();
+		}
+	}
+
+}
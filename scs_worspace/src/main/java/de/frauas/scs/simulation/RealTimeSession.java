@@ -0,0 +1,207 @@
+package de.frauas.scs.simulation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.frauas.scs.BloodStream;
+import de.frauas.scs.GlucoseTrendForecaster;
+import de.frauas.scs.metrics.PumpMetrics;
+
+/**
+ * Runs the simulation of one patient in real time without any GUI, e.g. for
+ * soak tests with many concurrent pump sessions in one JVM. Like the
+ * simulators of the GUI, the glucose level and the pancreas are simulated in
+ * their own loop, executed according to the {@link ExecutionMode}.
+ *
+ */
+public final class RealTimeSession implements StatusReporter {
+
+	/**
+	 * Runs many sessions concurrently and reports the jitter of their ticks
+	 * and the metrics of all sessions together.<br>
+	 * Usage: RealTimeSession &lt;sessions&gt; &lt;seconds&gt;
+	 * [SHARED_SCHEDULER|VIRTUAL_THREADS]
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		if (args.length < 2)
+		{
+			System.out.println("Usage: RealTimeSession <sessions> <seconds> [SHARED_SCHEDULER|VIRTUAL_THREADS]");
+			return;
+		}
+		int numberOfSessions = Integer.parseInt(args[0]);
+		long seconds = Long.parseLong(args[1]);
+		ExecutionMode mode = args.length > 2 ? ExecutionMode.valueOf(args[2])
+				: ExecutionMode.VIRTUAL_THREADS;
+
+		PumpMetrics metrics = new PumpMetrics();
+		RealTimeSession[] sessions = new RealTimeSession[numberOfSessions];
+		for (int i = 0; i < numberOfSessions; i++)
+		{
+			sessions[i] = new RealTimeSession(new PatientProfile());
+			sessions[i].getBloodStream().setMetrics(metrics);
+			sessions[i].start(mode);
+		}
+		Thread.sleep(seconds * 1000);
+
+		long maxJitter = 0;
+		long totalJitter = 0;
+		long ticks = 0;
+		long overruns = 0;
+		int errors = 0;
+		for (RealTimeSession session : sessions)
+		{
+			session.stop();
+			ScheduledTick tick = session.getGlucoseLevelTick();
+			maxJitter = Math.max(maxJitter, tick.getMaxJitterInNanos());
+			totalJitter += tick.getMeanJitterInNanos() * tick.getTicks();
+			ticks += tick.getTicks();
+			overruns += tick.getOverruns();
+			errors += session.getErrorCount();
+		}
+		System.out.println("Sessions:            " + numberOfSessions + " (" + mode + ")");
+		System.out.println("Glucose ticks:       " + ticks);
+		System.out.println("Mean jitter in us:   " + (ticks == 0 ? 0 : totalJitter / ticks / 1000));
+		System.out.println("Max jitter in us:    " + maxJitter / 1000);
+		System.out.println("Glucose overruns:    " + overruns);
+		System.out.println("Reported errors:     " + errors);
+		System.out.print(metrics.getReport());
+	}
+
+	private final BloodStream bloodStream;
+
+	private final AtomicInteger errorCount = new AtomicInteger();
+
+	/**
+	 * Warns before the glucose level becomes critical, changes of its alarm
+	 * are published on the event bus of the blood stream
+	 */
+	private final GlucoseTrendForecaster forecaster = new GlucoseTrendForecaster(
+			GlucoseLevelSimulator.CRITICAL_GLUCOSE_LEVEL_LOW,
+			GlucoseLevelSimulator.CRITICAL_GLUCOSE_LEVEL_HIGH);
+
+	private final GlucoseLevelModel glucoseLevelModel;
+
+	private ScheduledTick glucoseLevelTick;
+
+	private int nextMeal = 0;
+
+	private final PancreasModel pancreasModel;
+
+	private ScheduledTick pancreasTick;
+
+	private final PatientProfile profile;
+
+	private TickPolicy tickPolicy = TickPolicy.CATCH_UP;
+
+	public RealTimeSession(PatientProfile profile) {
+		this.profile = profile;
+		bloodStream = new BloodStream(64);
+		glucoseLevelModel = new GlucoseLevelModel(bloodStream, profile.getNoiseSeed(),
+				profile.getPlantModel().newInstance(profile));
+		pancreasModel = new PancreasModel(bloodStream, this);
+		pancreasModel.configure(profile);
+	}
+
+	public void clearErrorMessage()
+	{
+	}
+
+	public BloodStream getBloodStream()
+	{
+		return bloodStream;
+	}
+
+	public int getErrorCount()
+	{
+		return errorCount.get();
+	}
+
+	public ScheduledTick getGlucoseLevelTick()
+	{
+		return glucoseLevelTick;
+	}
+
+	public PancreasModel getPancreasModel()
+	{
+		return pancreasModel;
+	}
+
+	public ScheduledTick getPancreasTick()
+	{
+		return pancreasTick;
+	}
+
+	public void printConversionErrorMessage()
+	{
+		errorCount.incrementAndGet();
+	}
+
+	public void printError(String text)
+	{
+		errorCount.incrementAndGet();
+	}
+
+	public void printExceptionMessage()
+	{
+		errorCount.incrementAndGet();
+		PumpMetrics metrics = bloodStream.getMetrics();
+		if (metrics != null)
+		{
+			metrics.countError();
+		}
+	}
+
+	public void setTickPolicy(TickPolicy tickPolicy)
+	{
+		this.tickPolicy = tickPolicy;
+	}
+
+	/**
+	 * Starts the glucose level and the pancreas loop. Their ticks are
+	 * recorded in the metrics of the blood stream, if there are any.
+	 *
+	 * @param mode
+	 *            Thread(s) executing the loops
+	 */
+	public void start(ExecutionMode mode)
+	{
+		TickScheduler scheduler = TickScheduler.getInstance();
+		glucoseLevelTick = scheduler.schedule(new Runnable() {
+			@Override
+			public void run()
+			{
+				stepGlucoseLevel();
+			}
+		}, GlucoseLevelModel.SIMULATION_STEPS_IN_MILLIS, tickPolicy, mode);
+		pancreasTick = scheduler.schedule(new Runnable() {
+			@Override
+			public void run()
+			{
+				pancreasModel.step();
+			}
+		}, PancreasModel.SIMULATION_STEPS_IN_MILLIS, tickPolicy, mode);
+		glucoseLevelTick.setMetrics(bloodStream.getMetrics());
+		pancreasTick.setMetrics(bloodStream.getMetrics());
+	}
+
+	public void stop()
+	{
+		glucoseLevelTick.cancel();
+		pancreasTick.cancel();
+	}
+
+	private void stepGlucoseLevel()
+	{
+		long now = glucoseLevelModel.getSimulatedTimeInMillis();
+		while (nextMeal < profile.getNumberOfMeals()
+				&& profile.getMealTimeInMillis(nextMeal) <= now)
+		{
+			glucoseLevelModel.consume(profile.getMealKcal(nextMeal));
+			nextMeal++;
+		}
+		double glucoseLevel = glucoseLevelModel.step();
+		forecaster.add(now, glucoseLevel, bloodStream.getEventBus());
+		bloodStream.updateElapsedTime(glucoseLevelModel.getSimulatedTimeInMillis());
+	}
+
+}
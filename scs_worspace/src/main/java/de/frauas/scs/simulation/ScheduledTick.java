@@ -0,0 +1,179 @@
+package de.frauas.scs.simulation;
+
+import de.frauas.scs.metrics.PumpMetrics;
+
+/**
+ * Handle of a task which is executed periodically by the {@link TickScheduler}.
+ * Besides cancelling the task, it measures how punctual the ticks are and how
+ * often they take longer than their period. With {@link PumpMetrics} the lag
+ * and duration of each tick are recorded in addition.
+ *
+ */
+public class ScheduledTick {
+
+	private volatile boolean isCancelled = false;
+
+	private volatile long maxJitterInNanos = 0;
+
+	private volatile PumpMetrics metrics;
+
+	private volatile long nextDeadlineInNanos;
+
+	private volatile long overruns = 0;
+
+	private final long periodInNanos;
+
+	private final TickPolicy policy;
+
+	private volatile long skippedTicks = 0;
+
+	private final Runnable task;
+
+	private volatile long ticks = 0;
+
+	private volatile long totalJitterInNanos = 0;
+
+	ScheduledTick(Runnable task, long periodInNanos, TickPolicy policy,
+			long firstDeadlineInNanos) {
+		this.task = task;
+		this.periodInNanos = periodInNanos;
+		this.policy = policy;
+		this.nextDeadlineInNanos = firstDeadlineInNanos;
+	}
+
+	/**
+	 * Stops the periodic execution. A tick which is currently running will
+	 * be finished.
+	 */
+	public void cancel()
+	{
+		isCancelled = true;
+	}
+
+	/**
+	 * @return Highest delay of a tick compared to its scheduled time
+	 */
+	public long getMaxJitterInNanos()
+	{
+		return maxJitterInNanos;
+	}
+
+	/**
+	 * @return Average delay of a tick compared to its scheduled time
+	 */
+	public long getMeanJitterInNanos()
+	{
+		long executedTicks = ticks;
+		return executedTicks == 0 ? 0 : totalJitterInNanos / executedTicks;
+	}
+
+	/**
+	 * @return Number of ticks which took longer than the period
+	 */
+	public long getOverruns()
+	{
+		return overruns;
+	}
+
+	public long getPeriodInNanos()
+	{
+		return periodInNanos;
+	}
+
+	public TickPolicy getPolicy()
+	{
+		return policy;
+	}
+
+	/**
+	 * @return Number of ticks which were dropped due to {@link TickPolicy#SKIP}
+	 */
+	public long getSkippedTicks()
+	{
+		return skippedTicks;
+	}
+
+	/**
+	 * @return Number of executed ticks
+	 */
+	public long getTicks()
+	{
+		return ticks;
+	}
+
+	public boolean isCancelled()
+	{
+		return isCancelled;
+	}
+
+	/**
+	 * Sets the metrics which record the lag and duration of each tick
+	 *
+	 * @param metrics
+	 *            Metrics or null to stop recording
+	 */
+	public void setMetrics(PumpMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	long getNextDeadlineInNanos()
+	{
+		return nextDeadlineInNanos;
+	}
+
+	/**
+	 * Executes the task once and calculates the next deadline according to
+	 * the {@link TickPolicy}. Only called by the scheduler thread.
+	 *
+	 * @param nowInNanos
+	 *            Time at which the tick is started
+	 */
+	void execute(long nowInNanos)
+	{
+		long jitter = nowInNanos - nextDeadlineInNanos;
+		if (jitter > maxJitterInNanos)
+		{
+			maxJitterInNanos = jitter;
+		}
+		totalJitterInNanos += jitter;
+		ticks++;
+		PumpMetrics currentMetrics = metrics;
+		try
+		{
+			task.run();
+		} catch (RuntimeException e)
+		{
+			// same as for a ScheduledExecutorService: a failing task is not
+			// executed anymore
+			isCancelled = true;
+			if (currentMetrics != null)
+			{
+				currentMetrics.countError();
+			}
+		}
+		long now = System.nanoTime();
+		long duration = now - nowInNanos;
+		if (duration > periodInNanos)
+		{
+			overruns++;
+		}
+		if (currentMetrics != null)
+		{
+			currentMetrics.recordTick(jitter, duration, periodInNanos);
+		}
+
+		long deadline = nextDeadlineInNanos + periodInNanos;
+		if (policy == TickPolicy.SKIP)
+		{
+			if (deadline <= now)
+			{
+				long missedTicks = (now - deadline) / periodInNanos + 1;
+				deadline += missedTicks * periodInNanos;
+				skippedTicks += missedTicks;
+			}
+		}
+		nextDeadlineInNanos = deadline;
+	}
+
+}
@@ -0,0 +1,500 @@
+package de.frauas.scs.simulation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import de.frauas.scs.exception.SimulationException;
+import de.frauas.scs.telemetry.TelemetryJournal;
+import de.frauas.scs.telemetry.TelemetryReader;
+import de.frauas.scs.telemetry.TelemetryRecordType;
+
+/**
+ * Replays a session recorded in a {@link TelemetryJournal} with the current
+ * models. The recorded seed, plant and controller settings are fed into a
+ * {@link HeadlessSimulation} on a virtual clock, and each replayed glucose
+ * level is compared bit by bit with the recorded one.
+ * <p>
+ * The recorded meals and doses are started in the step which is marked by
+ * the recorded sample, and the pancreas is stepped between the same glucose
+ * levels as in the recording: a controller step which analyzed the glucose
+ * level at t is replayed right before the glucose level which the next step
+ * analyzed. So a session of the GUI, where the pancreas is driven by the wall
+ * clock, is replayed as identically as a headless one. Suspensions of the
+ * delivery are applied between the same controller steps and dropouts of the
+ * sensor before the same glucose level as in the recording. The doses of the
+ * replayed controller are not injected but compared with the recorded
+ * decisions, the first divergent decision shows where a changed controller
+ * starts to behave differently.
+ *
+ */
+public class SessionReplay {
+
+	/**
+	 * Replays a recorded session from the command line.<br>
+	 * Usage: SessionReplay &lt;journal directory&gt; [output journal
+	 * directory]
+	 */
+	public static void main(String[] args) throws IOException, SimulationException
+	{
+		if (args.length < 1)
+		{
+			System.out.println("Usage: SessionReplay <journal directory> [output journal directory]");
+			return;
+		}
+		SessionReplay replay = new SessionReplay(Paths.get(args[0]));
+		TelemetryJournal output = null;
+		if (args.length > 1)
+		{
+			output = new TelemetryJournal(Paths.get(args[1]));
+			replay.setOutputJournal(output);
+		}
+		long start = System.nanoTime();
+		replay.run();
+		long wallTimeInMillis = (System.nanoTime() - start) / 1000000;
+		if (output != null)
+		{
+			output.close();
+		}
+
+		System.out.println("Replayed hours:      " + replay.getReplayedMillis() / (60 * 60 * 1000d));
+		System.out.println("Wall time in ms:     " + wallTimeInMillis);
+		System.out.println("Replayed samples:    " + replay.getReplayedSamples());
+		System.out.println("Divergent samples:   " + replay.getDivergentSamples());
+		System.out.println("First divergence ms: " + replay.getFirstDivergenceInMillis());
+		System.out.println("Recorded doses:      " + replay.getRecordedDoses());
+		System.out.println("Divergent decisions: " + replay.getDivergentDecisions());
+		System.out.println("First divergent decision ms: "
+				+ replay.getFirstDivergentDecisionInMillis());
+	}
+
+	/**
+	 * Recorded decisions of the controller steps, see
+	 * {@link PancreasModel#getInjectionDecision()}
+	 */
+	private int[] decisions = new int[1024];
+
+	private long divergentDecisions = 0;
+
+	private long divergentSamples = 0;
+
+	private long firstDivergenceInMillis = -1;
+
+	private long firstDivergentDecisionInMillis = -1;
+
+	private final Path journalDirectory;
+
+	/**
+	 * Index of the next controller step which is replayed
+	 */
+	private int nextStep = 0;
+
+	/**
+	 * Index of the next recorded suspension of the delivery which is replayed
+	 */
+	private int nextSuspension = 0;
+
+	/**
+	 * Number of recorded controller steps
+	 */
+	private int numberOfSteps = 0;
+
+	/**
+	 * Number of recorded suspensions of the delivery
+	 */
+	private int numberOfSuspensions = 0;
+
+	private TelemetryJournal outputJournal;
+
+	/**
+	 * Recorded doses (effect, slots and 1 for an overriding dose) which have
+	 * not started yet
+	 */
+	private final ArrayDeque<double[]> pendingDoses = new ArrayDeque<>();
+
+	/**
+	 * Recorded meals (kcal, increase and duration) which have not started yet
+	 */
+	private final ArrayDeque<double[]> pendingMeals = new ArrayDeque<>();
+
+	/**
+	 * Recorded dropouts of the sensor (time of the first lost glucose level
+	 * and end) which have not started yet
+	 */
+	private final ArrayDeque<long[]> pendingSensorDropouts = new ArrayDeque<>();
+
+	private long recordedDoses = 0;
+
+	private long replayedSamples = 0;
+
+	private HeadlessSimulation simulation;
+
+	/**
+	 * Simulated times of the glucose levels which the recorded controller
+	 * steps analyzed
+	 */
+	private long[] stepTimesInMillis = new long[1024];
+
+	/**
+	 * Ends of the recorded suspensions of the delivery
+	 */
+	private long[] suspensionEndsInMillis = new long[16];
+
+	/**
+	 * Index of the controller step before which each recorded suspension of
+	 * the delivery was started
+	 */
+	private int[] suspensionSteps = new int[16];
+
+	/**
+	 * @param journalDirectory
+	 *            Directory of the recorded journal
+	 */
+	public SessionReplay(Path journalDirectory) {
+		this.journalDirectory = journalDirectory;
+	}
+
+	/**
+	 * @return Number of controller steps which analyzed another glucose level
+	 *         or decided differently than recorded
+	 */
+	public long getDivergentDecisions()
+	{
+		return divergentDecisions;
+	}
+
+	public long getDivergentSamples()
+	{
+		return divergentSamples;
+	}
+
+	/**
+	 * @return Simulated time of the first sample which differs from the
+	 *         recording or -1 if the replay is identical
+	 */
+	public long getFirstDivergenceInMillis()
+	{
+		return firstDivergenceInMillis;
+	}
+
+	/**
+	 * @return Simulated time of the glucose level of the first controller step
+	 *         which differs from the recording or -1 if all are identical
+	 */
+	public long getFirstDivergentDecisionInMillis()
+	{
+		return firstDivergentDecisionInMillis;
+	}
+
+	public long getRecordedDoses()
+	{
+		return recordedDoses;
+	}
+
+	/**
+	 * @return Simulated time which was replayed
+	 */
+	public long getReplayedMillis()
+	{
+		return simulation == null ? 0 : simulation.getClock().getTimeInMillis();
+	}
+
+	public long getReplayedSamples()
+	{
+		return replayedSamples;
+	}
+
+	/**
+	 * @return Simulation of the replay or null if it has not started yet
+	 */
+	public HeadlessSimulation getSimulation()
+	{
+		return simulation;
+	}
+
+	/**
+	 * Records the replay into another journal, e.g. to compare two versions
+	 * of the controller record by record
+	 *
+	 * @param outputJournal
+	 *            Journal of the replay
+	 */
+	public void setOutputJournal(TelemetryJournal outputJournal)
+	{
+		this.outputJournal = outputJournal;
+	}
+
+	/**
+	 * Replays the whole recording as fast as possible
+	 *
+	 * @throws IOException
+	 *             If the journal cannot be read
+	 * @throws SimulationException
+	 *             If the journal does not contain the start of a session or
+	 *             the simulation fails
+	 */
+	public void run() throws IOException, SimulationException
+	{
+		readControllerSteps();
+		PatientProfile profile = new PatientProfile();
+		boolean hasSessionStart = false;
+		boolean hasPlantModel = false;
+		try (TelemetryReader reader = new TelemetryReader(journalDirectory))
+		{
+			while (reader.next())
+			{
+				switch (reader.getType())
+				{
+					case SESSION_START:
+						if (simulation != null || reader.getTimestampInMillis() != 0)
+						{
+							throw new SimulationException(
+									"Only a session recorded from its start can be replayed");
+						}
+						profile.setNoiseSeed(TelemetryJournal.getNoiseSeed(reader.getArgument(),
+								reader.getValue()));
+						hasSessionStart = true;
+						break;
+					case PLANT_MODEL:
+						applyPlantModel(profile, reader.getArgument(), reader.getValue(),
+								reader.getSecondValue());
+						hasPlantModel = true;
+						break;
+					case CONTROLLER_SETTINGS:
+						applySettings(profile, reader.getArgument(), reader.getValue(),
+								reader.getSecondValue());
+						break;
+					case MEAL:
+						pendingMeals.add(new double[] { reader.getValue(), reader.getSecondValue(),
+								reader.getArgument() });
+						break;
+					case SENSOR_DROPOUT:
+						pendingSensorDropouts.add(new long[] { reader.getTimestampInMillis(),
+								(long) reader.getValue() });
+						break;
+					case HORMONE_DOSE:
+						recordedDoses++;
+						pendingDoses.add(new double[] { reader.getValue(), reader.getSecondValue(),
+								TelemetryJournal.isOverridingDose(reader.getArgument()) ? 1 : 0 });
+						break;
+					case GLUCOSE_SAMPLE:
+						if (!hasSessionStart)
+						{
+							throw new SimulationException(
+									"The journal does not contain the start of a session");
+						}
+						if (!hasPlantModel)
+						{
+							throw new SimulationException(
+									"The journal does not contain the plant of the patient");
+						}
+						replaySample(profile, reader.getTimestampInMillis(), reader.getValue(),
+								reader.getArgument());
+						break;
+					default:
+						break;
+				}
+			}
+		}
+		if (simulation != null)
+		{
+			replayControllerSteps(simulation.getClock().getTimeInMillis());
+		}
+	}
+
+	private void applyPlantModel(PatientProfile profile, int plantModel, double bodyWeightInKg,
+			double insulinSensitivity) throws SimulationException
+	{
+		PlantModelType type = PlantModelType.ofId(plantModel);
+		if (type == null)
+		{
+			throw new SimulationException("The session was recorded with a custom plant model");
+		}
+		profile.setPlantModel(type);
+		if (type == PlantModelType.BERGMAN)
+		{
+			profile.setBodyWeightInKg(bodyWeightInKg);
+			profile.setInsulinSensitivity(insulinSensitivity);
+		}
+	}
+
+	private void applySettings(PatientProfile profile, int settings, double value,
+			double secondValue) throws SimulationException
+	{
+		if (settings == TelemetryJournal.DOSING_ALGORITHM_SETTINGS)
+		{
+			DosingAlgorithmType type = DosingAlgorithmType.ofId((int) value);
+			if (type == null)
+			{
+				throw new SimulationException(
+						"The session was recorded with a custom dosing algorithm");
+			}
+			profile.setDosingAlgorithm(type);
+		} else if (settings == TelemetryJournal.BALANCING_RANGE_SETTINGS)
+		{
+			profile.setBalancingRangeMaximum(value);
+			profile.setBalancingRangeMinimum(secondValue);
+		} else if (settings == TelemetryJournal.READJUSTMENT_BOUNDARY_SETTINGS)
+		{
+			profile.setReadjustmentNegativeInjectionBoundary(value);
+			profile.setReadjustmentPositiveInjectionBoundary(secondValue);
+		}
+		if (simulation != null && new ControllerSettings(profile).isValid())
+		{
+			// the settings of a pair are only valid together with the other
+			// pair, which follows in the next record
+			simulation.getPancreasModel().configure(profile);
+		}
+	}
+
+	/**
+	 * Reads the glucose levels which the controller steps analyzed, their
+	 * decisions and the suspensions of the delivery between them ahead, since
+	 * a step is replayed before the record of the next one is reached
+	 */
+	private void readControllerSteps() throws IOException
+	{
+		try (TelemetryReader reader = new TelemetryReader(journalDirectory))
+		{
+			while (reader.next())
+			{
+				if (reader.getType() == TelemetryRecordType.DELIVERY_SUSPENSION)
+				{
+					if (numberOfSuspensions == suspensionSteps.length)
+					{
+						suspensionSteps = Arrays.copyOf(suspensionSteps, numberOfSuspensions * 2);
+						suspensionEndsInMillis = Arrays.copyOf(suspensionEndsInMillis,
+								numberOfSuspensions * 2);
+					}
+					suspensionSteps[numberOfSuspensions] = numberOfSteps;
+					suspensionEndsInMillis[numberOfSuspensions] = (long) reader.getValue();
+					numberOfSuspensions++;
+				} else if (reader.getType() == TelemetryRecordType.CONTROLLER_DECISION)
+				{
+					if (numberOfSteps == stepTimesInMillis.length)
+					{
+						stepTimesInMillis = Arrays.copyOf(stepTimesInMillis, numberOfSteps * 2);
+						decisions = Arrays.copyOf(decisions, numberOfSteps * 2);
+					}
+					stepTimesInMillis[numberOfSteps] = reader.getTimestampInMillis();
+					decisions[numberOfSteps] = reader.getArgument();
+					numberOfSteps++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Steps the pancreas for all recorded controller steps which ran before
+	 * the glucose level of the given time was simulated, i.e. before the
+	 * glucose level which the following step analyzed
+	 */
+	private void replayControllerSteps(long timeInMillis)
+	{
+		PancreasModel pancreasModel = simulation.getPancreasModel();
+		while (nextStep < numberOfSteps)
+		{
+			long stepTimeInMillis = stepTimesInMillis[nextStep];
+			long nextAnalyzedTimeInMillis = nextStep + 1 < numberOfSteps
+					? stepTimesInMillis[nextStep + 1]
+					: stepTimeInMillis + GlucoseLevelModel.SIMULATION_STEPS_IN_MILLIS;
+			if (nextAnalyzedTimeInMillis > timeInMillis)
+			{
+				return;
+			}
+			while (nextSuspension < numberOfSuspensions && suspensionSteps[nextSuspension] <= nextStep)
+			{
+				pancreasModel.suspendDeliveryUntil(suspensionEndsInMillis[nextSuspension++]);
+			}
+			pancreasModel.step();
+			if (pancreasModel.getAnalyzedTimeInMillis() != stepTimeInMillis
+					|| pancreasModel.getInjectionDecision() != decisions[nextStep])
+			{
+				divergentDecisions++;
+				if (firstDivergentDecisionInMillis < 0)
+				{
+					firstDivergentDecisionInMillis = stepTimeInMillis;
+				}
+			}
+			nextStep++;
+		}
+	}
+
+	/**
+	 * Simulates the step which produced the recorded sample and compares the
+	 * result
+	 */
+	private void replaySample(PatientProfile profile, long timestampInMillis,
+			double recordedGlucoseLevel, int startedDoses) throws SimulationException
+	{
+		if (simulation == null)
+		{
+			simulation = new HeadlessSimulation(profile);
+			simulation.getBloodStream().setTelemetryJournal(outputJournal);
+			simulation.getPancreasModel().setDeliveringDoses(false);
+		}
+		if (simulation.getClock().getTimeInMillis() != timestampInMillis)
+		{
+			throw new SimulationException("Recorded sample at " + timestampInMillis
+					+ "ms does not match the simulated time");
+		}
+		replayControllerSteps(timestampInMillis);
+		startRecordedDoses(timestampInMillis, startedDoses);
+		GlucoseLevelModel glucoseLevelModel = simulation.getGlucoseLevelModel();
+		while (!pendingSensorDropouts.isEmpty() && pendingSensorDropouts.peek()[0] <= timestampInMillis)
+		{
+			glucoseLevelModel.startSensorDropout(pendingSensorDropouts.poll()[1]
+					- glucoseLevelModel.getSimulatedTimeInMillis());
+		}
+		simulation.step(false);
+		replayedSamples++;
+		if (Double.doubleToLongBits(simulation.getLastGlucoseLevel()) != Double.doubleToLongBits(recordedGlucoseLevel))
+		{
+			divergentSamples++;
+			if (firstDivergenceInMillis < 0)
+			{
+				firstDivergenceInMillis = timestampInMillis;
+			}
+		}
+	}
+
+	/**
+	 * Starts the recorded meals and doses which started in the step of the
+	 * sample
+	 */
+	private void startRecordedDoses(long timestampInMillis, int startedDoses)
+			throws SimulationException
+	{
+		for (int i = 0; i < TelemetryJournal.getStartedIntakes(startedDoses); i++)
+		{
+			double[] meal = pendingMeals.poll();
+			if (meal == null)
+			{
+				throw new SimulationException("The meal which started at " + timestampInMillis
+						+ "ms is not recorded");
+			}
+			simulation.getGlucoseLevelModel().replayIntake(meal[0], meal[1], (int) meal[2]);
+		}
+		for (int i = 0; i < TelemetryJournal.getStartedHormoneDoses(startedDoses); i++)
+		{
+			double[] dose = pendingDoses.poll();
+			if (dose == null)
+			{
+				throw new SimulationException("The dose which started at " + timestampInMillis
+						+ "ms is not recorded");
+			}
+			if (dose[2] != 0)
+			{
+				simulation.getBloodStream().injectOverridingHormone(
+						PancreasModel.getBalancingCurve(dose[1]), dose[0]);
+			} else
+			{
+				simulation.getBloodStream().injectHormone(PancreasModel.getBalancingCurve(dose[1]),
+						dose[0]);
+			}
+		}
+	}
+
+}
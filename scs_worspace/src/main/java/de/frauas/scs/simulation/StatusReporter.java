@@ -0,0 +1,19 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Receives the messages a simulation wants to show to the user. The GUI
+ * implementation prints them into the message box, a headless run can simply
+ * record or ignore them.
+ *
+ */
+public interface StatusReporter {
+
+	void clearErrorMessage();
+
+	void printConversionErrorMessage();
+
+	void printError(String text);
+
+	void printExceptionMessage();
+
+}
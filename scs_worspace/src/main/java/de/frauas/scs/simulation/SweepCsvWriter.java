@@ -0,0 +1,93 @@
+package de.frauas.scs.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Writes the results of a {@link ParameterSweep} into a CSV file, one line
+ * per combination. Each line is flushed right away, so the file can be
+ * inspected while the sweep is still running.
+ *
+ */
+public class SweepCsvWriter implements SweepResultListener, Closeable {
+
+	private final static String HEADER = "combination,scenario,dosingAlgorithm,balancingRangeMinimum,balancingRangeMaximum,"
+			+ "readjustmentPositiveInjectionBoundary,readjustmentNegativeInjectionBoundary,"
+			+ "timeInRange,minutesBelowRange,minutesAboveRange,injectedInsulin,"
+			+ "minGlucoseLevel,maxGlucoseLevel,errors";
+
+	private IOException failure;
+
+	private final Writer writer;
+
+	/**
+	 * @param writer
+	 *            Destination of the CSV lines. It is closed with this writer.
+	 * @throws IOException
+	 *             If the header cannot be written
+	 */
+	public SweepCsvWriter(Writer writer) throws IOException {
+		this.writer = writer;
+		writer.write(HEADER);
+		writer.write(System.lineSeparator());
+		writer.flush();
+	}
+
+	/**
+	 * @throws IOException
+	 *             If a line could not be written or the writer cannot be
+	 *             closed
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		writer.close();
+		if (failure != null)
+		{
+			throw failure;
+		}
+	}
+
+	@Override
+	public synchronized void resultAvailable(SweepResult result)
+	{
+		if (failure != null)
+		{
+			return;
+		}
+		PatientResult patientResult = result.getResult();
+		try
+		{
+			writer.write(String.format(Locale.ROOT,
+					"%d,%s,%s,%s,%s,%s,%s,%.4f,%.1f,%.1f,%.3f,%.3f,%.3f,%d%n",
+					result.getCombinationIndex(), escape(result.getScenario()),
+					result.getDosingAlgorithm(),
+					result.getBalancingRangeMinimum(), result.getBalancingRangeMaximum(),
+					result.getReadjustmentPositiveInjectionBoundary(),
+					result.getReadjustmentNegativeInjectionBoundary(),
+					patientResult.getTimeInRange(), patientResult.getMinutesBelowRange(),
+					patientResult.getMinutesAboveRange(), patientResult.getInjectedInsulin(),
+					patientResult.getMinGlucoseLevel(), patientResult.getMaxGlucoseLevel(),
+					patientResult.getErrorCount()));
+			writer.flush();
+		} catch (IOException e)
+		{
+			failure = e;
+		}
+	}
+
+	/**
+	 * Quotes a text if it contains characters with a special meaning in CSV
+	 */
+	private static String escape(String text)
+	{
+		if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0)
+		{
+			return text;
+		}
+		return '"' + text.replace("\"", "\"\"") + '"';
+	}
+
+}
@@ -0,0 +1,84 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Result of one combination of controller parameters, dosing algorithm and
+ * meal scenario of a {@link ParameterSweep}.
+ *
+ */
+public class SweepResult {
+
+	private final double balancingRangeMaximum;
+
+	private final double balancingRangeMinimum;
+
+	private final int combinationIndex;
+
+	private final DosingAlgorithmType dosingAlgorithm;
+
+	private final double readjustmentNegativeInjectionBoundary;
+
+	private final double readjustmentPositiveInjectionBoundary;
+
+	private final PatientResult result;
+
+	private final String scenario;
+
+	public SweepResult(int combinationIndex, String scenario, PatientProfile profile,
+			PatientResult result) {
+		this.combinationIndex = combinationIndex;
+		this.scenario = scenario;
+		this.balancingRangeMaximum = profile.getBalancingRangeMaximum();
+		this.balancingRangeMinimum = profile.getBalancingRangeMinimum();
+		this.dosingAlgorithm = profile.getDosingAlgorithm();
+		this.readjustmentNegativeInjectionBoundary = profile.getReadjustmentNegativeInjectionBoundary();
+		this.readjustmentPositiveInjectionBoundary = profile.getReadjustmentPositiveInjectionBoundary();
+		this.result = result;
+	}
+
+	public double getBalancingRangeMaximum()
+	{
+		return balancingRangeMaximum;
+	}
+
+	public double getBalancingRangeMinimum()
+	{
+		return balancingRangeMinimum;
+	}
+
+	/**
+	 * @return Index of the combination in the order of the sweep
+	 */
+	public int getCombinationIndex()
+	{
+		return combinationIndex;
+	}
+
+	public DosingAlgorithmType getDosingAlgorithm()
+	{
+		return dosingAlgorithm;
+	}
+
+	public double getReadjustmentNegativeInjectionBoundary()
+	{
+		return readjustmentNegativeInjectionBoundary;
+	}
+
+	public double getReadjustmentPositiveInjectionBoundary()
+	{
+		return readjustmentPositiveInjectionBoundary;
+	}
+
+	public PatientResult getResult()
+	{
+		return result;
+	}
+
+	/**
+	 * @return Name of the meal scenario
+	 */
+	public String getScenario()
+	{
+		return scenario;
+	}
+
+}
@@ -0,0 +1,13 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Receives the results of a {@link ParameterSweep} as soon as each
+ * combination is simulated. The results arrive in the order of completion
+ * and from several threads, an implementation must be thread safe.
+ *
+ */
+public interface SweepResultListener {
+
+	void resultAvailable(SweepResult result);
+
+}
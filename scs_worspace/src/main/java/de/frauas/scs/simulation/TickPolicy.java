@@ -0,0 +1,22 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Specifies what the {@link TickScheduler} does if a tick could not be
+ * executed in time (e.g. because a previous tick took too long).
+ *
+ */
+public enum TickPolicy {
+
+	/**
+	 * Missed ticks are executed back to back until the schedule is reached
+	 * again. No tick is lost.
+	 */
+	CATCH_UP,
+
+	/**
+	 * Missed ticks are dropped and the next tick is executed at the next
+	 * regular point in time.
+	 */
+	SKIP
+
+}
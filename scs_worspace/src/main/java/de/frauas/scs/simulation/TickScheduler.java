@@ -0,0 +1,183 @@
+package de.frauas.scs.simulation;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TickScheduler is a singleton which executes the periodic tasks of all
+ * simulators on one single thread. The ticks are planned at a fixed rate,
+ * i.e. the time needed to process a tick does not delay the following ones.
+ * The delay of each tick compared to its planned time is measured in the
+ * {@link ScheduledTick}.<br>
+ * Alternatively a task can be scheduled on its own virtual thread, see
+ * {@link ExecutionMode#VIRTUAL_THREADS}.
+ *
+ */
+public class TickScheduler {
+
+	private static TickScheduler instance;
+
+	/**
+	 * Gets the singleton object
+	 *
+	 * @return The singleton TickScheduler object
+	 */
+	public static synchronized TickScheduler getInstance()
+	{
+		if (TickScheduler.instance == null)
+		{
+			TickScheduler.instance = new TickScheduler();
+		}
+		return TickScheduler.instance;
+	}
+
+	private final CopyOnWriteArrayList<ScheduledTick> scheduledTicks = new CopyOnWriteArrayList<>();
+
+	private Thread schedulerThread;
+
+	private final AtomicLong virtualThreadCounter = new AtomicLong();
+
+	private TickScheduler() {
+		super();
+	}
+
+	/**
+	 * Executes the task periodically, starting immediately.
+	 *
+	 * @param task
+	 *            Task to execute in each tick
+	 * @param periodInMillis
+	 *            Time between two ticks
+	 * @param policy
+	 *            Behavior if ticks are missed
+	 * @return Handle to cancel the task and to read the jitter
+	 */
+	public ScheduledTick scheduleAtFixedRate(Runnable task, long periodInMillis,
+			TickPolicy policy)
+	{
+		ScheduledTick tick = new ScheduledTick(task,
+				TimeUnit.MILLISECONDS.toNanos(periodInMillis), policy,
+				System.nanoTime());
+		scheduledTicks.add(tick);
+		startIfNecessary();
+		LockSupport.unpark(schedulerThread);
+		return tick;
+	}
+
+	/**
+	 * Executes the task periodically on the thread(s) specified by the
+	 * execution mode, starting immediately.
+	 *
+	 * @param task
+	 *            Task to execute in each tick
+	 * @param periodInMillis
+	 *            Time between two ticks
+	 * @param policy
+	 *            Behavior if ticks are missed
+	 * @param mode
+	 *            Thread(s) executing the ticks
+	 * @return Handle to cancel the task and to read the jitter
+	 */
+	public ScheduledTick schedule(Runnable task, long periodInMillis,
+			TickPolicy policy, ExecutionMode mode)
+	{
+		if (mode == ExecutionMode.VIRTUAL_THREADS)
+		{
+			return scheduleOnVirtualThread(task, periodInMillis, policy);
+		}
+		return scheduleAtFixedRate(task, periodInMillis, policy);
+	}
+
+	/**
+	 * Executes the task periodically on an own virtual thread, starting
+	 * immediately. The virtual thread is unmounted from its carrier thread
+	 * while it is waiting for the next tick.
+	 *
+	 * @param task
+	 *            Task to execute in each tick
+	 * @param periodInMillis
+	 *            Time between two ticks
+	 * @param policy
+	 *            Behavior if ticks are missed
+	 * @return Handle to cancel the task and to read the jitter
+	 */
+	public ScheduledTick scheduleOnVirtualThread(Runnable task,
+			long periodInMillis, TickPolicy policy)
+	{
+		final ScheduledTick tick = new ScheduledTick(task,
+				TimeUnit.MILLISECONDS.toNanos(periodInMillis), policy,
+				System.nanoTime());
+		Thread.ofVirtual().name("tick-", virtualThreadCounter.incrementAndGet()).start(new Runnable() {
+			@Override
+			public void run()
+			{
+				while (!tick.isCancelled())
+				{
+					long waitingTime = tick.getNextDeadlineInNanos() - System.nanoTime();
+					if (waitingTime > 0)
+					{
+						LockSupport.parkNanos(waitingTime);
+					} else
+					{
+						tick.execute(System.nanoTime());
+					}
+				}
+			}
+		});
+		return tick;
+	}
+
+	private synchronized void startIfNecessary()
+	{
+		if (schedulerThread == null)
+		{
+			schedulerThread = new Thread(new Runnable() {
+				@Override
+				public void run()
+				{
+					runTicks();
+				}
+			}, "tick-scheduler");
+			schedulerThread.setDaemon(true);
+			schedulerThread.start();
+		}
+	}
+
+	private void runTicks()
+	{
+		while (true)
+		{
+			long nextDeadline = Long.MAX_VALUE;
+			for (ScheduledTick tick : scheduledTicks)
+			{
+				if (tick.isCancelled())
+				{
+					scheduledTicks.remove(tick);
+					continue;
+				}
+				long now = System.nanoTime();
+				if (tick.getNextDeadlineInNanos() - now <= 0)
+				{
+					tick.execute(now);
+				}
+				nextDeadline = Math.min(nextDeadline, tick.getNextDeadlineInNanos());
+			}
+
+			if (nextDeadline == Long.MAX_VALUE)
+			{
+				// nothing to do until a new task is scheduled
+				LockSupport.park(this);
+			} else
+			{
+				long waitingTime = nextDeadline - System.nanoTime();
+				if (waitingTime > 0)
+				{
+					LockSupport.parkNanos(this, waitingTime);
+				}
+			}
+		}
+	}
+
+}
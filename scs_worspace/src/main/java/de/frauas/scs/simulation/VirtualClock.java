@@ -0,0 +1,32 @@
+package de.frauas.scs.simulation;
+
+/**
+ * Simulated time which only advances when it is told to. Used by
+ * {@link HeadlessSimulation} to run the simulation as fast as the CPU allows
+ * instead of waiting for the wall clock.
+ *
+ */
+public class VirtualClock {
+
+	private long currentTimeInMillis = 0;
+
+	/**
+	 * Moves the clock forward
+	 *
+	 * @param millis
+	 *            Amount of simulated milliseconds to advance
+	 */
+	public void advance(long millis)
+	{
+		currentTimeInMillis += millis;
+	}
+
+	/**
+	 * @return Simulated milliseconds since the clock was created
+	 */
+	public long getTimeInMillis()
+	{
+		return currentTimeInMillis;
+	}
+
+}
@@ -0,0 +1,595 @@
+package de.frauas.scs.telemetry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only binary journal of everything a simulation produces: glucose
+ * samples, hormone doses, meals and decisions of the controller.
+ * <p>
+ * The journal is written into preallocated, memory-mapped segment files with
+ * records of {@link #RECORD_SIZE} bytes. Writing a record is nothing more than
+ * a few stores into memory, so the simulation threads never block on I/O.
+ * A background thread creates the next segments ahead of time, touches their
+ * pages and forces the written pages to disk every sync interval.
+ * <p>
+ * Writers announce themselves in a counter before they look at the segments,
+ * so a segment is only unmapped when no writer can still store into it:
+ * {@link #close()} waits for the writers which passed the check for a closed
+ * journal, and a segment which is replaced by a new one is unmapped as soon as
+ * no writer is active.
+ * <p>
+ * Any number of threads may write records. If a writer reaches a segment
+ * which is not prepared yet, the record is dropped and counted instead of
+ * waiting for the file system. Records are ordered by the order in which
+ * their slot was claimed, see {@link TelemetryReader} for reading.
+ * <p>
+ * Layout of a segment: the first {@link #RECORD_SIZE} bytes are the header
+ * (magic, version, record size, records per segment, segment number), all
+ * following slots are records (little endian):
+ *
+ * <pre>
+ * 0  long   timestamp in simulated milliseconds
+ * 8  int    type id, see TelemetryRecordType (0 = not written)
+ * 12 int    argument
+ * 16 double value
+ * 24 double second value
+ * </pre>
+ *
+ */
+public class TelemetryJournal implements Closeable {
+
+	/**
+	 * Argument of a {@link TelemetryRecordType#CONTROLLER_SETTINGS} record
+	 * with the range in which the controller does not balance
+	 */
+	public final static int BALANCING_RANGE_SETTINGS = 0;
+
+	public final static int DEFAULT_RECORDS_PER_SEGMENT = 1 << 20;
+
+	public final static long DEFAULT_SYNC_INTERVAL_IN_MILLIS = 1000;
+
+	/**
+	 * Argument of a {@link TelemetryRecordType#CONTROLLER_SETTINGS} record
+	 * with the id of the dosing algorithm (0 for a custom algorithm)
+	 */
+	public final static int DOSING_ALGORITHM_SETTINGS = 2;
+
+	/**
+	 * Argument of a {@link TelemetryRecordType#CONTROLLER_SETTINGS} record
+	 * with the boundaries of the readjustment injections
+	 */
+	public final static int READJUSTMENT_BOUNDARY_SETTINGS = 1;
+
+	public final static int RECORD_SIZE = 32;
+
+	/**
+	 * Set in the argument of a {@link TelemetryRecordType#HORMONE_DOSE}
+	 * record if the dose replaces the effect of the previous doses
+	 */
+	private final static int OVERRIDING_DOSE = 1 << 30;
+
+	final static int MAGIC = 0x54534353;
+
+	final static String SEGMENT_FILE_PREFIX = "segment-";
+
+	final static String SEGMENT_FILE_SUFFIX = ".journal";
+
+	final static int VERSION = 4;
+
+	private final static int PAGE_SIZE = 4096;
+
+	/**
+	 * Number of segments which are prepared in advance of the segment which
+	 * is currently written
+	 */
+	private final static int SEGMENTS_AHEAD = 2;
+
+	/**
+	 * Slots for the previous, the current and the prepared segments
+	 */
+	private final static int SEGMENT_SLOTS = 4;
+
+	private final static VarHandle TYPE_ID = MethodHandles.byteBufferViewVarHandle(
+			int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Unmaps a buffer at once instead of leaving it to the garbage collector,
+	 * null if the JDK does not offer it
+	 */
+	private final static MethodHandle UNMAP = findUnmap();
+
+	private static class Segment {
+
+		private final MappedByteBuffer buffer;
+
+		private final FileChannel channel;
+
+		private final long number;
+
+		private Segment(long number, FileChannel channel, MappedByteBuffer buffer) {
+			this.number = number;
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Number of writers which are in {@link #record}
+	 */
+	private final AtomicInteger activeWriters = new AtomicInteger();
+
+	private volatile boolean closed = false;
+
+	private final Path directory;
+
+	private final LongAdder droppedRecords = new LongAdder();
+
+	/**
+	 * Sequence of the next record. The record with the sequence n is stored
+	 * in the segment n / recordsInSegment.
+	 */
+	private final AtomicLong nextSequence = new AtomicLong();
+
+	/**
+	 * Number of record slots per segment without the header
+	 */
+	private final int recordsInSegment;
+
+	/**
+	 * Segments which were replaced while writers were active, only used by
+	 * the sync thread and by {@link #close()} after it has ended
+	 */
+	private final ArrayDeque<Segment> retiredSegments = new ArrayDeque<>();
+
+	private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(SEGMENT_SLOTS);
+
+	private final long syncIntervalInNanos;
+
+	private final Thread syncThread;
+
+	/**
+	 * Opens a new journal with the default segment size and sync interval.
+	 *
+	 * @param directory
+	 *            Directory of the segment files. It is created if necessary
+	 *            and must not contain a journal yet.
+	 * @throws IOException
+	 *             If the first segments cannot be created
+	 */
+	public TelemetryJournal(Path directory) throws IOException {
+		this(directory, DEFAULT_RECORDS_PER_SEGMENT, DEFAULT_SYNC_INTERVAL_IN_MILLIS);
+	}
+
+	/**
+	 * @param directory
+	 *            Directory of the segment files. It is created if necessary
+	 *            and must not contain a journal yet.
+	 * @param recordsPerSegment
+	 *            Number of records (including the header) per segment file
+	 * @param syncIntervalInMillis
+	 *            Interval in which written records are forced to disk
+	 * @throws IOException
+	 *             If the first segments cannot be created
+	 */
+	public TelemetryJournal(Path directory, int recordsPerSegment, long syncIntervalInMillis)
+			throws IOException {
+		if (recordsPerSegment < 2)
+		{
+			throw new IllegalArgumentException("A segment needs at least one record");
+		}
+		this.directory = directory;
+		this.recordsInSegment = recordsPerSegment - 1;
+		this.syncIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalInMillis);
+		Files.createDirectories(directory);
+		for (long number = 0; number <= SEGMENTS_AHEAD; number++)
+		{
+			segments.set(slotOf(number), createSegment(number));
+		}
+		syncThread = new Thread(new Runnable() {
+			@Override
+			public void run()
+			{
+				runSyncLoop();
+			}
+		}, "telemetry-journal");
+		syncThread.setDaemon(true);
+		syncThread.start();
+	}
+
+	/**
+	 * Forces all written records to disk, closes the segment files and
+	 * unmaps them. Records written afterwards are dropped.
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (closed)
+		{
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(syncThread);
+		try
+		{
+			syncThread.join();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		// writers which did not see the journal closed finish their record
+		while (activeWriters.get() != 0)
+		{
+			Thread.onSpinWait();
+		}
+		for (int i = 0; i < SEGMENT_SLOTS; i++)
+		{
+			Segment segment = segments.getAndSet(i, null);
+			if (segment != null)
+			{
+				release(segment);
+			}
+		}
+		Segment segment;
+		while ((segment = retiredSegments.poll()) != null)
+		{
+			unmap(segment.buffer);
+		}
+	}
+
+	public Path getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * @return Number of records which were dropped because their segment was
+	 *         not prepared in time or the journal was closed
+	 */
+	public long getDroppedRecords()
+	{
+		return droppedRecords.sum();
+	}
+
+	/**
+	 * @return Number of records which were written
+	 */
+	public long getWrittenRecords()
+	{
+		return nextSequence.get() - droppedRecords.sum();
+	}
+
+	/**
+	 * Appends a record. Never blocks and never allocates.
+	 *
+	 * @param type
+	 *            Type of the record
+	 * @param timestampInMillis
+	 *            Simulated time of the record
+	 * @param argument
+	 *            Integer field, see {@link TelemetryRecordType}
+	 * @param value
+	 *            First value, see {@link TelemetryRecordType}
+	 * @param secondValue
+	 *            Second value, see {@link TelemetryRecordType}
+	 * @return false if the record was dropped
+	 */
+	public boolean record(TelemetryRecordType type, long timestampInMillis, int argument,
+			double value, double secondValue)
+	{
+		activeWriters.getAndIncrement();
+		try
+		{
+			if (closed)
+			{
+				droppedRecords.increment();
+				return false;
+			}
+			long sequence = nextSequence.getAndIncrement();
+			long segmentNumber = sequence / recordsInSegment;
+			Segment segment = segments.get(slotOf(segmentNumber));
+			if (segment == null || segment.number != segmentNumber)
+			{
+				droppedRecords.increment();
+				LockSupport.unpark(syncThread);
+				return false;
+			}
+			int slot = (int) (sequence % recordsInSegment);
+			int offset = (slot + 1) * RECORD_SIZE;
+			MappedByteBuffer buffer = segment.buffer;
+			buffer.putLong(offset, timestampInMillis);
+			buffer.putInt(offset + 12, argument);
+			buffer.putDouble(offset + 16, value);
+			buffer.putDouble(offset + 24, secondValue);
+			// a reader must not see the type before the other fields
+			TYPE_ID.setRelease(buffer, offset + 8, type.getId());
+			if (slot == recordsInSegment / 2)
+			{
+				// prepare the next segments early
+				LockSupport.unpark(syncThread);
+			}
+			return true;
+		} finally
+		{
+			activeWriters.getAndDecrement();
+		}
+	}
+
+	public void recordControllerDecision(long timestampInMillis, int decision,
+			double glucoseLevel, double injectedHormones)
+	{
+		record(TelemetryRecordType.CONTROLLER_DECISION, timestampInMillis, decision,
+				glucoseLevel, injectedHormones);
+	}
+
+	public void recordControllerSettings(long timestampInMillis, int settings,
+			double value, double secondValue)
+	{
+		record(TelemetryRecordType.CONTROLLER_SETTINGS, timestampInMillis, settings, value,
+				secondValue);
+	}
+
+	/**
+	 * Records a glucose level together with the number of hormone doses and
+	 * intakes which started to take effect in its step, so a replay can start
+	 * the recorded doses in the same step as the recording
+	 */
+	public void recordDeliverySuspension(long timestampInMillis, long suspendedUntilInMillis)
+	{
+		record(TelemetryRecordType.DELIVERY_SUSPENSION, timestampInMillis, 0,
+				suspendedUntilInMillis, 0);
+	}
+
+	public void recordGlucoseSample(long timestampInMillis, double glucoseLevel,
+			int startedHormoneDoses, int startedIntakes)
+	{
+		record(TelemetryRecordType.GLUCOSE_SAMPLE, timestampInMillis,
+				(startedIntakes << 16) | (startedHormoneDoses & 0xFFFF), glucoseLevel, 0);
+	}
+
+	public void recordHormoneDose(long timestampInMillis, double effect_mmol_L,
+			double slots, int durationInTicks, boolean isOverriding)
+	{
+		record(TelemetryRecordType.HORMONE_DOSE, timestampInMillis,
+				isOverriding ? durationInTicks | OVERRIDING_DOSE : durationInTicks, effect_mmol_L,
+				slots);
+	}
+
+	public void recordMeal(long timestampInMillis, double kcal, double increase_mmol_L,
+			int durationInTicks)
+	{
+		record(TelemetryRecordType.MEAL, timestampInMillis, durationInTicks, kcal,
+				increase_mmol_L);
+	}
+
+	public void recordPlantModel(long timestampInMillis, int plantModel, double bodyWeightInKg,
+			double insulinSensitivity)
+	{
+		record(TelemetryRecordType.PLANT_MODEL, timestampInMillis, plantModel, bodyWeightInKg,
+				insulinSensitivity);
+	}
+
+	public void recordSensorDropout(long timestampInMillis, long dropoutEndInMillis)
+	{
+		record(TelemetryRecordType.SENSOR_DROPOUT, timestampInMillis, 0, dropoutEndInMillis, 0);
+	}
+
+	/**
+	 * Records the start of a session. The seed is split into its low and high
+	 * 32 bits, so it is stored exactly.
+	 */
+	public void recordSessionStart(long timestampInMillis, long noiseSeed)
+	{
+		record(TelemetryRecordType.SESSION_START, timestampInMillis, (int) noiseSeed,
+				noiseSeed >> 32, 0);
+	}
+
+	/**
+	 * @return Duration of the absorption of a
+	 *         {@link TelemetryRecordType#HORMONE_DOSE} in ticks
+	 */
+	public static int getDoseDurationInTicks(int argument)
+	{
+		return argument & ~OVERRIDING_DOSE;
+	}
+
+	/**
+	 * @return Number of hormone doses which started with a
+	 *         {@link TelemetryRecordType#GLUCOSE_SAMPLE}
+	 */
+	public static int getStartedHormoneDoses(int argument)
+	{
+		return argument & 0xFFFF;
+	}
+
+	/**
+	 * @return Number of intakes which started with a
+	 *         {@link TelemetryRecordType#GLUCOSE_SAMPLE}
+	 */
+	public static int getStartedIntakes(int argument)
+	{
+		return argument >>> 16;
+	}
+
+	/**
+	 * @return true if the {@link TelemetryRecordType#HORMONE_DOSE} replaces
+	 *         the effect of the previous doses instead of being added to it
+	 */
+	public static boolean isOverridingDose(int argument)
+	{
+		return (argument & OVERRIDING_DOSE) != 0;
+	}
+
+	/**
+	 * Restores the seed of a {@link TelemetryRecordType#SESSION_START} record
+	 */
+	public static long getNoiseSeed(int argument, double value)
+	{
+		return ((long) value << 32) | (argument & 0xFFFFFFFFL);
+	}
+
+	static Path getSegmentFile(Path directory, long number)
+	{
+		return directory.resolve(String.format("%s%06d%s", SEGMENT_FILE_PREFIX, number,
+				SEGMENT_FILE_SUFFIX));
+	}
+
+	private static int slotOf(long segmentNumber)
+	{
+		return (int) (segmentNumber % SEGMENT_SLOTS);
+	}
+
+	/**
+	 * Releases the mapping of the buffer. It must not be accessed afterwards.
+	 */
+	static void unmap(MappedByteBuffer buffer)
+	{
+		if (UNMAP == null)
+		{
+			return;
+		}
+		try
+		{
+			UNMAP.invokeExact((ByteBuffer) buffer);
+		} catch (Throwable e)
+		{
+			// the garbage collector unmaps the buffer
+		}
+	}
+
+	private static MethodHandle findUnmap()
+	{
+		try
+		{
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field unsafe = unsafeClass.getDeclaredField("theUnsafe");
+			unsafe.setAccessible(true);
+			return MethodHandles.lookup()
+					.findVirtual(unsafeClass, "invokeCleaner",
+							MethodType.methodType(void.class, ByteBuffer.class))
+					.bindTo(unsafe.get(null));
+		} catch (ReflectiveOperationException | RuntimeException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Creates and maps a segment file. All pages are touched, so writing a
+	 * record later does not fault in a new page.
+	 */
+	private Segment createSegment(long number) throws IOException
+	{
+		FileChannel channel = FileChannel.open(getSegmentFile(directory, number),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try
+		{
+			int size = (recordsInSegment + 1) * RECORD_SIZE;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < size; i += PAGE_SIZE)
+			{
+				buffer.put(i, (byte) 0);
+			}
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(8, RECORD_SIZE);
+			buffer.putInt(12, recordsInSegment + 1);
+			buffer.putLong(16, number);
+			return new Segment(number, channel, buffer);
+		} catch (IOException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void runSyncLoop()
+	{
+		while (!closed)
+		{
+			LockSupport.parkNanos(syncIntervalInNanos);
+			long current = nextSequence.get() / recordsInSegment;
+			try
+			{
+				for (long number = current; number <= current + SEGMENTS_AHEAD; number++)
+				{
+					prepareSegment(number);
+				}
+			} catch (IOException e)
+			{
+				// records of missing segments are counted as dropped
+				System.err.println("Telemetry segment could not be created: " + e);
+			}
+			for (long number = Math.max(0, current - 1); number <= current; number++)
+			{
+				Segment segment = segments.get(slotOf(number));
+				if (segment != null && segment.number == number)
+				{
+					segment.buffer.force();
+				}
+			}
+			// a writer which arrives now only finds the new segments
+			if (!retiredSegments.isEmpty() && activeWriters.get() == 0)
+			{
+				Segment segment;
+				while ((segment = retiredSegments.poll()) != null)
+				{
+					unmap(segment.buffer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates the segment unless it exists already. The segment which used
+	 * the slot before is forced to disk and closed, it is unmapped as soon as
+	 * no writer is active.
+	 */
+	private void prepareSegment(long number) throws IOException
+	{
+		Segment previous = segments.get(slotOf(number));
+		if (previous != null && previous.number >= number)
+		{
+			return;
+		}
+		segments.set(slotOf(number), createSegment(number));
+		if (previous != null)
+		{
+			previous.buffer.force();
+			previous.channel.close();
+			retiredSegments.add(previous);
+		}
+	}
+
+	/**
+	 * Forces the segment to disk, closes its file and unmaps it
+	 */
+	private void release(Segment segment) throws IOException
+	{
+		segment.buffer.force();
+		segment.channel.close();
+		unmap(segment.buffer);
+	}
+
+}
@@ -0,0 +1,143 @@
+package de.frauas.scs.telemetry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the records of a {@link TelemetryJournal} in the order in which they
+ * were written. Slots which were never written (dropped records and the
+ * unused rest of the last segment) are skipped.
+ *
+ */
+public class TelemetryReader implements Closeable {
+
+	private int argument;
+
+	private MappedByteBuffer buffer;
+
+	private FileChannel channel;
+
+	private final Path directory;
+
+	private long nextSegmentNumber = 0;
+
+	private int offset;
+
+	private double secondValue;
+
+	private long timestampInMillis;
+
+	private TelemetryRecordType type;
+
+	private double value;
+
+	/**
+	 * @param directory
+	 *            Directory of the segment files of the journal
+	 */
+	public TelemetryReader(Path directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (channel != null)
+		{
+			channel.close();
+			TelemetryJournal.unmap(buffer);
+			channel = null;
+			buffer = null;
+		}
+	}
+
+	public int getArgument()
+	{
+		return argument;
+	}
+
+	public double getSecondValue()
+	{
+		return secondValue;
+	}
+
+	public long getTimestampInMillis()
+	{
+		return timestampInMillis;
+	}
+
+	public TelemetryRecordType getType()
+	{
+		return type;
+	}
+
+	public double getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * Moves to the next record, which can then be read with the getters.
+	 *
+	 * @return false if there are no more records
+	 * @throws IOException
+	 *             If a segment cannot be read or is not a segment of a journal
+	 */
+	public boolean next() throws IOException
+	{
+		while (true)
+		{
+			if (buffer == null || offset >= buffer.limit())
+			{
+				if (!openNextSegment())
+				{
+					return false;
+				}
+			}
+			int typeId = buffer.getInt(offset + 8);
+			TelemetryRecordType recordType = TelemetryRecordType.ofId(typeId);
+			if (recordType != null)
+			{
+				type = recordType;
+				timestampInMillis = buffer.getLong(offset);
+				argument = buffer.getInt(offset + 12);
+				value = buffer.getDouble(offset + 16);
+				secondValue = buffer.getDouble(offset + 24);
+				offset += TelemetryJournal.RECORD_SIZE;
+				return true;
+			}
+			offset += TelemetryJournal.RECORD_SIZE;
+		}
+	}
+
+	private boolean openNextSegment() throws IOException
+	{
+		close();
+		Path file = TelemetryJournal.getSegmentFile(directory, nextSegmentNumber);
+		if (!Files.exists(file))
+		{
+			return false;
+		}
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.limit() < TelemetryJournal.RECORD_SIZE
+				|| buffer.getInt(0) != TelemetryJournal.MAGIC
+				|| buffer.getInt(4) != TelemetryJournal.VERSION
+				|| buffer.getInt(8) != TelemetryJournal.RECORD_SIZE)
+		{
+			close();
+			throw new IOException(file + " is not a telemetry segment");
+		}
+		offset = TelemetryJournal.RECORD_SIZE;
+		nextSegmentNumber++;
+		return true;
+	}
+
+}
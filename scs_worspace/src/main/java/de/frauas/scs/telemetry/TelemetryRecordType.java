@@ -0,0 +1,86 @@
+package de.frauas.scs.telemetry;
+
+/**
+ * Types of the records in a {@link TelemetryJournal}. The meaning of the
+ * fields of a record depends on its type:
+ * <ul>
+ * <li>{@link #GLUCOSE_SAMPLE}: value = glucose level in mmol/L, argument =
+ * number of intakes (high 16 bits) and hormone doses (low 16 bits) which
+ * started to take effect in the step of the sample</li>
+ * <li>{@link #MEAL}: value = consumed (positive) or burned (negative) energy
+ * in kcal, second value = resulting increase of the glucose level in
+ * mmol/L, argument = duration of the absorption in ticks of a meal of known
+ * composition or an exercise, 0 if the absorption follows from the
+ * energy</li>
+ * <li>{@link #HORMONE_DOSE}: value = effect of the dose on the glucose level
+ * in mmol/L (negative for insulin, positive for glucagon), second value =
+ * requested number of slots, argument = duration of the absorption in
+ * ticks, combined with a flag for a dose which replaces the effect of the
+ * previous doses (see {@link TelemetryJournal#getDoseDurationInTicks(int)}
+ * and {@link TelemetryJournal#isOverridingDose(int)})</li>
+ * <li>{@link #CONTROLLER_DECISION}: value = analyzed glucose level in mmol/L,
+ * second value = sum of the injected hormones so far, argument = -1 if insulin
+ * was injected, 1 if glucagon was injected, 0 if nothing was done</li>
+ * <li>{@link #CONTROLLER_SETTINGS}: argument = which settings,
+ * {@link TelemetryJournal#BALANCING_RANGE_SETTINGS} (value = maximum, second
+ * value = minimum), {@link TelemetryJournal#READJUSTMENT_BOUNDARY_SETTINGS}
+ * (value = negative, second value = positive injection boundary) or
+ * {@link TelemetryJournal#DOSING_ALGORITHM_SETTINGS} (value = id of the
+ * algorithm)</li>
+ * <li>{@link #SESSION_START}: seed of the natural fluctuation, argument = low
+ * 32 bits, value = high 32 bits</li>
+ * <li>{@link #DELIVERY_SUSPENSION}: timestamp = glucose level of the latest
+ * controller step, value = simulated time of the first glucose level whose
+ * dose is delivered again</li>
+ * <li>{@link #SENSOR_DROPOUT}: timestamp = first glucose level which the
+ * sensor does not deliver, value = simulated time of the first glucose level
+ * which it delivers again</li>
+ * <li>{@link #PLANT_MODEL}: follows the {@link #SESSION_START}, argument = id
+ * of the plant (0 for a custom plant), value = body weight in kg and second
+ * value = insulin sensitivity in 1/min per mU/L of a Bergman plant</li>
+ * </ul>
+ *
+ */
+public enum TelemetryRecordType {
+
+	GLUCOSE_SAMPLE(1), HORMONE_DOSE(2), MEAL(3), CONTROLLER_DECISION(4),
+	CONTROLLER_SETTINGS(5), SESSION_START(6), DELIVERY_SUSPENSION(7), SENSOR_DROPOUT(8),
+	PLANT_MODEL(9);
+
+	/**
+	 * Types indexed by their id, the ids are numbered from 1 without gaps
+	 */
+	private final static TelemetryRecordType[] TYPES_BY_ID = new TelemetryRecordType[values().length + 1];
+
+	static
+	{
+		for (TelemetryRecordType type : values())
+		{
+			TYPES_BY_ID[type.id] = type;
+		}
+	}
+
+	/**
+	 * @return Type with the given id or null if the id is unknown (e.g. 0 for
+	 *         an unwritten record)
+	 */
+	public static TelemetryRecordType ofId(int id)
+	{
+		if (id <= 0 || id >= TYPES_BY_ID.length)
+		{
+			return null;
+		}
+		return TYPES_BY_ID[id];
+	}
+
+	TelemetryRecordType(int id) {
+		this.id = id;
+	}
+
+	private final int id;
+
+	public int getId()
+	{
+		return id;
+	}
+}